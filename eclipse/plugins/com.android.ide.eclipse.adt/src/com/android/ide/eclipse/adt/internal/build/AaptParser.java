@@ -24,7 +24,9 @@ import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.text.FindReplaceDocumentAdapter;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IRegion;
@@ -228,12 +230,32 @@ public final class AaptParser {
      * @param project the project containing the file to mark
      * @return true if the parsing failed, false if success.
      */
-    public static boolean parseOutput(String[] results, IProject project) {
+    public static boolean parseOutput(final String[] results, final IProject project) {
         // nothing to parse? just return false;
         if (results.length == 0) {
             return false;
         }
 
+        // the markers of all the errors are broadcast at once.
+        final boolean[] failed = new boolean[1];
+        try {
+            BaseProjectHelper.runMarkerBatch(new IWorkspaceRunnable() {
+                @Override
+                public void run(IProgressMonitor monitor) {
+                    failed[0] = parseResults(results, project);
+                }
+            }, null);
+        } catch (CoreException e) {
+            AdtPlugin.log(e, "Failed to mark the aapt errors of %1$s", //$NON-NLS-1$
+                    project.getName());
+            return true;
+        }
+
+        return failed[0];
+    }
+
+    private static boolean parseResults(String[] results, IProject project) {
+
         // get the root of the project so that we can make IFile from full
         // file path
         String osRoot = project.getLocation().toOSString();
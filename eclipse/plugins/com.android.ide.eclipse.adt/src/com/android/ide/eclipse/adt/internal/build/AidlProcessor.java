@@ -145,21 +145,9 @@ public class AidlProcessor extends SourceProcessor {
                     new SubProgressMonitor(monitor, 10));
         }
 
-        boolean success = false;
-
-        // loop until we've compile them all
+        // first pass, on the build thread: compute the output of each file and its command line.
+        List<String[]> fileCommands = new ArrayList<String[]>(sources.size());
         for (IFile sourceFile : sources) {
-            if (verbose) {
-                String name = sourceFile.getName();
-                IPath sourceFolderPath = getSourceFolderFor(sourceFile);
-                if (sourceFolderPath != null) {
-                    // make a path to the source file relative to the source folder.
-                    IPath relative = sourceFile.getFullPath().makeRelativeTo(sourceFolderPath);
-                    name = relative.toString();
-                }
-                AdtPlugin.printToConsole(project, "AIDL: " + name);
-            }
-
             // Remove the AIDL error markers from the aidl file
             builder.removeMarkersFromResource(sourceFile, AdtConstants.MARKER_AIDL);
 
@@ -182,11 +170,32 @@ public class AidlProcessor extends SourceProcessor {
             }
 
             // finish to set the command line.
-            commands[index] = quote(osSourcePath);
-            commands[index + 1] = quote(data.getOutput().getLocation().toOSString());
+            String[] fileCommand = commands.clone();
+            fileCommand[index] = quote(osSourcePath);
+            fileCommand[index + 1] = quote(data.getOutput().getLocation().toOSString());
+            fileCommands.add(fileCommand);
+        }
+
+        // second pass: launch the aidl processes, several at a time.
+        List<ToolResult> results = execTool(sources, fileCommands, "AIDL", monitor); //$NON-NLS-1$
+
+        boolean success = false;
+
+        // last pass, on the build thread and in order: report the output and mark the files.
+        for (ToolResult result : results) {
+            IFile sourceFile = result.getSourceFile();
+            if (verbose) {
+                String name = sourceFile.getName();
+                IPath sourceFolderPath = getSourceFolderFor(sourceFile);
+                if (sourceFolderPath != null) {
+                    // make a path to the source file relative to the source folder.
+                    IPath relative = sourceFile.getFullPath().makeRelativeTo(sourceFolderPath);
+                    name = relative.toString();
+                }
+                AdtPlugin.printToConsole(project, "AIDL: " + name);
+            }
 
-            // launch the process
-            if (execAidl(builder, project, commands, sourceFile, verbose) == false) {
+            if (handleAidlResult(project, result, verbose) == false) {
                 // aidl failed. File should be marked. We add the file to the list
                 // of file that will need compilation again.
                 notCompiledOut.add(sourceFile);
@@ -208,6 +217,11 @@ public class AidlProcessor extends SourceProcessor {
             }
         }
 
+        // files that were not processed because the build was canceled must be compiled again.
+        for (int i = results.size(); i < sources.size(); i++) {
+            notCompiledOut.add(sources.get(i));
+        }
+
         if (success) {
             aidlOutFolder.refreshLocal(IResource.DEPTH_INFINITE, monitor);
         }
@@ -232,78 +246,75 @@ public class AidlProcessor extends SourceProcessor {
     }
 
     /**
-     * Execute the aidl command line, parse the output, and mark the aidl file
+     * Parse the output of an aidl process, and mark the aidl file
      * with any reported errors.
-     * @param command the String array containing the command line to execute.
-     * @param file The IFile object representing the aidl file being
-     *      compiled.
+     * @param project the project being built.
+     * @param result the result of the aidl process.
      * @param verbose the build verbosity
      * @return false if the exec failed, and build needs to be aborted.
      */
-    private boolean execAidl(BaseBuilder builder, IProject project, String[] command, IFile file,
-            boolean verbose) {
-        // do the exec
-        try {
-            if (verbose) {
-                StringBuilder sb = new StringBuilder();
-                for (String c : command) {
-                    sb.append(c);
-                    sb.append(' ');
-                }
-                String cmd_line = sb.toString();
-                AdtPlugin.printToConsole(project, cmd_line);
+    private boolean handleAidlResult(IProject project, ToolResult result, boolean verbose) {
+        String[] command = result.getCommand();
+        IFile file = result.getSourceFile();
+
+        if (verbose) {
+            StringBuilder sb = new StringBuilder();
+            for (String c : command) {
+                sb.append(c);
+                sb.append(' ');
             }
+            String cmd_line = sb.toString();
+            AdtPlugin.printToConsole(project, cmd_line);
+
+            for (String line : result.getStdOut()) {
+                AdtPlugin.printBuildToConsole(BuildVerbosity.VERBOSE, project, line);
+            }
+        }
 
-            Process p = Runtime.getRuntime().exec(command);
+        if (result.getException() != null) {
+            // mark the project and exit
+            String msg = String.format(Messages.AIDL_Exec_Error_s, command[0]);
+            BaseProjectHelper.markResource(project, AdtConstants.MARKER_AIDL, msg,
+                    IMarker.SEVERITY_ERROR);
+            return false;
+        }
 
-            // list to store each line of stderr
-            ArrayList<String> stdErr = new ArrayList<String>();
+        ArrayList<String> stdErr = result.getStdErr();
+        int returnCode = result.getReturnCode();
 
-            // get the output and return code from the process
-            int returnCode = BuildHelper.grabProcessOutput(project, p, stdErr);
+        if (stdErr.size() > 0) {
+            if (verbose) {
+                AdtPlugin.printErrorToConsole(project, stdErr.toArray());
+            }
 
-            if (stdErr.size() > 0) {
-                // attempt to parse the error output
-                boolean parsingError = parseAidlOutput(stdErr, file);
+            // attempt to parse the error output
+            boolean parsingError = parseAidlOutput(stdErr, file);
 
-                // If the process failed and we couldn't parse the output
-                // we print a message, mark the project and exit
-                if (returnCode != 0) {
+            // If the process failed and we couldn't parse the output
+            // we print a message, mark the project and exit
+            if (returnCode != 0) {
 
-                    if (parsingError || verbose) {
-                        // display the message in the console.
-                        if (parsingError) {
-                            AdtPlugin.printErrorToConsole(project, stdErr.toArray());
+                if (parsingError || verbose) {
+                    // display the message in the console.
+                    if (parsingError) {
+                        AdtPlugin.printErrorToConsole(project, stdErr.toArray());
 
-                            // mark the project
-                            BaseProjectHelper.markResource(project, AdtConstants.MARKER_AIDL,
-                                    Messages.Unparsed_AIDL_Errors, IMarker.SEVERITY_ERROR);
-                        } else {
-                            AdtPlugin.printToConsole(project, stdErr.toArray());
-                        }
+                        // mark the project
+                        BaseProjectHelper.markResource(project, AdtConstants.MARKER_AIDL,
+                                Messages.Unparsed_AIDL_Errors, IMarker.SEVERITY_ERROR);
+                    } else {
+                        AdtPlugin.printToConsole(project, stdErr.toArray());
                     }
-                    return false;
                 }
-            } else if (returnCode != 0) {
-                // no stderr output but exec failed.
-                String msg = String.format(Messages.AIDL_Exec_Error_d, returnCode);
-
-                BaseProjectHelper.markResource(project, AdtConstants.MARKER_AIDL,
-                       msg, IMarker.SEVERITY_ERROR);
-
                 return false;
             }
-        } catch (IOException e) {
-            // mark the project and exit
-            String msg = String.format(Messages.AIDL_Exec_Error_s, command[0]);
-            BaseProjectHelper.markResource(project, AdtConstants.MARKER_AIDL, msg,
-                    IMarker.SEVERITY_ERROR);
-            return false;
-        } catch (InterruptedException e) {
-            // mark the project and exit
-            String msg = String.format(Messages.AIDL_Exec_Error_s, command[0]);
-            BaseProjectHelper.markResource(project, AdtConstants.MARKER_AIDL, msg,
-                    IMarker.SEVERITY_ERROR);
+        } else if (returnCode != 0) {
+            // no stderr output but exec failed.
+            String msg = String.format(Messages.AIDL_Exec_Error_d, returnCode);
+
+            BaseProjectHelper.markResource(project, AdtConstants.MARKER_AIDL,
+                   msg, IMarker.SEVERITY_ERROR);
+
             return false;
         }
 
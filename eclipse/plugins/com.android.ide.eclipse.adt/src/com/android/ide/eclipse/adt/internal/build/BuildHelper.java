@@ -22,6 +22,7 @@ import com.android.annotations.Nullable;
 import com.android.ide.eclipse.adt.AdtConstants;
 import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.AndroidPrintStream;
+import com.android.ide.eclipse.adt.internal.build.BuildTrace.Span;
 import com.android.ide.eclipse.adt.internal.preferences.AdtPrefs;
 import com.android.ide.eclipse.adt.internal.preferences.AdtPrefs.BuildVerbosity;
 import com.android.ide.eclipse.adt.internal.project.BaseProjectHelper;
@@ -40,6 +41,7 @@ import com.android.sdklib.build.RenderScriptProcessor;
 import com.android.sdklib.build.SealedApkException;
 import com.android.sdklib.internal.build.DebugKeyProvider;
 import com.android.sdklib.internal.build.DebugKeyProvider.KeytoolException;
+import com.android.sdklib.io.FileOp;
 import com.android.utils.GrabProcessOutput;
 import com.android.utils.GrabProcessOutput.IProcessOutput;
 import com.android.utils.GrabProcessOutput.Wait;
@@ -47,6 +49,7 @@ import com.google.common.base.Charsets;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
@@ -74,11 +77,18 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * Helper with methods for the last 3 steps of the generation of an APK.
@@ -131,7 +141,10 @@ public class BuildHelper {
     public static long sStartJavaCTime = 0;
 
     private final static int MILLION = 1000000;
+    /** Minimum number of png files crunched by each aapt process. */
+    private final static int MIN_CRUNCH_BATCH = 32;
     private String mProguardFile;
+    private File mPreviousPackage;
 
     /**
      * An object able to put a marker on a resource.
@@ -190,7 +203,35 @@ public class BuildHelper {
         /* For crunching, we don't need the osManifestPath, osAssetsPath, or the configFilter
          * parameters for executeAapt
          */
-        executeAapt(COMMAND_CRUNCH, "", resPaths, "", cachePath, "", 0);
+        Span span = BuildTrace.begin(mProject.getName(), "aapt crunch"); //$NON-NLS-1$
+        try {
+            // restore what we can from the crunch cache, and only crunch the rest.
+            File cacheDir = CrunchCache.getDefaultFolder();
+            List<File> misses = null;
+            CrunchCache crunchCache = null;
+            if (cacheDir != null) {
+                crunchCache = new CrunchCache(cacheDir, CrunchCache.getToolKey(
+                        new File(mBuildToolInfo.getPath(BuildToolInfo.PathId.AAPT))));
+                try {
+                    misses = crunchCache.restore(resFolder.getLocation().toFile(),
+                            new File(cachePath), span);
+                } catch (IOException e) {
+                    AdtPlugin.log(e, "Failed to read the crunch cache %1$s", cacheDir);
+                }
+            }
+
+            if (misses == null) {
+                executeAapt(COMMAND_CRUNCH, "", resPaths, "", cachePath, "", 0);
+            } else if (!misses.isEmpty()) {
+                try {
+                    crunchFiles(crunchCache, misses, new File(cachePath));
+                } finally {
+                    crunchCache.cleanup();
+                }
+            }
+        } finally {
+            span.end();
+        }
 
         // Benchmarking end
         if (BENCHMARK_FLAG) {
@@ -200,6 +241,126 @@ public class BuildHelper {
         }
     }
 
+    /**
+     * Crunches png files that are not in the crunch cache, and adds them to the cache.
+     * <p/>
+     * aapt can only crunch whole resource folders, so the files are copied into temporary
+     * resource folders, which are crunched in parallel.
+     *
+     * @param crunchCache the crunch cache.
+     * @param files the png files to crunch.
+     * @param outFolder the crunch output folder of the project.
+     * @throws AaptExecException
+     * @throws AaptResultException
+     */
+    private void crunchFiles(final CrunchCache crunchCache, List<File> files,
+            final File outFolder) throws AaptExecException, AaptResultException {
+        int batchCount = Math.min(AdtPrefs.getPrefs().getBuildToolThreads(),
+                (files.size() + MIN_CRUNCH_BATCH - 1) / MIN_CRUNCH_BATCH);
+        List<List<File>> batches = CrunchCache.split(files, batchCount);
+
+        final File tmpFolder;
+        try {
+            tmpFolder = File.createTempFile("crunch", null); //$NON-NLS-1$
+            tmpFolder.delete();
+            tmpFolder.mkdirs();
+        } catch (IOException e) {
+            throw new AaptExecException(e.getMessage(), e);
+        }
+
+        ExecutorService executor = null;
+        try {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(batches.size());
+            for (int i = 0; i < batches.size(); i++) {
+                final List<File> batch = batches.get(i);
+                final File batchFolder = new File(tmpFolder, Integer.toString(i));
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        crunchBatch(crunchCache, batch, batchFolder, outFolder);
+                        return null;
+                    }
+                });
+            }
+
+            List<Future<Void>> futures;
+            if (tasks.size() == 1) {
+                futures = Collections.singletonList(runInline(tasks.get(0)));
+            } else {
+                executor = Executors.newFixedThreadPool(tasks.size());
+                futures = executor.invokeAll(tasks);
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof AaptResultException) {
+                        throw (AaptResultException) cause;
+                    } else if (cause instanceof AaptExecException) {
+                        throw (AaptExecException) cause;
+                    }
+                    String msg = String.format(Messages.AAPT_Exec_Error_s, COMMAND_CRUNCH);
+                    throw new AaptExecException(msg, cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            String msg = String.format(Messages.AAPT_Exec_Error_s, COMMAND_CRUNCH);
+            throw new AaptExecException(msg, e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            new FileOp().deleteFileOrFolder(tmpFolder);
+        }
+    }
+
+    /**
+     * Crunches a batch of png files in a temporary resource folder, and copies the result
+     * to the crunch output folder and the crunch cache.
+     */
+    private void crunchBatch(CrunchCache crunchCache, List<File> batch, File batchFolder,
+            File outFolder) throws AaptExecException, AaptResultException, IOException {
+        File batchRes = new File(batchFolder, SdkConstants.FD_RES);
+        File batchOut = new File(batchFolder, "out"); //$NON-NLS-1$
+        Map<File, File> copies = new HashMap<File, File>();
+        for (File file : batch) {
+            File copy = new File(new File(batchRes, file.getParentFile().getName()),
+                    file.getName());
+            Files.createParentDirs(copy);
+            Files.copy(file, copy);
+            copies.put(copy, file);
+        }
+        batchOut.mkdirs();
+
+        try {
+            executeAapt(COMMAND_CRUNCH, "", Collections.singletonList(batchRes.getPath()), "",
+                    batchOut.getPath(), "", 0);
+        } catch (AaptResultException e) {
+            // report the errors on the source files, not on their temporary copies.
+            throw new AaptResultException(e.getErrorCode(),
+                    CrunchCache.toSourcePaths(e.getOutput(), copies));
+        }
+
+        for (File file : batch) {
+            String folderName = file.getParentFile().getName();
+            File crunched = new File(new File(batchOut, folderName), file.getName());
+            if (crunched.isFile()) {
+                File output = new File(new File(outFolder, folderName), file.getName());
+                Files.createParentDirs(output);
+                Files.copy(crunched, output);
+                crunchCache.store(file, crunched);
+            }
+        }
+    }
+
+    private static <T> Future<T> runInline(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        future.run();
+        return future;
+    }
+
     /**
      * Packages the resources of the projet into a .ap_ file.
      * @param manifestFile the manifest of the project.
@@ -286,9 +447,15 @@ public class BuildHelper {
             }
 
             // build the default resource package
-            executeAapt(COMMAND_PACKAGE, osManifestPath, osResPaths, osAssetsPath,
-                    outputFolder + File.separator + outputFilename, resFilter,
-                    versionCode);
+            String osOutputPath = outputFolder + File.separator + outputFilename;
+            Span span = BuildTrace.begin(mProject.getName(), "aapt package"); //$NON-NLS-1$
+            try {
+                executeAapt(COMMAND_PACKAGE, osManifestPath, osResPaths, osAssetsPath,
+                        osOutputPath, resFilter, versionCode);
+            } finally {
+                span.addBytesOut(new File(osOutputPath).length());
+                span.end();
+            }
         }
 
         // Benchmarking end
@@ -388,20 +555,66 @@ public class BuildHelper {
             throws NativeLibInJarException, ApkCreationException, DuplicateFileException,
             CoreException {
 
+        // either use the full compiled code paths or just the proguard file
+        // if present
+        Collection<String> pathsCollection = mCompiledCodePaths;
+        if (mProguardFile != null) {
+            pathsCollection = Collections.singletonList(mProguardFile);
+            mProguardFile = null;
+        }
+
+        List<File> nativeLibFolders = getNativeLibFolders(libProjects);
+
+        Span span = BuildTrace.begin(mProject.getName(), "Package APK"); //$NON-NLS-1$
+        File outputFile = new File(output);
         try {
-            ApkBuilder apkBuilder = new ApkBuilder(output, intermediateApk, dex,
+            doFinalPackage(intermediateApk, dex, outputFile, pathsCollection, nativeLibFolders,
+                    key, certificate, resMarker, span);
+        } finally {
+            span.addBytesOut(outputFile.length());
+            span.end();
+        }
+    }
+
+    /**
+     * Does the actual packaging for {@link #finalPackage}, recording whether the previous
+     * package could be reused in the given span.
+     */
+    private void doFinalPackage(String intermediateApk, String dex, File outputFile,
+            Collection<String> pathsCollection, List<File> nativeLibFolders,
+            PrivateKey key, X509Certificate certificate, ResourceMarker resMarker, Span span)
+            throws NativeLibInJarException, ApkCreationException, DuplicateFileException {
+        // if we have the apk of the previous build, try to only update its dex file.
+        String inputsHash = null;
+        if (mPreviousPackage != null) {
+            File previousPackage = mPreviousPackage;
+            mPreviousPackage = null;
+            try {
+                inputsHash = IncrementalApkPackager.computeInputsHash(new File(intermediateApk),
+                        pathsCollection, nativeLibFolders, certificate, mDebugMode);
+                if (previousPackage.isFile() &&
+                        IncrementalApkPackager.matchesInputs(outputFile, inputsHash) &&
+                        IncrementalApkPackager.updateDex(previousPackage, new File(dex),
+                                outputFile, key, certificate, mVerbose ? mOutStream : null)) {
+                    span.addCacheResult(true);
+                    return;
+                }
+            } finally {
+                previousPackage.delete();
+            }
+        }
+        span.addCacheResult(false);
+
+        // full packaging. Forget the inputs of the previous packaging until it succeeds.
+        IncrementalApkPackager.saveInputs(outputFile, null);
+        boolean hasWarnings = false;
+
+        try {
+            ApkBuilder apkBuilder = new ApkBuilder(outputFile.getPath(), intermediateApk, dex,
                     key, certificate,
                     mVerbose ? mOutStream: null);
             apkBuilder.setDebugMode(mDebugMode);
 
-            // either use the full compiled code paths or just the proguard file
-            // if present
-            Collection<String> pathsCollection = mCompiledCodePaths;
-            if (mProguardFile != null) {
-                pathsCollection = Collections.singletonList(mProguardFile);
-                mProguardFile = null;
-            }
-
             // Now we write the standard resources from all the output paths.
             for (String path : pathsCollection) {
                 File file = new File(path);
@@ -450,6 +663,10 @@ public class BuildHelper {
                             for (String string : consoleStrings) {
                                 mOutStream.println(string);
                             }
+
+                            // the warning must be shown again by the next build, so it
+                            // cannot be an incremental one.
+                            hasWarnings = true;
                         }
                     }
                 } else if (file.isDirectory()) {
@@ -461,49 +678,83 @@ public class BuildHelper {
             }
 
             // now write the native libraries.
-            // First look if the lib folder is there.
-            IResource libFolder = mProject.findMember(SdkConstants.FD_NATIVE_LIBS);
-            if (libFolder != null && libFolder.exists() &&
-                    libFolder.getType() == IResource.FOLDER) {
-                // get a File for the folder.
-                apkBuilder.addNativeLibraries(libFolder.getLocation().toFile());
+            for (File nativeLibFolder : nativeLibFolders) {
+                apkBuilder.addNativeLibraries(nativeLibFolder);
             }
 
-            // next the native libraries for the renderscript support mode.
-            if (mProjectState.getRenderScriptSupportMode()) {
-                IFolder androidOutputFolder = BaseProjectHelper.getAndroidOutputFolder(mProject);
-                IResource rsLibFolder = androidOutputFolder.getFolder(
-                        AdtConstants.WS_BIN_RELATIVE_RS_LIBS);
-                File rsLibFolderFile = rsLibFolder.getLocation().toFile();
-                if (rsLibFolderFile.isDirectory()) {
-                    apkBuilder.addNativeLibraries(rsLibFolderFile);
-                }
-
-                File rsLibs = RenderScriptProcessor.getSupportNativeLibFolder(
-                        mBuildToolInfo.getLocation().getAbsolutePath());
-                if (rsLibs.isDirectory()) {
-                    apkBuilder.addNativeLibraries(rsLibs);
-                }
+            // seal the APK. This also signs it.
+            Span signSpan = BuildTrace.begin(mProject.getName(), "Sign APK"); //$NON-NLS-1$
+            try {
+                apkBuilder.sealApk();
+            } finally {
+                signSpan.end();
             }
 
-            // write the native libraries for the library projects.
-            if (libProjects != null) {
-                for (IProject lib : libProjects) {
-                    libFolder = lib.findMember(SdkConstants.FD_NATIVE_LIBS);
-                    if (libFolder != null && libFolder.exists() &&
-                            libFolder.getType() == IResource.FOLDER) {
-                        apkBuilder.addNativeLibraries(libFolder.getLocation().toFile());
-                    }
-                }
+            if (inputsHash != null && !hasWarnings) {
+                IncrementalApkPackager.saveInputs(outputFile, inputsHash);
             }
-
-            // seal the APK.
-            apkBuilder.sealApk();
         } catch (SealedApkException e) {
             // this won't happen as we control when the apk is sealed.
         }
     }
 
+    /**
+     * Returns the folders containing the native libraries to package: the lib folder of the
+     * project, the renderscript support libraries and the lib folders of the library projects.
+     */
+    private List<File> getNativeLibFolders(List<IProject> libProjects) {
+        List<File> folders = new ArrayList<File>();
+
+        // First look if the lib folder is there.
+        IResource libFolder = mProject.findMember(SdkConstants.FD_NATIVE_LIBS);
+        if (libFolder != null && libFolder.exists() &&
+                libFolder.getType() == IResource.FOLDER) {
+            // get a File for the folder.
+            folders.add(libFolder.getLocation().toFile());
+        }
+
+        // next the native libraries for the renderscript support mode.
+        if (mProjectState.getRenderScriptSupportMode()) {
+            IFolder androidOutputFolder = BaseProjectHelper.getAndroidOutputFolder(mProject);
+            IResource rsLibFolder = androidOutputFolder.getFolder(
+                    AdtConstants.WS_BIN_RELATIVE_RS_LIBS);
+            File rsLibFolderFile = rsLibFolder.getLocation().toFile();
+            if (rsLibFolderFile.isDirectory()) {
+                folders.add(rsLibFolderFile);
+            }
+
+            File rsLibs = RenderScriptProcessor.getSupportNativeLibFolder(
+                    mBuildToolInfo.getLocation().getAbsolutePath());
+            if (rsLibs.isDirectory()) {
+                folders.add(rsLibs);
+            }
+        }
+
+        // the native libraries for the library projects.
+        if (libProjects != null) {
+            for (IProject lib : libProjects) {
+                libFolder = lib.findMember(SdkConstants.FD_NATIVE_LIBS);
+                if (libFolder != null && libFolder.exists() &&
+                        libFolder.getType() == IResource.FOLDER) {
+                    folders.add(libFolder.getLocation().toFile());
+                }
+            }
+        }
+
+        return folders;
+    }
+
+    /**
+     * Sets the apk created by the previous build. If set, the next call to
+     * {@link #finalPackage} only updates the dex file of this apk when none of the other
+     * packaging inputs changed. The file is deleted once the final package is created.
+     *
+     * @param previousPackage the previous apk.
+     */
+    public void setPreviousPackage(@Nullable File previousPackage) {
+        mPreviousPackage = previousPackage;
+    }
+
     public void setProguardOutput(String proguardFile) {
         mProguardFile = proguardFile;
     }
@@ -604,6 +855,8 @@ public class BuildHelper {
 
         // launch
         int execError = 1;
+        Span span = BuildTrace.begin(mProject.getName(), "ProGuard"); //$NON-NLS-1$
+        span.addBytesIn(inputJar.length());
         try {
             // launch the command line process
             Process process = Runtime.getRuntime().exec(commandArray, envp);
@@ -631,6 +884,9 @@ public class BuildHelper {
         } catch (InterruptedException e) {
             String msg = String.format(Messages.Proguard_Exec_Error, commandArray[0]);
             throw new ProguardExecException(msg, e);
+        } finally {
+            span.addBytesOut(obfuscatedJar.length());
+            span.end();
         }
     }
 
@@ -772,32 +1028,42 @@ public class BuildHelper {
                         File dexedLib = new File(dexedLibs, fileName);
                         String dexedLibPath = dexedLib.getAbsolutePath();
 
-                        if (dexedLib.isFile() == false ||
-                                dexedLib.lastModified() < inputFile.lastModified()) {
-
-                            if (mVerbose) {
-                                mOutStream.println(
-                                        String.format("Pre-Dexing %1$s -> %2$s", input, fileName));
-                            }
-
-                            if (dexedLib.isFile()) {
-                                dexedLib.delete();
-                            }
-
-                            int res = wrapper.run(dexedLibPath, Collections.singleton(input),
-                                    mForceJumbo, mVerbose, mOutStream, mErrStream);
-
-                            if (res != 0) {
-                                // output error message and mark the project.
-                                String message = String.format(Messages.Dalvik_Error_d, res);
-                                throw new DexException(message);
-                            }
-                        } else {
-                            if (mVerbose) {
-                                mOutStream.println(
-                                        String.format("Using Pre-Dexed %1$s <- %2$s",
-                                                fileName, input));
+                        Span span = BuildTrace.begin(mProject.getName(),
+                                "Pre-Dex " + inputFile.getName()); //$NON-NLS-1$
+                        span.addBytesIn(inputFile.length());
+                        try {
+                            if (dexedLib.isFile() == false ||
+                                    dexedLib.lastModified() < inputFile.lastModified()) {
+                                span.addCacheResult(false);
+
+                                if (mVerbose) {
+                                    mOutStream.println(String.format(
+                                            "Pre-Dexing %1$s -> %2$s", input, fileName));
+                                }
+
+                                if (dexedLib.isFile()) {
+                                    dexedLib.delete();
+                                }
+
+                                int res = wrapper.run(dexedLibPath, Collections.singleton(input),
+                                        mForceJumbo, mVerbose, mOutStream, mErrStream);
+
+                                if (res != 0) {
+                                    // output error message and mark the project.
+                                    String message = String.format(Messages.Dalvik_Error_d, res);
+                                    throw new DexException(message);
+                                }
+                            } else {
+                                span.addCacheResult(true);
+                                if (mVerbose) {
+                                    mOutStream.println(
+                                            String.format("Using Pre-Dexed %1$s <- %2$s",
+                                                    fileName, input));
+                                }
                             }
+                        } finally {
+                            span.addBytesOut(dexedLib.length());
+                            span.end();
                         }
 
                         finalInputPaths.add(dexedLibPath);
@@ -811,11 +1077,18 @@ public class BuildHelper {
                 }
             }
 
-            int res = wrapper.run(osOutFilePath,
-                    finalInputPaths,
-                    mForceJumbo,
-                    mVerbose,
-                    mOutStream, mErrStream);
+            Span span = BuildTrace.begin(mProject.getName(), "Dex"); //$NON-NLS-1$
+            int res;
+            try {
+                res = wrapper.run(osOutFilePath,
+                        finalInputPaths,
+                        mForceJumbo,
+                        mVerbose,
+                        mOutStream, mErrStream);
+            } finally {
+                span.addBytesOut(new File(osOutFilePath).length());
+                span.end();
+            }
 
             mOutStream.setPrefix(null);
             mErrStream.setPrefix(null);
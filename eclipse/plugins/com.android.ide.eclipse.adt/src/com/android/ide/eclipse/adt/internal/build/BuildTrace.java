@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.build;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records the time spent in the phases of the build (manifest merging, aapt, aidl, dx,
+ * packaging...).
+ * <p/>
+ * Each phase is a {@link Span}, started with {@link #begin(String, String)} and closed with
+ * {@link Span#end()}. Closed spans are kept in a fixed size ring buffer, which can be
+ * displayed in the Build Timings view or exported in the Chrome trace event format
+ * (chrome://tracing) with {@link #writeChromeTrace(List, Appendable)}.
+ * <p/>
+ * This class is thread-safe.
+ */
+public final class BuildTrace {
+
+    /** Number of spans kept in the ring buffer. */
+    public static final int CAPACITY = 4096;
+
+    /** Name of the span covering the Java compilation, between the pre and post compilers. */
+    public static final String SPAN_JAVAC = "Java Compilation"; //$NON-NLS-1$
+
+    /**
+     * Listener notified when spans are recorded or cleared.
+     * <p/>
+     * The listener is called on the thread that ended the span, usually the build thread.
+     */
+    public interface ITraceListener {
+        void traceChanged();
+    }
+
+    /**
+     * A timed phase of the build.
+     */
+    public static final class Span {
+        private final String mName;
+        private final String mProject;
+        private final long mThreadId;
+        private final long mStartNanos;
+        private final long mStartCpuNanos;
+        private long mDurationNanos = -1;
+        private long mCpuNanos = -1;
+        private long mBytesIn;
+        private long mBytesOut;
+        private int mCacheHits;
+        private int mCacheMisses;
+        private int mItems;
+
+        private Span(@NonNull String name, @Nullable String project) {
+            mName = name;
+            mProject = project;
+            mThreadId = Thread.currentThread().getId();
+            mStartNanos = System.nanoTime();
+            mStartCpuNanos = getThreadCpuTime();
+        }
+
+        /** Adds to the number of bytes read by the phase. */
+        public Span addBytesIn(long bytes) {
+            mBytesIn += bytes;
+            return this;
+        }
+
+        /** Adds to the number of bytes written by the phase. */
+        public Span addBytesOut(long bytes) {
+            mBytesOut += bytes;
+            return this;
+        }
+
+        /** Adds to the number of items, such as files, processed by the phase. */
+        public Span addItems(int count) {
+            mItems += count;
+            return this;
+        }
+
+        /** Records whether the phase could reuse a previous output. */
+        public Span addCacheResult(boolean hit) {
+            if (hit) {
+                mCacheHits++;
+            } else {
+                mCacheMisses++;
+            }
+            return this;
+        }
+
+        /**
+         * Ends the span and records it. Calling this more than once has no effect, which
+         * makes it safe to call from a finally block.
+         */
+        public void end() {
+            synchronized (this) {
+                if (mDurationNanos != -1) {
+                    return;
+                }
+                mDurationNanos = System.nanoTime() - mStartNanos;
+
+                // the cpu time is only meaningful if the span ends on the thread it started on.
+                if (mStartCpuNanos != -1 && Thread.currentThread().getId() == mThreadId) {
+                    long cpu = getThreadCpuTime();
+                    if (cpu != -1) {
+                        mCpuNanos = cpu - mStartCpuNanos;
+                    }
+                }
+            }
+
+            record(this);
+        }
+
+        @NonNull
+        public String getName() {
+            return mName;
+        }
+
+        @Nullable
+        public String getProject() {
+            return mProject;
+        }
+
+        public long getThreadId() {
+            return mThreadId;
+        }
+
+        /** Returns the start of the span, in the {@link System#nanoTime()} time base. */
+        public long getStartNanos() {
+            return mStartNanos;
+        }
+
+        /** Returns the wall time of the span, or -1 if it is not ended. */
+        public synchronized long getDurationNanos() {
+            return mDurationNanos;
+        }
+
+        /** Returns the CPU time of the span, or -1 if it could not be measured. */
+        public synchronized long getCpuNanos() {
+            return mCpuNanos;
+        }
+
+        public long getBytesIn() {
+            return mBytesIn;
+        }
+
+        public long getBytesOut() {
+            return mBytesOut;
+        }
+
+        public int getCacheHits() {
+            return mCacheHits;
+        }
+
+        public int getCacheMisses() {
+            return mCacheMisses;
+        }
+
+        public int getItems() {
+            return mItems;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%1$s [%2$s]: %3$dms", //$NON-NLS-1$
+                    mName, mProject, getDurationNanos() / 1000000);
+        }
+    }
+
+    private static final Span[] sBuffer = new Span[CAPACITY];
+    private static int sNext = 0;
+    private static int sCount = 0;
+
+    /** Spans started by one builder and ended by another, keyed by project and name. */
+    private static final Map<String, Span> sPending = new HashMap<String, Span>();
+
+    private static final List<ITraceListener> sListeners =
+            new CopyOnWriteArrayList<ITraceListener>();
+
+    private static final ThreadMXBean sThreadBean = ManagementFactory.getThreadMXBean();
+
+    private BuildTrace() {
+    }
+
+    /**
+     * Starts a new span on the current thread.
+     * @param project the name of the project being built, or null.
+     * @param name the name of the phase.
+     * @return the span, which must be ended with {@link Span#end()}.
+     */
+    @NonNull
+    public static Span begin(@Nullable String project, @NonNull String name) {
+        return new Span(name, project);
+    }
+
+    /**
+     * Starts a span that will be ended by another builder with {@link #endPending(String, String)}.
+     * A pending span with the same project and name that was never ended is discarded.
+     */
+    public static void beginPending(@Nullable String project, @NonNull String name) {
+        Span span = new Span(name, project);
+        synchronized (sPending) {
+            sPending.put(project + '\0' + name, span);
+        }
+    }
+
+    /**
+     * Ends a span started with {@link #beginPending(String, String)}, if any.
+     */
+    public static void endPending(@Nullable String project, @NonNull String name) {
+        Span span;
+        synchronized (sPending) {
+            span = sPending.remove(project + '\0' + name);
+        }
+        if (span != null) {
+            span.end();
+        }
+    }
+
+    /**
+     * Returns the recorded spans, oldest first.
+     */
+    @NonNull
+    public static List<Span> getSpans() {
+        synchronized (sBuffer) {
+            List<Span> spans = new ArrayList<Span>(sCount);
+            int first = (sNext - sCount + CAPACITY) % CAPACITY;
+            for (int i = 0; i < sCount; i++) {
+                spans.add(sBuffer[(first + i) % CAPACITY]);
+            }
+            return spans;
+        }
+    }
+
+    /**
+     * Removes all the recorded spans.
+     */
+    public static void clear() {
+        synchronized (sBuffer) {
+            for (int i = 0; i < CAPACITY; i++) {
+                sBuffer[i] = null;
+            }
+            sNext = 0;
+            sCount = 0;
+        }
+        notifyListeners();
+    }
+
+    public static void addListener(@NonNull ITraceListener listener) {
+        sListeners.add(listener);
+    }
+
+    public static void removeListener(@NonNull ITraceListener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * Writes spans in the Chrome trace event format, as "complete" events.
+     * @param spans the spans to write.
+     * @param out where to write the trace.
+     * @throws IOException
+     */
+    public static void writeChromeTrace(@NonNull List<Span> spans, @NonNull Appendable out)
+            throws IOException {
+        long origin = Long.MAX_VALUE;
+        for (Span span : spans) {
+            origin = Math.min(origin, span.getStartNanos());
+        }
+
+        out.append("{\"traceEvents\":[\n"); //$NON-NLS-1$
+        boolean first = true;
+        for (Span span : spans) {
+            if (first) {
+                first = false;
+            } else {
+                out.append(",\n"); //$NON-NLS-1$
+            }
+            out.append("{\"name\":"); //$NON-NLS-1$
+            appendJsonString(out, span.getName());
+            out.append(",\"cat\":\"build\",\"ph\":\"X\",\"pid\":1"); //$NON-NLS-1$
+            out.append(",\"tid\":").append(Long.toString(span.getThreadId())); //$NON-NLS-1$
+            out.append(",\"ts\":").append(Long.toString( //$NON-NLS-1$
+                    (span.getStartNanos() - origin) / 1000));
+            out.append(",\"dur\":").append(Long.toString( //$NON-NLS-1$
+                    Math.max(0, span.getDurationNanos()) / 1000));
+            out.append(",\"args\":{\"project\":"); //$NON-NLS-1$
+            appendJsonString(out, span.getProject() != null ? span.getProject() : ""); //$NON-NLS-1$
+            if (span.getCpuNanos() != -1) {
+                out.append(",\"cpuMs\":").append( //$NON-NLS-1$
+                        Long.toString(span.getCpuNanos() / 1000000));
+            }
+            out.append(",\"bytesIn\":").append(Long.toString(span.getBytesIn())); //$NON-NLS-1$
+            out.append(",\"bytesOut\":").append(Long.toString(span.getBytesOut())); //$NON-NLS-1$
+            out.append(",\"cacheHits\":").append( //$NON-NLS-1$
+                    Integer.toString(span.getCacheHits()));
+            out.append(",\"cacheMisses\":").append( //$NON-NLS-1$
+                    Integer.toString(span.getCacheMisses()));
+            if (span.getItems() > 0) {
+                out.append(",\"items\":").append(Integer.toString(span.getItems())); //$NON-NLS-1$
+            }
+            out.append("}}"); //$NON-NLS-1$
+        }
+        out.append("\n]}\n"); //$NON-NLS-1$
+    }
+
+    private static void appendJsonString(Appendable out, String value) throws IOException {
+        out.append('"');
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\""); //$NON-NLS-1$
+                    break;
+                case '\\':
+                    out.append("\\\\"); //$NON-NLS-1$
+                    break;
+                case '\n':
+                    out.append("\\n"); //$NON-NLS-1$
+                    break;
+                case '\r':
+                    out.append("\\r"); //$NON-NLS-1$
+                    break;
+                case '\t':
+                    out.append("\\t"); //$NON-NLS-1$
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c)); //$NON-NLS-1$
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private static void record(Span span) {
+        synchronized (sBuffer) {
+            sBuffer[sNext] = span;
+            sNext = (sNext + 1) % CAPACITY;
+            if (sCount < CAPACITY) {
+                sCount++;
+            }
+        }
+        notifyListeners();
+    }
+
+    private static void notifyListeners() {
+        for (ITraceListener listener : sListeners) {
+            listener.traceChanged();
+        }
+    }
+
+    private static long getThreadCpuTime() {
+        try {
+            if (sThreadBean.isCurrentThreadCpuTimeSupported()) {
+                return sThreadBean.getCurrentThreadCpuTime();
+            }
+        } catch (UnsupportedOperationException e) {
+            // not supported by this VM.
+        }
+        return -1;
+    }
+}
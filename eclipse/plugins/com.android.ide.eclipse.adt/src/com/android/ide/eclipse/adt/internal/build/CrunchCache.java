@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.build;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.prefs.AndroidLocation;
+import com.android.prefs.AndroidLocation.AndroidLocationException;
+import com.android.resources.ResourceFolderType;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A machine-wide cache of the png files crunched by aapt.
+ * <p/>
+ * The crunched files are stored under a key made of the content of the source file, its
+ * name type (9-patch or regular png) and the aapt binary that crunched it. This lets the build
+ * restore the crunched files without running aapt after a clean, a branch switch, or anything
+ * that changes the timestamps but not the content of the source files.
+ * <p/>
+ * The cache is shared by the builds of all the workspaces, and its least recently used files
+ * are deleted beyond {@link #SIZE_LIMIT}.
+ */
+final class CrunchCache {
+
+    private static final String FD_CACHE = "adt-crunch-cache"; //$NON-NLS-1$
+    private static final String DOT_TMP = ".tmp"; //$NON-NLS-1$
+
+    /** The size of the cached files, in bytes */
+    static final long SIZE_LIMIT = 128 * 1024 * 1024;
+
+    private final File mCacheFolder;
+    private final String mToolKey;
+    private final long mSizeLimit;
+
+    /**
+     * Creates a cache.
+     * @param cacheFolder the folder containing the cached files.
+     * @param toolKey a string identifying the version of aapt, see {@link #getToolKey(File)}.
+     */
+    CrunchCache(@NonNull File cacheFolder, @NonNull String toolKey) {
+        this(cacheFolder, toolKey, SIZE_LIMIT);
+    }
+
+    /**
+     * Creates a cache.
+     * @param cacheFolder the folder containing the cached files.
+     * @param toolKey a string identifying the version of aapt, see {@link #getToolKey(File)}.
+     * @param sizeLimit the size of the cached files, in bytes, see {@link #cleanup()}.
+     */
+    CrunchCache(@NonNull File cacheFolder, @NonNull String toolKey, long sizeLimit) {
+        mCacheFolder = cacheFolder;
+        mToolKey = toolKey;
+        mSizeLimit = sizeLimit;
+    }
+
+    /**
+     * Returns the default location of the cache, in the Android folder of the user, or null
+     * if it cannot be found.
+     */
+    @Nullable
+    static File getDefaultFolder() {
+        try {
+            return new File(AndroidLocation.getFolder(), FD_CACHE);
+        } catch (AndroidLocationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a key identifying a given aapt binary. Different build tools revisions may
+     * crunch the same file differently.
+     */
+    @NonNull
+    static String getToolKey(@NonNull File aapt) {
+        return aapt.getAbsolutePath() + '|' + aapt.length() + '|' + aapt.lastModified();
+    }
+
+    /**
+     * Updates the crunched files of a resource folder from the cache.
+     * <p/>
+     * Crunched files that are already more recent than their source are left alone, like aapt
+     * does. The others are copied from the cache when possible.
+     *
+     * @param resFolder the resource folder.
+     * @param outFolder the crunch output folder.
+     * @param span an optional span in which to record the cache hits and misses.
+     * @return the png files that are not in the cache and must be crunched.
+     * @throws IOException
+     */
+    @NonNull
+    List<File> restore(@NonNull File resFolder, @NonNull File outFolder,
+            @Nullable BuildTrace.Span span) throws IOException {
+        List<File> misses = new ArrayList<File>();
+
+        File[] folders = resFolder.listFiles();
+        if (folders == null) {
+            return misses;
+        }
+
+        for (File folder : folders) {
+            if (!isCrunchableFolder(folder.getName())) {
+                continue;
+            }
+            File[] files = folder.isDirectory() ? folder.listFiles() : null;
+            if (files == null) {
+                continue;
+            }
+
+            for (File file : files) {
+                if (!isCrunchable(file)) {
+                    continue;
+                }
+
+                File output = new File(new File(outFolder, folder.getName()), file.getName());
+                if (output.lastModified() >= file.lastModified()) {
+                    // already up to date (lastModified is 0 if output doesn't exist.)
+                    continue;
+                }
+
+                File cached = getCacheFile(file);
+                if (cached.isFile()) {
+                    Files.createParentDirs(output);
+                    Files.copy(cached, output);
+                    // marks the file as recently used, for cleanup().
+                    cached.setLastModified(System.currentTimeMillis());
+                    if (span != null) {
+                        span.addCacheResult(true);
+                        span.addBytesOut(cached.length());
+                    }
+                } else {
+                    misses.add(file);
+                    if (span != null) {
+                        span.addCacheResult(false);
+                    }
+                }
+            }
+        }
+
+        return misses;
+    }
+
+    /**
+     * Adds a crunched file to the cache.
+     * @param source the source png.
+     * @param crunched the crunched version of the file.
+     * @throws IOException
+     */
+    void store(@NonNull File source, @NonNull File crunched) throws IOException {
+        File cached = getCacheFile(source);
+        Files.createParentDirs(cached);
+
+        // copy then rename so that concurrent builds never see a partial file.
+        File tmp = new File(cached.getPath() + DOT_TMP + Thread.currentThread().getId());
+        Files.copy(crunched, tmp);
+        if (!tmp.renameTo(cached)) {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files of the cache beyond its size limit. The files
+     * are used when they are stored or restored.
+     */
+    void cleanup() {
+        File[] folders = mCacheFolder.listFiles();
+        if (folders == null) {
+            return;
+        }
+
+        List<File> files = new ArrayList<File>();
+        for (File folder : folders) {
+            File[] children = folder.listFiles();
+            if (children != null) {
+                files.addAll(Arrays.asList(children));
+            }
+        }
+
+        // the most recently used first.
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long delta = file2.lastModified() - file1.lastModified();
+                return delta < 0 ? -1 : delta > 0 ? 1 : 0;
+            }
+        });
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+            if (size > mSizeLimit) {
+                file.delete();
+            }
+        }
+    }
+
+    @NonNull
+    private File getCacheFile(@NonNull File source) throws IOException {
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(mToolKey, Charsets.UTF_8);
+        hasher.putBoolean(source.getName().endsWith(SdkConstants.DOT_9PNG));
+        hasher.putBytes(Files.toByteArray(source));
+        String key = hasher.hash().toString();
+
+        return new File(new File(mCacheFolder, key.substring(0, 2)),
+                key + SdkConstants.DOT_PNG);
+    }
+
+    /** Returns true if aapt crunches the given file of a crunchable folder. */
+    static boolean isCrunchable(@NonNull File file) {
+        return file.isFile() && file.getName().toLowerCase(Locale.US).endsWith(
+                SdkConstants.DOT_PNG);
+    }
+
+    /**
+     * Returns true if aapt crunches the png files of the given resource folder: only the
+     * drawable and mipmap folders are, the png files of the raw folders are packaged as is.
+     */
+    static boolean isCrunchableFolder(@NonNull String folderName) {
+        ResourceFolderType type = ResourceFolderType.getFolderType(folderName);
+        return type == ResourceFolderType.DRAWABLE || type == ResourceFolderType.MIPMAP;
+    }
+
+    /**
+     * Rewrites the output of aapt crunching a batch of files copied to a temporary resource
+     * folder, so that its errors refer to the source files rather than to the copies.
+     *
+     * @param output the output of aapt, possibly null.
+     * @param copies the source files, by the path of their copy.
+     * @return the rewritten output.
+     */
+    @Nullable
+    static String[] toSourcePaths(@Nullable String[] output, @NonNull Map<File, File> copies) {
+        if (output == null) {
+            return null;
+        }
+        String[] result = new String[output.length];
+        for (int i = 0; i < output.length; i++) {
+            String line = output[i];
+            if (line != null) {
+                for (Map.Entry<File, File> entry : copies.entrySet()) {
+                    line = line.replace(entry.getKey().getPath(), entry.getValue().getPath());
+                }
+            }
+            result[i] = line;
+        }
+        return result;
+    }
+
+    /**
+     * Splits a list of files in at most {@code count} batches of similar sizes.
+     */
+    @NonNull
+    static List<List<File>> split(@NonNull List<File> files, int count) {
+        count = Math.max(1, Math.min(count, files.size()));
+        List<List<File>> batches = new ArrayList<List<File>>(count);
+        for (int i = 0; i < count; i++) {
+            batches.add(new ArrayList<File>());
+        }
+        for (int i = 0, n = files.size(); i < n; i++) {
+            batches.get(i % count).add(files.get(i));
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,787 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.build;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.sdklib.build.ApkBuilder;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+import org.apache.commons.codec.binary.Base64;
+
+import sun.security.pkcs.ContentInfo;
+import sun.security.pkcs.PKCS7;
+import sun.security.pkcs.SignerInfo;
+import sun.security.x509.AlgorithmId;
+import sun.security.x509.X500Name;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Updates a previously built and signed apk in place of a full {@link ApkBuilder} run.
+ * <p/>
+ * When the only packaging input that changed since the last build is the dex file (which is
+ * the common case of an edit/run cycle), the previous apk already contains every other entry,
+ * compressed and digested. This class copies those entries raw from the previous archive
+ * (without inflating or deflating them), writes the new dex entry, reuses the digests of the
+ * unchanged entries from the previous manifest and only re-signs the signature file.
+ * <p/>
+ * The decision of whether the other inputs changed is based on a fingerprint of the inputs
+ * (see {@link #computeInputsHash}) which is stored next to the apk after each successful
+ * packaging. Any problem reading the previous archive makes {@link #updateDex} return false
+ * and the caller is expected to fall back to a full packaging.
+ */
+class IncrementalApkPackager {
+
+    /** Extension of the file storing the packaging inputs fingerprint, next to the apk. */
+    private static final String DOT_INPUTS = ".inputs"; //$NON-NLS-1$
+
+    private static final String MANIFEST_NAME = JarFile.MANIFEST_NAME;
+    private static final String SF_NAME = "META-INF/CERT.SF"; //$NON-NLS-1$
+    private static final String BLOCK_PREFIX = "META-INF/CERT."; //$NON-NLS-1$
+    private static final String DIGEST_SUFFIX = "-Digest"; //$NON-NLS-1$
+    private static final String DIGEST_MANIFEST_SUFFIX = "-Digest-Manifest"; //$NON-NLS-1$
+    private static final String CREATED_BY = "1.0 (Android)"; //$NON-NLS-1$
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_HEADER_SIG = 0x06054b50;
+    private static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+
+    /**
+     * Returns the file storing the inputs fingerprint of the given apk.
+     */
+    @NonNull
+    static File getInputsFile(@NonNull File apk) {
+        return new File(apk.getPath() + DOT_INPUTS);
+    }
+
+    /**
+     * Returns true if the inputs fingerprint stored for the given apk matches the given one.
+     */
+    static boolean matchesInputs(@NonNull File apk, @NonNull String inputsHash) {
+        File inputsFile = getInputsFile(apk);
+        if (!inputsFile.isFile()) {
+            return false;
+        }
+        try {
+            return inputsHash.equals(Files.toString(inputsFile, Charsets.UTF_8).trim());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Records the inputs fingerprint of a freshly packaged apk, or removes it if
+     * <var>inputsHash</var> is null (so that the next build does a full packaging).
+     */
+    static void saveInputs(@NonNull File apk, @Nullable String inputsHash) {
+        File inputsFile = getInputsFile(apk);
+        if (inputsHash == null) {
+            inputsFile.delete();
+            return;
+        }
+        try {
+            Files.write(inputsHash, inputsFile, Charsets.UTF_8);
+        } catch (IOException e) {
+            inputsFile.delete();
+        }
+    }
+
+    /**
+     * Computes a fingerprint of all the packaging inputs except the dex file.
+     *
+     * @param resourcePackage the resource package (.ap_) created by aapt
+     * @param codePaths the jar files and class/resource folders whose java resources are packaged
+     * @param nativeLibFolders the folders containing native libraries
+     * @param certificate the certificate used to sign the apk, if any
+     * @param debugMode whether the apk is built in debug mode
+     * @return the fingerprint as an hex string.
+     */
+    @NonNull
+    static String computeInputsHash(@NonNull File resourcePackage,
+            @NonNull Collection<String> codePaths, @NonNull List<File> nativeLibFolders,
+            @Nullable X509Certificate certificate, boolean debugMode) {
+        Hasher hasher = Hashing.md5().newHasher();
+        hasher.putBoolean(debugMode);
+        if (certificate != null) {
+            try {
+                hasher.putBytes(certificate.getEncoded());
+            } catch (GeneralSecurityException e) {
+                hasher.putString(certificate.toString(), Charsets.UTF_8);
+            }
+        }
+
+        hashFile(hasher, resourcePackage);
+        for (String path : codePaths) {
+            File file = new File(path);
+            if (file.isFile()) {
+                hashFile(hasher, file);
+            } else if (file.isDirectory()) {
+                hashJavaResources(hasher, file);
+            }
+        }
+        for (File folder : nativeLibFolders) {
+            hashFolder(hasher, folder);
+        }
+
+        return hasher.hash().toString();
+    }
+
+    private static void hashFile(Hasher hasher, File file) {
+        hasher.putString(file.getPath(), Charsets.UTF_8);
+        hasher.putLong(file.length());
+        hasher.putLong(file.lastModified());
+    }
+
+    /** Hashes the files of a class/source folder that {@link ApkBuilder} would package. */
+    private static void hashJavaResources(Hasher hasher, File folder) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                if (ApkBuilder.checkFolderForPackaging(name)) {
+                    hashJavaResources(hasher, file);
+                }
+            } else {
+                int pos = name.lastIndexOf('.');
+                String ext = pos != -1 ? name.substring(pos + 1) : ""; //$NON-NLS-1$
+                if (ApkBuilder.checkFileForPackaging(name, ext)) {
+                    hashFile(hasher, file);
+                }
+            }
+        }
+    }
+
+    private static void hashFolder(Hasher hasher, File folder) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                hashFolder(hasher, file);
+            } else {
+                hashFile(hasher, file);
+            }
+        }
+    }
+
+    /**
+     * Writes <var>output</var> from the <var>previousApk</var>, replacing its dex entry with
+     * <var>dexFile</var> and updating the signature.
+     *
+     * @param previousApk the apk created by the previous build.
+     * @param dexFile the new dex file.
+     * @param output the apk to write.
+     * @param key the signing key. If null the apk is not signed, and the previous apk must not be
+     *     signed either.
+     * @param certificate the signing certificate.
+     * @param verboseStream an optional stream for verbose output.
+     * @return true if the apk was written, false if a full packaging is needed.
+     */
+    static boolean updateDex(@NonNull File previousApk, @NonNull File dexFile,
+            @NonNull File output, @Nullable PrivateKey key, @Nullable X509Certificate certificate,
+            @Nullable PrintStream verboseStream) {
+        try {
+            byte[] dex = Files.toByteArray(dexFile);
+            Map<String, byte[]> replacements = new LinkedHashMap<String, byte[]>();
+            replacements.put(SdkConstants.FN_APK_CLASSES_DEX, dex);
+
+            if (key != null && certificate != null) {
+                if (!resign(previousApk, dex, key, certificate, replacements)) {
+                    return false;
+                }
+            } else if (readEntry(previousApk, MANIFEST_NAME) != null) {
+                // the previous apk is signed, the new one should not be.
+                return false;
+            }
+
+            File tmp = new File(output.getPath() + ".tmp"); //$NON-NLS-1$
+            if (!rewrite(previousApk, tmp, replacements)) {
+                tmp.delete();
+                return false;
+            }
+
+            output.delete();
+            if (!tmp.renameTo(output)) {
+                Files.move(tmp, output);
+            }
+
+            if (verboseStream != null) {
+                verboseStream.println(String.format(
+                        "Updated %1$s in %2$s", //$NON-NLS-1$
+                        SdkConstants.FN_APK_CLASSES_DEX, output.getName()));
+            }
+            return true;
+        } catch (IOException e) {
+            printFallback(verboseStream, e);
+        } catch (GeneralSecurityException e) {
+            printFallback(verboseStream, e);
+        } catch (RuntimeException e) {
+            // the sun.security classes may not be available on this VM.
+            printFallback(verboseStream, e);
+        } catch (LinkageError e) {
+            printFallback(verboseStream, e);
+        }
+        return false;
+    }
+
+    private static void printFallback(PrintStream verboseStream, Throwable t) {
+        if (verboseStream != null) {
+            verboseStream.println(String.format(
+                    "Incremental packaging failed (%1$s), doing a full packaging", //$NON-NLS-1$
+                    t.toString()));
+        }
+    }
+
+    /**
+     * Updates the manifest entry of the dex file and computes the new signature file and
+     * signature block, putting them in <var>replacements</var>.
+     *
+     * @return false if the previous apk is not signed in a way we can update.
+     */
+    private static boolean resign(File previousApk, byte[] dex, PrivateKey key,
+            X509Certificate certificate, Map<String, byte[]> replacements)
+            throws IOException, GeneralSecurityException {
+        byte[] manifestBytes = readEntry(previousApk, MANIFEST_NAME);
+        if (manifestBytes == null) {
+            return false;
+        }
+        String blockName = BLOCK_PREFIX + key.getAlgorithm();
+        ZipFile zip = new ZipFile(previousApk);
+        try {
+            if (zip.getEntry(SF_NAME) == null || zip.getEntry(blockName) == null) {
+                return false;
+            }
+        } finally {
+            zip.close();
+        }
+
+        Manifest manifest = new Manifest(new ByteArrayInputStream(manifestBytes));
+        Attributes dexAttributes = manifest.getAttributes(SdkConstants.FN_APK_CLASSES_DEX);
+        if (dexAttributes == null) {
+            return false;
+        }
+
+        // reuse the digest algorithm used by the previous packaging.
+        String digestAttribute = null;
+        for (Object name : dexAttributes.keySet()) {
+            if (name.toString().endsWith(DIGEST_SUFFIX)) {
+                digestAttribute = name.toString();
+                break;
+            }
+        }
+        if (digestAttribute == null) {
+            return false;
+        }
+        String digestAlgorithm = digestAttribute.substring(0,
+                digestAttribute.length() - DIGEST_SUFFIX.length());
+
+        MessageDigest md = MessageDigest.getInstance(digestAlgorithm);
+        dexAttributes.putValue(digestAttribute,
+                new String(Base64.encodeBase64(md.digest(dex)), Charsets.US_ASCII));
+
+        ByteArrayOutputStream manifestOut = new ByteArrayOutputStream(manifestBytes.length);
+        manifest.write(manifestOut);
+        replacements.put(MANIFEST_NAME, manifestOut.toByteArray());
+
+        // only the signature file and the signature block need to be computed again.
+        byte[] sf = createSignatureFile(manifest, digestAlgorithm, digestAttribute);
+        replacements.put(SF_NAME, sf);
+
+        Signature signature = Signature.getInstance(
+                digestAlgorithm.replace("-", "") + "with" + key.getAlgorithm()); //$NON-NLS-1$
+        signature.initSign(key);
+        signature.update(sf);
+        replacements.put(blockName, createSignatureBlock(signature, certificate, key,
+                digestAlgorithm));
+
+        return true;
+    }
+
+    /**
+     * Creates the signature file, the same way {@code SignedJarBuilder} does.
+     */
+    private static byte[] createSignatureFile(Manifest manifest, String digestAlgorithm,
+            String digestAttribute) throws IOException, GeneralSecurityException {
+        Manifest sf = new Manifest();
+        Attributes main = sf.getMainAttributes();
+        main.putValue("Signature-Version", "1.0"); //$NON-NLS-1$ //$NON-NLS-2$
+        main.putValue("Created-By", CREATED_BY); //$NON-NLS-1$
+
+        MessageDigest md = MessageDigest.getInstance(digestAlgorithm);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream print = new PrintStream(bytes, true, "UTF-8"); //$NON-NLS-1$
+
+        // Digest of the entire manifest
+        manifest.write(print);
+        print.flush();
+        main.putValue(digestAlgorithm + DIGEST_MANIFEST_SUFFIX,
+                new String(Base64.encodeBase64(md.digest(bytes.toByteArray())),
+                        Charsets.US_ASCII));
+
+        for (Map.Entry<String, Attributes> entry : manifest.getEntries().entrySet()) {
+            // Digest of the manifest stanza for this entry.
+            bytes.reset();
+            print.print("Name: " + entry.getKey() + "\r\n"); //$NON-NLS-1$ //$NON-NLS-2$
+            for (Map.Entry<Object, Object> att : entry.getValue().entrySet()) {
+                print.print(att.getKey() + ": " + att.getValue() + "\r\n"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            print.print("\r\n"); //$NON-NLS-1$
+            print.flush();
+
+            Attributes sfAttr = new Attributes();
+            sfAttr.putValue(digestAttribute,
+                    new String(Base64.encodeBase64(md.digest(bytes.toByteArray())),
+                            Charsets.US_ASCII));
+            sf.getEntries().put(entry.getKey(), sfAttr);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sf.write(out);
+
+        // A bug in the java.util.jar implementation of Android platforms up to version 1.6 will
+        // cause a spurious IOException to be thrown if the length of the signature file is a
+        // multiple of 1024 bytes. As a workaround, add an extra CRLF in this case.
+        if ((out.size() % 1024) == 0) {
+            out.write('\r');
+            out.write('\n');
+        }
+
+        return out.toByteArray();
+    }
+
+    private static byte[] createSignatureBlock(Signature signature, X509Certificate certificate,
+            PrivateKey key, String digestAlgorithm)
+            throws IOException, GeneralSecurityException {
+        SignerInfo signerInfo = new SignerInfo(
+                new X500Name(certificate.getIssuerX500Principal().getName()),
+                certificate.getSerialNumber(),
+                AlgorithmId.get(digestAlgorithm),
+                AlgorithmId.get(key.getAlgorithm()),
+                signature.sign());
+
+        PKCS7 pkcs7 = new PKCS7(
+                new AlgorithmId[] { AlgorithmId.get(digestAlgorithm) },
+                new ContentInfo(ContentInfo.DATA_OID, null),
+                new X509Certificate[] { certificate },
+                new SignerInfo[] { signerInfo });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pkcs7.encodeSignedData(out);
+        return out.toByteArray();
+    }
+
+    @Nullable
+    private static byte[] readEntry(File zipFile, String name) throws IOException {
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            ZipEntry entry = zip.getEntry(name);
+            if (entry == null) {
+                return null;
+            }
+            InputStream is = zip.getInputStream(entry);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(
+                        entry.getSize() > 0 ? (int) entry.getSize() : 1024);
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = is.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+                return out.toByteArray();
+            } finally {
+                Closeables.closeQuietly(is);
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * A central directory record of the source archive.
+     */
+    private static final class CentralEntry {
+        String name;
+        byte[] header;
+        int flags;
+        int method;
+        long compressedSize;
+        long localHeaderOffset;
+    }
+
+    /**
+     * Copies the archive <var>source</var> to <var>dest</var>, copying the compressed data of
+     * all the entries raw except for those in <var>replacements</var>, which are written with the
+     * new content. The entries are kept in their original order.
+     *
+     * @return false if the source archive cannot be updated (unsupported format, or some of the
+     *     replaced entries are missing).
+     */
+    static boolean rewrite(@NonNull File source, @NonNull File dest,
+            @NonNull Map<String, byte[]> replacements) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(source, "r"); //$NON-NLS-1$
+        CountingOutputStream out = null;
+        try {
+            List<CentralEntry> entries = readCentralDirectory(raf);
+            if (entries == null) {
+                return false;
+            }
+            int found = 0;
+            for (CentralEntry entry : entries) {
+                if (replacements.containsKey(entry.name)) {
+                    found++;
+                }
+            }
+            if (found != replacements.size()) {
+                return false;
+            }
+
+            FileChannel channel = raf.getChannel();
+            out = new CountingOutputStream(new FileOutputStream(dest));
+            List<byte[]> centralHeaders = new ArrayList<byte[]>(entries.size());
+            int[] dosTime = toDosTime(System.currentTimeMillis());
+
+            for (CentralEntry entry : entries) {
+                long offset = out.getCount();
+                byte[] content = replacements.get(entry.name);
+                if (content != null) {
+                    centralHeaders.add(writeEntry(out, entry, content, offset, dosTime));
+                } else {
+                    long length = getLocalRecordLength(raf, entry);
+                    if (length < 0) {
+                        return false;
+                    }
+                    copyRaw(channel, entry.localHeaderOffset, length, out);
+
+                    byte[] header = entry.header.clone();
+                    putInt(header, 42, offset);
+                    centralHeaders.add(header);
+                }
+            }
+
+            long centralOffset = out.getCount();
+            for (byte[] header : centralHeaders) {
+                out.write(header);
+            }
+            long centralSize = out.getCount() - centralOffset;
+
+            byte[] end = new byte[END_HEADER_SIZE];
+            putInt(end, 0, END_HEADER_SIG);
+            putShort(end, 8, centralHeaders.size());
+            putShort(end, 10, centralHeaders.size());
+            putInt(end, 12, centralSize);
+            putInt(end, 16, centralOffset);
+            out.write(end);
+            out.close();
+            out = null;
+            return true;
+        } finally {
+            if (out != null) {
+                Closeables.close(out, true /* swallowIOException */);
+            }
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads the central directory of the archive, or returns null if the format is not supported
+     * (zip64, multi-disk, missing end of central directory).
+     */
+    @Nullable
+    private static List<CentralEntry> readCentralDirectory(RandomAccessFile raf)
+            throws IOException {
+        long fileLength = raf.length();
+        if (fileLength < END_HEADER_SIZE) {
+            return null;
+        }
+
+        // look for the end of central directory record from the end of the file.
+        int scanLength = (int) Math.min(fileLength, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+        byte[] tail = new byte[scanLength];
+        raf.seek(fileLength - scanLength);
+        raf.readFully(tail);
+        int endPos = -1;
+        for (int i = scanLength - END_HEADER_SIZE; i >= 0; i--) {
+            if (getInt(tail, i) == END_HEADER_SIG) {
+                endPos = i;
+                break;
+            }
+        }
+        if (endPos == -1) {
+            return null;
+        }
+
+        int disk = getShort(tail, endPos + 4);
+        int count = getShort(tail, endPos + 10);
+        long centralSize = getUInt(tail, endPos + 12);
+        long centralOffset = getUInt(tail, endPos + 16);
+        if (disk != 0 || count == 0xFFFF || centralOffset == 0xFFFFFFFFL
+                || centralOffset + centralSize > fileLength) {
+            return null;
+        }
+
+        byte[] central = new byte[(int) centralSize];
+        raf.seek(centralOffset);
+        raf.readFully(central);
+
+        List<CentralEntry> entries = new ArrayList<CentralEntry>(count);
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > central.length
+                    || getInt(central, pos) != CENTRAL_HEADER_SIG) {
+                return null;
+            }
+            int nameLength = getShort(central, pos + 28);
+            int extraLength = getShort(central, pos + 30);
+            int commentLength = getShort(central, pos + 32);
+            int headerLength = CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+            CentralEntry entry = new CentralEntry();
+            entry.flags = getShort(central, pos + 8);
+            entry.method = getShort(central, pos + 10);
+            entry.compressedSize = getUInt(central, pos + 20);
+            entry.localHeaderOffset = getUInt(central, pos + 42);
+            entry.name = new String(central, pos + CENTRAL_HEADER_SIZE, nameLength,
+                    (entry.flags & FLAG_UTF8) != 0 ? Charsets.UTF_8 : Charsets.ISO_8859_1);
+            entry.header = Arrays.copyOfRange(central, pos, pos + headerLength);
+            if (entry.compressedSize == 0xFFFFFFFFL || entry.localHeaderOffset == 0xFFFFFFFFL) {
+                return null;
+            }
+            entries.add(entry);
+            pos += headerLength;
+        }
+
+        return entries;
+    }
+
+    /**
+     * Returns the length of the local record of an entry (local header, data and optional data
+     * descriptor), or -1 if the local header is invalid.
+     */
+    private static long getLocalRecordLength(RandomAccessFile raf, CentralEntry entry)
+            throws IOException {
+        byte[] local = new byte[LOCAL_HEADER_SIZE];
+        raf.seek(entry.localHeaderOffset);
+        raf.readFully(local);
+        if (getInt(local, 0) != LOCAL_HEADER_SIG) {
+            return -1;
+        }
+        long length = LOCAL_HEADER_SIZE + getShort(local, 26) + getShort(local, 28)
+                + entry.compressedSize;
+
+        if ((entry.flags & FLAG_DATA_DESCRIPTOR) != 0) {
+            byte[] descriptor = new byte[4];
+            raf.seek(entry.localHeaderOffset + length);
+            raf.readFully(descriptor);
+            // the data descriptor signature is optional.
+            length += getInt(descriptor, 0) == DATA_DESCRIPTOR_SIG ? 16 : 12;
+        }
+
+        return length;
+    }
+
+    private static void copyRaw(FileChannel channel, long position, long length,
+            CountingOutputStream out) throws IOException {
+        FileChannel target = out.getChannel();
+        long done = 0;
+        while (done < length) {
+            long count = channel.transferTo(position + done, length - done, target);
+            if (count <= 0) {
+                throw new IOException("Failed to copy zip entry"); //$NON-NLS-1$
+            }
+            done += count;
+        }
+        out.addCount(length);
+    }
+
+    /**
+     * Writes a new local record for an entry and returns its central directory header.
+     */
+    private static byte[] writeEntry(CountingOutputStream out, CentralEntry entry,
+            byte[] content, long offset, int[] dosTime) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        byte[] data;
+        int method = entry.method;
+        if (method == ZipEntry.DEFLATED) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true /*nowrap*/);
+            try {
+                deflater.setInput(content);
+                deflater.finish();
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(
+                        content.length / 2 + 64);
+                byte[] buffer = new byte[64 * 1024];
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, count);
+                }
+                data = compressed.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        } else {
+            method = ZipEntry.STORED;
+            data = content;
+        }
+
+        byte[] name = entry.name.getBytes(Charsets.UTF_8);
+        int flags = FLAG_UTF8;
+
+        byte[] local = new byte[LOCAL_HEADER_SIZE];
+        putInt(local, 0, LOCAL_HEADER_SIG);
+        putShort(local, 4, method == ZipEntry.DEFLATED ? 20 : 10);
+        putShort(local, 6, flags);
+        putShort(local, 8, method);
+        putShort(local, 10, dosTime[0]);
+        putShort(local, 12, dosTime[1]);
+        putInt(local, 14, crc.getValue());
+        putInt(local, 18, data.length);
+        putInt(local, 22, content.length);
+        putShort(local, 26, name.length);
+        putShort(local, 28, 0);
+        out.write(local);
+        out.write(name);
+        out.write(data);
+
+        byte[] header = new byte[CENTRAL_HEADER_SIZE + name.length];
+        putInt(header, 0, CENTRAL_HEADER_SIG);
+        putShort(header, 4, method == ZipEntry.DEFLATED ? 20 : 10);
+        System.arraycopy(local, 4, header, 6, 26);
+        putShort(header, 30, 0); // extra
+        putShort(header, 32, 0); // comment
+        putInt(header, 42, offset);
+        System.arraycopy(name, 0, header, CENTRAL_HEADER_SIZE, name.length);
+        return header;
+    }
+
+    private static int[] toDosTime(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        int dosTime = (c.get(Calendar.HOUR_OF_DAY) << 11) | (c.get(Calendar.MINUTE) << 5)
+                | (c.get(Calendar.SECOND) >> 1);
+        int dosDate = ((c.get(Calendar.YEAR) - 1980) << 9) | ((c.get(Calendar.MONTH) + 1) << 5)
+                | c.get(Calendar.DAY_OF_MONTH);
+        return new int[] { dosTime, dosDate };
+    }
+
+    private static int getShort(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | ((b[offset + 1] & 0xFF) << 8);
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return getShort(b, offset) | (getShort(b, offset + 2) << 16);
+    }
+
+    private static long getUInt(byte[] b, int offset) {
+        return getInt(b, offset) & 0xFFFFFFFFL;
+    }
+
+    private static void putShort(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >> 8);
+    }
+
+    private static void putInt(byte[] b, int offset, long value) {
+        putShort(b, offset, (int) (value & 0xFFFF));
+        putShort(b, offset + 2, (int) ((value >> 16) & 0xFFFF));
+    }
+
+    /**
+     * Output stream keeping track of the number of bytes written, and giving access to the
+     * channel of the underlying file for raw copies.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long mCount;
+        private final FileChannel mChannel;
+
+        CountingOutputStream(FileOutputStream out) {
+            super(out);
+            mChannel = out.getChannel();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        void addCount(long count) {
+            mCount += count;
+        }
+
+        FileChannel getChannel() {
+            return mChannel;
+        }
+    }
+}
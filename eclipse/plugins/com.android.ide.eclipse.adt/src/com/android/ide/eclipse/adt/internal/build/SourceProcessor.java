@@ -18,11 +18,16 @@ package com.android.ide.eclipse.adt.internal.build;
 
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.ide.eclipse.adt.internal.build.builders.BaseBuilder;
+import com.android.ide.eclipse.adt.internal.preferences.AdtPrefs;
 import com.android.ide.eclipse.adt.internal.project.BaseProjectHelper;
 import com.android.ide.eclipse.adt.internal.project.ProjectHelper;
 import com.android.sdklib.BuildToolInfo;
 import com.android.sdklib.IAndroidTarget;
+import com.android.utils.GrabProcessOutput;
+import com.android.utils.GrabProcessOutput.IProcessOutput;
+import com.android.utils.GrabProcessOutput.Wait;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
@@ -36,6 +41,7 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jdt.core.IJavaProject;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -43,6 +49,15 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base class to handle generated java code.
@@ -73,6 +88,96 @@ public abstract class SourceProcessor {
 
     private int mLastCompilationStatus = COMPILE_STATUS_NONE;
 
+    /** Interval at which the progress monitor is checked while waiting for tool processes. */
+    private static final long CANCEL_CHECK_MS = 200;
+
+    /**
+     * The result of running a tool on a single source file.
+     * <p/>
+     * The output of the tool is kept so that the console output and the markers of all the
+     * files compiled concurrently can be handled on the build thread, in the order of the
+     * source files.
+     */
+    protected static final class ToolResult {
+        private final IFile mSourceFile;
+        private final String[] mCommand;
+        private final ArrayList<String> mStdOut = new ArrayList<String>();
+        private final ArrayList<String> mStdErr = new ArrayList<String>();
+        private int mReturnCode = -1;
+        private Exception mException;
+
+        ToolResult(@NonNull IFile sourceFile, @NonNull String[] command) {
+            mSourceFile = sourceFile;
+            mCommand = command;
+        }
+
+        /** Returns the source file the tool was run on. */
+        @NonNull
+        public IFile getSourceFile() {
+            return mSourceFile;
+        }
+
+        /** Returns the command line that was executed. */
+        @NonNull
+        public String[] getCommand() {
+            return mCommand;
+        }
+
+        /** Returns the lines written by the tool on its standard output. */
+        @NonNull
+        public ArrayList<String> getStdOut() {
+            return mStdOut;
+        }
+
+        /** Returns the lines written by the tool on its error output. */
+        @NonNull
+        public ArrayList<String> getStdErr() {
+            return mStdErr;
+        }
+
+        /** Returns the return code of the process, only valid if {@link #getException()} is null. */
+        public int getReturnCode() {
+            return mReturnCode;
+        }
+
+        /**
+         * Returns the {@link IOException} or {@link InterruptedException} that prevented the tool
+         * from running to completion, or null.
+         */
+        @Nullable
+        public Exception getException() {
+            return mException;
+        }
+
+        private void run() {
+            try {
+                Process process = Runtime.getRuntime().exec(mCommand);
+                mReturnCode = GrabProcessOutput.grabProcessOutput(
+                        process,
+                        Wait.WAIT_FOR_READERS, // we really want to make sure we get all the output!
+                        new IProcessOutput() {
+                            @Override
+                            public void out(@Nullable String line) {
+                                if (line != null) {
+                                    mStdOut.add(line);
+                                }
+                            }
+
+                            @Override
+                            public void err(@Nullable String line) {
+                                if (line != null) {
+                                    mStdErr.add(line);
+                                }
+                            }
+                        });
+            } catch (IOException e) {
+                mException = e;
+            } catch (InterruptedException e) {
+                mException = e;
+            }
+        }
+    }
+
     /**
      * Quotes a path inside "". If the platform is not windows, the path is returned as is.
      * @param path the path to quote
@@ -293,6 +398,98 @@ public abstract class SourceProcessor {
         return mLastCompilationStatus;
     }
 
+    /**
+     * Runs a tool on a list of source files, running up to
+     * {@link AdtPrefs#getBuildToolThreads()} processes at the same time.
+     * <p/>
+     * This does not touch the workspace or the console: the returned results are in the same
+     * order as the source files and are meant to be processed (markers, console output) by the
+     * caller on the build thread, which keeps the build output deterministic.
+     *
+     * @param sources the source files.
+     * @param commands the command line to run for each source file.
+     * @param threadName the base name of the threads running the processes.
+     * @param monitor the progress monitor, used to stop starting new processes on cancel.
+     * @return the results, one for each source file, in the same order. Files that were not
+     *     processed because the build was canceled are not included.
+     */
+    @NonNull
+    protected final List<ToolResult> execTool(@NonNull List<IFile> sources,
+            @NonNull List<String[]> commands, @NonNull final String threadName,
+            @NonNull IProgressMonitor monitor) {
+        int count = sources.size();
+        List<ToolResult> results = new ArrayList<ToolResult>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(new ToolResult(sources.get(i), commands.get(i)));
+        }
+
+        int threads = Math.min(count, AdtPrefs.getPrefs().getBuildToolThreads());
+        if (threads <= 1) {
+            for (int i = 0; i < count; i++) {
+                if (monitor.isCanceled()) {
+                    return results.subList(0, i);
+                }
+                results.get(i).run();
+            }
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadName + " #" + mCount.incrementAndGet()); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(count);
+            for (final ToolResult result : results) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        result.run();
+                        return null;
+                    }
+                }));
+            }
+
+            // wait for the results in order.
+            for (int i = 0; i < count; i++) {
+                Future<?> future = futures.get(i);
+                while (true) {
+                    if (monitor.isCanceled()) {
+                        // don't start the remaining processes, and only return the results
+                        // that are complete so far.
+                        for (Future<?> f : futures) {
+                            f.cancel(false /*mayInterruptIfRunning*/);
+                        }
+                        return results.subList(0, i);
+                    }
+                    try {
+                        future.get(CANCEL_CHECK_MS, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        // check the monitor again.
+                    } catch (ExecutionException e) {
+                        // ToolResult#run catches its own exceptions.
+                        break;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return results.subList(0, i);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        return results;
+    }
+
     protected abstract void doCompileFiles(
             List<IFile> filesToCompile, BaseBuilder builder,
             IProject project, IAndroidTarget projectTarget,
@@ -17,8 +17,8 @@
 package com.android.ide.eclipse.adt.internal.build.builders;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 
-import org.apache.tools.ant.types.selectors.SelectorUtils;
 import org.eclipse.core.runtime.IPath;
 
 /**
@@ -28,7 +28,8 @@ import org.eclipse.core.runtime.IPath;
  * Patterns can use Ant-type glob patterns.
  *
  * This is an immutable class that does not store any info beyond the list of paths. This is to
- * be used in conjunction with {@link PatternBasedDeltaVisitor}.
+ * be used in conjunction with {@link PatternBasedDeltaVisitor}, which compiles the patterns
+ * of all its sets into a {@link FileSetMatcher}.
  */
 class ChangedFileSet {
 
@@ -46,22 +47,31 @@ class ChangedFileSet {
         mOutput = output;
     }
 
-    public boolean isInput(@NonNull String path, @NonNull IPath iPath) {
-        for (String i : mInputs) {
-            if (SelectorUtils.matchPath(i, path)) {
-                return true;
-            }
-        }
-
-        return false;
+    /**
+     * Returns the Ant-style patterns of the input files.
+     */
+    @NonNull
+    public String[] getInputs() {
+        return mInputs;
     }
 
-    public boolean isOutput(@NonNull String path, @NonNull IPath iPath) {
-        if (mOutput != null) {
-            return SelectorUtils.matchPath(mOutput, path);
-        }
+    /**
+     * Returns the Ant-style pattern of the output file, or null.
+     */
+    @Nullable
+    public String getOutput() {
+        return mOutput;
+    }
 
-        return false;
+    /**
+     * Returns whether a file matching one of the input patterns is really an input.
+     * <p/>
+     * This is for inputs that can't be easily described with glob patterns. The default
+     * implementation returns true.
+     * @param iPath the path of the file, relative to the project.
+     */
+    public boolean acceptsInput(@NonNull IPath iPath) {
+        return true;
     }
 
     public String getLogName() {
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.build.builders;
+
+import com.android.annotations.NonNull;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches paths against the Ant-style glob patterns of several {@link ChangedFileSet} at once.
+ * <p/>
+ * The patterns are compiled once into a trie of path segments, where "**" nodes loop on
+ * themselves. A path is matched by walking its segments through the trie, keeping the set of
+ * nodes it can be in, which gives all the sets matching the path in a single pass.
+ * <p/>
+ * Sets are identified by their index, and each set can have input and output patterns.
+ */
+final class FileSetMatcher {
+
+    private static final String ANY_DEPTH = "**"; //$NON-NLS-1$
+
+    private static final class Node {
+        final String mSegment;
+        final boolean mAnyDepth;
+        final Map<String, Node> mLiterals = new HashMap<String, Node>();
+        final List<Node> mWildcards = new ArrayList<Node>();
+        Node mAnyDepthChild;
+
+        /** Sets with an input pattern ending at this node. */
+        final BitSet mInputs = new BitSet();
+        /** Sets with an output pattern ending at this node. */
+        final BitSet mOutputs = new BitSet();
+        /** Sets with a pattern ending at this node or below. */
+        final BitSet mReachable = new BitSet();
+
+        Node(String segment) {
+            mSegment = segment;
+            mAnyDepth = ANY_DEPTH.equals(segment);
+        }
+    }
+
+    private final Node mRoot = new Node(null);
+
+    /**
+     * Creates a matcher for the given sets. The index of the sets in the list are used to
+     * identify them in the results.
+     */
+    @NonNull
+    static FileSetMatcher create(@NonNull List<ChangedFileSet> sets) {
+        FileSetMatcher matcher = new FileSetMatcher();
+        for (int i = 0, n = sets.size(); i < n; i++) {
+            ChangedFileSet set = sets.get(i);
+            for (String input : set.getInputs()) {
+                matcher.add(i, input, false /*output*/);
+            }
+            String output = set.getOutput();
+            if (output != null) {
+                matcher.add(i, output, true /*output*/);
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Adds a pattern.
+     * @param set the index of the set the pattern belongs to.
+     * @param pattern the Ant-style pattern, using '/' as separator.
+     * @param output whether this is an output pattern.
+     */
+    void add(int set, @NonNull String pattern, boolean output) {
+        Node node = mRoot;
+        node.mReachable.set(set);
+        for (String segment : pattern.split("/")) { //$NON-NLS-1$
+            if (segment.isEmpty() || (node.mAnyDepth && ANY_DEPTH.equals(segment))) {
+                // "a//b" is "a/b" and "**/**" is "**".
+                continue;
+            }
+            node = getChild(node, segment);
+            node.mReachable.set(set);
+        }
+
+        if (output) {
+            node.mOutputs.set(set);
+        } else {
+            node.mInputs.set(set);
+        }
+    }
+
+    /**
+     * Matches a path.
+     * @param segments the segments of the path.
+     * @param inputs receives the sets with an input pattern matching the path.
+     * @param outputs receives the sets with an output pattern matching the path.
+     */
+    void match(@NonNull String[] segments, @NonNull BitSet inputs, @NonNull BitSet outputs) {
+        for (Node node : walk(segments)) {
+            inputs.or(node.mInputs);
+            outputs.or(node.mOutputs);
+        }
+    }
+
+    /**
+     * Returns true if a path below the given folder may match a pattern of the given sets.
+     * @param segments the segments of the folder path.
+     * @param sets the sets to consider.
+     */
+    boolean canMatchBelow(@NonNull String[] segments, @NonNull BitSet sets) {
+        for (Node node : walk(segments)) {
+            if (node.mReachable.intersects(sets)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Node> walk(String[] segments) {
+        List<Node> states = new ArrayList<Node>();
+        addState(states, mRoot);
+
+        for (String segment : segments) {
+            if (states.isEmpty()) {
+                break;
+            }
+            List<Node> next = new ArrayList<Node>();
+            for (Node node : states) {
+                if (node.mAnyDepth) {
+                    // "**" matches any number of segments.
+                    addState(next, node);
+                }
+                Node literal = node.mLiterals.get(segment);
+                if (literal != null) {
+                    addState(next, literal);
+                }
+                for (Node wildcard : node.mWildcards) {
+                    if (matchSegment(wildcard.mSegment, segment)) {
+                        addState(next, wildcard);
+                    }
+                }
+            }
+            states = next;
+        }
+
+        return states;
+    }
+
+    private static void addState(List<Node> states, Node node) {
+        if (!states.contains(node)) {
+            states.add(node);
+            // "**" also matches zero segments.
+            if (node.mAnyDepthChild != null) {
+                addState(states, node.mAnyDepthChild);
+            }
+        }
+    }
+
+    private static Node getChild(Node parent, String segment) {
+        if (ANY_DEPTH.equals(segment)) {
+            if (parent.mAnyDepthChild == null) {
+                parent.mAnyDepthChild = new Node(segment);
+            }
+            return parent.mAnyDepthChild;
+        }
+
+        if (segment.indexOf('*') == -1 && segment.indexOf('?') == -1) {
+            Node child = parent.mLiterals.get(segment);
+            if (child == null) {
+                child = new Node(segment);
+                parent.mLiterals.put(segment, child);
+            }
+            return child;
+        }
+
+        for (Node child : parent.mWildcards) {
+            if (child.mSegment.equals(segment)) {
+                return child;
+            }
+        }
+        Node child = new Node(segment);
+        parent.mWildcards.add(child);
+        return child;
+    }
+
+    /**
+     * Matches a single path segment against a pattern where '*' matches any number of
+     * characters and '?' matches exactly one.
+     */
+    static boolean matchSegment(@NonNull String pattern, @NonNull String str) {
+        int p = 0;
+        int s = 0;
+        int starP = -1;
+        int starS = 0;
+        int patternLength = pattern.length();
+        int strLength = str.length();
+
+        while (s < strLength) {
+            if (p < patternLength) {
+                char c = pattern.charAt(p);
+                if (c == '*') {
+                    starP = p++;
+                    starS = s;
+                    continue;
+                }
+                if (c == '?' || c == str.charAt(s)) {
+                    p++;
+                    s++;
+                    continue;
+                }
+            }
+            if (starP == -1) {
+                return false;
+            }
+            // backtrack: let the last '*' match one more character.
+            p = starP + 1;
+            s = ++starS;
+        }
+
+        while (p < patternLength && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == patternLength;
+    }
+}
@@ -37,10 +37,7 @@ class JavaResChangedSet extends ChangedFileSet {
     }
 
     @Override
-    public boolean isInput(@NonNull String path, @NonNull IPath iPath) {
-        if (!ApkBuilder.checkFileForPackaging(iPath.lastSegment(), iPath.getFileExtension())) {
-            return false;
-        }
-        return super.isInput(path, iPath);
+    public boolean acceptsInput(@NonNull IPath iPath) {
+        return ApkBuilder.checkFileForPackaging(iPath.lastSegment(), iPath.getFileExtension());
     }
 }
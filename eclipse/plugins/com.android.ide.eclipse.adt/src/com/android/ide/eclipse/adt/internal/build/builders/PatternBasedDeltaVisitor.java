@@ -29,6 +29,7 @@ import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IStatus;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
@@ -55,6 +56,13 @@ class PatternBasedDeltaVisitor implements IResourceDeltaVisitor {
     private final Map<ChangedFileSet, Boolean> mResults =
             new IdentityHashMap<ChangedFileSet, Boolean>();
 
+    /** Matcher for the patterns of all the sets, created on the first visit. */
+    private FileSetMatcher mMatcher;
+    /** Indices of the sets that haven't recognized a change yet. */
+    private final BitSet mPending = new BitSet();
+    private final BitSet mInputs = new BitSet();
+    private final BitSet mOutputs = new BitSet();
+
     private final String mLogName;
 
     PatternBasedDeltaVisitor(IProject mainProject, IProject deltaProject, String logName) {
@@ -69,6 +77,7 @@ class PatternBasedDeltaVisitor implements IResourceDeltaVisitor {
 
     void addSet(ChangedFileSet bundle) {
         mSets.add(bundle);
+        mMatcher = null;
     }
 
     boolean checkSet(ChangedFileSet bundle) {
@@ -82,58 +91,75 @@ class PatternBasedDeltaVisitor implements IResourceDeltaVisitor {
 
     @Override
     public boolean visit(IResourceDelta delta) throws CoreException {
+        if (mMatcher == null) {
+            // the sets are all added before the visitor is used.
+            mMatcher = FileSetMatcher.create(mSets);
+            mPending.set(0, mSets.size());
+        }
+
+        // once all the sets have seen a change, there's nothing left to find.
+        if (mPending.isEmpty()) {
+            return false;
+        }
+
         IResource resource = delta.getResource();
 
         if (resource.getType() == IResource.FOLDER) {
-            // always visit the subfolders, unless the folder is not to be included
-            return BuildHelper.checkFolderForPackaging((IFolder)resource);
+            // only visit the subfolders that can contain a file of a set that hasn't seen
+            // a change yet, unless the folder is not to be included
+            if (!BuildHelper.checkFolderForPackaging((IFolder)resource)) {
+                return false;
+            }
+            IPath path = resource.getFullPath().makeRelativeTo(mDeltaProject.getFullPath());
+            return mMatcher.canMatchBelow(path.segments(), mPending);
 
         } else if (resource.getType() == IResource.FILE) {
             IPath path = resource.getFullPath().makeRelativeTo(mDeltaProject.getFullPath());
-            String pathStr = path.toString();
-
-            // FIXME: no need to loop through all the sets once they have all said they need something (return false below and above)
-            for (ChangedFileSet set : mSets) {
-                // FIXME: should ignore sets that have already returned true.
-
-                if (set.isInput(pathStr, path)) {
-                    mResults.put(set, Boolean.TRUE);
-
-                    if (DEBUG_LOG) {
-                        String cfs_logName = set.getLogName();
-
-                        if (cfs_logName != null) {
-                            AdtPlugin.log(IStatus.INFO, "%s (%s:%s): %s",              //$NON-NLS-1$
-                                    mMainProject.getName(), mLogName, cfs_logName,
-                                    resource.getFullPath().toString());
-                        } else {
-                            AdtPlugin.log(IStatus.INFO, "%s (%s): %s",                 //$NON-NLS-1$
-                                    mMainProject.getName(), mLogName,
-                                    resource.getFullPath().toString());
-                        }
-                    }
-
-                } else if (delta.getKind() == IResourceDelta.REMOVED &&
-                        set.isOutput(pathStr, path)) {
-                    mResults.put(set, Boolean.TRUE);
-
-                    if (DEBUG_LOG) {
-                        String cfs_logName = set.getLogName();
-
-                        if (cfs_logName != null) {
-                            AdtPlugin.log(IStatus.INFO, "%s (%s:%s): %s",              //$NON-NLS-1$
-                                    mMainProject.getName(), mLogName, cfs_logName,
-                                    resource.getFullPath().toString());
-                        } else {
-                            AdtPlugin.log(IStatus.INFO, "%s (%s): %s",                 //$NON-NLS-1$
-                                    mMainProject.getName(), mLogName,
-                                    resource.getFullPath().toString());
-                        }
-                    }
+
+            mInputs.clear();
+            mOutputs.clear();
+            mMatcher.match(path.segments(), mInputs, mOutputs);
+
+            // only the sets that haven't seen a change yet matter.
+            mInputs.and(mPending);
+            mOutputs.and(mPending);
+            if (delta.getKind() != IResourceDelta.REMOVED) {
+                // output files are only checked for removal.
+                mOutputs.clear();
+            }
+
+            for (int i = mInputs.nextSetBit(0); i >= 0; i = mInputs.nextSetBit(i + 1)) {
+                ChangedFileSet set = mSets.get(i);
+                if (set.acceptsInput(path)) {
+                    setChanged(set, i, resource);
+                    mOutputs.clear(i);
                 }
             }
+
+            for (int i = mOutputs.nextSetBit(0); i >= 0; i = mOutputs.nextSetBit(i + 1)) {
+                setChanged(mSets.get(i), i, resource);
+            }
         }
 
         return true;
     }
+
+    private void setChanged(ChangedFileSet set, int index, IResource resource) {
+        mResults.put(set, Boolean.TRUE);
+        mPending.clear(index);
+
+        if (DEBUG_LOG) {
+            String cfs_logName = set.getLogName();
+
+            if (cfs_logName != null) {
+                AdtPlugin.log(IStatus.INFO, "%s (%s:%s): %s",              //$NON-NLS-1$
+                        mMainProject.getName(), mLogName, cfs_logName,
+                        resource.getFullPath().toString());
+            } else {
+                AdtPlugin.log(IStatus.INFO, "%s (%s): %s",                 //$NON-NLS-1$
+                        mMainProject.getName(), mLogName,
+                        resource.getFullPath().toString());
+            }
+        }
+    }
 }
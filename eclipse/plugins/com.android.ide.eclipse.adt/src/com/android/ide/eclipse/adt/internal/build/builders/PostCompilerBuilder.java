@@ -27,6 +27,8 @@ import com.android.ide.eclipse.adt.internal.build.AaptParser;
 import com.android.ide.eclipse.adt.internal.build.AaptResultException;
 import com.android.ide.eclipse.adt.internal.build.BuildHelper;
 import com.android.ide.eclipse.adt.internal.build.BuildHelper.ResourceMarker;
+import com.android.ide.eclipse.adt.internal.build.BuildTrace;
+import com.android.ide.eclipse.adt.internal.build.BuildTrace.Span;
 import com.android.ide.eclipse.adt.internal.build.DexException;
 import com.android.ide.eclipse.adt.internal.build.Messages;
 import com.android.ide.eclipse.adt.internal.build.NativeLibInJarException;
@@ -46,9 +48,12 @@ import com.android.sdklib.build.ApkBuilder;
 import com.android.sdklib.build.ApkCreationException;
 import com.android.sdklib.build.DuplicateFileException;
 import com.android.sdklib.build.IArchiveBuilder;
-import com.android.sdklib.build.SealedApkException;
 import com.android.sdklib.internal.build.DebugKeyProvider.KeytoolException;
 import com.android.xml.AndroidManifest;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
@@ -65,6 +70,7 @@ import org.eclipse.jdt.core.IJavaModelMarker;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.JavaCore;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -72,10 +78,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
@@ -90,6 +98,9 @@ public class PostCompilerBuilder extends BaseBuilder {
     private static final String PROPERTY_PACKAGE_RESOURCES = "packageResources"; //$NON-NLS-1$
     private static final String PROPERTY_BUILD_APK = "buildApk"; //$NON-NLS-1$
 
+    /** Extension given to the apk of the previous build while the new one is created. */
+    private static final String DOT_PREVIOUS = ".prev"; //$NON-NLS-1$
+
     /** Flag to pass to PostCompiler builder that sets if it runs or not.
      *  Set this flag whenever calling build if PostCompiler is to run
      */
@@ -175,6 +186,9 @@ public class PostCompilerBuilder extends BaseBuilder {
             AdtPlugin.log(IStatus.INFO, "%s BUILD(POST)", project.getName());
         }
 
+        // the java compilation started when the pre compiler finished.
+        BuildTrace.endPending(project.getName(), BuildTrace.SPAN_JAVAC);
+
         // Benchmarking start
         long startBuildTime = 0;
         if (BuildHelper.BENCHMARK_FLAG) {
@@ -397,17 +411,20 @@ public class PostCompilerBuilder extends BaseBuilder {
 
                     IFolder javaOutputFolder = BaseProjectHelper.getJavaOutputFolder(project);
 
-                    writeLibraryPackage(jarIFile, project, appPackage, javaOutputFolder);
+                    boolean jarChanged = writeLibraryPackage(jarIFile, project, appPackage,
+                            javaOutputFolder);
                     saveProjectBooleanProperty(PROPERTY_CONVERT_TO_DEX, mConvertToDex = false);
 
-                    // refresh the bin folder content with no recursion to update the library
-                    // jar file.
-                    androidOutputFolder.refreshLocal(IResource.DEPTH_ONE, monitor);
+                    if (jarChanged) {
+                        // refresh the bin folder content with no recursion to update the library
+                        // jar file.
+                        androidOutputFolder.refreshLocal(IResource.DEPTH_ONE, monitor);
 
-                    // Also update the projects. The only way to force recompile them is to
-                    // reset the library container.
-                    List<ProjectState> parentProjects = projectState.getParentProjects();
-                    LibraryClasspathContainerInitializer.updateProject(parentProjects);
+                        // Also update the projects. The only way to force recompile them is to
+                        // reset the library container.
+                        List<ProjectState> parentProjects = projectState.getParentProjects();
+                        LibraryClasspathContainerInitializer.updateProject(parentProjects);
+                    }
                 }
 
                 return allRefProjects;
@@ -518,16 +535,24 @@ public class PostCompilerBuilder extends BaseBuilder {
                     return allRefProjects;
                 }
 
-                // Remove the old .apk.
+                // Move the old .apk out of the way.
                 // This make sure that if the apk is corrupted, then dx (which would attempt
-                // to open it), will not fail.
+                // to open it), will not fail. The moved apk is used by the final packaging to
+                // only update the dex file if nothing else changed.
                 String osFinalPackagePath = osAndroidBinPath + File.separator + finalPackageName;
                 File finalPackage = new File(osFinalPackagePath);
-
-                // if delete failed, this is not really a problem, as the final package generation
-                // handle already present .apk, and if that one failed as well, the user will be
-                // notified.
-                finalPackage.delete();
+                File previousPackage = new File(osFinalPackagePath + DOT_PREVIOUS);
+
+                // if rename/delete failed, this is not really a problem, as the final package
+                // generation handle already present .apk, and if that one failed as well, the
+                // user will be notified.
+                if (finalPackage.isFile()) {
+                    previousPackage.delete();
+                    if (finalPackage.renameTo(previousPackage) == false) {
+                        finalPackage.delete();
+                    }
+                }
+                helper.setPreviousPackage(previousPackage);
 
                 // Check if we need to package the resources.
                 if (mPackageResources) {
@@ -747,17 +772,27 @@ public class PostCompilerBuilder extends BaseBuilder {
         return allRefProjects;
     }
 
+    /**
+     * Collects the content of the library jar file, and only writes it if the content differs
+     * from the existing jar file.
+     * <p/>
+     * The manifest of the jar file contains a digest of each entry so that the content of the
+     * existing jar file can be compared without reading its entries. When nothing changed, the
+     * jar file is left untouched (content and timestamp) so that the projects depending on it
+     * don't need to be recompiled and re-dexed.
+     */
     private static class JarBuilder implements IArchiveBuilder {
 
         private static Pattern R_PATTERN = Pattern.compile("R(\\$.*)?\\.class"); //$NON-NLS-1$
         private static String BUILD_CONFIG_CLASS = "BuildConfig.class"; //$NON-NLS-1$
+        private static final Attributes.Name DIGEST_NAME =
+                new Attributes.Name("SHA1-Digest"); //$NON-NLS-1$
 
-        private final byte[] buffer = new byte[1024];
-        private final JarOutputStream mOutputStream;
+        private final byte[] buffer = new byte[64 * 1024];
+        private final Map<String, File> mEntries = new LinkedHashMap<String, File>();
         private final String mAppPackage;
 
-        JarBuilder(JarOutputStream outputStream, String appPackage) {
-            mOutputStream = outputStream;
+        JarBuilder(String appPackage) {
             mAppPackage = appPackage.replace('.', '/');
         }
 
@@ -779,52 +814,87 @@ public class PostCompilerBuilder extends BaseBuilder {
             }
 
             IPath path = file.getFullPath().makeRelativeTo(rootFolder.getFullPath());
-            try {
-                addFile(file.getContents(), file.getLocalTimeStamp(), path.toString());
-            } catch (ApkCreationException e) {
-                throw e;
-            } catch (Exception e) {
-                throw new ApkCreationException(e, "Failed to add %s", file);
-            }
+            addFile(file.getLocation().toFile(), path.toString());
         }
 
         @Override
-        public void addFile(File file, String archivePath) throws ApkCreationException,
-                SealedApkException, DuplicateFileException {
-            try {
-                FileInputStream inputStream = new FileInputStream(file);
-                long lastModified = file.lastModified();
-                addFile(inputStream, lastModified, archivePath);
-            } catch (ApkCreationException e) {
-                throw e;
-            } catch (Exception e) {
-                throw new ApkCreationException(e, "Failed to add %s", file);
+        public void addFile(File file, String archivePath) throws ApkCreationException {
+            if (mEntries.containsKey(archivePath)) {
+                throw new ApkCreationException("Duplicate entry %s", archivePath); //$NON-NLS-1$
             }
+            mEntries.put(archivePath, file);
         }
 
-        private void addFile(InputStream content, long lastModified, String archivePath)
-                throws IOException, ApkCreationException {
-            // create the jar entry
-            JarEntry entry = new JarEntry(archivePath);
-            entry.setTime(lastModified);
+        /**
+         * Writes the jar file if its content changed.
+         * @param jarFile the jar file to write.
+         * @return true if the file was written, false if it was already up to date.
+         */
+        boolean write(File jarFile) throws IOException {
+            Manifest manifest = new Manifest();
+            Attributes mainAttributes = manifest.getMainAttributes();
+            mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0"); //$NON-NLS-1$
+            mainAttributes.put(Attributes.Name.CLASS_PATH, "Android ADT"); //$NON-NLS-1$
+            mainAttributes.putValue("Created-By", "1.0 (Android)"); //$NON-NLS-1$  //$NON-NLS-2$
 
+            Map<String, Attributes> entries = manifest.getEntries();
+            for (Map.Entry<String, File> entry : mEntries.entrySet()) {
+                HashCode hash = Files.hash(entry.getValue(), Hashing.sha1());
+                Attributes attributes = new Attributes(1);
+                attributes.put(DIGEST_NAME, BaseEncoding.base64().encode(hash.asBytes()));
+                entries.put(entry.getKey(), attributes);
+            }
+
+            if (jarFile.isFile() && manifest.equals(readManifest(jarFile))) {
+                return false;
+            }
+
+            JarOutputStream jos = new JarOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(jarFile), buffer.length),
+                    manifest);
             try {
-                // add the entry to the jar archive
-                mOutputStream.putNextEntry(entry);
-
-                // read the content of the entry from the input stream, and write
-                // it into the archive.
-                int count;
-                while ((count = content.read(buffer)) != -1) {
-                    mOutputStream.write(buffer, 0, count);
+                for (Map.Entry<String, File> entry : mEntries.entrySet()) {
+                    File file = entry.getValue();
+
+                    // create the jar entry
+                    JarEntry jarEntry = new JarEntry(entry.getKey());
+                    jarEntry.setTime(file.lastModified());
+                    jos.putNextEntry(jarEntry);
+
+                    // copy the content of the file into the archive.
+                    InputStream content = new FileInputStream(file);
+                    try {
+                        int count;
+                        while ((count = content.read(buffer)) != -1) {
+                            jos.write(buffer, 0, count);
+                        }
+                    } finally {
+                        content.close();
+                    }
                 }
             } finally {
-                try {
-                    if (content != null) {
-                        content.close();
+                jos.close();
+            }
+
+            return true;
+        }
+
+        @Nullable
+        private static Manifest readManifest(File jarFile) {
+            JarFile jar = null;
+            try {
+                jar = new JarFile(jarFile, false /*verify*/);
+                return jar.getManifest();
+            } catch (IOException e) {
+                // corrupted jar, it'll be rewritten.
+                return null;
+            } finally {
+                if (jar != null) {
+                    try {
+                        jar.close();
+                    } catch (IOException e) {
+                        // pass
                     }
-                } catch (Exception e) {
-                    throw new ApkCreationException(e, "Failed to close stream");
                 }
             }
         }
@@ -854,43 +924,44 @@ public class PostCompilerBuilder extends BaseBuilder {
     }
 
     /**
-     * Writes the library jar file.
+     * Writes the library jar file, if its content changed.
      * @param jarIFile the destination file
      * @param project the library project
      * @param appPackage the library android package
      * @param javaOutputFolder the JDT output folder.
+     * @return true if the jar file was written.
      */
-    private void writeLibraryPackage(IFile jarIFile, IProject project, String appPackage,
+    private boolean writeLibraryPackage(IFile jarIFile, IProject project, String appPackage,
             IFolder javaOutputFolder) {
 
-        JarOutputStream jos = null;
+        File jarFile = jarIFile.getLocation().toFile();
+        Span span = BuildTrace.begin(project.getName(), "Library Jar"); //$NON-NLS-1$
         try {
-            Manifest manifest = new Manifest();
-            Attributes mainAttributes = manifest.getMainAttributes();
-            mainAttributes.put(Attributes.Name.CLASS_PATH, "Android ADT"); //$NON-NLS-1$
-            mainAttributes.putValue("Created-By", "1.0 (Android)"); //$NON-NLS-1$  //$NON-NLS-2$
-            jos = new JarOutputStream(
-                    new FileOutputStream(jarIFile.getLocation().toFile()), manifest);
-
-            JarBuilder jarBuilder = new JarBuilder(jos, appPackage);
+            JarBuilder jarBuilder = new JarBuilder(appPackage);
 
-            // write the class files
+            // collect the class files
             writeClassFilesIntoJar(jarBuilder, javaOutputFolder, javaOutputFolder);
 
-            // now write the standard Java resources from the output folder
+            // now collect the standard Java resources from the output folder
             ApkBuilder.addSourceFolder(jarBuilder, javaOutputFolder.getLocation().toFile());
 
+            boolean written = jarBuilder.write(jarFile);
+            span.addCacheResult(written == false);
+            if (written == false) {
+                AdtPlugin.printBuildToConsole(BuildVerbosity.VERBOSE, project,
+                        String.format("%1$s is up to date.", jarFile.getName())); //$NON-NLS-1$
+            }
+
             saveProjectBooleanProperty(PROPERTY_CONVERT_TO_DEX, mConvertToDex);
+            return written;
         } catch (Exception e) {
             AdtPlugin.log(e, "Failed to write jar file %s", jarIFile.getLocation().toOSString());
+            // the jar may be partially written, make sure the next build writes it again.
+            jarFile.delete();
+            return true;
         } finally {
-            if (jos != null) {
-                try {
-                    jos.close();
-                } catch (IOException e) {
-                    // pass
-                }
-            }
+            span.addBytesOut(jarFile.length());
+            span.end();
         }
     }
 
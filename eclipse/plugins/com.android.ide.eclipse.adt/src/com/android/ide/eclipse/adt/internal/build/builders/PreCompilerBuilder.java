@@ -24,6 +24,8 @@ import com.android.ide.eclipse.adt.AdtConstants;
 import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.internal.build.AaptParser;
 import com.android.ide.eclipse.adt.internal.build.AidlProcessor;
+import com.android.ide.eclipse.adt.internal.build.BuildTrace;
+import com.android.ide.eclipse.adt.internal.build.BuildTrace.Span;
 import com.android.ide.eclipse.adt.internal.build.Messages;
 import com.android.ide.eclipse.adt.internal.build.RenderScriptLauncher;
 import com.android.ide.eclipse.adt.internal.build.RsSourceChangeHandler;
@@ -664,8 +666,13 @@ public class PreCompilerBuilder extends BaseBuilder {
                     enabled = Boolean.valueOf(propValue);
                 }
 
-                if (mergeManifest(androidOutputFolder, libProjects, enabled) == false) {
-                    return result;
+                Span span = BuildTrace.begin(project.getName(), "Merge Manifest"); //$NON-NLS-1$
+                try {
+                    if (mergeManifest(androidOutputFolder, libProjects, enabled) == false) {
+                        return result;
+                    }
+                } finally {
+                    span.end();
                 }
             }
 
@@ -680,6 +687,7 @@ public class PreCompilerBuilder extends BaseBuilder {
             int processorStatus = SourceProcessor.COMPILE_STATUS_NONE;
 
 
+            Span span = BuildTrace.begin(project.getName(), "AIDL"); //$NON-NLS-1$
             try {
                 processorStatus |= mAidlProcessor.compileFiles(this,
                         project, projectTarget, sourceFolderPathList,
@@ -687,14 +695,19 @@ public class PreCompilerBuilder extends BaseBuilder {
             } catch (Throwable t) {
                 handleException(t, "Failed to run aidl. Check workspace log for detail.");
                 return result;
+            } finally {
+                span.end();
             }
 
+            span = BuildTrace.begin(project.getName(), "RenderScript"); //$NON-NLS-1$
             try {
                 processorStatus |= compileRs(minSdkValue, projectState, androidOutputFolder,
                         resOutFolder, monitor);
             } catch (Throwable t) {
                 handleException(t, "Failed to run renderscript. Check workspace log for detail.");
                 return result;
+            } finally {
+                span.end();
             }
 
             // if a processor created some resources file, force recompilation of the resources.
@@ -717,8 +730,13 @@ public class PreCompilerBuilder extends BaseBuilder {
                     proguardFile = androidOutputFolder.getFile(AdtConstants.FN_AAPT_PROGUARD);
                 }
 
-                handleResources(project, javaPackage, projectTarget, manifestFile, resOutFolder,
-                        libProjects, isLibrary, proguardFile);
+                span = BuildTrace.begin(project.getName(), "aapt R generation"); //$NON-NLS-1$
+                try {
+                    handleResources(project, javaPackage, projectTarget, manifestFile,
+                            resOutFolder, libProjects, isLibrary, proguardFile);
+                } finally {
+                    span.end();
+                }
             }
 
             if (processorStatus == SourceProcessor.COMPILE_STATUS_NONE &&
@@ -735,6 +753,9 @@ public class PreCompilerBuilder extends BaseBuilder {
             if (resOutFolder != null) {
                 resOutFolder.refreshLocal(IResource.DEPTH_INFINITE, mDerivedProgressMonitor);
             }
+
+            // JDT runs next, the post compiler ends this span.
+            BuildTrace.beginPending(project.getName(), BuildTrace.SPAN_JAVAC);
         }
 
         return result;
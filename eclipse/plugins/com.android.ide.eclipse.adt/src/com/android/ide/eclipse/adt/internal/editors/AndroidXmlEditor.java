@@ -150,6 +150,12 @@ public abstract class AndroidXmlEditor extends FormEditor {
      */
     private int mIsEditXmlModelPending;
 
+    /**
+     * Flag indicating that the listeners are notified of the changes made by
+     * {@link #wrapEditXmlModel(Runnable)}.
+     */
+    private boolean mIsNotifyingEditXmlModel;
+
     /**
      * Usually null, but during an editing operation, represents the highest
      * node which should be formatted when the editing operation is complete.
@@ -1111,10 +1117,12 @@ public abstract class AndroidXmlEditor extends FormEditor {
                 IStructuredModel readModel = getModelForRead();
                 if (readModel != null) {
                     try {
+                        mIsNotifyingEditXmlModel = true;
                         mXmlModelStateListener.modelChanged(readModel);
                     } catch (Exception e) {
                         AdtPlugin.log(e, "Error while notifying changes"); //$NON-NLS-1$
                     } finally {
+                        mIsNotifyingEditXmlModel = false;
                         readModel.releaseFromRead();
                     }
                 }
@@ -1200,6 +1208,16 @@ public abstract class AndroidXmlEditor extends FormEditor {
         return mIsEditXmlModelPending > 0;
     }
 
+    /**
+     * Returns true when the XML model changes being notified were made by
+     * {@link #wrapEditXmlModel(Runnable)}, rather than by editing the XML text.
+     *
+     * @return true if the editor itself changed the XML model
+     */
+    public boolean isNotifyingEditXmlModel() {
+        return mIsNotifyingEditXmlModel;
+    }
+
     /**
      * Returns the XML {@link Document} or null if we can't get it
      */
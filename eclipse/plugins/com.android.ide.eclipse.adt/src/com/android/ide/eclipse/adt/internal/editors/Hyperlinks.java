@@ -65,14 +65,14 @@ import com.android.ide.eclipse.adt.internal.project.BaseProjectHelper;
 import com.android.ide.eclipse.adt.internal.resources.ResourceHelper;
 import com.android.ide.eclipse.adt.internal.resources.manager.ProjectResources;
 import com.android.ide.eclipse.adt.internal.resources.manager.ResourceManager;
+import com.android.ide.eclipse.adt.internal.resources.manager.ResourceReferenceIndex;
+import com.android.ide.eclipse.adt.internal.resources.manager.ResourceReferenceIndex.Location;
 import com.android.ide.eclipse.adt.internal.sdk.AndroidTargetData;
 import com.android.ide.eclipse.adt.internal.sdk.ProjectState;
 import com.android.ide.eclipse.adt.internal.sdk.Sdk;
 import com.android.ide.eclipse.adt.io.IFileWrapper;
-import com.android.ide.eclipse.adt.io.IFolderWrapper;
 import com.android.io.FileWrapper;
 import com.android.io.IAbstractFile;
-import com.android.io.IAbstractFolder;
 import com.android.resources.ResourceFolderType;
 import com.android.resources.ResourceType;
 import com.android.sdklib.IAndroidTarget;
@@ -91,7 +91,6 @@ import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.NullProgressMonitor;
@@ -834,66 +833,40 @@ public class Hyperlinks {
             }
         }
 
-        // Look in the configuration folder: Search compatible configurations
-        ResourceRepository resources = getResources(project, false /* isFramework */);
-        FolderConfiguration configuration = getConfiguration();
-        if (configuration != null) { // Not the case when searching from Java files for example
-            List<ResourceFolder> folders = resources.getFolders(ResourceFolderType.LAYOUT);
-            if (folders != null) {
-                for (ResourceFolder folder : folders) {
-                    if (folder.getConfiguration().isMatchFor(configuration)) {
-                        IAbstractFolder wrapper = folder.getFolder();
-                        if (wrapper instanceof IFolderWrapper) {
-                            IFolder iFolder = ((IFolderWrapper) wrapper).getIFolder();
-                            Pair<IFile, IRegion> target = findIdInFolder(iFolder, id);
-                            if (target != null) {
-                                return target;
-                            }
-                        }
-                    }
-                }
-                return null;
+        // Only look in the layouts which define the id according to the reference index,
+        // rather than parsing all the layouts of the project
+        List<IFile> files = new ArrayList<IFile>();
+        for (Location location : ResourceReferenceIndex.getInstance().getLocations(project,
+                ResourceType.ID, id)) {
+            if (location.isDefinition()
+                    && location.getFolderType() == ResourceFolderType.LAYOUT
+                    && !files.contains(location.getFile())) {
+                files.add(location.getFile());
             }
         }
 
-        // Ugh. Search ALL layout files in the project!
-        List<ResourceFolder> folders = resources.getFolders(ResourceFolderType.LAYOUT);
-        if (folders != null) {
-            for (ResourceFolder folder : folders) {
-                IAbstractFolder wrapper = folder.getFolder();
-                if (wrapper instanceof IFolderWrapper) {
-                    IFolder iFolder = ((IFolderWrapper) wrapper).getIFolder();
-                    Pair<IFile, IRegion> target = findIdInFolder(iFolder, id);
+        // Look in the configuration folder: Search compatible configurations
+        FolderConfiguration configuration = getConfiguration();
+        if (configuration != null) { // Not the case when searching from Java files for example
+            for (IFile file : files) {
+                FolderConfiguration folderConfig = FolderConfiguration.getConfigForFolder(
+                        file.getParent().getName());
+                if (folderConfig != null && folderConfig.isMatchFor(configuration)) {
+                    Pair<IFile, IRegion> target = findIdInXml(id, file);
                     if (target != null) {
                         return target;
                     }
                 }
             }
+            return null;
         }
 
-        return null;
-    }
-
-    /**
-     * Finds a definition of an id attribute in a particular layout folder.
-     */
-    private static Pair<IFile, IRegion> findIdInFolder(IContainer f, String id) {
-        try {
-            // Check XML files in values/
-            for (IResource resource : f.members()) {
-                if (resource.exists() && !resource.isDerived() && resource instanceof IFile) {
-                    IFile file = (IFile) resource;
-                    // Must have an XML extension
-                    if (EXT_XML.equals(file.getFileExtension())) {
-                        Pair<IFile, IRegion> target = findIdInXml(id, file);
-                        if (target != null) {
-                            return target;
-                        }
-                    }
-                }
+        // Search all the layout files defining the id
+        for (IFile file : files) {
+            Pair<IFile, IRegion> target = findIdInXml(id, file);
+            if (target != null) {
+                return target;
             }
-        } catch (CoreException e) {
-            AdtPlugin.log(e, ""); //$NON-NLS-1$
         }
 
         return null;
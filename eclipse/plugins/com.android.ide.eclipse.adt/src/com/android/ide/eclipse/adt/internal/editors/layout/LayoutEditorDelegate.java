@@ -781,12 +781,22 @@ public class LayoutEditorDelegate extends CommonXmlDelegate
      * called from the UI thread.
      */
     public boolean isGraphicalEditorActive() {
+        return isGraphicalEditorVisible()
+                && getEditor().getSite().getPage().getActiveEditor() == getEditor();
+    }
+
+    /**
+     * Returns true if the graphical editor is the visible page of the editor, and the editor
+     * is visible in the workbench, but not necessarily the active editor.
+     *
+     * @return true if the graphical editor is visible
+     */
+    public boolean isGraphicalEditorVisible() {
         IWorkbenchPartSite workbenchSite = getEditor().getSite();
         IWorkbenchPage workbenchPage = workbenchSite.getPage();
 
         // check if the editor is visible in the workbench page
-        if (workbenchPage.isPartVisible(getEditor())
-                && workbenchPage.getActiveEditor() == getEditor()) {
+        if (workbenchPage.isPartVisible(getEditor())) {
             // and then if the page of the editor is visible (not to be confused with
             // the workbench page)
             return mGraphicalEditorIndex == getEditor().getActivePage();
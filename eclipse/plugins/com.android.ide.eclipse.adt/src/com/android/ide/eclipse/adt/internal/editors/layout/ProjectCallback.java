@@ -49,6 +49,7 @@ import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.internal.editors.layout.gle2.GraphicalEditorPart;
 import com.android.ide.eclipse.adt.internal.editors.layout.gle2.LayoutMetadata;
 import com.android.ide.eclipse.adt.internal.editors.layout.gle2.RenderLogger;
+import com.android.ide.eclipse.adt.internal.editors.layout.gle2.RenderStatistics;
 import com.android.ide.eclipse.adt.internal.editors.layout.uimodel.UiViewElementNode;
 import com.android.ide.eclipse.adt.internal.project.AndroidManifestHelper;
 import com.android.ide.eclipse.adt.internal.resources.manager.ProjectClassLoader;
@@ -69,6 +70,7 @@ import java.io.StringReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -81,8 +83,12 @@ import java.util.TreeSet;
  */
 public final class ProjectCallback extends LayoutlibCallback {
     private final HashMap<String, Class<?>> mLoadedClasses = new HashMap<String, Class<?>>();
-    private final Set<String> mMissingClasses = new TreeSet<String>();
-    private final Set<String> mBrokenClasses = new TreeSet<String>();
+    /** The classes which could not be found, also recorded by the background renderings */
+    private final Set<String> mMissingClasses =
+            Collections.synchronizedSet(new TreeSet<String>());
+    /** The classes which could not be instantiated, also recorded by background renderings */
+    private final Set<String> mBrokenClasses =
+            Collections.synchronizedSet(new TreeSet<String>());
     private final IProject mProject;
     private final ClassLoader mParentClassLoader;
     private final ProjectResources mProjectRes;
@@ -96,6 +102,9 @@ public final class ProjectCallback extends LayoutlibCallback {
     private ILayoutPullParser mLayoutEmbeddedParser;
     private ResourceResolver mResourceResolver;
     private GraphicalEditorPart mEditor;
+    private RenderStatistics mStatistics;
+    /** The number of custom views being loaded, which construct the nested ones */
+    private int mLoadViewDepth;
 
     /**
      * Creates a new {@link ProjectCallback} to be used with the layout lib.
@@ -116,12 +125,24 @@ public final class ProjectCallback extends LayoutlibCallback {
         mEditor = editor;
     }
 
+    /** Returns a copy of the classes which could not be found */
     public Set<String> getMissingClasses() {
-        return mMissingClasses;
+        synchronized (mMissingClasses) {
+            return new TreeSet<String>(mMissingClasses);
+        }
     }
 
+    /** Returns a copy of the classes which could not be instantiated */
     public Set<String> getUninstantiatableClasses() {
-        return mBrokenClasses;
+        synchronized (mBrokenClasses) {
+            return new TreeSet<String>(mBrokenClasses);
+        }
+    }
+
+    /** Forgets the missing and broken classes, prior to a rendering */
+    public void clearFailingClasses() {
+        mMissingClasses.clear();
+        mBrokenClasses.clear();
     }
 
     /**
@@ -142,6 +163,16 @@ public final class ProjectCallback extends LayoutlibCallback {
         return mLogger;
     }
 
+    /**
+     * Sets the {@link RenderStatistics} recording the views loaded and the layouts included
+     * during rendering
+     *
+     * @param statistics the statistics of the rendering, or null to clear them out
+     */
+    public void setStatistics(RenderStatistics statistics) {
+        mStatistics = statistics;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -153,6 +184,26 @@ public final class ProjectCallback extends LayoutlibCallback {
     public Object loadView(String className, Class[] constructorSignature,
             Object[] constructorParameters)
             throws Exception {
+        if (mStatistics == null) {
+            return doLoadView(className, constructorSignature, constructorParameters);
+        }
+
+        RenderStatistics statistics = mStatistics;
+        long start = System.nanoTime();
+        mLoadViewDepth++;
+        try {
+            return doLoadView(className, constructorSignature, constructorParameters);
+        } finally {
+            mLoadViewDepth--;
+            statistics.customViewLoaded(className != null ? className : CLASS_VIEW,
+                    System.nanoTime() - start, mLoadViewDepth > 0);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object doLoadView(String className, Class[] constructorSignature,
+            Object[] constructorParameters)
+            throws Exception {
         mUsed = true;
 
         if (className == null) {
@@ -480,6 +531,10 @@ public final class ProjectCallback extends LayoutlibCallback {
     }
 
     private ILayoutPullParser getParser(String layoutName, File xml) {
+        if (mStatistics != null) {
+            mStatistics.layoutIncluded(layoutName);
+        }
+
         if (layoutName.equals(mLayoutName)) {
             ILayoutPullParser parser = mLayoutEmbeddedParser;
             // The parser should only be used once!! If it is included more than once,
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout;
+
+import static com.android.SdkConstants.ANDROID_URI;
+import static com.android.SdkConstants.ATTR_LAYOUT;
+import static com.android.SdkConstants.ATTR_PADDING;
+import static com.android.SdkConstants.AUTO_URI;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.common.rendering.api.ILayoutPullParser;
+import com.android.ide.eclipse.adt.internal.editors.uimodel.UiElementNode;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link ILayoutPullParser} replaying the events of a {@link UiElementPullParser}, recorded
+ * once with all the attribute values of the elements.
+ * <p/>
+ * The snapshot is taken on the UI thread, which owns the UI model, after which the layout
+ * can be inflated from the snapshot on another thread while the model is edited. The view
+ * cookies are the {@link UiElementNode}s of the model, as with {@link UiElementPullParser}.
+ */
+public class SnapshotPullParser extends BasePullParser {
+
+    /** An element of the layout, with its attributes */
+    private static final class Element {
+        final Object mCookie;
+        final String mName;
+        final String mNamespace;
+        final String mPrefix;
+        final int mDepth;
+        final boolean mEmpty;
+        final String[] mAttributeNames;
+        final String[] mAttributeNamespaces;
+        final String[] mAttributePrefixes;
+        final String[] mAttributeValues;
+        /** The values returned for the attributes of the element, by {@link #getKey} */
+        final Map<String, String> mValues = new HashMap<String, String>();
+
+        Element(UiElementPullParser parser) throws XmlPullParserException {
+            mCookie = parser.getViewCookie();
+            mName = parser.getName();
+            mNamespace = parser.getNamespace();
+            mPrefix = parser.getPrefix();
+            mDepth = parser.getDepth();
+            mEmpty = parser.isEmptyElementTag();
+
+            int count = parser.getAttributeCount();
+            mAttributeNames = new String[count];
+            mAttributeNamespaces = new String[count];
+            mAttributePrefixes = new String[count];
+            mAttributeValues = new String[count];
+            for (int i = 0; i < count; i++) {
+                mAttributeNames[i] = parser.getAttributeName(i);
+                mAttributeNamespaces[i] = parser.getAttributeNamespace(i);
+                mAttributePrefixes[i] = parser.getAttributePrefix(i);
+                mAttributeValues[i] = parser.getAttributeValue(i);
+            }
+
+            Node xmlNode = ((UiElementNode) mCookie).getXmlNode();
+            if (xmlNode != null) {
+                NamedNodeMap attributes = xmlNode.getAttributes();
+                for (int i = 0, n = attributes.getLength(); i < n; i++) {
+                    Node attribute = attributes.item(i);
+                    record(parser, attribute.getNamespaceURI(), attribute.getLocalName());
+                }
+            }
+
+            // the values computed by the parser rather than read from the attributes: the
+            // padding of exploded views, and the layout of fragments rendered as includes.
+            record(parser, ANDROID_URI, ATTR_PADDING);
+            record(parser, null, ATTR_LAYOUT);
+        }
+
+        private void record(UiElementPullParser parser, String namespace, String name) {
+            if (name != null) {
+                String value = parser.getAttributeValue(namespace, name);
+                if (value != null) {
+                    mValues.put(getKey(namespace, name), value);
+                }
+            }
+        }
+
+        @Nullable
+        String getValue(@Nullable String namespace, @NonNull String name) {
+            String value = mValues.get(getKey(namespace, name));
+            if (value == null && namespace != null && !namespace.equals(ANDROID_URI)) {
+                // res-auto attributes of library projects, as in UiElementPullParser.
+                value = mValues.get(getKey(AUTO_URI, name));
+            }
+            return value;
+        }
+
+        private static String getKey(String namespace, String name) {
+            return namespace != null ? namespace + ':' + name : name;
+        }
+    }
+
+    /** A changed attribute, as returned by {@link SnapshotPullParser#getAttributeChanges} */
+    public static final class AttributeChange {
+        private final UiElementNode mNode;
+        private final String mNamespace;
+        private final String mName;
+        private final String mValue;
+
+        AttributeChange(UiElementNode node, String namespace, String name, String value) {
+            mNode = node;
+            mNamespace = namespace;
+            mName = name;
+            mValue = value;
+        }
+
+        /** Returns the node of the changed attribute, which is a view cookie */
+        @NonNull
+        public UiElementNode getNode() {
+            return mNode;
+        }
+
+        /** Returns the namespace of the attribute, or null */
+        @Nullable
+        public String getNamespace() {
+            return mNamespace;
+        }
+
+        /** Returns the local name of the attribute */
+        @NonNull
+        public String getName() {
+            return mName;
+        }
+
+        /** Returns the new value of the attribute */
+        @NonNull
+        public String getValue() {
+            return mValue;
+        }
+    }
+
+    /** The events, with the element of each start and end tag */
+    private final List<Integer> mEvents = new ArrayList<Integer>();
+    private final List<Element> mElements = new ArrayList<Element>();
+    private int mIndex;
+
+    /**
+     * Records the events of a parser.
+     *
+     * @param parser a parser which hasn't been used yet
+     * @throws XmlPullParserException if the parser fails
+     */
+    public SnapshotPullParser(@NonNull UiElementPullParser parser)
+            throws XmlPullParserException {
+        List<Element> stack = new ArrayList<Element>();
+        int event = parser.next();
+        while (event != END_DOCUMENT) {
+            Element element = null;
+            if (event == START_TAG) {
+                element = new Element(parser);
+                stack.add(element);
+            } else if (event == END_TAG) {
+                element = stack.remove(stack.size() - 1);
+            }
+            mEvents.add(event);
+            mElements.add(element);
+            event = parser.next();
+        }
+        mEvents.add(END_DOCUMENT);
+        mElements.add(null);
+        mIndex = -1;
+    }
+
+    /**
+     * Returns the changes of the attributes from another snapshot of the same layout, or
+     * null if the layouts have different elements, or if an attribute was removed.
+     *
+     * @param previous the previous snapshot of the layout
+     * @return the changed attributes, or null
+     */
+    @Nullable
+    public List<AttributeChange> getAttributeChanges(@NonNull SnapshotPullParser previous) {
+        if (previous.mEvents.size() != mEvents.size()) {
+            return null;
+        }
+
+        List<AttributeChange> changes = new ArrayList<AttributeChange>();
+        for (int i = 0, n = mEvents.size(); i < n; i++) {
+            if (!mEvents.get(i).equals(previous.mEvents.get(i))) {
+                return null;
+            }
+            Element element = mElements.get(i);
+            Element previousElement = previous.mElements.get(i);
+            if (element == null || mEvents.get(i) != START_TAG) {
+                continue;
+            }
+            if (element.mCookie != previousElement.mCookie
+                    || !element.mName.equals(previousElement.mName)
+                    || !element.mValues.keySet().containsAll(previousElement.mValues.keySet())) {
+                return null;
+            }
+            for (Map.Entry<String, String> entry : element.mValues.entrySet()) {
+                String value = entry.getValue();
+                if (!value.equals(previousElement.mValues.get(entry.getKey()))) {
+                    String key = entry.getKey();
+                    int separator = key.lastIndexOf(':');
+                    String namespace = separator != -1 ? key.substring(0, separator) : null;
+                    String name = key.substring(separator + 1);
+                    changes.add(new AttributeChange((UiElementNode) element.mCookie, namespace,
+                            name, value));
+                }
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Adds the content of the layout to a hash: the names of the elements, and the values of
+     * their attributes, in an order which doesn't depend on the order of the attributes.
+     *
+     * @param hasher the hasher to add the layout to
+     */
+    public void putContent(@NonNull Hasher hasher) {
+        for (int i = 0, n = mEvents.size(); i < n; i++) {
+            int event = mEvents.get(i);
+            hasher.putInt(event);
+            Element element = mElements.get(i);
+            if (element == null || event != START_TAG) {
+                continue;
+            }
+            hasher.putString(element.mName, Charsets.UTF_8);
+            for (Map.Entry<String, String> entry : new TreeMap<String, String>(
+                    element.mValues).entrySet()) {
+                hasher.putString(entry.getKey(), Charsets.UTF_8);
+                hasher.putChar('=');
+                hasher.putString(entry.getValue(), Charsets.UTF_8);
+                hasher.putChar('\n');
+            }
+        }
+    }
+
+    private Element getElement() {
+        return mIndex >= 0 ? mElements.get(mIndex) : null;
+    }
+
+    private void advance() {
+        mIndex++;
+        mParsingState = mEvents.get(mIndex);
+    }
+
+    // ------------- IXmlPullParser --------
+
+    @Override
+    public Object getViewCookie() {
+        Element element = getElement();
+        return element != null ? element.mCookie : null;
+    }
+
+    @Override
+    public Object getViewKey() {
+        return getViewCookie();
+    }
+
+    @Override
+    public ILayoutPullParser getParser(String layoutName) {
+        return null;
+    }
+
+    // ------------- XmlPullParser --------
+
+    @Override
+    public String getPositionDescription() {
+        return "XML DOM element depth:" + getDepth();
+    }
+
+    @Override
+    public int getAttributeCount() {
+        Element element = getElement();
+        return element != null ? element.mAttributeNames.length : 0;
+    }
+
+    @Override
+    public String getAttributeName(int i) {
+        return getElement().mAttributeNames[i];
+    }
+
+    @Override
+    public String getAttributeNamespace(int i) {
+        return getElement().mAttributeNamespaces[i];
+    }
+
+    @Override
+    public String getAttributePrefix(int i) {
+        return getElement().mAttributePrefixes[i];
+    }
+
+    @Override
+    public String getAttributeValue(int i) {
+        return getElement().mAttributeValues[i];
+    }
+
+    @Override
+    public String getAttributeValue(String namespace, String localName) {
+        Element element = getElement();
+        return element != null ? element.getValue(namespace, localName) : null;
+    }
+
+    @Override
+    public int getDepth() {
+        Element element = getElement();
+        return element != null ? element.mDepth : 0;
+    }
+
+    @Override
+    public String getName() {
+        Element element = getElement();
+        return element != null ? element.mName : null;
+    }
+
+    @Override
+    public String getNamespace() {
+        Element element = getElement();
+        return element != null ? element.mNamespace : null;
+    }
+
+    @Override
+    public String getPrefix() {
+        Element element = getElement();
+        return element != null ? element.mPrefix : null;
+    }
+
+    @Override
+    public boolean isEmptyElementTag() throws XmlPullParserException {
+        if (mParsingState == START_TAG) {
+            return getElement().mEmpty;
+        }
+
+        throw new XmlPullParserException("Call to isEmptyElementTag while not in START_TAG",
+                this, null);
+    }
+
+    @Override
+    public void onNextFromStartDocument() {
+        advance();
+    }
+
+    @Override
+    public void onNextFromStartTag() {
+        advance();
+    }
+
+    @Override
+    public void onNextFromEndTag() {
+        advance();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import com.android.ide.eclipse.adt.AdtPlugin;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Shell;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Saves the {@link RenderStatistics} of the last renderings of the layout editors to a
+ * text file
+ */
+class ExportRenderStatisticsAction extends Action {
+    private static final String DOT_TXT = ".txt"; //$NON-NLS-1$
+
+    ExportRenderStatisticsAction() {
+        super("Export Render Statistics...");
+    }
+
+    @Override
+    public void run() {
+        Shell shell = AdtPlugin.getShell();
+
+        String statistics = RenderStatistics.describeHistory();
+        if (statistics.isEmpty()) {
+            MessageDialog.openError(shell, "Error", "No rendering statistics available");
+            return;
+        }
+
+        FileDialog dialog = new FileDialog(shell, SWT.SAVE);
+        dialog.setFilterExtensions(new String[] { "*.txt" }); //$NON-NLS-1$
+        dialog.setFileName("render-statistics.txt"); //$NON-NLS-1$
+        dialog.setOverwrite(true);
+        String path = dialog.open();
+        if (path != null) {
+            if (!path.endsWith(DOT_TXT)) {
+                path = path + DOT_TXT;
+            }
+            try {
+                Files.write(statistics, new File(path), Charsets.UTF_8);
+            } catch (IOException e) {
+                AdtPlugin.log(e, "Failed to write %1$s", path);
+                MessageDialog.openError(shell, "Export Render Statistics",
+                        String.format("Failed to write %1$s: %2$s", path, e.getMessage()));
+            }
+        }
+    }
+}
@@ -281,6 +281,11 @@ public class GraphicalEditorPart extends EditorPart
     private boolean mNeedsRecompute = false;
     private TargetListener mTargetListener;
     private ResourceResolver mResourceResolver;
+    /**
+     * The time spent creating {@link #mResourceResolver}, in nanoseconds, until a rendering
+     * takes it into its statistics
+     */
+    private long mResourceResolverTime;
     private ReloadListener mReloadListener;
     private int mMinSdkVersion;
     private int mTargetSdkVersion;
@@ -292,6 +297,9 @@ public class GraphicalEditorPart extends EditorPart
     private boolean mRenderedOnce;
     private final Object mCredential = new Object();
 
+    /** Renders the layout in the background as the XML is edited */
+    private final RenderScheduler mRenderScheduler = new RenderScheduler(this);
+
     /**
      * Flags which tracks whether this editor is currently active which is set whenever
      * {@link #activated()} is called and clear whenever {@link #deactivated()} is called.
@@ -634,6 +642,8 @@ public class GraphicalEditorPart extends EditorPart
             mReloadListener = null;
         }
 
+        mRenderScheduler.cancel();
+
         if (mCanvasViewer != null) {
             mCanvasViewer.dispose();
             mCanvasViewer = null;
@@ -1164,6 +1174,9 @@ public class GraphicalEditorPart extends EditorPart
         }
 
         computeSdkVersion();
+
+        // the stamp of the project is needed to look up the last rendering of the layout
+        RenderCache.getInstance().prepare(mEditedFile.getProject());
     }
 
     /**
@@ -1250,21 +1263,21 @@ public class GraphicalEditorPart extends EditorPart
      * Callback for XML model changed. Only update/recompute the layout if the editor is visible
      */
     public void onXmlModelChanged() {
-        // To optimize the rendering when the user is editing in the XML pane, we don't
-        // refresh the editor if it's not the active part.
+        // The changes made by the canvas, the outline or the property sheet are rendered
+        // right away, as the canvas relies on the new views, for instance to select the
+        // dropped elements. The other changes, such as typing in the XML pane, are rendered
+        // in the background, after a short delay to render a series of changes only once.
         //
-        // This behavior is acceptable when the editor is the single "full screen" part
-        // (as in this case active means visible.)
-        // Unfortunately this breaks in 2 cases:
-        // - when performing a drag'n'drop from one editor to another, the target is not
-        //   properly refreshed before it becomes active.
-        // - when duplicating the editor window and placing both editors side by side (xml in one
-        //   and canvas in the other one), the canvas may not be refreshed when the XML is edited.
-        //
-        // TODO find a way to really query whether the pane is visible, not just active.
+        // When the editor is not visible, for instance when the XML pane is displayed, the
+        // layout is recomputed when the editor becomes active. This also covers the
+        // drag'n'drop from one editor to another, which must be rendered before the target
+        // becomes active: the target is visible.
 
-        if (mEditorDelegate.isGraphicalEditorActive()) {
+        if (mEditorDelegate.isGraphicalEditorActive()
+                && mEditorDelegate.getEditor().isNotifyingEditXmlModel()) {
             recomputeLayout();
+        } else if (mEditorDelegate.isGraphicalEditorVisible()) {
+            mRenderScheduler.schedule();
         } else {
             // Remember we want to recompute as soon as the editor becomes active.
             mNeedsRecompute = true;
@@ -1275,6 +1288,9 @@ public class GraphicalEditorPart extends EditorPart
      * Recomputes the layout
      */
     public void recomputeLayout() {
+        // this rendering replaces any rendering scheduled in the background
+        mRenderScheduler.cancel();
+
         try {
             if (!ensureFileValid()) {
                 return;
@@ -1567,25 +1583,145 @@ public class GraphicalEditorPart extends EditorPart
         LayoutCanvas canvas = getCanvasControl();
         Set<UiElementNode> explodeNodes = canvas.getNodesToExplode();
         RenderLogger logger = createRenderLogger(mEditedFile.getName());
-        RenderingMode renderingMode = RenderingMode.NORMAL;
+
+        boolean layoutlib5 = layoutLib.supports(Capability.EMBEDDED_LAYOUT);
+        RenderService.PendingSession pending = createRenderService(model, logger, explodeNodes)
+            .prepareRenderSession();
+        if (pending == null) {
+            publishRender(iProject, model, null, logger, explodeNodes, layoutlib5, null);
+            return;
+        }
+
+        RenderCache cache = RenderCache.getInstance();
+        String cacheKey = computeCacheKey(pending, model, explodeNodes);
+        if (cacheKey != null && !mRenderedOnce) {
+            // the layout is opened: displays the last rendering of the same layout right
+            // away, and renders it in the background in case the views changed
+            RenderSession cached = cache.get(cacheKey, model);
+            if (cached != null) {
+                publishRender(iProject, model, cached, logger, explodeNodes, layoutlib5, null);
+                mRenderScheduler.schedule();
+                return;
+            }
+        }
+
+        RenderSession session = pending.create();
+        if (cacheKey != null && session != null) {
+            cache.put(cacheKey, getCacheSlot(), session, model);
+        }
+        publishRender(iProject, model, session, logger, explodeNodes, layoutlib5,
+                pending.getStatistics());
+    }
+
+    private RenderService createRenderService(UiDocumentNode model, RenderLogger logger,
+            Set<UiElementNode> explodeNodes) {
+        return RenderService.create(this, mCredential)
+            .setModel(model)
+            .setLog(logger)
+            .setRenderingMode(getRenderingMode(model))
+            .setIncludedWithin(mIncludedWithin)
+            .setNodesToExpand(explodeNodes);
+    }
+
+    private static RenderingMode getRenderingMode(UiDocumentNode model) {
         // FIXME set the rendering mode using ViewRule or something.
         List<UiElementNode> children = model.getUiChildren();
         if (children.size() > 0 &&
                 children.get(0).getDescriptor().getXmlLocalName().equals(SCROLL_VIEW)) {
-            renderingMode = RenderingMode.V_SCROLL;
+            return RenderingMode.V_SCROLL;
         }
+        return RenderingMode.NORMAL;
+    }
 
-        RenderSession session = RenderService.create(this, mCredential)
-            .setModel(model)
-            .setLog(logger)
-            .setRenderingMode(renderingMode)
-            .setIncludedWithin(mIncludedWithin)
-            .setNodesToExpand(explodeNodes)
-            .createRenderSession();
+    /**
+     * Returns the key of a rendering in the {@link RenderCache}, or null if it cannot be
+     * cached, because some views are exploded.
+     */
+    @Nullable
+    private String computeCacheKey(RenderService.PendingSession pending, UiDocumentNode model,
+            Set<UiElementNode> explodeNodes) {
+        if (explodeNodes != null && !explodeNodes.isEmpty()) {
+            return null;
+        }
+        return RenderCache.getInstance().computeKey(mEditedFile.getProject(), pending,
+                mConfigChooser.getConfiguration(), getRenderingTarget(),
+                getRenderingMode(model).name() + String.valueOf(mIncludedWithin));
+    }
 
-        boolean layoutlib5 = layoutLib.supports(Capability.EMBEDDED_LAYOUT);
+    /** Returns the layout and configuration of the renderings, for the {@link RenderCache} */
+    @NonNull
+    String getCacheSlot() {
+        return mEditedFile.getFullPath().toString()
+                + mConfigChooser.getConfiguration().toPersistentString();
+    }
+
+    /**
+     * Prepares a rendering of the model for the {@link RenderScheduler}. When the layout
+     * cannot be rendered, such as when the model is empty, the layout is recomputed right
+     * away instead, which displays the error.
+     *
+     * @return the rendering to perform in the background, or null
+     */
+    @Nullable
+    RenderScheduler.Request prepareRender() {
+        UiDocumentNode model = getModel();
+        LayoutLibrary layoutLib = null;
+        if (ensureFileValid() && ensureModelValid(model)) {
+            layoutLib = getReadyLayoutLib(false /*displayError*/);
+        }
+        if (layoutLib == null) {
+            recomputeLayout();
+            return null;
+        }
+
+        // if drawing in real size, (re)set the scaling factor.
+        if (mActionBar.isZoomingRealSize()) {
+            mActionBar.computeAndSetRealScale(false /* redraw */);
+        }
+
+        Set<UiElementNode> explodeNodes = getCanvasControl().getNodesToExplode();
+        RenderLogger logger = createRenderLogger(mEditedFile.getName());
+        RenderService.PendingSession pending = createRenderService(model, logger, explodeNodes)
+            .prepareRenderSession();
+        if (pending == null) {
+            recomputeLayout();
+            return null;
+        }
+
+        RenderScheduler.Request request = new RenderScheduler.Request(mEditedFile.getProject(),
+                model, logger, explodeNodes, layoutLib.supports(Capability.EMBEDDED_LAYOUT),
+                pending);
+        request.mCacheKey = computeCacheKey(pending, model, explodeNodes);
+        request.mCacheSlot = getCacheSlot();
+        return request;
+    }
+
+    /**
+     * Displays the result of a rendering of the model, along with its errors
+     *
+     * @param iProject the project of the layout
+     * @param model the rendered model
+     * @param session the result of the rendering, or null
+     * @param logger the logger of the rendering
+     * @param explodeNodes the nodes which were exploded
+     * @param layoutlib5 whether the layout library supports the embedded layouts
+     * @param statistics the statistics of the rendering, completed with the image transfer
+     *            and recorded, or null if the session was not rendered for this model
+     */
+    void publishRender(IProject iProject, UiDocumentNode model,
+            @Nullable RenderSession session, RenderLogger logger,
+            Set<UiElementNode> explodeNodes, boolean layoutlib5,
+            @Nullable RenderStatistics statistics) {
+        LayoutCanvas canvas = getCanvasControl();
         canvas.setSession(session, explodeNodes, layoutlib5);
 
+        if (statistics != null && session != null && session.getResult().isSuccess()) {
+            statistics.add(RenderStatistics.Phase.IMAGE,
+                    canvas.getImageOverlay().getLastTransferTime());
+            RenderStatistics.record(statistics);
+        }
+        canvas.setRenderStatistics(statistics);
+
         // update the UiElementNode with the layout info.
         if (session != null && session.getResult().isSuccess() == false) {
             // An error was generated. Print it (and any other accumulated warnings)
@@ -1649,6 +1785,7 @@ public class GraphicalEditorPart extends EditorPart
      */
     public ResourceResolver getResourceResolver() {
         if (mResourceResolver == null) {
+            long start = System.nanoTime();
             String theme = mConfigChooser.getThemeName();
             if (theme == null) {
                 displayError("Missing theme.");
@@ -1676,11 +1813,24 @@ public class GraphicalEditorPart extends EditorPart
             mResourceResolver = ResourceResolver.create(
                     configuredProjectRes, frameworkResources,
                     theme, isProjectTheme);
+            mResourceResolverTime = System.nanoTime() - start;
         }
 
         return mResourceResolver;
     }
 
+    /**
+     * Returns the time spent creating the current resource resolver, including the
+     * configuration of the resources, if no rendering took it into its statistics yet
+     *
+     * @return the time in nanoseconds, or 0 if the resolver was already used by a rendering
+     */
+    long takeResourceResolverTime() {
+        long time = mResourceResolverTime;
+        mResourceResolverTime = 0;
+        return time;
+    }
+
     /** Returns a project callback, and optionally resets it */
     ProjectCallback getProjectCallback(boolean reset, LayoutLibrary layoutLibrary) {
         // Lazily create the project callback the first time we need it
@@ -1692,8 +1842,7 @@ public class GraphicalEditorPart extends EditorPart
                     mCredential, this);
         } else if (reset) {
             // Also clears the set of missing/broken classes prior to rendering
-            mProjectCallback.getMissingClasses().clear();
-            mProjectCallback.getUninstantiatableClasses().clear();
+            mProjectCallback.clearFailingClasses();
         }
 
         return mProjectCallback;
@@ -1792,6 +1941,9 @@ public class GraphicalEditorPart extends EditorPart
                 // force a reparse in case a value XML file changed.
                 mConfiguredProjectRes = null;
                 mResourceResolver = null;
+                if (mCanvasViewer != null) {
+                    getCanvasControl().getPreviewManager().resourcesChanged();
+                }
 
                 // clear the cache in the bridge in case a bitmap/9-patch changed.
                 LayoutLibrary layoutLib = getReadyLayoutLib(true /*displayError*/);
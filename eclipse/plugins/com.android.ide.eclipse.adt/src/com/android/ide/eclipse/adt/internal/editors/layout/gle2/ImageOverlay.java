@@ -64,6 +64,13 @@ public class ImageOverlay extends Overlay implements IImageFactory {
      * by the LayoutLib. */
     private SoftReference<BufferedImage> mAwtImage = new SoftReference<BufferedImage>(null);
 
+    /**
+     * The AWT image returned by {@link #getImage()} for the next rendering, which is never the
+     * current image, such that a rendering in the background doesn't draw into the painted
+     * image. The two images are swapped when the next one is set with {@link #setImage}.
+     */
+    private SoftReference<BufferedImage> mNextAwtImage = new SoftReference<BufferedImage>(null);
+
     /**
      * Strong reference to the image in the above soft reference, to prevent
      * garbage collection when {@link PRESCALE} is set, until the scaled image
@@ -83,6 +90,9 @@ public class ImageOverlay extends Overlay implements IImageFactory {
     /** Horizontal scaling & scrollbar information. */
     private CanvasTransform mHScale;
 
+    /** The time spent by the last {@link #setImage} call, in nanoseconds */
+    private long mLastTransferTime;
+
     /**
      * Constructs an {@link ImageOverlay} tied to the given canvas.
      *
@@ -125,9 +135,19 @@ public class ImageOverlay extends Overlay implements IImageFactory {
      * @return The corresponding SWT image, or null.
      */
     public synchronized Image setImage(BufferedImage awtImage, boolean isAlphaChannelImage) {
+        long start = System.nanoTime();
         mShowDropShadow = !isAlphaChannelImage;
 
         BufferedImage oldAwtImage = mAwtImage.get();
+        if (awtImage != null && awtImage == mNextAwtImage.get()) {
+            // swap the images: the current one is drawn into by the next rendering
+            mNextAwtImage = new SoftReference<BufferedImage>(oldAwtImage);
+            mAwtImage = new SoftReference<BufferedImage>(awtImage);
+            if (PRESCALE) {
+                mAwtImageStrongRef = awtImage;
+            }
+            oldAwtImage = awtImage;
+        }
         if (awtImage != oldAwtImage || awtImage == null) {
             mAwtImage.clear();
             mAwtImageStrongRef = null;
@@ -166,9 +186,20 @@ public class ImageOverlay extends Overlay implements IImageFactory {
             mPreScaledImage = null;
         }
 
+        mLastTransferTime = System.nanoTime() - start;
         return mImage;
     }
 
+    /**
+     * Returns the time spent converting the last image set with {@link #setImage} to an SWT
+     * image, for the {@link RenderStatistics}
+     *
+     * @return the time of the conversion, in nanoseconds
+     */
+    public synchronized long getLastTransferTime() {
+        return mLastTransferTime;
+    }
+
     /**
      * Returns the currently painted image, or null if none has been set
      *
@@ -416,17 +447,14 @@ public class ImageOverlay extends Overlay implements IImageFactory {
      * Implementation of {@link IImageFactory#getImage(int, int)}.
      */
     @Override
-    public BufferedImage getImage(int w, int h) {
-        BufferedImage awtImage = mAwtImage.get();
+    public synchronized BufferedImage getImage(int w, int h) {
+        BufferedImage awtImage = mNextAwtImage.get();
         if (awtImage == null ||
                 awtImage.getWidth() != w ||
                 awtImage.getHeight() != h) {
-            mAwtImage.clear();
+            mNextAwtImage.clear();
             awtImage = SwtReadyBufferedImage.createImage(w, h, getDevice());
-            mAwtImage = new SoftReference<BufferedImage>(awtImage);
-            if (PRESCALE) {
-                mAwtImageStrongRef = awtImage;
-            }
+            mNextAwtImage = new SoftReference<BufferedImage>(awtImage);
         }
 
         return awtImage;
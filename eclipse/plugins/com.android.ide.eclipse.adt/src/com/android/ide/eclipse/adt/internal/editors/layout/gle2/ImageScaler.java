@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import com.android.annotations.NonNull;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shrinks images with a box filter, which averages the source pixels covered by each
+ * destination pixel, as used by {@link ImageUtils#scale} for the thumbnails.
+ * <p/>
+ * The filter is applied in two passes, first on the rows and then on the columns, on the
+ * int pixels of the images with premultiplied alpha such that the transparent pixels don't
+ * bleed their color. The rows of large images are split into bands which are filtered by a
+ * few threads at once. The buffer between the two passes is kept for the next image
+ * scaled by the same thread.
+ */
+final class ImageScaler {
+    /** The fixed point value of a weight of 1 */
+    private static final int WEIGHT_SHIFT = 14;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_SHIFT;
+
+    /** The number of pixels below which an image is filtered by the calling thread only */
+    private static final int PARALLEL_THRESHOLD = 256 * 1024;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService sExecutor;
+
+    /** The buffer of the calling thread between the two passes */
+    private static final ThreadLocal<SoftReference<int[]>> sBuffers =
+            new ThreadLocal<SoftReference<int[]>>();
+
+    /** The source pixels and weights of the destination pixels of a row or column */
+    private static final class Weights {
+        final int[] mFirst;
+        final int[] mCount;
+        /** The weights of each destination pixel, by steps of {@link #mStride} */
+        final int[] mWeights;
+        final int mStride;
+
+        Weights(int sourceSize, int destSize) {
+            double span = (double) sourceSize / destSize;
+            mStride = (int) Math.ceil(span) + 1;
+            mFirst = new int[destSize];
+            mCount = new int[destSize];
+            mWeights = new int[destSize * mStride];
+
+            for (int d = 0; d < destSize; d++) {
+                double begin = d * span;
+                double end = begin + span;
+                int first = Math.min(sourceSize - 1, (int) begin);
+                int last = Math.max(first, Math.min(sourceSize - 1, (int) Math.ceil(end) - 1));
+                int count = last - first + 1;
+                mFirst[d] = first;
+                mCount[d] = count;
+
+                int total = 0;
+                int largest = 0;
+                int offset = d * mStride;
+                for (int i = 0; i < count; i++) {
+                    double coverage = Math.min(end, first + i + 1) - Math.max(begin, first + i);
+                    int weight = (int) Math.round(Math.max(0, coverage) / span * WEIGHT_ONE);
+                    mWeights[offset + i] = weight;
+                    total += weight;
+                    if (weight > mWeights[offset + largest]) {
+                        largest = i;
+                    }
+                }
+                // the weights add up to exactly one, such that solid colors are kept
+                mWeights[offset + largest] += WEIGHT_ONE - total;
+            }
+        }
+    }
+
+    /** Filters a range of rows */
+    private abstract static class Band {
+        abstract void run(int from, int to);
+    }
+
+    private ImageScaler() {
+    }
+
+    /**
+     * Shrinks an image.
+     *
+     * @param source the image to shrink
+     * @param destWidth the width of the shrunk image
+     * @param destHeight the height of the shrunk image
+     * @param rightMargin the transparent margin to add on the right
+     * @param bottomMargin the transparent margin to add on the bottom
+     * @param imageType the type of the returned image
+     * @return the shrunk image, with its margins
+     */
+    @NonNull
+    static BufferedImage shrink(@NonNull BufferedImage source, final int destWidth,
+            final int destHeight, int rightMargin, int bottomMargin, int imageType) {
+        final int sourceWidth = source.getWidth();
+        final int sourceHeight = source.getHeight();
+        final int[] sourcePixels = getPixels(source);
+        final Weights columns = new Weights(sourceWidth, destWidth);
+        final Weights rows = new Weights(sourceHeight, destHeight);
+
+        // the premultiplied alpha, red, green and blue of each pixel filtered horizontally
+        final int[] buffer = getBuffer(destWidth * sourceHeight * 4);
+        boolean parallel = sourceWidth * sourceHeight >= PARALLEL_THRESHOLD;
+        run(sourceHeight, parallel, new Band() {
+            @Override
+            void run(int from, int to) {
+                filterRows(sourcePixels, sourceWidth, columns, buffer, destWidth, from, to);
+            }
+        });
+
+        BufferedImage dest = new BufferedImage(destWidth + rightMargin,
+                destHeight + bottomMargin, imageType);
+        final int destStride = dest.getWidth();
+        final int[] destPixels;
+        if (imageType == BufferedImage.TYPE_INT_ARGB) {
+            destPixels = ((DataBufferInt) dest.getRaster().getDataBuffer()).getData();
+        } else {
+            destPixels = new int[destStride * dest.getHeight()];
+        }
+        run(destHeight, parallel, new Band() {
+            @Override
+            void run(int from, int to) {
+                filterColumns(buffer, destWidth, rows, destPixels, destStride, from, to);
+            }
+        });
+        if (imageType != BufferedImage.TYPE_INT_ARGB) {
+            dest.setRGB(0, 0, destStride, dest.getHeight(), destPixels, 0, destStride);
+        }
+
+        return dest;
+    }
+
+    /** Returns the non premultiplied ARGB pixels of an image, without copying them if possible */
+    private static int[] getPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt
+                && image.getRaster().getDataBuffer().getSize() == width * height) {
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    private static int[] getBuffer(int size) {
+        SoftReference<int[]> reference = sBuffers.get();
+        int[] buffer = reference != null ? reference.get() : null;
+        if (buffer == null || buffer.length < size) {
+            buffer = new int[size];
+            sBuffers.set(new SoftReference<int[]>(buffer));
+        }
+        return buffer;
+    }
+
+    private static void filterRows(int[] source, int sourceWidth, Weights columns,
+            int[] buffer, int destWidth, int fromRow, int toRow) {
+        int[] first = columns.mFirst;
+        int[] count = columns.mCount;
+        int[] weights = columns.mWeights;
+        int stride = columns.mStride;
+
+        for (int y = fromRow; y < toRow; y++) {
+            int rowOffset = y * sourceWidth;
+            int bufferOffset = y * destWidth * 4;
+            for (int x = 0; x < destWidth; x++) {
+                int a = 0;
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                int pixelOffset = rowOffset + first[x];
+                int weightOffset = x * stride;
+                for (int i = 0, n = count[x]; i < n; i++) {
+                    int pixel = source[pixelOffset + i];
+                    int weight = weights[weightOffset + i];
+                    int alpha = pixel >>> 24;
+                    int alphaWeight = alpha * weight;
+                    a += alphaWeight;
+                    r += ((pixel >> 16) & 0xFF) * alphaWeight;
+                    g += ((pixel >> 8) & 0xFF) * alphaWeight;
+                    b += (pixel & 0xFF) * alphaWeight;
+                }
+                // the alpha with 8 bits of fraction, and the colors multiplied by the alpha
+                buffer[bufferOffset++] = a >>> (WEIGHT_SHIFT - 8);
+                buffer[bufferOffset++] = r >>> WEIGHT_SHIFT;
+                buffer[bufferOffset++] = g >>> WEIGHT_SHIFT;
+                buffer[bufferOffset++] = b >>> WEIGHT_SHIFT;
+            }
+        }
+    }
+
+    private static void filterColumns(int[] buffer, int destWidth, Weights rows,
+            int[] dest, int destStride, int fromRow, int toRow) {
+        int[] first = rows.mFirst;
+        int[] count = rows.mCount;
+        int[] weights = rows.mWeights;
+        int stride = rows.mStride;
+        int bufferStride = destWidth * 4;
+
+        for (int y = fromRow; y < toRow; y++) {
+            int destOffset = y * destStride;
+            int weightOffset = y * stride;
+            for (int x = 0; x < destWidth; x++) {
+                int a = 0;
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                int bufferOffset = first[y] * bufferStride + x * 4;
+                for (int i = 0, n = count[y]; i < n; i++, bufferOffset += bufferStride) {
+                    int weight = weights[weightOffset + i];
+                    a += buffer[bufferOffset] * weight;
+                    r += buffer[bufferOffset + 1] * weight;
+                    g += buffer[bufferOffset + 2] * weight;
+                    b += buffer[bufferOffset + 3] * weight;
+                }
+
+                a >>>= WEIGHT_SHIFT;
+                if (a == 0) {
+                    dest[destOffset + x] = 0;
+                    continue;
+                }
+                int half = a >> 1;
+                r = Math.min(255, (((r >>> WEIGHT_SHIFT) << 8) + half) / a);
+                g = Math.min(255, (((g >>> WEIGHT_SHIFT) << 8) + half) / a);
+                b = Math.min(255, (((b >>> WEIGHT_SHIFT) << 8) + half) / a);
+                dest[destOffset + x] = ((a + 128) >> 8) << 24 | r << 16 | g << 8 | b;
+            }
+        }
+    }
+
+    /** Runs a band on all the rows, split among the threads if parallel */
+    private static void run(int rows, boolean parallel, final Band band) {
+        int bands = parallel ? Math.min(THREADS, rows) : 1;
+        if (bands <= 1) {
+            band.run(0, rows);
+            return;
+        }
+
+        ExecutorService executor = getExecutor();
+        List<Future<?>> futures = new ArrayList<Future<?>>(bands - 1);
+        for (int i = 1; i < bands; i++) {
+            final int from = rows * i / bands;
+            final int to = rows * (i + 1) / bands;
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    band.run(from, to);
+                }
+            }));
+        }
+        band.run(0, rows / bands);
+
+        boolean interrupted = false;
+        try {
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // the other bands are written into the image: wait for them anyway
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException(e.getCause());
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(THREADS - 1, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r,
+                            "Image Scaler #" + mCount.incrementAndGet()); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+}
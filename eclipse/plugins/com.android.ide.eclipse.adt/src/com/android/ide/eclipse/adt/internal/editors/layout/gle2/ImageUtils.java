@@ -382,6 +382,12 @@ public class ImageUtils {
         int lastPixelOffset = right * dstWidth;
         float sumDivider = shadowOpacity / shadowSize;
 
+        // the shadow pixel of each sum of alphas
+        int[] shadowPixels = new int[255 * shadowSize + 1];
+        for (int i = 0; i < shadowPixels.length; i++) {
+            shadowPixels[i] = (int) (i * sumDivider) << 24 | shadowRgb;
+        }
+
         // horizontal pass
         for (int y = 0, bufferOffset = 0; y < dstHeight; y++, bufferOffset = y * dstWidth) {
             aSum = 0;
@@ -395,14 +401,13 @@ public class ImageUtils {
             bufferOffset -= right;
 
             for (int x = xStart; x < xStop; x++, bufferOffset++) {
-                int a = (int) (aSum * sumDivider);
-                dataBuffer[bufferOffset] = a << 24 | shadowRgb;
+                dataBuffer[bufferOffset] = shadowPixels[aSum];
 
                 // subtract the oldest pixel from the sum
                 aSum -= aHistory[historyIdx];
 
                 // get the latest pixel
-                a = dataBuffer[bufferOffset + right] >>> 24;
+                int a = dataBuffer[bufferOffset + right] >>> 24;
                 aHistory[historyIdx] = a;
                 aSum += a;
 
@@ -424,14 +429,13 @@ public class ImageUtils {
             bufferOffset -= lastPixelOffset;
 
             for (int y = yStart; y < yStop; y++, bufferOffset += dstWidth) {
-                int a = (int) (aSum * sumDivider);
-                dataBuffer[bufferOffset] = a << 24 | shadowRgb;
+                dataBuffer[bufferOffset] = shadowPixels[aSum];
 
                 // subtract the oldest pixel from the sum
                 aSum -= aHistory[historyIdx];
 
                 // get the latest pixel
-                a = dataBuffer[bufferOffset + lastPixelOffset] >>> 24;
+                int a = dataBuffer[bufferOffset + lastPixelOffset] >>> 24;
                 aHistory[historyIdx] = a;
                 aSum += a;
 
@@ -861,86 +865,12 @@ public class ImageUtils {
             g2.dispose();
             return scaled;
         } else {
-            // When creating a thumbnail, using the above code doesn't work very well;
-            // you get some visible artifacts, especially for text. Instead use the
-            // technique of repeatedly scaling the image into half; this will cause
-            // proper averaging of neighboring pixels, and will typically (for the kinds
-            // of screen sizes used by this utility method in the layout editor) take
-            // about 3-4 iterations to get the result since we are logarithmically reducing
-            // the size. Besides, each successive pass in operating on much fewer pixels
-            // (a reduction of 4 in each pass).
-            //
-            // However, we may not be resizing to a size that can be reached exactly by
-            // successively diving in half. Therefore, once we're within a factor of 2 of
-            // the final size, we can do a resize to the exact target size.
-            // However, we can get even better results if we perform this final resize
-            // up front. Let's say we're going from width 1000 to a destination width of 85.
-            // The first approach would cause a resize from 1000 to 500 to 250 to 125, and
-            // then a resize from 125 to 85. That last resize can distort/blur a lot.
-            // Instead, we can start with the destination width, 85, and double it
-            // successfully until we're close to the initial size: 85, then 170,
-            // then 340, and finally 680. (The next one, 1360, is larger than 1000).
-            // So, now we *start* the thumbnail operation by resizing from width 1000 to
-            // width 680, which will preserve a lot of visual details such as text.
-            // Then we can successively resize the image in half, 680 to 340 to 170 to 85.
-            // We end up with the expected final size, but we've been doing an exact
-            // divide-in-half resizing operation at the end so there is less distortion.
-
-
-            int iterations = 0; // Number of halving operations to perform after the initial resize
-            int nearestWidth = destWidth; // Width closest to source width that = 2^x, x is integer
-            int nearestHeight = destHeight;
-            while (nearestWidth < sourceWidth / 2) {
-                nearestWidth *= 2;
-                nearestHeight *= 2;
-                iterations++;
-            }
-
-            // If we're supposed to add in margins, we need to do it in the initial resizing
-            // operation if we don't have any subsequent resizing operations.
-            if (iterations == 0) {
-                nearestWidth += rightMargin;
-                nearestHeight += bottomMargin;
-            }
-
-            BufferedImage scaled = new BufferedImage(nearestWidth, nearestHeight, imageType);
-            Graphics2D g2 = scaled.createGraphics();
-            g2.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR);
-            g2.setRenderingHint(KEY_RENDERING, VALUE_RENDER_QUALITY);
-            g2.setRenderingHint(KEY_ANTIALIASING, VALUE_ANTIALIAS_ON);
-            g2.drawImage(source, 0, 0, nearestWidth, nearestHeight,
-                    0, 0, sourceWidth, sourceHeight, null);
-            g2.dispose();
-
-            sourceWidth = nearestWidth;
-            sourceHeight = nearestHeight;
-            source = scaled;
-
-            for (int iteration = iterations - 1; iteration >= 0; iteration--) {
-                int halfWidth = sourceWidth / 2;
-                int halfHeight = sourceHeight / 2;
-                if (iteration == 0) { // Last iteration: Add margins in final image
-                    scaled = new BufferedImage(halfWidth + rightMargin, halfHeight + bottomMargin,
-                            imageType);
-                } else {
-                    scaled = new BufferedImage(halfWidth, halfHeight, imageType);
-                }
-                g2 = scaled.createGraphics();
-                g2.setRenderingHint(KEY_INTERPOLATION,VALUE_INTERPOLATION_BILINEAR);
-                g2.setRenderingHint(KEY_RENDERING, VALUE_RENDER_QUALITY);
-                g2.setRenderingHint(KEY_ANTIALIASING, VALUE_ANTIALIAS_ON);
-                g2.drawImage(source, 0, 0,
-                        halfWidth, halfHeight, 0, 0,
-                        sourceWidth, sourceHeight,
-                        null);
-                g2.dispose();
-
-                sourceWidth = halfWidth;
-                sourceHeight = halfHeight;
-                source = scaled;
-                iterations--;
-            }
-            return scaled;
+            // When creating a thumbnail, drawing the image at the smaller size doesn't work
+            // very well; you get some visible artifacts, especially for text, since only a
+            // few of the source pixels are sampled. Instead average all the source pixels
+            // covered by each thumbnail pixel.
+            return ImageScaler.shrink(source, destWidth, destHeight, rightMargin, bottomMargin,
+                    imageType);
         }
     }
 
@@ -35,13 +35,13 @@ import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.annotations.VisibleForTesting;
 import com.android.ide.common.resources.ResourceFile;
-import com.android.ide.common.resources.ResourceFolder;
 import com.android.ide.common.resources.ResourceItem;
 import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.internal.project.BaseProjectHelper;
 import com.android.ide.eclipse.adt.internal.resources.manager.ProjectResources;
+import com.android.ide.eclipse.adt.internal.resources.manager.ResourceChangeBatch;
 import com.android.ide.eclipse.adt.internal.resources.manager.ResourceManager;
-import com.android.ide.eclipse.adt.internal.resources.manager.ResourceManager.IResourceListener;
+import com.android.ide.eclipse.adt.internal.resources.manager.ResourceManager.IResourceBatchListener;
 import com.android.ide.eclipse.adt.io.IFileWrapper;
 import com.android.io.IAbstractFile;
 import com.android.resources.ResourceType;
@@ -661,13 +661,13 @@ public class IncludeFinder {
     public static void start() {
         assert sListener == null;
         sListener = new ResourceListener();
-        ResourceManager.getInstance().addListener(sListener);
+        ResourceManager.getInstance().addBatchListener(sListener);
     }
 
     /** Stop listening on project resources */
     public static void stop() {
         assert sListener != null;
-        ResourceManager.getInstance().addListener(sListener);
+        ResourceManager.getInstance().removeBatchListener(sListener);
     }
 
     private static String getMapKey(ResourceFile resourceFile) {
@@ -718,29 +718,47 @@ public class IncludeFinder {
         }
     }
 
-    /** Listener of resource file saves, used to update layout inclusion data structures */
-    private static class ResourceListener implements IResourceListener {
+    /**
+     * Listener of resource file saves, used to update layout inclusion data structures.
+     * The settings are saved and the cycles are checked once for all the files changed
+     * together, such as by a refactoring or a version control update.
+     */
+    private static class ResourceListener implements IResourceBatchListener {
         @Override
-        public void fileChanged(IProject project, ResourceFile file, int eventType) {
+        public void resourcesChanged(@NonNull ResourceChangeBatch batch) {
             if (sRefreshing) {
                 return;
             }
 
-            if ((eventType & (CHANGED | ADDED | REMOVED | CONTENT)) == 0) {
-                return;
-            }
+            IncludeFinder finder = null;
+            List<String> updated = null;
+            for (ResourceFile file : batch.getFiles()) {
+                // We only care about layout resource files
+                if ((batch.getEventType(file) & (CHANGED | ADDED | REMOVED | CONTENT)) == 0) {
+                    continue;
+                }
 
-            IncludeFinder finder = get(project);
-            if (finder != null) {
-                if (finder.updateFileIncludes(file, true)) {
-                    finder.saveSettings();
+                if (finder == null) {
+                    finder = get(batch.getProject());
+                    if (finder == null) {
+                        return;
+                    }
+                }
+
+                if (finder.updateFileIncludes(file, false)) {
+                    if (updated == null) {
+                        updated = new ArrayList<String>();
+                    }
+                    updated.add(getMapKey(file));
                 }
             }
-        }
 
-        @Override
-        public void folderChanged(IProject project, ResourceFolder folder, int eventType) {
-            // We only care about layout resource files
+            if (updated != null) {
+                for (String key : updated) {
+                    finder.detectCycles(key);
+                }
+                finder.saveSettings();
+            }
         }
     }
 
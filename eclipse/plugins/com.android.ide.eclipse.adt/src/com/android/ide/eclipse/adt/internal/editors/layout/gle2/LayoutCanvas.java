@@ -222,6 +222,15 @@ public class LayoutCanvas extends Canvas {
     /** The overlay which paints masks hiding everything but included content. */
     private IncludeOverlay mIncludeOverlay;
 
+    /** The overlay which paints the statistics of the last rendering, created lazily */
+    private RenderStatisticsOverlay mStatisticsOverlay;
+
+    /** When true, display the statistics of the last rendering. */
+    private boolean mShowRenderStatistics;
+
+    /** The statistics of the rendering of the displayed session, or null */
+    private RenderStatistics mRenderStatistics;
+
     /** Configuration previews shown next to the layout */
     private final RenderPreviewManager mPreviewManager;
 
@@ -568,6 +577,11 @@ public class LayoutCanvas extends Canvas {
             mLintOverlay = null;
         }
 
+        if (mStatisticsOverlay != null) {
+            mStatisticsOverlay.dispose();
+            mStatisticsOverlay = null;
+        }
+
         if (mBackgroundColor != null) {
             mBackgroundColor.dispose();
             mBackgroundColor = null;
@@ -801,6 +815,38 @@ public class LayoutCanvas extends Canvas {
         redraw();
     }
 
+    /**
+     * Shows or hides the statistics of the last rendering over the canvas
+     *
+     * @param show true to show the statistics
+     */
+    void setShowRenderStatistics(boolean show) {
+        mShowRenderStatistics = show;
+        redraw();
+    }
+
+    /**
+     * Sets the statistics of the rendering of the displayed session
+     *
+     * @param statistics the statistics, or null if the session was not rendered
+     */
+    void setRenderStatistics(@Nullable RenderStatistics statistics) {
+        mRenderStatistics = statistics;
+        if (mShowRenderStatistics) {
+            redraw();
+        }
+    }
+
+    /**
+     * Returns the statistics of the rendering of the displayed session
+     *
+     * @return the statistics, or null if the session was not rendered
+     */
+    @Nullable
+    RenderStatistics getRenderStatistics() {
+        return mRenderStatistics;
+    }
+
     /**
      * Returns the zoom scale factor of the canvas (the amount the full
      * resolution render of the device is zoomed before being shown on the
@@ -1008,6 +1054,16 @@ public class LayoutCanvas extends Canvas {
             }
             mGestureManager.paint(gc);
 
+            if (mShowRenderStatistics) {
+                if (mStatisticsOverlay == null) {
+                    mStatisticsOverlay = new RenderStatisticsOverlay(this);
+                    mStatisticsOverlay.create(getDisplay());
+                }
+                if (!mStatisticsOverlay.isHiding()) {
+                    mStatisticsOverlay.paint(gc);
+                }
+            }
+
         } finally {
             mGCWrapper.setGC(null);
         }
@@ -1550,6 +1606,16 @@ public class LayoutCanvas extends Canvas {
         manager.add(new Separator());
         manager.add(new PlayAnimationMenu(this));
         manager.add(new ExportScreenshotAction(this));
+        Action showStatisticsAction = new Action("Show Render Statistics",
+                IAction.AS_CHECK_BOX) {
+            @Override
+            public void run() {
+                setShowRenderStatistics(isChecked());
+            }
+        };
+        showStatisticsAction.setChecked(mShowRenderStatistics);
+        manager.add(showStatisticsAction);
+        manager.add(new ExportRenderStatisticsAction());
         manager.add(new Separator());
 
         // Group "Show Included In" and "Show In" together
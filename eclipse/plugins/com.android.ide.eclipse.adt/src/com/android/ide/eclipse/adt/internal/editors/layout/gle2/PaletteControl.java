@@ -610,6 +610,16 @@ public class PaletteControl extends Composite {
         return mEditor;
     }
 
+    /**
+     * Called by the {@link PreviewIconFactory} when preview icons were rendered in the
+     * background, to show them in place of the icons and names of their views
+     */
+    /* package */ void previewIconsRendered() {
+        if (mPaletteMode != null && mPaletteMode.isPreview()) {
+            refreshPalette();
+        }
+    }
+
     private Control createItem(Composite parent, ViewElementDescriptor desc) {
         Control item = null;
         switch (mPaletteMode) {
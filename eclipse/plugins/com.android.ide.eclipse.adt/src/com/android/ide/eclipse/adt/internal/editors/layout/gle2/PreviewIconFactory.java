@@ -47,14 +47,19 @@ import com.android.sdklib.IAndroidTarget;
 import com.android.utils.Pair;
 
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.swt.graphics.RGB;
+import org.eclipse.swt.widgets.Display;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.File;
@@ -64,7 +69,9 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.imageio.ImageIO;
@@ -81,6 +88,17 @@ public class PreviewIconFactory {
 
     private static final String PREVIEW_INFO_FILE = "preview.properties"; //$NON-NLS-1$
 
+    /** The time to wait for more rendered icons before updating the palette, in ms */
+    private static final int UPDATE_DELAY = 300;
+
+    /** The directory for which the missing icons were scheduled for rendering, if any */
+    private File mScheduledDir;
+    /** The number of batches of icons being rendered */
+    private int mPendingBatches;
+    /** Incremented by {@link #refresh()}, to discard the icons rendered before */
+    private volatile int mGeneration;
+    private boolean mUpdateScheduled;
+
     public PreviewIconFactory(PaletteControl palette) {
         mPalette = palette;
     }
@@ -100,11 +118,16 @@ public class PreviewIconFactory {
      * Deletes all the persistent state for the current settings such that it will be regenerated
      */
     public void refresh() {
+        mGeneration++;
+        mPendingBatches = 0;
+        mScheduledDir = null;
         File imageDir = getImageDir(false);
         if (imageDir != null && imageDir.exists()) {
             File[] files = imageDir.listFiles();
-            for (File file : files) {
-                file.delete();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
             }
             imageDir.delete();
             reset();
@@ -115,22 +138,24 @@ public class PreviewIconFactory {
      * Returns an image descriptor for the given element descriptor, or null if no image
      * could be computed. The rendering parameters (SDK, theme etc) correspond to those
      * stored in the associated palette.
+     * <p/>
+     * The missing icons are rendered in the background, after which the palette is
+     * updated. In the meantime, null is returned for them.
      *
      * @param desc the element descriptor to get an image for
-     * @return an image descriptor, or null if no image could be rendered
+     * @return an image descriptor, or null if no image could be rendered (yet)
      */
     public ImageDescriptor getImageDescriptor(ElementDescriptor desc) {
         File imageDir = getImageDir(false);
-        if (!imageDir.exists()) {
-            render();
-        }
         File file = new File(imageDir, getFileName(desc));
-        if (file.exists()) {
+        if (file.length() > 0) {
             try {
                 return ImageDescriptor.createFromURL(file.toURI().toURL());
             } catch (MalformedURLException e) {
                 AdtPlugin.log(e, "Could not create image descriptor for %s", file);
             }
+        } else if (!file.exists()) {
+            scheduleRender();
         }
 
         return null;
@@ -201,33 +226,123 @@ public class PreviewIconFactory {
     }
 
     /**
-     * Renders ALL the widgets and then extracts image data for each view and saves it on
-     * disk
+     * Schedules the rendering of the icons missing from the image directory. The icons are
+     * rendered by batches, as partitioned by {@link #partitionRenderElements}, each batch
+     * in its own job, and the images of each view are saved on disk. The icons of the views
+     * rendered with empty bounds are saved as empty files, such that they are not rendered
+     * again; the other failures are retried the next time the icons are needed.
      */
-    private boolean render() {
+    private void scheduleRender() {
         File imageDir = getImageDir(true);
+        if (imageDir.equals(mScheduledDir)) {
+            return;
+        }
+        mScheduledDir = imageDir;
 
-        GraphicalEditorPart editor = mPalette.getEditor();
-        LayoutEditorDelegate layoutEditorDelegate = editor.getEditorDelegate();
-        LayoutLibrary layoutLibrary = editor.getLayoutLibrary();
+        ViewMetadataRepository repository = ViewMetadataRepository.get();
+        Document document = repository.getRenderingConfigDoc();
+        if (document == null) {
+            return;
+        }
+
+        // The colors of the theme are stored by initColors, unless they can't be found
+        initColors();
         Integer overrideBgColor = null;
-        if (layoutLibrary != null) {
-            if (layoutLibrary.supports(Capability.CUSTOM_BACKGROUND_COLOR)) {
-                Pair<RGB, RGB> themeColors = getColorsFromTheme();
-                RGB bg = themeColors.getFirst();
-                RGB fg = themeColors.getSecond();
-                if (bg != null) {
-                    storeBackground(imageDir, bg, fg);
-                    overrideBgColor = Integer.valueOf(ImageUtils.rgbToInt(bg, 0xFF));
+        LayoutLibrary layoutLibrary = mPalette.getEditor().getLayoutLibrary();
+        if (layoutLibrary != null && layoutLibrary.supports(Capability.CUSTOM_BACKGROUND_COLOR)
+                && mBackground != null && new File(imageDir, PREVIEW_INFO_FILE).exists()) {
+            overrideBgColor = Integer.valueOf(ImageUtils.rgbToInt(mBackground, 0xFF));
+        }
+
+        for (List<Element> elementGroup : partitionRenderElements(document)) {
+            List<String> groupFileNames = new ArrayList<String>(elementGroup.size());
+            for (Element element : elementGroup) {
+                groupFileNames.add(getFileName(element));
+            }
+            List<String> fileNames = getMissingIcons(imageDir, groupFileNames);
+            if (fileNames.isEmpty()) {
+                continue;
+            }
+            List<Element> missing = new ArrayList<Element>(fileNames.size());
+            for (int i = 0; i < elementGroup.size(); i++) {
+                if (fileNames.contains(groupFileNames.get(i))) {
+                    missing.add(elementGroup.get(i));
                 }
             }
+
+            RenderService.PendingSession pending = prepareRender(missing, overrideBgColor);
+            if (pending != null) {
+                mPendingBatches++;
+                new RenderJob(imageDir, mGeneration, fileNames, pending).schedule();
+            }
         }
+    }
 
-        ViewMetadataRepository repository = ViewMetadataRepository.get();
-        Document document = repository.getRenderingConfigDoc();
+    /**
+     * Returns the icons of a batch which are not in the image directory, neither rendered
+     * nor saved as an empty file for a view which can't be rendered
+     *
+     * @param imageDir the directory of the icons
+     * @param fileNames the names of the icon files of the batch
+     * @return the names of the missing icon files, in the same order
+     */
+    @NonNull
+    static List<String> getMissingIcons(@NonNull File imageDir, @NonNull List<String> fileNames) {
+        List<String> missing = new ArrayList<String>();
+        for (String fileName : fileNames) {
+            if (!new File(imageDir, fileName).exists()) {
+                missing.add(fileName);
+            }
+        }
+        return missing;
+    }
 
+    /**
+     * Returns the icons of a rendered batch to save as empty files, such that they are not
+     * rendered again. Only the views laid out with empty bounds can't be rendered: a failed
+     * or timed out rendering, or a view missing from the rendering, may succeed next time.
+     *
+     * @param fileNames the names of the icon files of the batch
+     * @param bounds the bounds of the rendered views by icon file name, or null if the
+     *            rendering failed
+     * @return the names of the icon files which can't be rendered
+     */
+    @NonNull
+    static List<String> getUnrenderableIcons(@NonNull List<String> fileNames,
+            @Nullable Map<String, Rectangle> bounds) {
+        List<String> unrenderable = new ArrayList<String>();
+        if (bounds != null) {
+            for (String fileName : fileNames) {
+                Rectangle rectangle = bounds.get(fileName);
+                if (rectangle != null && rectangle.isEmpty()) {
+                    unrenderable.add(fileName);
+                }
+            }
+        }
+        return unrenderable;
+    }
+
+    /**
+     * Prepares the rendering of a batch of elements on the UI thread, with a model of
+     * its own such that the batches can be rendered at the same time.
+     */
+    @Nullable
+    private RenderService.PendingSession prepareRender(List<Element> elements,
+            Integer overrideBgColor) {
+        GraphicalEditorPart editor = mPalette.getEditor();
+        LayoutEditorDelegate layoutEditorDelegate = editor.getEditorDelegate();
+
+        Document document = ViewMetadataRepository.get().getRenderingConfigDoc();
         if (document == null) {
-            return false;
+            return null;
+        }
+        // Replace the document elements with the current element group
+        Element documentElement = document.getDocumentElement();
+        while (documentElement.getFirstChild() != null) {
+            documentElement.removeChild(documentElement.getFirstChild());
+        }
+        for (Element element : elements) {
+            documentElement.appendChild(document.importNode(element, true /*deep*/));
         }
 
         // Construct UI model from XML
@@ -241,70 +356,137 @@ public class PreviewIconFactory {
         UiDocumentNode model = (UiDocumentNode) documentDescriptor.createUiNode();
         model.setEditor(layoutEditorDelegate.getEditor());
         model.setUnknownDescriptorProvider(editor.getModel().getUnknownDescriptorProvider());
+        model.loadFromXmlNode(document);
 
-        Element documentElement = document.getDocumentElement();
-        List<List<Element>> elements = partitionRenderElements(document);
-        for (List<Element> elementGroup : elements) {
-            // Replace the document elements with the current element group
-            while (documentElement.getFirstChild() != null) {
-                documentElement.removeChild(documentElement.getFirstChild());
+        try {
+            // Important to get these sizes large enough for clients that don't support
+            // RenderMode.FULL_EXPAND such as 1.6
+            int width = 200;
+            int height = elements.size() == 1 ? 400 : 1600;
+
+            return RenderService.create(editor)
+                .setModel(model)
+                .setOverrideRenderSize(width, height)
+                .setRenderingMode(RenderingMode.FULL_EXPAND)
+                .setLog(editor.createRenderLogger("palette"))
+                .setOverrideBgColor(overrideBgColor)
+                .setDecorations(false)
+                .prepareRenderSession();
+        } catch (Throwable t) {
+            // If there are internal errors previewing the components just revert to plain
+            // icons and labels
+            return null;
+        }
+    }
+
+    /**
+     * Called on the UI thread when a batch of icons is rendered, to update the palette
+     *
+     * @param imageDir the directory of the icons
+     * @param generation the generation of the icons, as of their scheduling
+     * @param background the color of the background of the rendering, or null
+     */
+    private void batchRendered(File imageDir, int generation, @Nullable RGB background) {
+        if (generation != mGeneration || mPalette.isDisposed()) {
+            return;
+        }
+
+        // Fallback for older platforms where we couldn't do background rendering: use a
+        // pixel from the rendering instead
+        if (background != null && !new File(imageDir, PREVIEW_INFO_FILE).exists()) {
+            // However, in this case we don't trust the foreground color even if one was
+            // found in the themes; pick one that is guaranteed to contrast with the
+            // background
+            RGB fg;
+            if (ImageUtils.getBrightness(ImageUtils.rgbToInt(background, 255)) < 128) {
+                fg = new RGB(255, 255, 255);
+            } else {
+                fg = new RGB(0, 0, 0);
             }
-            for (Element element : elementGroup) {
-                documentElement.appendChild(element);
+            storeBackground(imageDir, background, fg);
+        }
+
+        // The batches completing together update the palette once
+        if (!mUpdateScheduled) {
+            mUpdateScheduled = true;
+            mPalette.getDisplay().timerExec(UPDATE_DELAY, new Runnable() {
+                @Override
+                public void run() {
+                    mUpdateScheduled = false;
+                    if (!mPalette.isDisposed()) {
+                        mPalette.previewIconsRendered();
+                    }
+                }
+            });
+        }
+
+        if (--mPendingBatches == 0) {
+            mPalette.getEditor().recomputeLayout();
+        }
+    }
+
+    /** Renders a batch of icons, and saves the image of each view on disk */
+    private final class RenderJob extends Job {
+        private final Display mDisplay;
+        private final File mImageDir;
+        private final int mJobGeneration;
+        /** The names of the icon files of the batch, read from the DOM on the UI thread */
+        private final List<String> mFileNames;
+        private final RenderService.PendingSession mPending;
+
+        RenderJob(File imageDir, int generation, List<String> fileNames,
+                RenderService.PendingSession pending) {
+            super("Render Palette Previews");
+            setSystem(true);
+            setUser(false);
+            mDisplay = mPalette.getDisplay();
+            mImageDir = imageDir;
+            mJobGeneration = generation;
+            mFileNames = fileNames;
+            mPending = pending;
+        }
+
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            RGB background = null;
+            try {
+                background = render();
+            } finally {
+                if (!mDisplay.isDisposed()) {
+                    final RGB bg = background;
+                    mDisplay.asyncExec(new Runnable() {
+                        @Override
+                        public void run() {
+                            batchRendered(mImageDir, mJobGeneration, bg);
+                        }
+                    });
+                }
             }
+            return Status.OK_STATUS;
+        }
 
-            model.loadFromXmlNode(document);
+        /** Renders the icons, and returns the color of the background, or null */
+        @Nullable
+        private RGB render() {
+            RGB background = null;
+            // the bounds of the rendered views, or null unless the rendering succeeded
+            Map<String, Rectangle> bounds = null;
 
             RenderSession session = null;
-            NodeList childNodes = documentElement.getChildNodes();
             try {
-                // Important to get these sizes large enough for clients that don't support
-                // RenderMode.FULL_EXPAND such as 1.6
-                int width = 200;
-                int height = childNodes.getLength() == 1 ? 400 : 1600;
-
-                session = RenderService.create(editor)
-                    .setModel(model)
-                    .setOverrideRenderSize(width, height)
-                    .setRenderingMode(RenderingMode.FULL_EXPAND)
-                    .setLog(editor.createRenderLogger("palette"))
-                    .setOverrideBgColor(overrideBgColor)
-                    .setDecorations(false)
-                    .createRenderSession();
+                session = mPending.create();
             } catch (Throwable t) {
-                // If there are internal errors previewing the components just revert to plain
-                // icons and labels
-                continue;
+                // If there are internal errors previewing the components just revert to
+                // plain icons and labels
             }
 
             if (session != null) {
                 if (session.getResult().isSuccess()) {
+                    bounds = new HashMap<String, Rectangle>();
                     BufferedImage image = session.getImage();
                     if (image != null && image.getWidth() > 0 && image.getHeight() > 0) {
-
-                        // Fallback for older platforms where we couldn't do background rendering
-                        // at the beginning of this method
-                        if (mBackground == null) {
-                            Pair<RGB, RGB> themeColors = getColorsFromTheme();
-                            RGB bg = themeColors.getFirst();
-                            RGB fg = themeColors.getSecond();
-
-                            if (bg == null) {
-                                // Just use a pixel from the rendering instead.
-                                int p = image.getRGB(image.getWidth() - 1, image.getHeight() - 1);
-                                // However, in this case we don't trust the foreground color
-                                // even if one was found in the themes; pick one that is guaranteed
-                                // to contrast with the background
-                                bg = ImageUtils.intToRgb(p);
-                                if (ImageUtils.getBrightness(ImageUtils.rgbToInt(bg, 255)) < 128) {
-                                    fg = new RGB(255, 255, 255);
-                                } else {
-                                    fg = new RGB(0, 0, 0);
-                                }
-                            }
-                            storeBackground(imageDir, bg, fg);
-                            assert mBackground != null;
-                        }
+                        int p = image.getRGB(image.getWidth() - 1, image.getHeight() - 1);
+                        background = ImageUtils.intToRgb(p);
 
                         List<ViewInfo> viewInfoList = session.getRootViews();
                         if (viewInfoList != null && viewInfoList.size() > 0) {
@@ -321,16 +503,18 @@ public class PreviewIconFactory {
                                 }
                                 UiElementNode node = (UiElementNode) cookie;
                                 String fileName = getFileName(node);
-                                File file = new File(imageDir, fileName);
-                                if (file.exists()) {
-                                    // On Windows, perhaps we need to rename instead?
-                                    file.delete();
-                                }
                                 int x1 = parentX + info.getLeft();
                                 int y1 = parentY + info.getTop();
                                 int x2 = parentX + info.getRight();
                                 int y2 = parentY + info.getBottom();
-                                if (x1 != x2 && y1 != y2) {
+                                Rectangle rectangle = new Rectangle(x1, y1, x2 - x1, y2 - y1);
+                                bounds.put(fileName, rectangle);
+                                if (!rectangle.isEmpty() && mJobGeneration == mGeneration) {
+                                    File file = new File(mImageDir, fileName);
+                                    if (file.exists()) {
+                                        // On Windows, perhaps we need to rename instead?
+                                        file.delete();
+                                    }
                                     savePreview(file, image, x1, y1, x2, y2);
                                 }
                             }
@@ -338,17 +522,11 @@ public class PreviewIconFactory {
                     }
                 } else {
                     StringBuilder sb = new StringBuilder();
-                    for (int i = 0, n = childNodes.getLength(); i < n; i++) {
-                        Node node = childNodes.item(i);
-                        if (node instanceof Element) {
-                            Element e = (Element) node;
-                            String fqn = repository.getFullClassName(e);
-                            fqn = fqn.substring(fqn.lastIndexOf('.') + 1);
-                            if (sb.length() > 0) {
-                                sb.append(", "); //$NON-NLS-1$
-                            }
-                            sb.append(fqn);
+                    for (String fileName : mFileNames) {
+                        if (sb.length() > 0) {
+                            sb.append(", "); //$NON-NLS-1$
                         }
+                        sb.append(fileName.substring(0, fileName.length() - DOT_PNG.length()));
                     }
                     AdtPlugin.log(IStatus.WARNING, "Failed to render set of icons for %1$s",
                             sb.toString());
@@ -363,11 +541,17 @@ public class PreviewIconFactory {
 
                 session.dispose();
             }
-        }
 
-        mPalette.getEditor().recomputeLayout();
+            // The views which can't be rendered are shown with their icon and name. So are
+            // the other failed views, until they are rendered again in the next palette.
+            if (mJobGeneration == mGeneration) {
+                for (String fileName : getUnrenderableIcons(mFileNames, bounds)) {
+                    AdtPlugin.writeFile(new File(mImageDir, fileName), ""); //$NON-NLS-1$
+                }
+            }
 
-        return true;
+            return background;
+        }
     }
 
     /**
@@ -475,8 +659,12 @@ public class PreviewIconFactory {
     }
 
     private String getFileName(UiElementNode node) {
+        return getFileName((Element) node.getXmlNode());
+    }
+
+    private String getFileName(Element element) {
         ViewMetadataRepository repository = ViewMetadataRepository.get();
-        String fqn = repository.getFullClassName((Element) node.getXmlNode());
+        String fqn = repository.getFullClassName(element);
         return fqn.substring(fqn.lastIndexOf('.') + 1) + DOT_PNG;
     }
 
@@ -591,16 +779,20 @@ public class PreviewIconFactory {
             }
 
             File imageDir = getImageDir(false);
-            if (!imageDir.exists()) {
-                render();
-
-                // Initialized as part of the render
-                if (mBackground != null) {
-                    return;
+            File file = new File(imageDir, PREVIEW_INFO_FILE);
+            if (!file.exists()) {
+                LayoutLibrary layoutLibrary = mPalette.getEditor().getLayoutLibrary();
+                if (layoutLibrary != null
+                        && layoutLibrary.supports(Capability.CUSTOM_BACKGROUND_COLOR)) {
+                    Pair<RGB, RGB> themeColors = getColorsFromTheme();
+                    RGB bg = themeColors.getFirst();
+                    if (bg != null) {
+                        storeBackground(getImageDir(true), bg, themeColors.getSecond());
+                        return;
+                    }
                 }
             }
 
-            File file = new File(imageDir, PREVIEW_INFO_FILE);
             if (file.exists()) {
                 Properties properties = new Properties();
                 InputStream is = null;
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import com.android.annotations.NonNull;
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.resources.ResourceRepository;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.resources.ResourceFolderType;
+import com.android.resources.ResourceType;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Renders the previews of a {@link RenderPreviewManager} with a few jobs at once.
+ * <p/>
+ * The previews are rendered in the order they are scheduled, each one by the first job
+ * available, and their thumbnails are displayed as soon as they are rendered. The number of
+ * jobs is bounded by the processors and by the memory available for the renderings. The
+ * configured resources are shared by the previews of the same configuration, such as the
+ * previews of a layout in the same locale and screen size but different themes.
+ */
+class PreviewRenderQueue {
+    /** The memory needed by a rendering, to bound the number of renderings at once */
+    private static final long RENDER_MEMORY = 64 * 1024 * 1024;
+
+    private final LayoutCanvas mCanvas;
+    private final int mMaxJobs;
+
+    /** The previews to render, guarded by itself */
+    private final LinkedList<RenderPreview> mQueue = new LinkedList<RenderPreview>();
+    /** The number of jobs running, guarded by {@link #mQueue} */
+    private int mJobs;
+
+    /**
+     * The resources of each repository for each configuration, by the folder name of the
+     * configuration. Guarded by itself.
+     */
+    private final Map<ResourceRepository, Map<String, Map<ResourceType,
+            Map<String, ResourceValue>>>> mResources = new HashMap<ResourceRepository,
+            Map<String, Map<ResourceType, Map<String, ResourceValue>>>>();
+
+    PreviewRenderQueue(@NonNull LayoutCanvas canvas) {
+        mCanvas = canvas;
+
+        Runtime runtime = Runtime.getRuntime();
+        // leave a processor to the UI thread
+        int processors = Math.max(1, runtime.availableProcessors() - 1);
+        int memory = (int) Math.max(1, runtime.maxMemory() / RENDER_MEMORY);
+        mMaxJobs = Math.min(processors, memory);
+    }
+
+    /**
+     * Schedules the rendering of a preview, after the previews already scheduled. A preview
+     * being rendered is rendered again, and the current rendering is discarded.
+     *
+     * @param preview the preview to render
+     */
+    void schedule(@NonNull RenderPreview preview) {
+        synchronized (mQueue) {
+            if (!mQueue.contains(preview)) {
+                mQueue.add(preview);
+            }
+            if (mJobs < mMaxJobs && mJobs < mQueue.size()) {
+                mJobs++;
+                new RenderJob().schedule();
+            }
+        }
+    }
+
+    /**
+     * Removes a preview from the previews to render
+     *
+     * @param preview the preview which doesn't need to be rendered anymore
+     */
+    void cancel(@NonNull RenderPreview preview) {
+        synchronized (mQueue) {
+            mQueue.remove(preview);
+        }
+    }
+
+    /** Removes all the previews from the previews to render */
+    void cancelAll() {
+        synchronized (mQueue) {
+            mQueue.clear();
+        }
+    }
+
+    /**
+     * Returns the resources of a repository for a configuration, which are computed once
+     * for all the previews until {@link #clearResources()} is called.
+     *
+     * @param repository the framework or project resources
+     * @param config the configuration of the preview
+     * @return the resources matching the configuration
+     */
+    @NonNull
+    Map<ResourceType, Map<String, ResourceValue>> getConfiguredResources(
+            @NonNull ResourceRepository repository, @NonNull FolderConfiguration config) {
+        String key = config.getFolderName(ResourceFolderType.VALUES);
+        Map<String, Map<ResourceType, Map<String, ResourceValue>>> configurations;
+        synchronized (mResources) {
+            configurations = mResources.get(repository);
+            if (configurations == null) {
+                configurations =
+                        new HashMap<String, Map<ResourceType, Map<String, ResourceValue>>>();
+                mResources.put(repository, configurations);
+            }
+            Map<ResourceType, Map<String, ResourceValue>> resources = configurations.get(key);
+            if (resources != null) {
+                return resources;
+            }
+        }
+
+        // computed without the lock, such that the other configurations are computed
+        // at the same time
+        Map<ResourceType, Map<String, ResourceValue>> resources =
+                repository.getConfiguredResources(config);
+        synchronized (mResources) {
+            configurations.put(key, resources);
+        }
+        return resources;
+    }
+
+    /** Forgets the resources of the configurations, after the resources changed */
+    void clearResources() {
+        synchronized (mResources) {
+            mResources.clear();
+        }
+    }
+
+    /** Renders the previews of the queue until it is empty */
+    private final class RenderJob extends Job {
+        RenderJob() {
+            super("RenderPreview");
+            setSystem(true);
+            setUser(false);
+        }
+
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            while (true) {
+                RenderPreview preview;
+                synchronized (mQueue) {
+                    if (monitor.isCanceled() || mCanvas.isDisposed() || mQueue.isEmpty()) {
+                        mJobs--;
+                        return Status.OK_STATUS;
+                    }
+                    preview = mQueue.removeFirst();
+                }
+
+                try {
+                    preview.renderInBackground(PreviewRenderQueue.this);
+                } catch (RuntimeException e) {
+                    // the next previews are rendered anyway
+                    AdtPlugin.log(e, "Failure rendering preview %1$s", preview); //$NON-NLS-1$
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,756 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import static com.android.SdkConstants.DOT_CLASS;
+import static com.android.SdkConstants.DOT_JAR;
+import static com.android.SdkConstants.FD_NATIVE_LIBS;
+import static com.android.SdkConstants.FD_RES;
+import static com.android.ide.eclipse.adt.AdtUtils.workspacePathToFile;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.common.rendering.StaticRenderSession;
+import com.android.ide.common.rendering.api.RenderSession;
+import com.android.ide.common.rendering.api.Result;
+import com.android.ide.common.rendering.api.ViewInfo;
+import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.ide.eclipse.adt.AdtUtils;
+import com.android.ide.eclipse.adt.internal.editors.layout.SnapshotPullParser;
+import com.android.ide.eclipse.adt.internal.editors.layout.configuration.Configuration;
+import com.android.ide.eclipse.adt.internal.editors.layout.gle2.RenderService.PendingSession;
+import com.android.ide.eclipse.adt.internal.editors.uimodel.UiDocumentNode;
+import com.android.ide.eclipse.adt.internal.editors.uimodel.UiElementNode;
+import com.android.ide.eclipse.adt.internal.project.BaseProjectHelper;
+import com.android.ide.eclipse.adt.internal.resources.manager.GlobalProjectMonitor;
+import com.android.ide.eclipse.adt.internal.resources.manager.GlobalProjectMonitor.IFileListener;
+import com.android.ide.eclipse.adt.internal.sdk.ProjectState;
+import com.android.ide.eclipse.adt.internal.sdk.Sdk;
+import com.android.resources.ResourceFolderType;
+import com.android.sdklib.IAndroidTarget;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarkerDelta;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.IJavaProject;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Caches the rendered images of the layouts, with their view bounds, in memory and on disk
+ * under the plugin state location, such that a layout can be displayed right away when it is
+ * opened again, while it is rendered again in the background.
+ * <p/>
+ * A rendering is identified by a hash of the layout content, the configuration, the rendering
+ * target and a stamp of the resources and classes of the project. The stamp is computed from
+ * the files of the resource, class and library folders of the project and of its library
+ * projects, by a background job, after a file of these projects changes. The renderings are
+ * not cached until the stamp of their project is computed.
+ */
+final class RenderCache {
+    private static final String FD_RENDER_CACHE = "render-cache"; //$NON-NLS-1$
+    private static final String EXT_RENDER = ".render"; //$NON-NLS-1$
+    private static final String EXT_TEMP = ".tmp"; //$NON-NLS-1$
+
+    /** The first bytes of the cache files */
+    private static final int MAGIC = 0x52454E44;
+    /** The version of the cache files, to increment when their format changes */
+    private static final int VERSION = 1;
+
+    /** The size of the images kept in memory, in bytes */
+    private static final long MEMORY_LIMIT = 32 * 1024 * 1024;
+    /** The size of the cache files, in bytes */
+    private static final long DISK_LIMIT = 64 * 1024 * 1024;
+    /** The delay before writing the renderings, such that only the last one of a series is */
+    private static final long WRITE_DELAY = 2000;
+    /** The delay before computing the stamps, such that a series of changes is only one */
+    private static final long STAMP_DELAY = 500;
+
+    private static RenderCache sInstance;
+
+    /** A view of a rendering, identified by the path of its node in the model */
+    private static final class View {
+        final String mClassName;
+        final int[] mPath;
+        final int mLeft;
+        final int mTop;
+        final int mRight;
+        final int mBottom;
+        final View[] mChildren;
+
+        View(String className, int[] path, int left, int top, int right, int bottom,
+                View[] children) {
+            mClassName = className;
+            mPath = path;
+            mLeft = left;
+            mTop = top;
+            mRight = right;
+            mBottom = bottom;
+            mChildren = children;
+        }
+    }
+
+    /** A cached rendering */
+    private static final class Entry {
+        final BufferedImage mImage;
+        final View mRoot;
+
+        Entry(BufferedImage image, View root) {
+            mImage = image;
+            mRoot = root;
+        }
+
+        long getSize() {
+            return mImage.getWidth() * (long) mImage.getHeight() * 4;
+        }
+    }
+
+    /** The renderings in memory, in the order of their use */
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long mSize;
+    private final long mMemoryLimit;
+
+    /** The renderings to write, by layout and configuration, with their key */
+    private final Map<String, Map.Entry<String, Entry>> mPendingWrites =
+            new LinkedHashMap<String, Map.Entry<String, Entry>>();
+    private final Job mWriteJob = new WriteJob();
+
+    /** The stamp of the resources and classes of a project and of its libraries */
+    private static final class ProjectStamp {
+        final String mStamp;
+        /** The project and its libraries, whose changes make the stamp obsolete */
+        final Set<IProject> mProjects;
+
+        ProjectStamp(String stamp, Set<IProject> projects) {
+            mStamp = stamp;
+            mProjects = projects;
+        }
+    }
+
+    /** The stamps of the projects. Guarded by itself, like the fields below. */
+    private final Map<IProject, ProjectStamp> mProjectStamps =
+            new HashMap<IProject, ProjectStamp>();
+    /** The projects whose stamp must be computed by {@link #mStampJob} */
+    private final Set<IProject> mPendingStamps = new HashSet<IProject>();
+    /** Incremented on each change, to discard the stamps computed during the change */
+    private int mStampGeneration;
+    private final Job mStampJob = new StampJob();
+
+    private File mDir;
+    private final long mDiskLimit;
+
+    /**
+     * Creates a cache.
+     *
+     * @param dir the directory of the cache files, or null for the plugin state location
+     * @param memoryLimit the size of the images kept in memory, in bytes
+     * @param diskLimit the size of the cache files, in bytes
+     */
+    RenderCache(@Nullable File dir, long memoryLimit, long diskLimit) {
+        mDir = dir;
+        mMemoryLimit = memoryLimit;
+        mDiskLimit = diskLimit;
+    }
+
+    /** Returns the cache, which is shared by the editors */
+    @NonNull
+    static synchronized RenderCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new RenderCache(null, MEMORY_LIMIT, DISK_LIMIT);
+            GlobalProjectMonitor.getMonitor().addFileListener(new IFileListener() {
+                @Override
+                public void fileChanged(@NonNull IFile file, @NonNull IMarkerDelta[] markerDeltas,
+                        int kind, @Nullable String extension, int flags,
+                        boolean isAndroidProject) {
+                    // the markers of the files don't change their renderings
+                    if (isAndroidProject && (kind != IResourceDelta.CHANGED
+                            || (flags & ~IResourceDelta.MARKERS) != 0)) {
+                        sInstance.projectChanged(file.getProject());
+                    }
+                }
+            }, IResourceDelta.ADDED | IResourceDelta.REMOVED | IResourceDelta.CHANGED);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Computes the key of a rendering.
+     *
+     * @param project the project of the layout
+     * @param pending the rendering, prepared with a snapshot of the layout
+     * @param configuration the configuration of the rendering
+     * @param target the rendering target
+     * @param variant the other parameters of the rendering, such as the rendering mode
+     * @return the key, or null if the rendering cannot be cached
+     */
+    @Nullable
+    String computeKey(@NonNull IProject project, @NonNull PendingSession pending,
+            @NonNull Configuration configuration, @Nullable IAndroidTarget target,
+            @NonNull String variant) {
+        if (!(pending.getModelParser() instanceof SnapshotPullParser) || target == null) {
+            return null;
+        }
+
+        String stamp = getProjectStamp(project);
+        if (stamp == null) {
+            return null;
+        }
+        List<String> parameters = Arrays.asList(
+                AdtPlugin.getDefault().getBundle().getVersion().toString(),
+                target.hashString(),
+                configuration.toPersistentString(),
+                configuration.getFullConfig().getFolderName(ResourceFolderType.LAYOUT),
+                variant,
+                stamp);
+        return computeKey(parameters, (SnapshotPullParser) pending.getModelParser());
+    }
+
+    /**
+     * Computes the key of a rendering from its parameters and the content of its layout.
+     *
+     * @param parameters the parameters of the rendering, including the stamp of the project
+     * @param snapshot the snapshot of the layout
+     * @return the key
+     */
+    @NonNull
+    static String computeKey(@NonNull List<String> parameters,
+            @NonNull SnapshotPullParser snapshot) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (String parameter : parameters) {
+            // the lengths keep the parameters apart
+            hasher.putInt(parameter.length());
+            hasher.putString(parameter, Charsets.UTF_8);
+        }
+        snapshot.putContent(hasher);
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Returns a cached rendering of a layout, as a session without view objects.
+     *
+     * @param key the key of the rendering
+     * @param model the model of the layout, which provides the view cookies
+     * @return the rendering, or null if it is not in the cache
+     */
+    @Nullable
+    RenderSession get(@NonNull String key, @NonNull UiDocumentNode model) {
+        Entry entry;
+        synchronized (mEntries) {
+            entry = mEntries.get(key);
+        }
+        if (entry == null) {
+            entry = read(key);
+            if (entry == null) {
+                return null;
+            }
+            add(key, entry);
+        }
+
+        ViewInfo root = createViewInfo(entry.mRoot, model);
+        if (root == null) {
+            return null;
+        }
+        // the image of a session may be reused to render into by the canvas
+        return new StaticRenderSession(Result.Status.SUCCESS.createResult(), root,
+                copy(entry.mImage));
+    }
+
+    /**
+     * Adds a successful rendering to the cache.
+     *
+     * @param key the key of the rendering
+     * @param slot the layout and configuration of the rendering, such that only the last
+     *            rendering of each slot is written when they follow each other
+     * @param session the rendering
+     * @param model the model of the layout
+     */
+    void put(@NonNull String key, @NonNull String slot, @NonNull RenderSession session,
+            @NonNull UiDocumentNode model) {
+        BufferedImage image = session.getImage();
+        List<ViewInfo> roots = session.getRootViews();
+        if (!session.getResult().isSuccess() || image == null || roots == null
+                || roots.size() != 1) {
+            return;
+        }
+        View root = createView(roots.get(0), model);
+        if (root == null) {
+            return;
+        }
+
+        Entry entry = new Entry(copy(image), root);
+        add(key, entry);
+        synchronized (mPendingWrites) {
+            mPendingWrites.remove(slot);
+            mPendingWrites.put(slot, new AbstractMap.SimpleEntry<String, Entry>(key, entry));
+        }
+        mWriteJob.schedule(WRITE_DELAY);
+    }
+
+    private void add(String key, Entry entry) {
+        synchronized (mEntries) {
+            Entry previous = mEntries.put(key, entry);
+            if (previous != null) {
+                mSize -= previous.getSize();
+            }
+            mSize += entry.getSize();
+            Iterator<Entry> iterator = mEntries.values().iterator();
+            while (mSize > mMemoryLimit && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                if (eldest != entry) {
+                    iterator.remove();
+                    mSize -= eldest.getSize();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts computing the stamp of a project in the background, such that the renderings of
+     * its layouts can be looked up in the cache as soon as they are opened
+     *
+     * @param project the project of a layout editor
+     */
+    void prepare(@NonNull IProject project) {
+        getProjectStamp(project);
+    }
+
+    /** Drops the stamps of the project and of the projects using it as a library */
+    private void projectChanged(IProject project) {
+        synchronized (mProjectStamps) {
+            mStampGeneration++;
+            Iterator<Map.Entry<IProject, ProjectStamp>> iterator =
+                    mProjectStamps.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<IProject, ProjectStamp> entry = iterator.next();
+                if (entry.getValue().mProjects.contains(project)) {
+                    iterator.remove();
+                    // computed again right away, for the next rendering
+                    mPendingStamps.add(entry.getKey());
+                }
+            }
+            if (!mPendingStamps.isEmpty()) {
+                mStampJob.schedule(STAMP_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Returns the stamp of a project, or null if it is being computed by a background job,
+     * as it walks the files of the project and of its libraries.
+     */
+    @Nullable
+    private String getProjectStamp(IProject project) {
+        synchronized (mProjectStamps) {
+            ProjectStamp stamp = mProjectStamps.get(project);
+            if (stamp != null) {
+                return stamp.mStamp;
+            }
+            if (mPendingStamps.add(project)) {
+                mStampJob.schedule();
+            }
+            return null;
+        }
+    }
+
+    /** Computes the stamp of a project, from the files of the project and of its libraries */
+    @NonNull
+    private static ProjectStamp computeProjectStamp(@NonNull IProject project) {
+        Set<IProject> projects = new LinkedHashSet<IProject>();
+        projects.add(project);
+        ProjectState state = Sdk.getProjectState(project);
+        if (state != null) {
+            projects.addAll(state.getFullLibraryProjects());
+        }
+
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (IProject p : projects) {
+            File projectDir = AdtUtils.getAbsolutePath(p).toFile();
+            addFiles(hasher, new File(projectDir, FD_RES), null);
+            addFiles(hasher, new File(projectDir, FD_NATIVE_LIBS), DOT_JAR);
+            try {
+                IJavaProject javaProject = BaseProjectHelper.getJavaProject(p);
+                if (javaProject != null) {
+                    addFiles(hasher, workspacePathToFile(javaProject.getOutputLocation()),
+                            DOT_CLASS);
+                }
+            } catch (CoreException e) {
+                AdtPlugin.log(e, null);
+            }
+        }
+        return new ProjectStamp(hasher.hash().toString(), projects);
+    }
+
+    /** Adds the paths, sizes and dates of the files of a folder to a hash */
+    static void addFiles(Hasher hasher, File folder, @Nullable String extension) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addFiles(hasher, file, extension);
+            } else if (extension == null || file.getName().endsWith(extension)) {
+                hasher.putString(file.getPath(), Charsets.UTF_8);
+                hasher.putLong(file.length());
+                hasher.putLong(file.lastModified());
+            }
+        }
+    }
+
+    @Nullable
+    private static View createView(ViewInfo info, UiDocumentNode model) {
+        int[] path = null;
+        Object cookie = info.getCookie();
+        if (cookie != null) {
+            if (!(cookie instanceof UiElementNode)) {
+                return null;
+            }
+            path = getPath((UiElementNode) cookie, model);
+            if (path == null) {
+                return null;
+            }
+        }
+
+        List<ViewInfo> children = info.getChildren();
+        View[] views = new View[children != null ? children.size() : 0];
+        for (int i = 0; i < views.length; i++) {
+            views[i] = createView(children.get(i), model);
+            if (views[i] == null) {
+                return null;
+            }
+        }
+
+        return new View(info.getClassName(), path, info.getLeft(), info.getTop(),
+                info.getRight(), info.getBottom(), views);
+    }
+
+    /** Returns the indices of the node and of its parents in their parents */
+    @Nullable
+    private static int[] getPath(UiElementNode node, UiDocumentNode model) {
+        List<Integer> indices = new ArrayList<Integer>();
+        UiElementNode current = node;
+        while (current != model) {
+            UiElementNode parent = current.getUiParent();
+            if (parent == null) {
+                // not a node of this layout
+                return null;
+            }
+            indices.add(parent.getUiChildren().indexOf(current));
+            current = parent;
+        }
+
+        int[] path = new int[indices.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = indices.get(path.length - 1 - i);
+        }
+        return path;
+    }
+
+    @Nullable
+    private static ViewInfo createViewInfo(View view, UiDocumentNode model) {
+        Object cookie = null;
+        if (view.mPath != null) {
+            UiElementNode node = model;
+            for (int index : view.mPath) {
+                List<UiElementNode> children = node.getUiChildren();
+                if (index < 0 || index >= children.size()) {
+                    return null;
+                }
+                node = children.get(index);
+            }
+            cookie = node;
+        }
+
+        ViewInfo info = new ViewInfo(view.mClassName, cookie, view.mLeft, view.mTop,
+                view.mRight, view.mBottom);
+        List<ViewInfo> children = new ArrayList<ViewInfo>(view.mChildren.length);
+        for (View child : view.mChildren) {
+            ViewInfo childInfo = createViewInfo(child, model);
+            if (childInfo == null) {
+                return null;
+            }
+            children.add(childInfo);
+        }
+        info.setChildren(children);
+        return info;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(),
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+
+    // ---- Disk cache ----
+
+    @Nullable
+    private synchronized File getDir() {
+        if (mDir == null) {
+            AdtPlugin plugin = AdtPlugin.getDefault();
+            if (plugin == null) {
+                return null;
+            }
+            mDir = plugin.getStateLocation().append(FD_RENDER_CACHE).toFile();
+        }
+        return mDir;
+    }
+
+    @Nullable
+    private Entry read(String key) {
+        File dir = getDir();
+        if (dir == null) {
+            return null;
+        }
+        File file = new File(dir, key + EXT_RENDER);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            View root = readView(in);
+            BufferedImage image = ImageIO.read(in);
+            if (image == null) {
+                return null;
+            }
+            // marks the file as recently used, for the cleanup of the folder
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(image, root);
+        } catch (IOException e) {
+            // an old or broken file: the layout is rendered.
+            return null;
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    private static View readView(DataInputStream in) throws IOException {
+        String className = in.readUTF();
+        int[] path = null;
+        int length = in.readInt();
+        if (length >= 0) {
+            path = new int[length];
+            for (int i = 0; i < length; i++) {
+                path[i] = in.readInt();
+            }
+        }
+        int left = in.readInt();
+        int top = in.readInt();
+        int right = in.readInt();
+        int bottom = in.readInt();
+        View[] children = new View[in.readInt()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = readView(in);
+        }
+        return new View(className, path, left, top, right, bottom, children);
+    }
+
+    private void write(String key, Entry entry) throws IOException {
+        File dir = getDir();
+        if (dir == null || !dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+
+        // written next to the file, which is replaced once complete for the editors
+        // reading it
+        File file = new File(dir, key + EXT_RENDER);
+        File tempFile = new File(dir, key + EXT_TEMP);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeView(out, entry.mRoot);
+            ImageIO.write(entry.mImage, "PNG", out); //$NON-NLS-1$
+        } finally {
+            out.close();
+        }
+        file.delete();
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+        }
+    }
+
+    private static void writeView(DataOutputStream out, View view) throws IOException {
+        out.writeUTF(view.mClassName);
+        if (view.mPath != null) {
+            out.writeInt(view.mPath.length);
+            for (int index : view.mPath) {
+                out.writeInt(index);
+            }
+        } else {
+            out.writeInt(-1);
+        }
+        out.writeInt(view.mLeft);
+        out.writeInt(view.mTop);
+        out.writeInt(view.mRight);
+        out.writeInt(view.mBottom);
+        out.writeInt(view.mChildren.length);
+        for (View child : view.mChildren) {
+            writeView(out, child);
+        }
+    }
+
+    /** Deletes the least recently used files beyond the size of the disk cache */
+    private void cleanup() {
+        File dir = getDir();
+        File[] files = dir != null ? dir.listFiles() : null;
+        if (files == null) {
+            return;
+        }
+
+        List<File> sorted = new ArrayList<File>(Arrays.asList(files));
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long delta = file2.lastModified() - file1.lastModified();
+                return delta < 0 ? -1 : delta > 0 ? 1 : 0;
+            }
+        });
+        long size = 0;
+        for (File file : sorted) {
+            size += file.length();
+            if (size > mDiskLimit) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the renderings added to the cache, then deletes the least recently used files
+     * beyond the size of the disk cache
+     */
+    void writePending() {
+        List<Map.Entry<String, Entry>> writes;
+        synchronized (mPendingWrites) {
+            writes = new ArrayList<Map.Entry<String, Entry>>(mPendingWrites.values());
+            mPendingWrites.clear();
+        }
+
+        for (Map.Entry<String, Entry> write : writes) {
+            try {
+                write(write.getKey(), write.getValue());
+            } catch (IOException e) {
+                AdtPlugin.log(e, "Failed to write the rendering %1$s", //$NON-NLS-1$
+                        write.getKey());
+            }
+        }
+        cleanup();
+    }
+
+    /** Computes the pending project stamps */
+    private final class StampJob extends Job {
+        StampJob() {
+            super("Compute Render Cache Stamps");
+            setSystem(true);
+            setUser(false);
+        }
+
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            while (!monitor.isCanceled()) {
+                IProject project;
+                int generation;
+                synchronized (mProjectStamps) {
+                    if (mPendingStamps.isEmpty()) {
+                        break;
+                    }
+                    project = mPendingStamps.iterator().next();
+                    mPendingStamps.remove(project);
+                    generation = mStampGeneration;
+                }
+
+                ProjectStamp stamp = project.isAccessible() ? computeProjectStamp(project) : null;
+
+                synchronized (mProjectStamps) {
+                    if (generation == mStampGeneration) {
+                        if (stamp != null) {
+                            mProjectStamps.put(project, stamp);
+                        }
+                    } else {
+                        // a file changed in the meantime, which projectChanged() may not have
+                        // seen yet: the stamp is computed again after the changes.
+                        mPendingStamps.add(project);
+                        schedule(STAMP_DELAY);
+                        break;
+                    }
+                }
+            }
+
+            return Status.OK_STATUS;
+        }
+    }
+
+    /** Writes the renderings added to the cache, in the background */
+    private final class WriteJob extends Job {
+        WriteJob() {
+            super("Write Render Cache");
+            setSystem(true);
+            setUser(false);
+        }
+
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            writePending();
+            return Status.OK_STATUS;
+        }
+    }
+}
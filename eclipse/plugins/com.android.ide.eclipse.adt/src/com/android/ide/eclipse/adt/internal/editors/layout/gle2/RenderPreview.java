@@ -30,6 +30,7 @@ import com.android.ide.common.rendering.api.RenderSession;
 import com.android.ide.common.rendering.api.ResourceValue;
 import com.android.ide.common.rendering.api.Result;
 import com.android.ide.common.rendering.api.Result.Status;
+import com.android.ide.common.rendering.api.SessionParams.RenderingMode;
 import com.android.ide.common.resources.ResourceFile;
 import com.android.ide.common.resources.ResourceRepository;
 import com.android.ide.common.resources.ResourceResolver;
@@ -47,6 +48,7 @@ import com.android.ide.eclipse.adt.internal.editors.layout.configuration.Locale;
 import com.android.ide.eclipse.adt.internal.editors.layout.configuration.NestedConfiguration;
 import com.android.ide.eclipse.adt.internal.editors.layout.configuration.VaryingConfiguration;
 import com.android.ide.eclipse.adt.internal.editors.layout.gle2.IncludeFinder.Reference;
+import com.android.ide.eclipse.adt.internal.editors.layout.gle2.RenderService.PendingSession;
 import com.android.ide.eclipse.adt.internal.editors.uimodel.UiDocumentNode;
 import com.android.ide.eclipse.adt.internal.resources.ResourceHelper;
 import com.android.ide.eclipse.adt.internal.resources.manager.ProjectResources;
@@ -65,11 +67,7 @@ import com.android.sdklib.devices.State;
 import com.android.utils.SdkUtils;
 
 import org.eclipse.core.resources.IFile;
-import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.jobs.IJobChangeEvent;
-import org.eclipse.core.runtime.jobs.IJobChangeListener;
-import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.dialogs.InputDialog;
 import org.eclipse.jface.window.Window;
 import org.eclipse.swt.SWT;
@@ -82,7 +80,6 @@ import org.eclipse.swt.graphics.Region;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.ISharedImages;
 import org.eclipse.ui.PlatformUI;
-import org.eclipse.ui.progress.UIJob;
 import org.w3c.dom.Document;
 
 import java.awt.Graphics2D;
@@ -95,19 +92,10 @@ import java.util.Map;
 /**
  * Represents a preview rendering of a given configuration
  */
-public class RenderPreview implements IJobChangeListener {
+public class RenderPreview {
     /** Whether previews should use large shadows */
     static final boolean LARGE_SHADOWS = false;
 
-    /**
-     * Still doesn't work; get exceptions from layoutlib:
-     * java.lang.IllegalStateException: After scene creation, #init() must be called
-     *   at com.android.layoutlib.bridge.impl.RenderAction.acquire(RenderAction.java:151)
-     * <p>
-     * TODO: Investigate.
-     */
-    private static final boolean RENDER_ASYNC = false;
-
     /**
      * Height of the toolbar shown over a preview during hover. Needs to be
      * large enough to accommodate icons below.
@@ -117,6 +105,9 @@ public class RenderPreview implements IJobChangeListener {
     /** Whether to dump out rendering failures of the previews to the log */
     private static final boolean DUMP_RENDER_DIAGNOSTICS = false;
 
+    /** The number of times a rendering which timed out is scheduled again */
+    private static final int MAX_TIMEOUTS = 3;
+
     /** Extra error checking in debug mode */
     private static final boolean DEBUG = false;
 
@@ -151,9 +142,13 @@ public class RenderPreview implements IJobChangeListener {
     private final @NonNull RenderPreviewManager mManager;
     private final @NonNull LayoutCanvas mCanvas;
 
-    private @NonNull SoftReference<ResourceResolver> mResourceResolver =
+    /** The resolver of the configuration, read and written by the rendering jobs too */
+    private volatile @NonNull SoftReference<ResourceResolver> mResourceResolver =
             new SoftReference<ResourceResolver>(null);
-    private @Nullable Job mJob;
+    /** Incremented each time the preview is scheduled, to discard outdated renderings */
+    private int mRenderGeneration;
+    /** The number of renderings in a row which timed out, to bound their rescheduling */
+    private int mTimeouts;
     private @Nullable Image mThumbnail;
     private @Nullable String mDisplayName;
     private int mWidth;
@@ -423,10 +418,13 @@ public class RenderPreview implements IJobChangeListener {
     public void dispose() {
         disposeThumbnail();
 
-        if (mJob != null) {
-            mJob.cancel();
-            mJob = null;
-        }
+        mRenderGeneration++;
+        mManager.cancelRender(this);
+    }
+
+    /** Forgets the resource resolver of this preview, after the resources changed */
+    void clearResourceResolver() {
+        mResourceResolver.clear();
     }
 
     /** Disposes the thumbnail rendering. */
@@ -483,41 +481,169 @@ public class RenderPreview implements IJobChangeListener {
     }
 
     /**
-     * Request a new render after the given delay
+     * Notes that this preview is scheduled to be rendered by the {@link PreviewRenderQueue},
+     * such that the renderings already started are discarded. This must be called on the
+     * UI thread.
+     */
+    void renderScheduled() {
+        mRenderGeneration++;
+    }
+
+    /**
+     * Renders this preview on a job of the {@link PreviewRenderQueue}. The model is copied
+     * on the UI thread, then it is rendered and the thumbnail is scaled on the calling
+     * thread, and the thumbnail is displayed on the UI thread, unless this preview was
+     * scheduled again or disposed in the meantime.
      *
-     * @param delay the delay to wait before starting the render job
+     * @param queue the queue rendering this preview
      */
-    public void render(long delay) {
-        Job job = mJob;
-        if (job != null) {
-            job.cancel();
+    void renderInBackground(@NonNull PreviewRenderQueue queue) {
+        if (mCanvas.isDisposed()) {
+            return;
         }
-        if (RENDER_ASYNC) {
-            job = new AsyncRenderJob();
-        } else {
-            job = new RenderJob();
+        Display display = mCanvas.getDisplay();
+
+        // the configuration is read by the UI thread only, the resources are configured here
+        final Configuration[] configuration = new Configuration[1];
+        final RenderLogger[] logger = new RenderLogger[1];
+        final int[] generation = new int[1];
+        display.syncExec(new Runnable() {
+            @Override
+            public void run() {
+                generation[0] = mRenderGeneration;
+                configuration[0] = getRenderConfiguration();
+                GraphicalEditorPart editor = mCanvas.getEditorDelegate().getGraphicalEditor();
+                logger[0] = editor.createRenderLogger(getDisplayName());
+            }
+        });
+        final ResourceResolver resolver = getResourceResolver(configuration[0], queue);
+
+        final RenderLogger log = logger[0];
+        final PendingSession[] pending = new PendingSession[1];
+        final String[] cacheKey = new String[1];
+        final String[] cacheSlot = new String[1];
+        display.syncExec(new Runnable() {
+            @Override
+            public void run() {
+                if (generation[0] == mRenderGeneration && !mCanvas.isDisposed()) {
+                    pending[0] = prepareRender(configuration[0], resolver, log);
+                    if (pending[0] != null) {
+                        GraphicalEditorPart editor =
+                                mCanvas.getEditorDelegate().getGraphicalEditor();
+                        IFile file = mAlternateInput != null
+                                ? mAlternateInput : editor.getEditedFile();
+                        cacheKey[0] = RenderCache.getInstance().computeKey(file.getProject(),
+                                pending[0], configuration[0], editor.getRenderingTarget(),
+                                RenderingMode.NORMAL.name() + String.valueOf(mIncludedWithin));
+                        cacheSlot[0] = file.getFullPath().toString()
+                                + configuration[0].toPersistentString();
+                    }
+                }
+            }
+        });
+        if (pending[0] == null) {
+            return;
+        }
+
+        RenderCache cache = RenderCache.getInstance();
+        if (cacheKey[0] != null) {
+            // displays the cached rendering of the preview until it is rendered again
+            RenderSession cached = cache.get(cacheKey[0], pending[0].getModel());
+            if (cached != null) {
+                final BufferedImage cachedThumbnail = scaleThumbnail(cached.getImage());
+                if (!display.isDisposed()) {
+                    display.asyncExec(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation[0] == mRenderGeneration && !mCanvas.isDisposed()) {
+                                publishRender(null, cachedThumbnail, false);
+                            }
+                        }
+                    });
+                }
+            }
+        }
+
+        RenderSession session;
+        Result render;
+        // the session is rendered again before another rendering can use the layout library
+        synchronized (RenderService.RENDERING_LOCK) {
+            session = pending[0].create();
+            render = session.getResult();
+            if (render.isSuccess()) {
+                render = session.render(1000);
+            }
+        }
+        if (render.isSuccess() && cacheKey[0] != null) {
+            cache.put(cacheKey[0], cacheSlot[0], session, pending[0].getModel());
+        }
+
+        if (DUMP_RENDER_DIAGNOSTICS) {
+            if (log.hasProblems() || !render.isSuccess()) {
+                AdtPlugin.log(IStatus.ERROR, "Found problems rendering preview "
+                        + getDisplayName() + ": "
+                        + render.getErrorMessage() + " : "
+                        + log.getProblems(false));
+                Throwable exception = render.getException();
+                if (exception != null) {
+                    AdtPlugin.log(exception, "Failure rendering preview " + getDisplayName());
+                }
+            }
+        }
+
+        String error = null;
+        if (!render.isSuccess()) {
+            error = render.getErrorMessage();
+            if (error == null) {
+                error = "";
+            }
+        }
+
+        BufferedImage thumbnail = null;
+        boolean timeout = render.getStatus() == Status.ERROR_TIMEOUT;
+        if (render.isSuccess()) {
+            BufferedImage image = session.getImage();
+            if (image != null) {
+                thumbnail = scaleThumbnail(image);
+            }
+        }
+        session.dispose();
+
+        final String finalError = error;
+        final BufferedImage finalThumbnail = thumbnail;
+        final boolean finalTimeout = timeout;
+        if (!display.isDisposed()) {
+            display.asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    if (generation[0] == mRenderGeneration && !mCanvas.isDisposed()) {
+                        publishRender(finalError, finalThumbnail, finalTimeout);
+                    }
+                }
+            });
         }
-        job.schedule(delay);
-        job.addJobChangeListener(this);
-        mJob = job;
     }
 
-    /** Render immediately */
-    private void renderSync() {
+    private Configuration getRenderConfiguration() {
+        return mAlternateInput != null && mAlternateConfiguration != null
+                ? mAlternateConfiguration : mConfiguration;
+    }
+
+    /** Prepares the rendering on the UI thread, or returns null if it is not possible */
+    @Nullable
+    private PendingSession prepareRender(Configuration configuration,
+            ResourceResolver resolver, RenderLogger log) {
         GraphicalEditorPart editor = mCanvas.getEditorDelegate().getGraphicalEditor();
         if (editor.getReadyLayoutLib(false /*displayError*/) == null) {
             // Don't attempt to render when there is no ready layout library: most likely
             // the targets are loading/reloading.
-            return;
+            return null;
         }
 
-        disposeThumbnail();
-
-        Configuration configuration =
-                mAlternateInput != null && mAlternateConfiguration != null
-                ? mAlternateConfiguration : mConfiguration;
-        ResourceResolver resolver = getResourceResolver(configuration);
-        RenderService renderService = RenderService.create(editor, configuration, resolver);
+        // The previews are rendered at the same time, so they don't render into the image
+        // of the canvas
+        RenderService renderService = RenderService.create(editor, configuration, resolver)
+                .setImageFactory(null);
 
         if (mIncludedWithin != null) {
             renderService.setIncludedWithin(mIncludedWithin);
@@ -547,58 +673,45 @@ public class RenderPreview implements IJobChangeListener {
             Document document = DomUtilities.getDocument(mAlternateInput);
             if (document == null) {
                 mError = "No document";
+                disposeThumbnail();
                 createErrorThumbnail();
-                return;
+                mCanvas.redraw();
+                return null;
             }
             model.loadFromXmlNode(document);
             renderService.setModel(model);
         } else {
             renderService.setModel(editor.getModel());
         }
-        RenderLogger log = editor.createRenderLogger(getDisplayName());
         renderService.setLog(log);
-        RenderSession session = renderService.createRenderSession();
-        Result render = session.render(1000);
-
-        if (DUMP_RENDER_DIAGNOSTICS) {
-            if (log.hasProblems() || !render.isSuccess()) {
-                AdtPlugin.log(IStatus.ERROR, "Found problems rendering preview "
-                        + getDisplayName() + ": "
-                        + render.getErrorMessage() + " : "
-                        + log.getProblems(false));
-                Throwable exception = render.getException();
-                if (exception != null) {
-                    AdtPlugin.log(exception, "Failure rendering preview " + getDisplayName());
-                }
-            }
-        }
-
-        if (render.isSuccess()) {
-            mError = null;
-        } else {
-            mError = render.getErrorMessage();
-            if (mError == null) {
-                mError = "";
-            }
-        }
+        return renderService.prepareRenderSession();
+    }
 
-        if (render.getStatus() == Status.ERROR_TIMEOUT) {
-            // TODO: Special handling? schedule update again later
+    /** Displays the result of a rendering on the UI thread */
+    private void publishRender(@Nullable String error, @Nullable BufferedImage thumbnail,
+            boolean timeout) {
+        if (timeout && mTimeouts < MAX_TIMEOUTS) {
+            // the layout library was busy: keep the current thumbnail and render again
+            mTimeouts++;
+            mManager.scheduleRender(this);
             return;
         }
-        if (render.isSuccess()) {
-            BufferedImage image = session.getImage();
-            if (image != null) {
-                createThumbnail(image);
-            }
+        mTimeouts = 0;
+        mError = error;
+        disposeThumbnail();
+        if (thumbnail != null) {
+            mThumbnail = SwtUtils.convertToSwt(mCanvas.getDisplay(), thumbnail,
+                    true /* transferAlpha */, -1);
         }
 
         if (mError != null) {
             createErrorThumbnail();
         }
+        mCanvas.redraw();
     }
 
-    private ResourceResolver getResourceResolver(Configuration configuration) {
+    private ResourceResolver getResourceResolver(Configuration configuration,
+            PreviewRenderQueue queue) {
         ResourceResolver resourceResolver = mResourceResolver.get();
         if (resourceResolver != null) {
             return resourceResolver;
@@ -624,9 +737,8 @@ public class RenderPreview implements IJobChangeListener {
             AndroidTargetData data = sdk.getTargetData(target);
 
             if (data != null) {
-                // TODO: SHARE if possible
                 frameworkRes = data.getFrameworkResources();
-                configuredFrameworkRes = frameworkRes.getConfiguredResources(config);
+                configuredFrameworkRes = queue.getConfiguredResources(frameworkRes, config);
             } else {
                 return null;
             }
@@ -639,7 +751,7 @@ public class RenderPreview implements IJobChangeListener {
         // get the resources of the file's project.
         ProjectResources projectRes = ResourceManager.getInstance().getProjectResources(
                 graphicalEditor.getProject());
-        configuredProjectRes = projectRes.getConfiguredResources(config);
+        configuredProjectRes = queue.getConfiguredResources(projectRes, config);
 
         if (!theme.startsWith(PREFIX_RESOURCE_REF)) {
             if (frameworkRes.hasResourceItem(ANDROID_STYLE_RESOURCE_PREFIX + theme)) {
@@ -658,16 +770,14 @@ public class RenderPreview implements IJobChangeListener {
     }
 
     /**
-     * Sets the new image of the preview and generates a thumbnail
+     * Scales the new image of the preview to the thumbnail size, with its shadow. This is
+     * called by the rendering jobs.
      *
      * @param image the full size image
+     * @return the thumbnail image
      */
-    void createThumbnail(BufferedImage image) {
-        if (image == null) {
-            mThumbnail = null;
-            return;
-        }
-
+    @NonNull
+    private BufferedImage scaleThumbnail(@NonNull BufferedImage image) {
         ImageOverlay imageOverlay = mCanvas.getImageOverlay();
         boolean drawShadows = imageOverlay == null || imageOverlay.getShowDropShadow();
         double scale = getWidth() / (double) image.getWidth();
@@ -697,8 +807,7 @@ public class RenderPreview implements IJobChangeListener {
             }
         }
 
-        mThumbnail = SwtUtils.convertToSwt(mCanvas.getDisplay(), image,
-                true /* transferAlpha */, -1);
+        return image;
     }
 
     void createErrorThumbnail() {
@@ -1187,92 +1296,6 @@ public class RenderPreview implements IJobChangeListener {
         return mConfiguration;
     }
 
-    // ---- Implements IJobChangeListener ----
-
-    @Override
-    public void aboutToRun(IJobChangeEvent event) {
-    }
-
-    @Override
-    public void awake(IJobChangeEvent event) {
-    }
-
-    @Override
-    public void done(IJobChangeEvent event) {
-        mJob = null;
-    }
-
-    @Override
-    public void running(IJobChangeEvent event) {
-    }
-
-    @Override
-    public void scheduled(IJobChangeEvent event) {
-    }
-
-    @Override
-    public void sleeping(IJobChangeEvent event) {
-    }
-
-    // ---- Delayed Rendering ----
-
-    private final class RenderJob extends UIJob {
-        public RenderJob() {
-            super("RenderPreview");
-            setSystem(true);
-            setUser(false);
-        }
-
-        @Override
-        public IStatus runInUIThread(IProgressMonitor monitor) {
-            mJob = null;
-            if (!mCanvas.isDisposed()) {
-                renderSync();
-                mCanvas.redraw();
-                return org.eclipse.core.runtime.Status.OK_STATUS;
-            }
-
-            return org.eclipse.core.runtime.Status.CANCEL_STATUS;
-        }
-
-        @Override
-        public Display getDisplay() {
-            if (mCanvas.isDisposed()) {
-                return null;
-            }
-            return mCanvas.getDisplay();
-        }
-    }
-
-    private final class AsyncRenderJob extends Job {
-        public AsyncRenderJob() {
-            super("RenderPreview");
-            setSystem(true);
-            setUser(false);
-        }
-
-        @Override
-        protected IStatus run(IProgressMonitor monitor) {
-            mJob = null;
-
-            if (mCanvas.isDisposed()) {
-                return org.eclipse.core.runtime.Status.CANCEL_STATUS;
-            }
-
-            renderSync();
-
-            // Update display
-            mCanvas.getDisplay().asyncExec(new Runnable() {
-                @Override
-                public void run() {
-                    mCanvas.redraw();
-                }
-            });
-
-            return org.eclipse.core.runtime.Status.OK_STATUS;
-        }
-    }
-
     /**
      * Sets the input file to use for rendering. If not set, this will just be
      * the same file as the configuration chooser. This is used to render other
@@ -86,7 +86,6 @@ import java.util.Set;
  */
 public class RenderPreviewManager {
     private static double sScale = 1.0;
-    private static final int RENDER_DELAY = 150;
     private static final int PREVIEW_VGAP = 18;
     private static final int PREVIEW_HGAP = 12;
     private static final int MAX_WIDTH = 200;
@@ -115,6 +114,7 @@ public class RenderPreviewManager {
     private boolean mNeedRender;
     private boolean mNeedZoom;
     private SwapAnimation mAnimation;
+    private final @NonNull PreviewRenderQueue mRenderQueue;
 
     /**
      * Creates a {@link RenderPreviewManager} associated with the given canvas
@@ -125,6 +125,7 @@ public class RenderPreviewManager {
         mCanvas = canvas;
         mHScale = canvas.getHorizontalTransform();
         mVScale = canvas.getVerticalTransform();
+        mRenderQueue = new PreviewRenderQueue(canvas);
     }
 
     /**
@@ -238,6 +239,7 @@ public class RenderPreviewManager {
         if (mPreviews != null) {
             List<RenderPreview> old = mPreviews;
             mPreviews = null;
+            mRenderQueue.cancelAll();
             for (RenderPreview preview : old) {
                 preview.dispose();
             }
@@ -331,8 +333,6 @@ public class RenderPreviewManager {
             mCanvas.getVerticalBar().addSelectionListener(mListener);
         }
 
-        beginRenderScheduling();
-
         mLayoutHeight = 0;
 
         if (previewsHaveIdenticalSize() || fixedOrder()) {
@@ -700,7 +700,6 @@ public class RenderPreviewManager {
             addPreview(preview);
 
             layout(true);
-            beginRenderScheduling();
             scheduleRender(preview);
             mCanvas.setFitScale(true /* onlyZoomOut */, false /*allowZoomIn*/);
 
@@ -1164,7 +1163,6 @@ public class RenderPreviewManager {
         // Similar to renderPreviews, but only acts on incomplete previews
         if (hasPreviews()) {
             // Do zoomed images first
-            beginRenderScheduling();
             for (RenderPreview preview : mPreviews) {
                 if (preview.getScale() > 1.2) {
                     preview.configurationChanged(flags);
@@ -1188,8 +1186,6 @@ public class RenderPreviewManager {
     /** Updates the configuration preview thumbnails */
     public void renderPreviews() {
         if (hasPreviews()) {
-            beginRenderScheduling();
-
             // Process in visual order
             ArrayList<RenderPreview> visualOrder = new ArrayList<RenderPreview>(mPreviews);
             Collections.sort(visualOrder, RenderPreview.VISUAL_ORDER);
@@ -1211,26 +1207,37 @@ public class RenderPreviewManager {
         mNeedRender = false;
     }
 
-    private int mPendingRenderCount;
-
     /**
-     * Reset rendering scheduling. The next render request will be scheduled
-     * after a single delay unit.
+     * Schedule rendering the given preview. The previews are rendered a few at a time, in
+     * the order of the calls, and the rendering of a preview scheduled again is restarted.
+     *
+     * @param preview the preview to render
      */
-    public void beginRenderScheduling() {
-        mPendingRenderCount = 0;
+    public void scheduleRender(@NonNull RenderPreview preview) {
+        preview.renderScheduled();
+        mRenderQueue.schedule(preview);
     }
 
     /**
-     * Schedule rendering the given preview. Each successive call will add an additional
-     * delay unit to the schedule from the previous {@link #scheduleRender(RenderPreview)}
-     * call, until {@link #beginRenderScheduling()} is called again.
+     * Cancels the scheduled rendering of the given preview
      *
-     * @param preview the preview to render
+     * @param preview the preview which doesn't need to be rendered
      */
-    public void scheduleRender(@NonNull RenderPreview preview) {
-        mPendingRenderCount++;
-        preview.render(mPendingRenderCount * RENDER_DELAY);
+    void cancelRender(@NonNull RenderPreview preview) {
+        mRenderQueue.cancel(preview);
+    }
+
+    /**
+     * Notifies that the resources of the project changed, such that the resources of the
+     * previews must be configured again
+     */
+    public void resourcesChanged() {
+        mRenderQueue.clearResources();
+        if (mPreviews != null) {
+            for (RenderPreview preview : mPreviews) {
+                preview.clearResourceResolver();
+            }
+        }
     }
 
     /**
@@ -1588,7 +1595,6 @@ public class RenderPreviewManager {
             int selection = bar.getSelection();
             int thumb = bar.getThumb();
             int maxY = selection + thumb;
-            beginRenderScheduling();
             for (RenderPreview preview : mPreviews) {
                 if (!preview.isVisible() && preview.getY() <= maxY) {
                     preview.setVisible(true);
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.common.rendering.api.RenderSession;
+import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.ide.eclipse.adt.internal.editors.layout.SnapshotPullParser;
+import com.android.ide.eclipse.adt.internal.editors.layout.gle2.RenderService.PendingSession;
+import com.android.ide.eclipse.adt.internal.editors.uimodel.UiDocumentNode;
+import com.android.ide.eclipse.adt.internal.editors.uimodel.UiElementNode;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.swt.widgets.Display;
+
+import java.util.Set;
+
+/**
+ * Renders the layout of a {@link GraphicalEditorPart} in the background as its XML is edited.
+ * <p/>
+ * The changes made in a short time are rendered together, once. The model is copied on the
+ * UI thread, then rendered by a job, and the result is displayed on the UI thread unless the
+ * model changed again in the meantime. When only attribute values changed since the last
+ * displayed rendering, the views of its session are updated and drawn again rather than
+ * inflated again, if the layout library supports it.
+ */
+class RenderScheduler {
+    private static final boolean DEBUG = false;
+
+    /** The time to wait for more changes before rendering, in milliseconds */
+    private static final long COALESCE_DELAY = 100;
+
+    /** A rendering of the model, as prepared by {@link GraphicalEditorPart#prepareRender} */
+    static final class Request {
+        final IProject mProject;
+        final UiDocumentNode mModel;
+        final RenderLogger mLogger;
+        final Set<UiElementNode> mExplodeNodes;
+        final boolean mLayoutlib5;
+        final PendingSession mPending;
+        /** The key and slot of the rendering in the {@link RenderCache}, if it is cached */
+        String mCacheKey;
+        String mCacheSlot;
+        RenderSession mSession;
+        RenderSession mPreviousSession;
+        SnapshotPullParser mPreviousSnapshot;
+
+        Request(@NonNull IProject project, @NonNull UiDocumentNode model,
+                @NonNull RenderLogger logger, @Nullable Set<UiElementNode> explodeNodes,
+                boolean layoutlib5, @NonNull PendingSession pending) {
+            mProject = project;
+            mModel = model;
+            mLogger = logger;
+            mExplodeNodes = explodeNodes;
+            mLayoutlib5 = layoutlib5;
+            mPending = pending;
+        }
+    }
+
+    private final GraphicalEditorPart mEditor;
+    private final RenderJob mJob = new RenderJob();
+
+    /** Incremented on the UI thread by each change, to discard the outdated renderings */
+    private volatile int mGeneration;
+    /** The time of the first change not displayed yet, or 0 */
+    private long mFirstChangeTime;
+
+    /** The session displayed by the last rendering of this scheduler, and its snapshot */
+    private RenderSession mDisplayedSession;
+    private SnapshotPullParser mDisplayedSnapshot;
+
+    private long mLastLatency;
+    private long mLastRenderTime;
+
+    RenderScheduler(@NonNull GraphicalEditorPart editor) {
+        mEditor = editor;
+    }
+
+    /**
+     * Schedules a rendering of the model, after the changes following this one. This must
+     * be called on the UI thread.
+     */
+    void schedule() {
+        mGeneration++;
+        if (mFirstChangeTime == 0) {
+            mFirstChangeTime = System.currentTimeMillis();
+        }
+        mJob.schedule(COALESCE_DELAY);
+    }
+
+    /**
+     * Cancels the scheduled rendering, because the layout is rendered right away by the
+     * editor. This must be called on the UI thread.
+     */
+    void cancel() {
+        mGeneration++;
+        mFirstChangeTime = 0;
+        mJob.cancel();
+        mDisplayedSession = null;
+        mDisplayedSnapshot = null;
+    }
+
+    /**
+     * Returns the time between the first change of the model and the display of its last
+     * background rendering, in milliseconds
+     */
+    long getLastLatency() {
+        return mLastLatency;
+    }
+
+    /** Returns the time spent by the last background rendering, in milliseconds */
+    long getLastRenderTime() {
+        return mLastRenderTime;
+    }
+
+    /** Prepares the rendering on the UI thread, or returns null if it is not needed */
+    @Nullable
+    private Request prepare(int generation) {
+        LayoutCanvas canvas = mEditor.getCanvasControl();
+        if (generation != mGeneration || canvas == null || canvas.isDisposed()) {
+            return null;
+        }
+
+        Request request = mEditor.prepareRender();
+        if (request != null) {
+            RenderSession current = canvas.getViewHierarchy().getSession();
+            if (current != null && current == mDisplayedSession && request.mLayoutlib5) {
+                request.mPreviousSession = current;
+                request.mPreviousSnapshot = mDisplayedSnapshot;
+            }
+        }
+        return request;
+    }
+
+    /** Displays the rendering on the UI thread, unless the model changed since */
+    private void publish(int generation, @NonNull Request request, long renderTime) {
+        if (request.mPreviousSession != null && request.mPreviousSession == mDisplayedSession) {
+            // the views of the displayed session may have been changed, whether or not
+            // for the model displayed below
+            mDisplayedSnapshot = null;
+        }
+
+        LayoutCanvas canvas = mEditor.getCanvasControl();
+        boolean reused = request.mSession != null && request.mSession == request.mPreviousSession;
+        if (generation != mGeneration || canvas == null || canvas.isDisposed()) {
+            if (!reused && request.mSession != null) {
+                request.mSession.dispose();
+            }
+            return;
+        }
+
+        mLastRenderTime = renderTime;
+        mLastLatency = System.currentTimeMillis() - mFirstChangeTime;
+        mFirstChangeTime = 0;
+        if (DEBUG) {
+            AdtPlugin.printToConsole("RenderScheduler", String.format( //$NON-NLS-1$
+                    "%1$s: rendered in %2$d ms, displayed %3$d ms after the change", //$NON-NLS-1$
+                    reused ? "updated" : "inflated", //$NON-NLS-1$ //$NON-NLS-2$
+                    mLastRenderTime, mLastLatency));
+        }
+
+        mDisplayedSession = request.mSession;
+        mDisplayedSnapshot = (SnapshotPullParser) request.mPending.getModelParser();
+        mEditor.publishRender(request.mProject, request.mModel, request.mSession,
+                request.mLogger, request.mExplodeNodes, request.mLayoutlib5,
+                request.mPending.getStatistics());
+        canvas.getPreviewManager().renderPreviews();
+    }
+
+    /** Renders the model in the background */
+    private final class RenderJob extends Job {
+        RenderJob() {
+            super("Render Layout");
+            setSystem(true);
+            setUser(false);
+        }
+
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            LayoutCanvas canvas = mEditor.getCanvasControl();
+            if (canvas == null || canvas.isDisposed()) {
+                return Status.CANCEL_STATUS;
+            }
+            Display display = canvas.getDisplay();
+
+            final int generation = mGeneration;
+            final Request[] request = new Request[1];
+            display.syncExec(new Runnable() {
+                @Override
+                public void run() {
+                    request[0] = prepare(generation);
+                }
+            });
+            if (request[0] == null || monitor.isCanceled() || generation != mGeneration) {
+                return Status.CANCEL_STATUS;
+            }
+
+            final Request r = request[0];
+            long start = System.currentTimeMillis();
+            // The previous session is displayed by the canvas, which disposes it under the
+            // rendering lock once the model changed: it is only updated, and the rendering
+            // cached, while the model is the one prepared.
+            synchronized (RenderService.RENDERING_LOCK) {
+                if (generation != mGeneration) {
+                    return Status.CANCEL_STATUS;
+                }
+                try {
+                    if (r.mPreviousSession != null && r.mPreviousSnapshot != null
+                            && r.mPending.update(r.mPreviousSession, r.mPreviousSnapshot)) {
+                        r.mSession = r.mPreviousSession;
+                    } else {
+                        r.mSession = r.mPending.create();
+                    }
+                } catch (RuntimeException e) {
+                    // already logged by the render service
+                }
+                if (r.mSession != null && r.mCacheKey != null && generation == mGeneration) {
+                    RenderCache.getInstance().put(r.mCacheKey, r.mCacheSlot, r.mSession,
+                            r.mModel);
+                }
+            }
+            final long renderTime = System.currentTimeMillis() - start;
+
+            if (!display.isDisposed()) {
+                display.asyncExec(new Runnable() {
+                    @Override
+                    public void run() {
+                        publish(generation, r, renderTime);
+                    }
+                });
+            }
+
+            return Status.OK_STATUS;
+        }
+    }
+}
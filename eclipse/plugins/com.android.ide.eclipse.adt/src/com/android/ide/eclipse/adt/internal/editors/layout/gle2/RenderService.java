@@ -15,9 +15,11 @@
  */
 package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
 
+import static com.android.SdkConstants.ANDROID_URI;
 import static com.android.SdkConstants.LAYOUT_RESOURCE_PREFIX;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.ide.common.api.IClientRulesEngine;
 import com.android.ide.common.api.INode;
 import com.android.ide.common.api.Rect;
@@ -43,11 +45,14 @@ import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.AdtUtils;
 import com.android.ide.eclipse.adt.internal.editors.layout.ContextPullParser;
 import com.android.ide.eclipse.adt.internal.editors.layout.ProjectCallback;
+import com.android.ide.eclipse.adt.internal.editors.layout.SnapshotPullParser;
+import com.android.ide.eclipse.adt.internal.editors.layout.SnapshotPullParser.AttributeChange;
 import com.android.ide.eclipse.adt.internal.editors.layout.UiElementPullParser;
 import com.android.ide.eclipse.adt.internal.editors.layout.configuration.Configuration;
 import com.android.ide.eclipse.adt.internal.editors.layout.configuration.ConfigurationChooser;
 import com.android.ide.eclipse.adt.internal.editors.layout.configuration.Locale;
 import com.android.ide.eclipse.adt.internal.editors.layout.gle2.IncludeFinder.Reference;
+import com.android.ide.eclipse.adt.internal.editors.layout.gle2.RenderStatistics.Phase;
 import com.android.ide.eclipse.adt.internal.editors.layout.gre.NodeFactory;
 import com.android.ide.eclipse.adt.internal.editors.layout.gre.NodeProxy;
 import com.android.ide.eclipse.adt.internal.editors.layout.uimodel.UiViewElementNode;
@@ -82,7 +87,12 @@ import java.util.Set;
  * Android layouts. This is a wrapper around the layout library.
  */
 public class RenderService {
-    private static final Object RENDERING_LOCK = new Object();
+    /**
+     * Lock held while the layout library renders a session. The layout library serializes
+     * the renderings itself, but it gives up on a rendering after a short timeout, and the
+     * project callback is shared by the renderings of an editor and of its previews.
+     */
+    static final Object RENDERING_LOCK = new Object();
 
     /** Reference to the file being edited. Can also be used to access the {@link IProject}. */
     private final GraphicalEditorPart mEditor;
@@ -96,9 +106,15 @@ public class RenderService {
     private final int mMinSdkVersion;
     private final int mTargetSdkVersion;
     private final LayoutLibrary mLayoutLib;
-    private final IImageFactory mImageFactory;
+    private IImageFactory mImageFactory;
     private final HardwareConfigHelper mHardwareConfigHelper;
     private final Locale mLocale;
+    private final String mDeviceName;
+    /**
+     * The time spent creating the resource resolver of the editor for this service, in
+     * nanoseconds, or 0 if the resolver was created for an earlier rendering
+     */
+    private final long mResourceTime;
 
     // The following fields are optional or configurable using the various chained
     // setters:
@@ -132,10 +148,12 @@ public class RenderService {
 
         mLayoutLib = editor.getReadyLayoutLib(true /*displayError*/);
         mResourceResolver = editor.getResourceResolver();
+        mResourceTime = editor.takeResourceResolverTime();
         mProjectCallback = editor.getProjectCallback(true /*reset*/, mLayoutLib);
         mMinSdkVersion = editor.getMinSdkVersion();
         mTargetSdkVersion = editor.getTargetSdkVersion();
         mLocale = config.getLocale();
+        mDeviceName = device.getName();
     }
 
     private RenderService(GraphicalEditorPart editor,
@@ -156,11 +174,19 @@ public class RenderService {
                 folderConfig.getScreenOrientationQualifier().getValue());
 
         mLayoutLib = editor.getReadyLayoutLib(true /*displayError*/);
-        mResourceResolver =  resourceResolver != null ? resourceResolver : editor.getResourceResolver();
+        if (resourceResolver != null) {
+            // the resolver of a preview, which is kept by the preview for its renderings
+            mResourceResolver = resourceResolver;
+            mResourceTime = 0;
+        } else {
+            mResourceResolver = editor.getResourceResolver();
+            mResourceTime = editor.takeResourceResolverTime();
+        }
         mProjectCallback = editor.getProjectCallback(true /*reset*/, mLayoutLib);
         mMinSdkVersion = editor.getMinSdkVersion();
         mTargetSdkVersion = editor.getTargetSdkVersion();
         mLocale = configuration.getLocale();
+        mDeviceName = device.getName();
     }
 
     private RenderSecurityManager createSecurityManager() {
@@ -394,6 +420,19 @@ public class RenderService {
         return this;
     }
 
+    /**
+     * Sets the factory of the image to render into. The default is the image overlay of
+     * the canvas, which displays the image; a null factory lets the layout library allocate
+     * a new image, as for the renderings which can run at the same time as others.
+     *
+     * @param imageFactory the image factory, or null
+     * @return this (such that chains of setters can be stringed together)
+     */
+    public RenderService setImageFactory(@Nullable IImageFactory imageFactory) {
+        mImageFactory = imageFactory;
+        return this;
+    }
+
     /** Initializes any remaining optional fields after all setters have been called */
     private void finishConfiguration() {
         if (mLogger == null) {
@@ -407,6 +446,26 @@ public class RenderService {
      * @return the {@link RenderSession} resulting from rendering the current model
      */
     public RenderSession createRenderSession() {
+        PendingSession session = prepareSession(false /*snapshot*/);
+        return session != null ? session.create() : null;
+    }
+
+    /**
+     * Prepares the rendering of the model, which {@link PendingSession#create()} then
+     * performs, possibly on another thread. The model is copied, such that it can be edited
+     * in the meantime. This method reads the model and the editor, and must be called on
+     * the UI thread.
+     *
+     * @return the prepared rendering, or null if the resources are not found or the model
+     *         cannot be read
+     */
+    @Nullable
+    public PendingSession prepareRenderSession() {
+        return prepareSession(true /*snapshot*/);
+    }
+
+    @Nullable
+    private PendingSession prepareSession(boolean snapshot) {
         assert mModel != null : "Incomplete service config";
         finishConfiguration();
 
@@ -416,14 +475,28 @@ public class RenderService {
         }
 
         HardwareConfig hardwareConfig = mHardwareConfigHelper.getConfig();
+        RenderStatistics statistics = new RenderStatistics(String.format("%1$s (%2$s)",
+                mEditor.getLayoutResourceName(), mDeviceName));
+        statistics.add(Phase.RESOURCES, mResourceTime);
 
-        UiElementPullParser modelParser = new UiElementPullParser(mModel,
+        UiElementPullParser uiParser = new UiElementPullParser(mModel,
                 false, mExpandNodes, hardwareConfig.getDensity(), mProject);
+        ILayoutPullParser modelParser = uiParser;
+        if (snapshot) {
+            long start = System.nanoTime();
+            try {
+                modelParser = new SnapshotPullParser(uiParser);
+            } catch (XmlPullParserException e) {
+                AdtPlugin.log(e, null);
+                return null;
+            }
+            statistics.add(Phase.PARSE, System.nanoTime() - start);
+        }
         ILayoutPullParser topParser = modelParser;
 
         // Code to support editing included layout
-        // first reset the layout parser just in case.
-        mProjectCallback.setLayoutParser(null, null);
+        String queryLayoutName = null;
+        ILayoutPullParser queryLayoutParser = null;
 
         if (mIncludedWithin != null) {
             // Outer layout name:
@@ -438,8 +511,8 @@ public class RenderService {
                     try {
                         // Get the name of the layout actually being edited, without the extension
                         // as it's what IXmlPullParser.getParser(String) will receive.
-                        String queryLayoutName = mEditor.getLayoutResourceName();
-                        mProjectCallback.setLayoutParser(queryLayoutName, modelParser);
+                        queryLayoutName = mEditor.getLayoutResourceName();
+                        queryLayoutParser = modelParser;
                         topParser = new ContextPullParser(mProjectCallback, layoutFile);
                         topParser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
                         String xmlText = Files.toString(layoutFile, Charsets.UTF_8);
@@ -510,25 +583,191 @@ public class RenderService {
         // set the Image Overlay as the image factory.
         params.setImageFactory(mImageFactory);
 
-        mProjectCallback.setLogger(mLogger);
-        mProjectCallback.setResourceResolver(mResourceResolver);
-        RenderSecurityManager securityManager = createSecurityManager();
-        try {
-            securityManager.setActive(true, mCredential);
-            synchronized (RENDERING_LOCK) {
-                return mLayoutLib.createSession(params);
+        return new PendingSession(params, modelParser, queryLayoutName, queryLayoutParser,
+                statistics);
+    }
+
+    /**
+     * A rendering prepared by {@link RenderService#prepareRenderSession()}, which doesn't
+     * depend on the UI model anymore.
+     */
+    public final class PendingSession {
+        private final SessionParams mParams;
+        private final ILayoutPullParser mModelParser;
+        private final String mQueryLayoutName;
+        private final ILayoutPullParser mQueryLayoutParser;
+        private final RenderStatistics mStatistics;
+
+        private PendingSession(SessionParams params, ILayoutPullParser modelParser,
+                String queryLayoutName, ILayoutPullParser queryLayoutParser,
+                RenderStatistics statistics) {
+            mParams = params;
+            mModelParser = modelParser;
+            mQueryLayoutName = queryLayoutName;
+            mQueryLayoutParser = queryLayoutParser;
+            mStatistics = statistics;
+        }
+
+        /**
+         * Returns the statistics of the rendering, which are updated by {@link #create()}
+         * and {@link #update}
+         */
+        @NonNull
+        public RenderStatistics getStatistics() {
+            return mStatistics;
+        }
+
+        /**
+         * Returns the parser of the model, which is a {@link SnapshotPullParser} for
+         * the renderings prepared by {@link RenderService#prepareRenderSession()}
+         */
+        @NonNull
+        public ILayoutPullParser getModelParser() {
+            return mModelParser;
+        }
+
+        /** Returns the model rendered by the session */
+        @NonNull
+        public UiDocumentNode getModel() {
+            return mModel;
+        }
+
+        /**
+         * Renders the model and returns the result as a {@link RenderSession}.
+         * @return the {@link RenderSession} resulting from rendering the model
+         */
+        public RenderSession create() {
+            RenderSecurityManager securityManager = createSecurityManager();
+            try {
+                securityManager.setActive(true, mCredential);
+                // The project callback is shared by the renderings of the editor, so it is
+                // only configured for this rendering while holding the lock
+                synchronized (RENDERING_LOCK) {
+                    // Code to support editing included layout (or reset the layout parser)
+                    mProjectCallback.setLayoutParser(mQueryLayoutName, mQueryLayoutParser);
+                    mProjectCallback.setLogger(mLogger);
+                    mProjectCallback.setResourceResolver(mResourceResolver);
+                    mProjectCallback.setStatistics(mStatistics);
+                    long customViewTime = mStatistics.getTime(Phase.CUSTOM_VIEWS);
+                    long start = System.nanoTime();
+                    try {
+                        RenderSession session = mLayoutLib.createSession(mParams);
+                        if (session != null) {
+                            mStatistics.countViews(session.getRootViews());
+                        }
+                        return session;
+                    } finally {
+                        // the custom views are loaded during the inflation
+                        customViewTime = mStatistics.getTime(Phase.CUSTOM_VIEWS) - customViewTime;
+                        mStatistics.add(Phase.INFLATE,
+                                System.nanoTime() - start - customViewTime);
+                        mProjectCallback.setLogger(null);
+                        mProjectCallback.setResourceResolver(null);
+                        mProjectCallback.setStatistics(null);
+                    }
+                }
+            } catch (RuntimeException t) {
+                // Exceptions from the bridge
+                mLogger.error(null, t.getLocalizedMessage(), t, null);
+                throw t;
+            } finally {
+                securityManager.dispose(mCredential);
+            }
+        }
+
+        /**
+         * Renders the model again with a session previously rendered from another snapshot
+         * of the same layout, by setting the properties of its views, which is only possible
+         * when nothing but the values of some android attributes changed since.
+         *
+         * @param session the session to render again
+         * @param previous the snapshot the session was rendered from
+         * @return true if the session was rendered, false if a new session must be created.
+         *         The views of the session may then have been modified, so the session must
+         *         not be rendered again this way.
+         */
+        public boolean update(@NonNull RenderSession session,
+                @NonNull SnapshotPullParser previous) {
+            if (!(mModelParser instanceof SnapshotPullParser)) {
+                return false;
+            }
+            List<AttributeChange> changes =
+                    ((SnapshotPullParser) mModelParser).getAttributeChanges(previous);
+            if (changes == null) {
+                return false;
+            }
+            for (AttributeChange change : changes) {
+                if (!ANDROID_URI.equals(change.getNamespace())) {
+                    return false;
+                }
+            }
+
+            RenderSecurityManager securityManager = createSecurityManager();
+            try {
+                securityManager.setActive(true, mCredential);
+                synchronized (RENDERING_LOCK) {
+                    mProjectCallback.setLayoutParser(mQueryLayoutName, mQueryLayoutParser);
+                    mProjectCallback.setLogger(mLogger);
+                    mProjectCallback.setResourceResolver(mResourceResolver);
+                    mProjectCallback.setStatistics(mStatistics);
+                    long customViewTime = mStatistics.getTime(Phase.CUSTOM_VIEWS);
+                    long start = System.nanoTime();
+                    try {
+                        for (AttributeChange change : changes) {
+                            Object viewObject = findViewObject(session.getRootViews(),
+                                    change.getNode());
+                            if (viewObject == null) {
+                                return false;
+                            }
+                            Result result = session.setProperty(viewObject, change.getName(),
+                                    change.getValue());
+                            if (!result.isSuccess()) {
+                                // such as NOT_IMPLEMENTED by the older layout libraries
+                                return false;
+                            }
+                        }
+                        if (!changes.isEmpty() && !session.render().isSuccess()) {
+                            return false;
+                        }
+                        mStatistics.countViews(session.getRootViews());
+                        return true;
+                    } finally {
+                        // custom views may be loaded by the changed attributes
+                        customViewTime = mStatistics.getTime(Phase.CUSTOM_VIEWS) - customViewTime;
+                        mStatistics.add(Phase.INFLATE,
+                                System.nanoTime() - start - customViewTime);
+                        mProjectCallback.setLogger(null);
+                        mProjectCallback.setResourceResolver(null);
+                        mProjectCallback.setStatistics(null);
+                    }
+                }
+            } catch (RuntimeException t) {
+                // Exceptions from the bridge: the session is created again instead
+                AdtPlugin.log(t, null);
+                return false;
+            } finally {
+                securityManager.dispose(mCredential);
             }
-        } catch (RuntimeException t) {
-            // Exceptions from the bridge
-            mLogger.error(null, t.getLocalizedMessage(), t, null);
-            throw t;
-        } finally {
-            securityManager.dispose(mCredential);
-            mProjectCallback.setLogger(null);
-            mProjectCallback.setResourceResolver(null);
         }
     }
 
+    @Nullable
+    private static Object findViewObject(@Nullable List<ViewInfo> views, @NonNull Object cookie) {
+        if (views != null) {
+            for (ViewInfo view : views) {
+                if (view.getCookie() == cookie) {
+                    return view.getViewObject();
+                }
+                Object viewObject = findViewObject(view.getChildren(), cookie);
+                if (viewObject != null) {
+                    return viewObject;
+                }
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Renders the given resource value (which should refer to a drawable) and returns it
      * as an image
@@ -625,13 +864,18 @@ public class RenderService {
         params.setAssetRepository(new AssetRepository());
 
         RenderSession session = null;
-        mProjectCallback.setLogger(mLogger);
-        mProjectCallback.setResourceResolver(mResourceResolver);
         RenderSecurityManager securityManager = createSecurityManager();
         try {
             securityManager.setActive(true, mCredential);
             synchronized (RENDERING_LOCK) {
-                session = mLayoutLib.createSession(params);
+                mProjectCallback.setLogger(mLogger);
+                mProjectCallback.setResourceResolver(mResourceResolver);
+                try {
+                    session = mLayoutLib.createSession(params);
+                } finally {
+                    mProjectCallback.setLogger(null);
+                    mProjectCallback.setResourceResolver(null);
+                }
             }
             if (session.getResult().isSuccess()) {
                 assert session.getRootViews().size() == 1;
@@ -656,8 +900,6 @@ public class RenderService {
             throw t;
         } finally {
             securityManager.dispose(mCredential);
-            mProjectCallback.setLogger(null);
-            mProjectCallback.setResourceResolver(null);
             if (session != null) {
                 session.dispose();
             }
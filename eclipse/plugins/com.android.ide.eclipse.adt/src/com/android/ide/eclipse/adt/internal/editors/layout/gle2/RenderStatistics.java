@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.common.rendering.api.ViewInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The time spent by a rendering of the layout editor in each of its phases, along with the
+ * number of views of each class it inflated and the layouts it included.
+ * <p/>
+ * The statistics are collected by the {@link RenderService} and the project callback of
+ * the rendering, possibly on another thread, and completed on the UI thread when the
+ * image is displayed. The statistics of the last renderings of all the editors are kept, to
+ * be displayed by the {@link RenderStatisticsOverlay} and exported to a file.
+ */
+public final class RenderStatistics {
+    /** The phases of a rendering */
+    public enum Phase {
+        /** The resolution of the resources of the configuration */
+        RESOURCES("Resource resolution"),
+        /** The traversal of the UI model by the {@code UiElementPullParser} */
+        PARSE("Model traversal"),
+        /** The loading and construction of the custom views, by the project class loader */
+        CUSTOM_VIEWS("Custom view loading"),
+        /**
+         * The inflation, measure, layout and drawing of the views, which the layout library
+         * performs in a single call, less the loading of the custom views
+         */
+        INFLATE("Inflate, measure, layout and draw"),
+        /** The conversion of the rendered image to an SWT image by the {@link ImageOverlay} */
+        IMAGE("Image transfer");
+
+        private final String mLabel;
+
+        Phase(String label) {
+            mLabel = label;
+        }
+
+        /** Returns the description of the phase */
+        @NonNull
+        public String getLabel() {
+            return mLabel;
+        }
+    }
+
+    /** The number of renderings whose statistics are kept */
+    static final int HISTORY_SIZE = 100;
+
+    /** The statistics of the last renderings, oldest first. Guarded by itself. */
+    private static final LinkedList<RenderStatistics> sHistory =
+            new LinkedList<RenderStatistics>();
+
+    private final String mName;
+    private final long mTimestamp = System.currentTimeMillis();
+    private final long[] mNanos = new long[Phase.values().length];
+    /** The number of views inflated, by class name */
+    private final Map<String, Integer> mViewCounts = new HashMap<String, Integer>();
+    /** The time spent loading and constructing each custom view class, in nanoseconds */
+    private final Map<String, Long> mCustomViewNanos = new HashMap<String, Long>();
+    /** The number of times each layout was included */
+    private final Map<String, Integer> mIncludeCounts = new HashMap<String, Integer>();
+
+    /**
+     * Creates the statistics of a rendering
+     *
+     * @param name the name of the rendered layout and of its configuration
+     */
+    RenderStatistics(@NonNull String name) {
+        mName = name;
+    }
+
+    /** Returns the name of the rendered layout and of its configuration */
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /** Returns the time the rendering was started at */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Adds time spent in a phase of the rendering
+     *
+     * @param phase the phase of the rendering
+     * @param nanos the time spent, in nanoseconds
+     */
+    public synchronized void add(@NonNull Phase phase, long nanos) {
+        mNanos[phase.ordinal()] += nanos;
+    }
+
+    /** Returns the time spent in a phase of the rendering, in nanoseconds */
+    public synchronized long getTime(@NonNull Phase phase) {
+        return mNanos[phase.ordinal()];
+    }
+
+    /** Returns the time spent by the rendering in all its phases, in nanoseconds */
+    public synchronized long getTotalTime() {
+        long total = 0;
+        for (long nanos : mNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    /**
+     * Records the loading and construction of a custom view by the project callback, which
+     * is part of the {@link Phase#CUSTOM_VIEWS} phase.
+     *
+     * @param className the class of the view
+     * @param nanos the time spent loading and constructing the view, in nanoseconds
+     * @param nested whether the view was constructed by another custom view, whose own
+     *            time already includes this time
+     */
+    public synchronized void customViewLoaded(@NonNull String className, long nanos,
+            boolean nested) {
+        Long total = mCustomViewNanos.get(className);
+        mCustomViewNanos.put(className, (total != null ? total : 0) + nanos);
+        if (!nested) {
+            mNanos[Phase.CUSTOM_VIEWS.ordinal()] += nanos;
+        }
+    }
+
+    /**
+     * Records the inclusion of a layout
+     *
+     * @param layoutName the name of the included layout
+     */
+    public synchronized void layoutIncluded(@NonNull String layoutName) {
+        increment(mIncludeCounts, layoutName);
+    }
+
+    /**
+     * Counts the views of each class in the rendered view hierarchy
+     *
+     * @param roots the root views of the rendering, or null
+     */
+    public synchronized void countViews(@Nullable List<ViewInfo> roots) {
+        if (roots != null) {
+            for (ViewInfo view : roots) {
+                if (view.getClassName() != null) {
+                    increment(mViewCounts, view.getClassName());
+                }
+                countViews(view.getChildren());
+            }
+        }
+    }
+
+    /** Returns the number of views inflated, by class name */
+    @NonNull
+    public synchronized Map<String, Integer> getViewCounts() {
+        return new HashMap<String, Integer>(mViewCounts);
+    }
+
+    /** Returns the number of times each layout was included */
+    @NonNull
+    public synchronized Map<String, Integer> getIncludeCounts() {
+        return new HashMap<String, Integer>(mIncludeCounts);
+    }
+
+    private static void increment(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count != null ? count + 1 : 1);
+    }
+
+    /**
+     * Describes the rendering: the time spent in each phase, then the custom views by
+     * decreasing time, the views by decreasing count, and the included layouts.
+     *
+     * @param maxEntries the maximum number of views and of layouts to list, or -1 for all
+     * @return the lines of the description
+     */
+    @NonNull
+    public synchronized List<String> describe(int maxEntries) {
+        List<String> lines = new ArrayList<String>();
+        lines.add(String.format("%1$s: %2$d ms", mName, toMillis(getTotalTime())));
+        for (Phase phase : Phase.values()) {
+            lines.add(String.format("  %1$s: %2$d ms", phase.getLabel(),
+                    toMillis(mNanos[phase.ordinal()])));
+        }
+
+        List<Map.Entry<String, Long>> customViews = sort(mCustomViewNanos, maxEntries);
+        if (!customViews.isEmpty()) {
+            lines.add("Custom views:");
+            for (Map.Entry<String, Long> entry : customViews) {
+                lines.add(String.format("  %1$s: %2$d ms", entry.getKey(),
+                        toMillis(entry.getValue())));
+            }
+        }
+
+        List<Map.Entry<String, Integer>> views = sort(mViewCounts, maxEntries);
+        if (!views.isEmpty()) {
+            lines.add("Views inflated:");
+            for (Map.Entry<String, Integer> entry : views) {
+                lines.add(String.format("  %1$s: %2$d", entry.getKey(), entry.getValue()));
+            }
+        }
+
+        List<Map.Entry<String, Integer>> includes = sort(mIncludeCounts, maxEntries);
+        if (!includes.isEmpty()) {
+            lines.add("Layouts included:");
+            for (Map.Entry<String, Integer> entry : includes) {
+                lines.add(String.format("  %1$s: %2$d", entry.getKey(), entry.getValue()));
+            }
+        }
+
+        return lines;
+    }
+
+    /** Returns the entries of a map by decreasing value, then by key */
+    private static <T extends Comparable<T>> List<Map.Entry<String, T>> sort(
+            Map<String, T> map, int maxEntries) {
+        List<Map.Entry<String, T>> entries = new ArrayList<Map.Entry<String, T>>(
+                map.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, T>>() {
+            @Override
+            public int compare(Map.Entry<String, T> e1, Map.Entry<String, T> e2) {
+                int delta = e2.getValue().compareTo(e1.getValue());
+                return delta != 0 ? delta : e1.getKey().compareTo(e2.getKey());
+            }
+        });
+        if (maxEntries >= 0 && entries.size() > maxEntries) {
+            return entries.subList(0, maxEntries);
+        }
+        return entries;
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+
+    /**
+     * Adds the statistics of a completed rendering to the history, which only keeps the
+     * statistics of the last {@link #HISTORY_SIZE} renderings
+     *
+     * @param statistics the statistics of the rendering
+     */
+    static void record(@NonNull RenderStatistics statistics) {
+        synchronized (sHistory) {
+            if (sHistory.size() == HISTORY_SIZE) {
+                sHistory.removeFirst();
+            }
+            sHistory.addLast(statistics);
+        }
+    }
+
+    /** Returns the statistics of the last renderings, oldest first */
+    @NonNull
+    static List<RenderStatistics> getHistory() {
+        synchronized (sHistory) {
+            return new ArrayList<RenderStatistics>(sHistory);
+        }
+    }
+
+    /** Forgets the statistics of the last renderings */
+    static void clearHistory() {
+        synchronized (sHistory) {
+            sHistory.clear();
+        }
+    }
+
+    /**
+     * Describes the statistics of the last renderings, for an export to a file
+     *
+     * @return the description of each rendering, oldest first
+     */
+    @NonNull
+    static String describeHistory() {
+        StringBuilder sb = new StringBuilder();
+        for (RenderStatistics statistics : getHistory()) {
+            sb.append(new Date(statistics.getTimestamp())).append('\n');
+            for (String line : statistics.describe(-1)) {
+                sb.append(line).append('\n');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Point;
+
+import java.util.List;
+
+/**
+ * The {@link RenderStatisticsOverlay} paints the {@link RenderStatistics} of the last
+ * rendering of the canvas in its top left corner: the time spent in each phase, and the
+ * views which were the slowest to load or the most numerous.
+ */
+class RenderStatisticsOverlay extends Overlay {
+    /** The maximum number of views and of included layouts listed */
+    private static final int MAX_ENTRIES = 5;
+    /** The margin around the text, and between the text and the canvas edges */
+    private static final int MARGIN = 6;
+    /** Alpha to draw the background of the text with */
+    private static final int ALPHA = 216;
+
+    private final LayoutCanvas mCanvas;
+
+    /**
+     * Constructs a new {@link RenderStatisticsOverlay}
+     *
+     * @param canvas the associated canvas
+     */
+    RenderStatisticsOverlay(LayoutCanvas canvas) {
+        mCanvas = canvas;
+    }
+
+    @Override
+    public void paint(GC gc) {
+        RenderStatistics statistics = mCanvas.getRenderStatistics();
+        if (statistics == null) {
+            return;
+        }
+
+        List<String> lines = statistics.describe(MAX_ENTRIES);
+        int width = 0;
+        int lineHeight = gc.getFontMetrics().getHeight();
+        for (String line : lines) {
+            Point extent = gc.textExtent(line);
+            width = Math.max(width, extent.x);
+        }
+        int height = lines.size() * lineHeight;
+
+        int oldAlpha = gc.getAlpha();
+        gc.setAlpha(ALPHA);
+        gc.setBackground(getDevice().getSystemColor(SWT.COLOR_INFO_BACKGROUND));
+        gc.fillRectangle(MARGIN, MARGIN, width + 2 * MARGIN, height + 2 * MARGIN);
+        gc.setAlpha(oldAlpha);
+
+        gc.setForeground(getDevice().getSystemColor(SWT.COLOR_INFO_FOREGROUND));
+        int y = 2 * MARGIN;
+        for (String line : lines) {
+            gc.drawText(line, 2 * MARGIN, y, true);
+            y += lineHeight;
+        }
+    }
+}
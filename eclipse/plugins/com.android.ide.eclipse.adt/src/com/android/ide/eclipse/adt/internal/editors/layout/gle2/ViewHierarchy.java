@@ -128,11 +128,21 @@ public class ViewHierarchy {
      */
     public void dispose() {
         if (mSession != null) {
-            mSession.dispose();
+            disposeSession(mSession);
             mSession = null;
         }
     }
 
+    /**
+     * Disposes a session, once the {@link RenderScheduler} is done updating its views in the
+     * background
+     */
+    private static void disposeSession(@NonNull RenderSession session) {
+        synchronized (RenderService.RENDERING_LOCK) {
+            session.dispose();
+        }
+    }
+
 
     /**
      * Sets the result of the layout rendering. The result object indicates if the layout
@@ -151,9 +161,10 @@ public class ViewHierarchy {
      */
     /* package */ void setSession(RenderSession session, Set<UiElementNode> explodedNodes,
             boolean layoutlib5) {
-        // replace the previous scene, so the previous scene must be disposed.
-        if (mSession != null) {
-            mSession.dispose();
+        // replace the previous scene, so the previous scene must be disposed, unless it
+        // was rendered again.
+        if (mSession != null && mSession != session) {
+            disposeSession(mSession);
         }
 
         mSession = session;
@@ -707,7 +718,10 @@ public class ViewHierarchy {
     @Nullable
     public Map<String, String> getDefaultProperties(@NonNull Object viewObject) {
         if (mSession != null) {
-            return mSession.getDefaultProperties(viewObject);
+            // the views of the session may be updated by a background rendering
+            synchronized (RenderService.RENDERING_LOCK) {
+                return mSession.getDefaultProperties(viewObject);
+            }
         }
 
         return null;
@@ -87,7 +87,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Controls the launch of Android application either on a device or on the
@@ -113,6 +119,12 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
 
     private static final Object sListLock = sRunningAppMap;
 
+    /**
+     * The name of the device on which the current thread installs the application during a
+     * launch on several devices, to tag the messages of each device in the console.
+     */
+    private static final ThreadLocal<String> sDeviceTag = new ThreadLocal<String>();
+
     /**
      * List of {@link DelayedLaunchInfo} waiting for an emulator to connect.
      * <p>Once an emulator has connected, {@link DelayedLaunchInfo#getDevice()} is set and the
@@ -831,7 +843,7 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
                     // this means the manifest uses a codename for minSdkVersion
                     // check that the device is using the same codename
                     if (requiredApiString.equals(deviceCodeName) == false) {
-                        AdtPlugin.printErrorToConsole(launchInfo.getProject(), String.format(
+                        printErrorToConsole(launchInfo.getProject(), String.format(
                             "ERROR: Application requires a device running '%1$s'!",
                             requiredApiString));
                         return false;
@@ -839,13 +851,13 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
                 } else {
                     // app requires a specific API level
                     if (deviceApiLevel == -1) {
-                        AdtPlugin.printToConsole(launchInfo.getProject(),
+                        printToConsole(launchInfo.getProject(),
                                 "WARNING: Unknown device API version!");
                     } else if (deviceApiLevel < requiredApi) {
                         String msg = String.format(
                                 "ERROR: Application requires API version %1$d. Device API version is %2$d (Android %3$s).",
                                 requiredApi, deviceApiLevel, deviceVersion);
-                        AdtPlugin.printErrorToConsole(launchInfo.getProject(), msg);
+                        printErrorToConsole(launchInfo.getProject(), msg);
 
                         // abort the launch
                         return false;
@@ -853,15 +865,15 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
                 }
             } else {
                 // warn the application API level requirement is not set.
-                AdtPlugin.printErrorToConsole(launchInfo.getProject(),
+                printErrorToConsole(launchInfo.getProject(),
                         "WARNING: Application does not specify an API level requirement!");
 
                 // and display the target device API level (if known)
                 if (deviceApiLevel == -1) {
-                    AdtPlugin.printErrorToConsole(launchInfo.getProject(),
+                    printErrorToConsole(launchInfo.getProject(),
                             "WARNING: Unknown device API version!");
                 } else {
-                    AdtPlugin.printErrorToConsole(launchInfo.getProject(), String.format(
+                    printErrorToConsole(launchInfo.getProject(), String.format(
                             "Device API version is %1$d (Android %2$s)", deviceApiLevel,
                             deviceVersion));
                 }
@@ -879,7 +891,7 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
                     if (launchInfo.getDebuggable() == Boolean.FALSE) {
                         String message = String.format("Application '%1$s' has its 'debuggable' attribute set to FALSE and cannot be debugged.",
                                 launchInfo.getPackageName());
-                        AdtPlugin.printErrorToConsole(launchInfo.getProject(), message);
+                        printErrorToConsole(launchInfo.getProject(), message);
 
                         // because am -D does not check for ro.debuggable and the
                         // 'debuggable' attribute, it is important we do not use the -D option
@@ -904,7 +916,7 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
      */
     private boolean simpleLaunch(DelayedLaunchInfo launchInfo, IDevice device) {
         if (!doPreLaunchActions(launchInfo, device)) {
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(), "Launch canceled!");
+            printErrorToConsole(launchInfo.getProject(), "Launch canceled!");
             stopLaunch(launchInfo);
             return false;
         }
@@ -930,23 +942,150 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
     }
 
     private void multiLaunch(DelayedLaunchInfo launchInfo, Collection<IDevice> devices) {
-        for (IDevice d: devices) {
-            boolean success = doPreLaunchActions(launchInfo, d);
-            if (!success) {
-                String deviceName = d.isEmulator() ? d.getAvdName() : d.getSerialNumber();
+        List<DeviceDeployment> deployments = deploy(launchInfo, devices);
+
+        AdtPlugin.printToConsole(launchInfo.getProject(), "Deployment summary:");
+        List<IDevice> deployedDevices = new ArrayList<IDevice>(devices.size());
+        for (DeviceDeployment deployment : deployments) {
+            String deviceName = getDeviceName(deployment.mDevice);
+            if (deployment.mSuccess) {
+                deployedDevices.add(deployment.mDevice);
+                AdtPlugin.printToConsole(launchInfo.getProject(), String.format(
+                        "  %1$s: installed in %2$d ms", deviceName, deployment.mTime));
+            } else {
                 AdtPlugin.printErrorToConsole(launchInfo.getProject(),
                         "Launch failed on device: " + deviceName);
-                continue;
             }
         }
 
-        doLaunchAction(launchInfo, devices);
+        if (!deployedDevices.isEmpty()) {
+            doLaunchAction(launchInfo, deployedDevices);
+        }
 
         // multiple launches are only supported for run configuration, so we can terminate
         // the launch itself
         stopLaunch(launchInfo);
     }
 
+    /**
+     * Installs the application on several devices, at most
+     * {@link AdtPrefs#getDeployThreads()} devices at the same time. The messages of each
+     * device are tagged with its name in the console, and a failure on a device doesn't
+     * stop the installation on the others.
+     *
+     * @param launchInfo The Launch information object.
+     * @param devices the devices on which to install the application
+     * @return the result of the installation on each device, in the order of the devices
+     */
+    private List<DeviceDeployment> deploy(DelayedLaunchInfo launchInfo,
+            Collection<IDevice> devices) {
+        List<DeviceDeployment> deployments = new ArrayList<DeviceDeployment>(devices.size());
+        for (IDevice device : devices) {
+            deployments.add(new DeviceDeployment(launchInfo, device));
+        }
+
+        int threads = Math.min(devices.size(), AdtPrefs.getPrefs().getDeployThreads());
+        if (threads <= 1) {
+            for (DeviceDeployment deployment : deployments) {
+                deployment.run();
+            }
+            return deployments;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r,
+                        "Device Deployment #" + mCount.incrementAndGet()); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(deployments.size());
+            for (DeviceDeployment deployment : deployments) {
+                futures.add(executor.submit(deployment));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // the deployment is reported as failed
+                    AdtPlugin.log(e.getCause(), "Device deployment failed"); //$NON-NLS-1$
+                }
+            }
+        } catch (InterruptedException e) {
+            // the deployments not completed yet are reported as failed
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+
+        return deployments;
+    }
+
+    /** The installation of the application on one of the devices of a multiple launch */
+    private final class DeviceDeployment implements Runnable {
+        final DelayedLaunchInfo mLaunchInfo;
+        final IDevice mDevice;
+        volatile boolean mSuccess;
+        volatile long mTime;
+
+        DeviceDeployment(DelayedLaunchInfo launchInfo, IDevice device) {
+            mLaunchInfo = launchInfo;
+            mDevice = device;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            sDeviceTag.set(getDeviceName(mDevice));
+            try {
+                mSuccess = doPreLaunchActions(mLaunchInfo, mDevice);
+            } catch (RuntimeException e) {
+                // the application is installed on the other devices anyway
+                printErrorToConsole(mLaunchInfo.getProject(), e.toString());
+                AdtPlugin.log(e, "Failed to install on device %1$s", //$NON-NLS-1$
+                        getDeviceName(mDevice));
+            } finally {
+                sDeviceTag.remove();
+                mTime = System.currentTimeMillis() - start;
+            }
+        }
+    }
+
+    private static String getDeviceName(IDevice device) {
+        return device.isEmulator() ? device.getAvdName() : device.getSerialNumber();
+    }
+
+    /**
+     * Prints messages to the android console, tagged with the project and with the device
+     * the current thread installs the application on, if any.
+     */
+    private static void printToConsole(IProject project, Object... objects) {
+        AdtPlugin.printToConsole(getConsoleTag(project), objects);
+    }
+
+    /**
+     * Prints error messages to the android console, tagged with the project and with the
+     * device the current thread installs the application on, if any.
+     */
+    private static void printErrorToConsole(IProject project, Object... objects) {
+        AdtPlugin.printErrorToConsole(getConsoleTag(project), objects);
+    }
+
+    private static String getConsoleTag(IProject project) {
+        String tag = project != null ? project.getName() : null;
+        String deviceName = sDeviceTag.get();
+        if (deviceName != null) {
+            tag = tag != null ? tag + '/' + deviceName : deviceName;
+        }
+        return tag;
+    }
+
     /**
      * If needed, syncs the application and all its dependencies on the device/emulator.
      *
@@ -959,7 +1098,7 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
                 launchInfo.getProject(), launchInfo.getPackageName(), device);
 
         if (alreadyInstalled) {
-            AdtPlugin.printToConsole(launchInfo.getProject(),
+            printToConsole(launchInfo.getProject(),
             "Application already deployed. No need to reinstall.");
         } else {
             if (doSyncApp(launchInfo, device) == false) {
@@ -971,7 +1110,7 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
         for (DelayedLaunchInfo dependentLaunchInfo : getDependenciesLaunchInfo(launchInfo)) {
             String msg = String.format("Project dependency found, installing: %s",
                     dependentLaunchInfo.getProject().getName());
-            AdtPlugin.printToConsole(launchInfo.getProject(), msg);
+            printToConsole(launchInfo.getProject(), msg);
             if (syncApp(dependentLaunchInfo, device) == false) {
                 return false;
             }
@@ -991,9 +1130,30 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
         IPath path = launchInfo.getPackageFile().getLocation();
         String fileName = path.lastSegment();
         try {
+            // skip the upload if the same apk is already installed, by a previous session or
+            // before the device was reconnected.
+            ApkInstallManager installManager = ApkInstallManager.getInstance();
+            String apkHash = null;
+            try {
+                apkHash = installManager.computeApkHash(path.toFile());
+            } catch (IOException e) {
+                // the apk is uploaded anyway, and its installation isn't remembered.
+                AdtPlugin.log(e, "Can't compute the hash of %1$s", fileName); //$NON-NLS-1$
+            }
+            if (apkHash != null
+                    && installManager.isApkInstalled(launchInfo.getPackageName(), device,
+                            apkHash)) {
+                printToConsole(launchInfo.getProject(), String.format(
+                        "%1$s already installed on device '%2$s'. No need to reinstall.",
+                        fileName, device.getSerialNumber()));
+                installManager.registerInstallation(
+                        launchInfo.getProject(), launchInfo.getPackageName(), device);
+                return true;
+            }
+
             String message = String.format("Uploading %1$s onto device '%2$s'",
                     fileName, device.getSerialNumber());
-            AdtPlugin.printToConsole(launchInfo.getProject(), message);
+            printToConsole(launchInfo.getProject(), message);
 
             String remotePackagePath = device.syncPackageToDevice(path.toOSString());
             boolean installResult = installPackage(launchInfo, remotePackagePath, device);
@@ -1001,32 +1161,32 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
 
             // if the installation succeeded, we register it.
             if (installResult) {
-               ApkInstallManager.getInstance().registerInstallation(
-                       launchInfo.getProject(), launchInfo.getPackageName(), device);
+               installManager.registerInstallation(launchInfo.getProject(),
+                       launchInfo.getPackageName(), device, apkHash);
             }
             return installResult;
         }
         catch (IOException e) {
             String msg = String.format("Failed to install %1$s on device '%2$s': %3$s", fileName,
                     device.getSerialNumber(), e.getMessage());
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(), msg, e);
+            printErrorToConsole(launchInfo.getProject(), msg, e);
         } catch (TimeoutException e) {
             String msg = String.format("Failed to install %1$s on device '%2$s': timeout", fileName,
                     device.getSerialNumber());
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(), msg);
+            printErrorToConsole(launchInfo.getProject(), msg);
         } catch (AdbCommandRejectedException e) {
             String msg = String.format(
                     "Failed to install %1$s on device '%2$s': adb rejected install command with: %3$s",
                     fileName, device.getSerialNumber(), e.getMessage());
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(), msg, e);
+            printErrorToConsole(launchInfo.getProject(), msg, e);
         } catch (CanceledException e) {
             if (e.wasCanceled()) {
-                AdtPlugin.printToConsole(launchInfo.getProject(),
+                printToConsole(launchInfo.getProject(),
                         String.format("Install of %1$s canceled", fileName));
             } else {
                 String msg = String.format("Failed to install %1$s on device '%2$s': %3$s",
                         fileName, device.getSerialNumber(), e.getMessage());
-                AdtPlugin.printErrorToConsole(launchInfo.getProject(), msg, e);
+                printErrorToConsole(launchInfo.getProject(), msg, e);
             }
         }
 
@@ -1050,7 +1210,7 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
             javaProject = BaseProjectHelper.getJavaProject(launchInfo.getProject());
         } catch (CoreException e) {
             // return empty dependencies
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(), e);
+            printErrorToConsole(launchInfo.getProject(), e);
             return dependencies;
         }
 
@@ -1060,7 +1220,7 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
             androidProjectList = ProjectHelper.getAndroidProjectDependencies(javaProject);
         } catch (JavaModelException e) {
             // return empty dependencies
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(), e);
+            printErrorToConsole(launchInfo.getProject(), e);
             return dependencies;
         }
 
@@ -1110,7 +1270,7 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
     private boolean installPackage(DelayedLaunchInfo launchInfo, final String remotePath,
             final IDevice device) {
         String message = String.format("Installing %1$s...", launchInfo.getPackageFile().getName());
-        AdtPlugin.printToConsole(launchInfo.getProject(), message);
+        printToConsole(launchInfo.getProject(), message);
         try {
             // try a reinstall first, because the most common case is the app is already installed
             String result = doInstall(launchInfo, remotePath, device, true /* reinstall */);
@@ -1125,7 +1285,7 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
             String msg = String.format(
                     "Failed to install %1$s on device '%2$s!",
                     launchInfo.getPackageFile().getName(), device.getSerialNumber());
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(), msg, e.getMessage());
+            printErrorToConsole(launchInfo.getProject(), msg, e.getMessage());
         }
 
         return false;
@@ -1144,7 +1304,7 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
     private boolean checkInstallResult(String result, IDevice device, DelayedLaunchInfo launchInfo,
             String remotePath, InstallRetryMode retryMode) throws InstallException {
         if (result == null) {
-            AdtPlugin.printToConsole(launchInfo.getProject(), "Success!");
+            printToConsole(launchInfo.getProject(), "Success!");
             return true;
         }
         else if (result.equals("INSTALL_FAILED_ALREADY_EXISTS")) { //$NON-NLS-1$
@@ -1155,7 +1315,7 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
                 if (prompt) {
                     retryMode = InstallRetryMode.ALWAYS;
                 } else {
-                    AdtPlugin.printErrorToConsole(launchInfo.getProject(),
+                    printErrorToConsole(launchInfo.getProject(),
                         "Installation error! The package already exists.");
                     return false;
                 }
@@ -1180,24 +1340,24 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
                 }
                 */
 
-                AdtPlugin.printToConsole(launchInfo.getProject(),
+                printToConsole(launchInfo.getProject(),
                         "Application already exists. Attempting to re-install instead...");
                 String res = doInstall(launchInfo, remotePath, device, true /* reinstall */ );
                 return checkInstallResult(res, device, launchInfo, remotePath,
                         InstallRetryMode.NEVER);
             }
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(),
+            printErrorToConsole(launchInfo.getProject(),
                     "Installation error! The package already exists.");
         } else if (result.equals("INSTALL_FAILED_INVALID_APK")) { //$NON-NLS-1$
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(),
+            printErrorToConsole(launchInfo.getProject(),
                 "Installation failed due to invalid APK file!",
                 "Please check logcat output for more details.");
         } else if (result.equals("INSTALL_FAILED_INVALID_URI")) { //$NON-NLS-1$
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(),
+            printErrorToConsole(launchInfo.getProject(),
                 "Installation failed due to invalid URI!",
                 "Please check logcat output for more details.");
         } else if (result.equals("INSTALL_FAILED_COULDNT_COPY")) { //$NON-NLS-1$
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(),
+            printErrorToConsole(launchInfo.getProject(),
                 String.format("Installation failed: Could not copy %1$s to its final location!",
                         launchInfo.getPackageFile().getName()),
                 "Please check logcat output for more details.");
@@ -1212,12 +1372,12 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
                             InstallRetryMode.NEVER);
                 }
             }
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(),
+            printErrorToConsole(launchInfo.getProject(),
                     "Re-installation failed due to different application signatures.",
                     "You must perform a full uninstall of the application. WARNING: This will remove the application data!",
                     String.format("Please execute 'adb uninstall %1$s' in a shell.", launchInfo.getPackageName()));
         } else {
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(),
+            printErrorToConsole(launchInfo.getProject(),
                 String.format("Installation error: %1$s", result),
                 "Please check logcat output for more details.");
         }
@@ -1239,7 +1399,7 @@ public final class AndroidLaunchController implements IDebugBridgeChangeListener
         } catch (InstallException e) {
             String msg = String.format(
                     "Failed to uninstall %1$s: %2$s", launchInfo.getPackageName(), e.getMessage());
-            AdtPlugin.printErrorToConsole(launchInfo.getProject(), msg);
+            printErrorToConsole(launchInfo.getProject(), msg);
             throw e;
         }
     }
@@ -38,7 +38,6 @@ import com.android.tools.lint.client.api.JavaParser;
 import com.android.tools.lint.client.api.LintClient;
 import com.android.tools.lint.client.api.LintDriver;
 import com.android.tools.lint.client.api.XmlParser;
-import com.android.tools.lint.detector.api.ClassContext;
 import com.android.tools.lint.detector.api.Context;
 import com.android.tools.lint.detector.api.DefaultPosition;
 import com.android.tools.lint.detector.api.Detector;
@@ -62,13 +61,9 @@ import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.jdt.core.IClasspathEntry;
 import org.eclipse.jdt.core.IJavaProject;
-import org.eclipse.jdt.core.IType;
-import org.eclipse.jdt.core.ITypeHierarchy;
 import org.eclipse.jdt.core.JavaCore;
-import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.internal.compiler.CompilationResult;
 import org.eclipse.jdt.internal.compiler.DefaultErrorHandlingPolicies;
 import org.eclipse.jdt.internal.compiler.ast.CompilationUnitDeclaration;
@@ -103,8 +98,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
 
 import lombok.ast.ecj.EcjTreeConverter;
@@ -125,6 +122,9 @@ public class EclipseLintClient extends LintClient {
     private EclipseJavaParser mJavaParser;
     private boolean mCollectNodes;
     private Map<Node, IMarker> mNodeMap;
+    private Set<Issue> mIgnoredIssues;
+    /** The existing markers that issues can reuse, by {@link #getMarkerKey} */
+    private Map<String, List<IMarker>> mReusableMarkers;
 
     /**
      * Creates a new {@link EclipseLintClient}.
@@ -385,7 +385,8 @@ public class EclipseLintClient extends LintClient {
         if (project != null) {
             IProject eclipseProject = getProject(project);
             if (eclipseProject != null) {
-                return ProjectLintConfiguration.get(this, eclipseProject, mFatalOnly);
+                return ProjectLintConfiguration.get(this, eclipseProject, mFatalOnly,
+                        mIgnoredIssues);
             }
         }
 
@@ -404,8 +405,7 @@ public class EclipseLintClient extends LintClient {
                 if (location.getFile() != null) {
                     IResource resource = AdtUtils.fileToResource(location.getFile());
                     if (resource != null && resource.isAccessible()) {
-                        marker = BaseProjectHelper.markResource(resource, MARKER_LINT,
-                                message, 0, severity);
+                        marker = markResource(resource, issue, message, 0, -1, -1, severity);
                     }
                 }
             } else {
@@ -417,24 +417,14 @@ public class EclipseLintClient extends LintClient {
                             startPosition, endPosition);
                     int startOffset = r.getFirst();
                     int endOffset = r.getSecond();
-                    marker = BaseProjectHelper.markResource(file, MARKER_LINT,
-                            message, line, startOffset, endOffset, severity);
+                    marker = markResource(file, issue, message, line, startOffset, endOffset,
+                            severity);
                 }
             }
         }
 
         if (marker == null) {
-            marker = BaseProjectHelper.markResource(mResources.get(0), MARKER_LINT,
-                        message, 0, severity);
-        }
-
-        if (marker != null) {
-            // Store marker id such that we can recognize it from the suppress quickfix
-            try {
-                marker.setAttribute(MARKER_CHECKID_PROPERTY, issue.getId());
-            } catch (CoreException e) {
-                AdtPlugin.log(e, null);
-            }
+            marker = markResource(mResources.get(0), issue, message, 0, -1, -1, severity);
         }
 
         if (s == Severity.FATAL) {
@@ -468,6 +458,91 @@ public class EclipseLintClient extends LintClient {
         }
     }
 
+    /**
+     * Adds a lint marker to a resource, or reuses an identical marker given to
+     * {@link #setReusableMarkers(IMarker[])}.
+     */
+    @Nullable
+    private IMarker markResource(IResource resource, Issue issue, String message, int line,
+            int startOffset, int endOffset, int severity) {
+        if (mReusableMarkers != null) {
+            List<IMarker> markers = mReusableMarkers.get(getMarkerKey(resource, issue.getId(),
+                    message, line, startOffset, endOffset, severity));
+            if (markers != null && !markers.isEmpty()) {
+                return markers.remove(markers.size() - 1);
+            }
+        }
+
+        // Store marker id such that we can recognize it from the suppress quickfix
+        return BaseProjectHelper.markResource(resource, MARKER_LINT, message, line,
+                startOffset, endOffset, severity, MARKER_CHECKID_PROPERTY, issue.getId());
+    }
+
+    /**
+     * Returns a key identifying the attributes of a marker, as set by
+     * {@link BaseProjectHelper#markResource(IResource, String, String, int, int, int, int)}.
+     */
+    private static String getMarkerKey(IResource resource, String id, String message, int line,
+            int startOffset, int endOffset, int severity) {
+        // lint markers are text markers, which always have a line.
+        line = Math.max(line, 1);
+        if (startOffset == -1) {
+            endOffset = -1;
+        }
+        return resource.getFullPath().toString() + '\n' + id + '\n' + line + ':' + startOffset
+                + ':' + endOffset + ':' + severity + '\n' + message;
+    }
+
+    /**
+     * Sets the existing lint markers that the issues found by this client replace. An issue
+     * identical to one of these markers reuses it instead of creating a new marker, so that
+     * the markers of a run can be compared with the previous ones rather than deleted and
+     * created again. See {@link #getUnusedMarkers()}.
+     *
+     * @param markers the existing markers
+     */
+    void setReusableMarkers(@NonNull IMarker[] markers) {
+        mReusableMarkers = new HashMap<String, List<IMarker>>();
+        for (IMarker marker : markers) {
+            String key = getMarkerKey(marker.getResource(), getId(marker),
+                    marker.getAttribute(IMarker.MESSAGE, ""), //$NON-NLS-1$
+                    marker.getAttribute(IMarker.LINE_NUMBER, -1),
+                    marker.getAttribute(IMarker.CHAR_START, -1),
+                    marker.getAttribute(IMarker.CHAR_END, -1),
+                    marker.getAttribute(IMarker.SEVERITY, -1));
+            List<IMarker> list = mReusableMarkers.get(key);
+            if (list == null) {
+                list = new ArrayList<IMarker>(1);
+                mReusableMarkers.put(key, list);
+            }
+            list.add(marker);
+        }
+    }
+
+    /**
+     * Returns the markers given to {@link #setReusableMarkers(IMarker[])} that no issue
+     * reused, and which are therefore obsolete.
+     */
+    @NonNull
+    List<IMarker> getUnusedMarkers() {
+        List<IMarker> unused = new ArrayList<IMarker>();
+        if (mReusableMarkers != null) {
+            for (List<IMarker> markers : mReusableMarkers.values()) {
+                unused.addAll(markers);
+            }
+        }
+        return unused;
+    }
+
+    /**
+     * Sets issues to ignore, regardless of the configuration of the projects.
+     *
+     * @param issues the issues to ignore, or null
+     */
+    void setIgnoredIssues(@Nullable Set<Issue> issues) {
+        mIgnoredIssues = issues;
+    }
+
     @Override
     @Nullable
     public File findResource(@NonNull String relativePath) {
@@ -504,6 +579,23 @@ public class EclipseLintClient extends LintClient {
             }
         }
 
+        updateErrorIndicator();
+    }
+
+    /** Deletes the given lint markers */
+    static void deleteMarkers(@NonNull Collection<IMarker> markers) {
+        for (IMarker marker : markers) {
+            try {
+                marker.delete();
+            } catch (CoreException e) {
+                AdtPlugin.log(e, null);
+            }
+        }
+
+        updateErrorIndicator();
+    }
+
+    private static void updateErrorIndicator() {
         IEditorPart activeEditor = AdtUtils.getActiveEditor();
         LayoutEditorDelegate delegate = LayoutEditorDelegate.fromEditor(activeEditor);
         if (delegate != null) {
@@ -942,7 +1034,7 @@ public class EclipseLintClient extends LintClient {
         }
     }
 
-    private boolean mSearchForSuperClasses;
+    private boolean mSearchForSuperClasses = true;
 
     /**
      * Sets whether this client should search for super types on its own. This
@@ -950,6 +1042,9 @@ public class EclipseLintClient extends LintClient {
      * look at all classes and libraries), but is useful during incremental
      * analysis when lint is only looking at a subset of classes. In that case,
      * we want to use Eclipse's data structures for super classes.
+     * <p/>
+     * The search is on by default, as the super classes are cached across the
+     * lint runs by {@link SuperClassCache}.
      *
      * @param search whether to use a custom Eclipse search for super class
      *            names
@@ -971,47 +1066,12 @@ public class EclipseLintClient extends LintClient {
     @Override
     @Nullable
     public String getSuperClass(@NonNull Project project, @NonNull String name) {
-        if (!mSearchForSuperClasses) {
-            // Super type search using the Eclipse index is potentially slow, so
-            // only do this when necessary
-            return null;
-        }
-
-        IProject eclipseProject = getProject(project);
-        if (eclipseProject == null) {
+        IJavaProject javaProject = getJavaProject(project);
+        if (javaProject == null) {
             return null;
         }
 
-        try {
-            IJavaProject javaProject = BaseProjectHelper.getJavaProject(eclipseProject);
-            if (javaProject == null) {
-                return null;
-            }
-
-            String typeFqcn = ClassContext.getFqcn(name);
-            IType type = javaProject.findType(typeFqcn);
-            if (type != null) {
-                ITypeHierarchy hierarchy = type.newSupertypeHierarchy(new NullProgressMonitor());
-                IType superType = hierarchy.getSuperclass(type);
-                if (superType != null) {
-                    String key = superType.getKey();
-                    if (!key.isEmpty()
-                            && key.charAt(0) == 'L'
-                            && key.charAt(key.length() - 1) == ';') {
-                        return key.substring(1, key.length() - 1);
-                    } else {
-                        String fqcn = superType.getFullyQualifiedName();
-                        return ClassContext.getInternalName(fqcn);
-                    }
-                }
-            }
-        } catch (JavaModelException e) {
-            log(Severity.INFORMATIONAL, e, null);
-        } catch (CoreException e) {
-            log(Severity.INFORMATIONAL, e, null);
-        }
-
-        return null;
+        return SuperClassCache.getInstance().getSuperClass(javaProject, name);
     }
 
     @Override
@@ -1020,9 +1080,18 @@ public class EclipseLintClient extends LintClient {
             @NonNull Project project,
             @NonNull String name, @NonNull
             String superClassName) {
+        IJavaProject javaProject = getJavaProject(project);
+        if (javaProject == null) {
+            return null;
+        }
+
+        return SuperClassCache.getInstance().isSubclassOf(javaProject, name, superClassName);
+    }
+
+    /** Returns the Java project to search for super types in, or null */
+    @Nullable
+    private IJavaProject getJavaProject(@NonNull Project project) {
         if (!mSearchForSuperClasses) {
-            // Super type search using the Eclipse index is potentially slow, so
-            // only do this when necessary
             return null;
         }
 
@@ -1032,33 +1101,11 @@ public class EclipseLintClient extends LintClient {
         }
 
         try {
-            IJavaProject javaProject = BaseProjectHelper.getJavaProject(eclipseProject);
-            if (javaProject == null) {
-                return null;
-            }
-
-            String typeFqcn = ClassContext.getFqcn(name);
-            IType type = javaProject.findType(typeFqcn);
-            if (type != null) {
-                ITypeHierarchy hierarchy = type.newSupertypeHierarchy(new NullProgressMonitor());
-                IType[] allSupertypes = hierarchy.getAllSuperclasses(type);
-                if (allSupertypes != null) {
-                    String target = 'L' + superClassName + ';';
-                    for (IType superType : allSupertypes) {
-                        if (target.equals(superType.getKey())) {
-                            return Boolean.TRUE;
-                        }
-                    }
-                    return Boolean.FALSE;
-                }
-            }
-        } catch (JavaModelException e) {
-            log(Severity.INFORMATIONAL, e, null);
+            return BaseProjectHelper.getJavaProject(eclipseProject);
         } catch (CoreException e) {
             log(Severity.INFORMATIONAL, e, null);
+            return null;
         }
-
-        return null;
     }
 
     private static class LazyLocation extends Location implements Location.Handle {
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.lint;
+
+import static com.android.SdkConstants.DOT_CLASS;
+import static com.android.SdkConstants.DOT_JAVA;
+import static com.android.SdkConstants.DOT_XML;
+import static com.android.SdkConstants.FD_RES;
+import static com.android.SdkConstants.FN_ANDROID_MANIFEST_XML;
+import static com.android.SdkConstants.FN_PROJECT_PROPERTIES;
+import static com.android.ide.eclipse.adt.AdtUtils.workspacePathToFile;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.ide.eclipse.adt.AdtUtils;
+import com.android.ide.eclipse.adt.internal.project.BaseProjectHelper;
+import com.android.tools.lint.client.api.Configuration;
+import com.android.tools.lint.client.api.IssueRegistry;
+import com.android.tools.lint.detector.api.Implementation;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Scope;
+import com.android.tools.lint.detector.api.Severity;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IJavaProject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state of the files of a project at the end of the last whole project lint run, which
+ * lets the next run only check the files that changed since.
+ * <p/>
+ * Each file is stored with its content hash. The issues found in the files are not stored
+ * here: they are the lint markers of the files, which are persisted by Eclipse. The state is
+ * only valid for the configuration it was computed with, which is made of the lint version,
+ * the severity of each issue, the manifest and the lint configuration files of the project.
+ */
+final class LintCache {
+
+    private static final String FN_LINT_CACHE = "lint-cache.bin"; //$NON-NLS-1$
+    private static final String FN_LINT_XML = "lint.xml"; //$NON-NLS-1$
+
+    /** The first bytes of the cache files */
+    private static final int MAGIC = 0x4C494E54;
+    /** The version of the cache files, to increment when their format changes */
+    private static final int VERSION = 1;
+
+    /** The scopes of the detectors which can check the files one by one */
+    static final EnumSet<Scope> FILE_SCOPE =
+            EnumSet.of(Scope.RESOURCE_FILE, Scope.JAVA_FILE, Scope.CLASS_FILE);
+
+    /** The state of a file */
+    private static final class FileState {
+        final long mLastModified;
+        final long mLength;
+        final String mHash;
+
+        FileState(long lastModified, long length, String hash) {
+            mLastModified = lastModified;
+            mLength = length;
+            mHash = hash;
+        }
+    }
+
+    private final File mCacheFile;
+    private String mConfigurationKey;
+    private Map<String, FileState> mFiles = new HashMap<String, FileState>();
+
+    private Map<String, FileState> mNewFiles;
+    private String mNewConfigurationKey;
+
+    private LintCache(@NonNull File cacheFile) {
+        mCacheFile = cacheFile;
+    }
+
+    /**
+     * Returns the lint state of a project, as saved by the last run.
+     *
+     * @param project the project.
+     */
+    @NonNull
+    static LintCache load(@NonNull IProject project) {
+        return load(project.getWorkingLocation(AdtPlugin.PLUGIN_ID)
+                .append(FN_LINT_CACHE).toFile());
+    }
+
+    /**
+     * Returns the lint state saved in a file.
+     *
+     * @param cacheFile the file of the state, which may not exist.
+     */
+    @NonNull
+    static LintCache load(@NonNull File cacheFile) {
+        LintCache cache = new LintCache(cacheFile);
+        if (cacheFile.isFile()) {
+            try {
+                cache.read();
+            } catch (IOException e) {
+                // an old or broken file: the next run checks the whole project.
+                cache.mConfigurationKey = null;
+                cache.mFiles.clear();
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns true if the issue can be checked one file at a time, so that its markers on a
+     * file remain valid as long as the file doesn't change.
+     */
+    static boolean isPerFileIssue(@NonNull Issue issue) {
+        Implementation implementation = issue.getImplementation();
+        return implementation.isAdequate(Scope.RESOURCE_FILE_SCOPE)
+                || implementation.isAdequate(Scope.JAVA_FILE_SCOPE)
+                || implementation.isAdequate(Scope.CLASS_FILE_SCOPE);
+    }
+
+    /**
+     * Compares the files of the project with their state after the previous run.
+     *
+     * @param project the project of the cache.
+     * @param registry the issues of the run.
+     * @param configuration the configuration of the project.
+     * @return the files which changed since the previous run, or null if the whole project
+     *         must be checked, because the configuration changed or there was no previous run.
+     * @throws IOException if a file cannot be read.
+     */
+    @Nullable
+    List<File> update(@NonNull IProject project, @NonNull IssueRegistry registry,
+            @NonNull Configuration configuration) throws IOException {
+        File projectDir = AdtUtils.getAbsolutePath(project).toFile();
+        Map<String, Severity> severities = new LinkedHashMap<String, Severity>();
+        for (Issue issue : registry.getIssues()) {
+            severities.put(issue.getId(), configuration.getSeverity(issue));
+        }
+        String version = AdtPlugin.getDefault().getBundle().getVersion().toString();
+        return update(computeConfigurationKey(version, severities, projectDir),
+                getFiles(project, projectDir));
+    }
+
+    /**
+     * Compares files with their state after the previous run.
+     *
+     * @param configurationKey the key of the configuration of the run.
+     * @param files the files that lint checks one by one.
+     * @return the files which changed since the previous run, or null if the configuration
+     *         changed or there was no previous run.
+     * @throws IOException if a file cannot be read.
+     */
+    @Nullable
+    List<File> update(@NonNull String configurationKey, @NonNull List<File> files)
+            throws IOException {
+        mNewConfigurationKey = configurationKey;
+        mNewFiles = new HashMap<String, FileState>();
+
+        List<File> changed = new ArrayList<File>();
+        for (File file : files) {
+            String path = file.getPath();
+            FileState state = mFiles.get(path);
+            long lastModified = file.lastModified();
+            long length = file.length();
+            if (state == null || state.mLastModified != lastModified
+                    || state.mLength != length) {
+                String hash = Files.hash(file, Hashing.sha1()).toString();
+                if (state == null || !state.mHash.equals(hash)) {
+                    changed.add(file);
+                }
+                state = new FileState(lastModified, length, hash);
+            }
+            mNewFiles.put(path, state);
+        }
+
+        if (!mNewConfigurationKey.equals(mConfigurationKey)) {
+            return null;
+        }
+        return changed;
+    }
+
+    /**
+     * Saves the state computed by {@link #update}, once the run completed.
+     */
+    void save() {
+        if (mNewFiles == null) {
+            return;
+        }
+
+        mFiles = mNewFiles;
+        mConfigurationKey = mNewConfigurationKey;
+        mNewFiles = null;
+        try {
+            write();
+        } catch (IOException e) {
+            AdtPlugin.log(e, "Failed to write %1$s", mCacheFile); //$NON-NLS-1$
+            mCacheFile.delete();
+        }
+    }
+
+    /** Returns the files of the project that lint checks one by one */
+    private static List<File> getFiles(IProject project, File projectDir) {
+        List<File> files = new ArrayList<File>();
+        File[] resFolders = new File(projectDir, FD_RES).listFiles();
+        if (resFolders != null) {
+            for (File folder : resFolders) {
+                addFiles(folder, DOT_XML, files);
+            }
+        }
+
+        try {
+            IJavaProject javaProject = BaseProjectHelper.getJavaProject(project);
+            if (javaProject != null) {
+                for (IClasspathEntry entry : javaProject.getRawClasspath()) {
+                    if (entry.getEntryKind() == IClasspathEntry.CPE_SOURCE) {
+                        addFiles(workspacePathToFile(entry.getPath()), DOT_JAVA, files);
+                    }
+                }
+                addFiles(workspacePathToFile(javaProject.getOutputLocation()), DOT_CLASS,
+                        files);
+            }
+        } catch (CoreException e) {
+            AdtPlugin.log(e, null);
+        }
+
+        return files;
+    }
+
+    private static void addFiles(File folder, String extension, List<File> files) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        for (File file : children) {
+            if (file.isDirectory()) {
+                addFiles(file, extension, files);
+            } else if (file.getName().endsWith(extension)) {
+                files.add(file);
+            }
+        }
+    }
+
+    /**
+     * Computes the key of a configuration, which changes with the plugin version, the issue
+     * severities and the manifest or the lint configuration files of the project.
+     *
+     * @param version the version of the plugin.
+     * @param severities the severity of each issue of the run, by issue id.
+     * @param projectDir the folder of the project.
+     */
+    @NonNull
+    static String computeConfigurationKey(@NonNull String version,
+            @NonNull Map<String, Severity> severities, @NonNull File projectDir)
+            throws IOException {
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(version, Charsets.UTF_8);
+        for (Map.Entry<String, Severity> entry : severities.entrySet()) {
+            hasher.putString(entry.getKey(), Charsets.UTF_8);
+            hasher.putInt(entry.getValue().ordinal());
+        }
+        for (String name : new String[] {
+                FN_ANDROID_MANIFEST_XML, FN_PROJECT_PROPERTIES, FN_LINT_XML }) {
+            File file = new File(projectDir, name);
+            if (file.isFile()) {
+                hasher.putBytes(Files.toByteArray(file));
+            }
+            hasher.putInt(0);
+        }
+        return hasher.hash().toString();
+    }
+
+    private void read() throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mCacheFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown cache format"); //$NON-NLS-1$
+            }
+            mConfigurationKey = in.readUTF();
+            for (int i = in.readInt(); i > 0; i--) {
+                String path = in.readUTF();
+                mFiles.put(path, new FileState(in.readLong(), in.readLong(), in.readUTF()));
+            }
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    private void write() throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(mCacheFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(mConfigurationKey);
+            out.writeInt(mFiles.size());
+            for (Map.Entry<String, FileState> entry : mFiles.entrySet()) {
+                FileState state = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(state.mLastModified);
+                out.writeLong(state.mLength);
+                out.writeUTF(state.mHash);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
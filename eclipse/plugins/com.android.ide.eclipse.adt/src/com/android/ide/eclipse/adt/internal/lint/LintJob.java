@@ -24,6 +24,7 @@ import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.AdtUtils;
+import com.android.ide.eclipse.adt.internal.project.BaseProjectHelper;
 import com.android.tools.lint.client.api.IssueRegistry;
 import com.android.tools.lint.client.api.LintDriver;
 import com.android.tools.lint.client.api.LintRequest;
@@ -35,6 +36,9 @@ import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -44,7 +48,9 @@ import org.eclipse.core.runtime.jobs.Job;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /** Job to check lint on a set of resources */
 public final class LintJob extends Job {
@@ -91,17 +97,42 @@ public final class LintJob extends Job {
 
     @Override
     @NonNull
-    protected IStatus run(IProgressMonitor monitor) {
+    protected IStatus run(final IProgressMonitor monitor) {
+        // The markers of the run are created in a single workspace operation, such that they
+        // are broadcast in one resource change event rather than one event per marker
+        final IStatus[] status = new IStatus[1];
+        try {
+            BaseProjectHelper.runMarkerBatch(new IWorkspaceRunnable() {
+                @Override
+                public void run(IProgressMonitor batchMonitor) {
+                    status[0] = runLint(monitor);
+                }
+            }, null);
+        } catch (CoreException e) {
+            return e.getStatus();
+        }
+        return status[0];
+    }
+
+    @NonNull
+    private IStatus runLint(IProgressMonitor monitor) {
         try {
             monitor.beginTask("Looking for errors", IProgressMonitor.UNKNOWN);
             EnumSet<Scope> scope = null;
+            boolean projectsOnly = true;
             List<File> files = new ArrayList<File>(mResources.size());
             for (IResource resource : mResources) {
                 File file = AdtUtils.getAbsolutePath(resource).toFile();
                 files.add(file);
 
+                if (!(resource instanceof IProject)) {
+                    projectsOnly = false;
+                }
                 if (resource instanceof IProject && mSource == null) {
                     scope = Scope.ALL;
+                } else if (scope == Scope.ALL) {
+                    // a project of the selection is checked entirely, with the other files.
+                    continue;
                 } else {
                     String name = resource.getName();
                     if (SdkUtils.endsWithIgnoreCase(name, DOT_XML)) {
@@ -155,6 +186,10 @@ public final class LintJob extends Job {
                     }
                 }
                 mClient.setSearchForSuperClasses(true);
+            } else if (scope == Scope.ALL && projectsOnly && !mClient.isFatalOnly()) {
+                runIncrementally(files, monitor);
+                mFatal = mClient.hasFatalErrors();
+                return Status.OK_STATUS;
             } else {
                 EclipseLintClient.clearMarkers(mResources);
             }
@@ -173,6 +208,90 @@ public final class LintJob extends Job {
         }
     }
 
+    /**
+     * Checks whole projects, only running the issues which check one file at a time on the
+     * files which changed since the previous run of the projects. The markers of these issues
+     * on the other files are kept, and the markers identical to the issues found again are
+     * reused rather than deleted and created again. The markers of these issues on the
+     * changed files are deleted first.
+     * <p/>
+     * All the resources of the job must be projects.
+     */
+    private void runIncrementally(List<File> projectDirs, IProgressMonitor monitor)
+            throws Exception {
+        List<LintCache> caches = new ArrayList<LintCache>(mResources.size());
+        List<File> changed = new ArrayList<File>();
+        boolean incremental = true;
+        for (IResource resource : mResources) {
+            if (!(resource instanceof IProject)) {
+                continue;
+            }
+            IProject project = (IProject) resource;
+            LintCache cache = LintCache.load(project);
+            List<File> projectChanged = cache.update(project, mRegistry,
+                    ProjectLintConfiguration.get(mClient, project, false));
+            if (projectChanged == null) {
+                incremental = false;
+            } else {
+                changed.addAll(projectChanged);
+            }
+            caches.add(cache);
+        }
+
+        Set<File> changedFiles = new HashSet<File>(changed);
+        Set<Issue> perFileIssues = new HashSet<Issue>();
+        Set<Issue> projectIssues = new HashSet<Issue>();
+        for (Issue issue : mRegistry.getIssues()) {
+            if (LintCache.isPerFileIssue(issue)) {
+                perFileIssues.add(issue);
+            } else {
+                projectIssues.add(issue);
+            }
+        }
+
+        // The markers which the issues found by this run replace. The markers of the
+        // per-file issues on the changed files are deleted before checking the files again.
+        List<IMarker> replaced = new ArrayList<IMarker>();
+        List<IMarker> obsolete = new ArrayList<IMarker>();
+        for (IResource resource : mResources) {
+            for (IMarker marker : EclipseLintClient.getMarkers(resource)) {
+                Issue issue = mRegistry.getIssue(EclipseLintClient.getId(marker));
+                if (!incremental || issue == null || !perFileIssues.contains(issue)) {
+                    replaced.add(marker);
+                } else {
+                    IPath location = marker.getResource().getLocation();
+                    if (location != null && changedFiles.contains(location.toFile())) {
+                        obsolete.add(marker);
+                    }
+                }
+            }
+        }
+        EclipseLintClient.deleteMarkers(obsolete);
+        mClient.setReusableMarkers(replaced.toArray(new IMarker[replaced.size()]));
+
+        if (incremental) {
+            if (!changed.isEmpty()) {
+                mClient.setIgnoredIssues(projectIssues);
+                mLint = new LintDriver(mRegistry, mClient);
+                mLint.analyze(new LintRequest(mClient, changed).setScope(LintCache.FILE_SCOPE));
+            }
+            mClient.setIgnoredIssues(perFileIssues);
+        }
+        if (!monitor.isCanceled()) {
+            mLint = new LintDriver(mRegistry, mClient);
+            mLint.analyze(new LintRequest(mClient, projectDirs).setScope(Scope.ALL));
+        }
+        mClient.setIgnoredIssues(null);
+
+        // A canceled run keeps the previous markers, and the files to check next time
+        if (!monitor.isCanceled()) {
+            EclipseLintClient.deleteMarkers(mClient.getUnusedMarkers());
+            for (LintCache cache : caches) {
+                cache.save();
+            }
+        }
+    }
+
     /**
      * Returns true if a fatal error was encountered
      *
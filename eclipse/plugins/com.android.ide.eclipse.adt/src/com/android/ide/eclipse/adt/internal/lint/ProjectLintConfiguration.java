@@ -16,6 +16,7 @@
 package com.android.ide.eclipse.adt.internal.lint;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.annotations.VisibleForTesting;
 import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.AdtUtils;
@@ -31,10 +32,12 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.QualifiedName;
 
 import java.io.File;
+import java.util.Set;
 
 /** Configuration for Lint in Eclipse projects */
 class ProjectLintConfiguration extends DefaultConfiguration {
     private boolean mFatalOnly;
+    private Set<Issue> mIgnoredIssues;
 
     private final static QualifiedName CONFIGURATION_NAME = new QualifiedName(AdtPlugin.PLUGIN_ID,
             "lintconfig"); //$NON-NLS-1$
@@ -55,10 +58,27 @@ class ProjectLintConfiguration extends DefaultConfiguration {
 
     public static ProjectLintConfiguration get(LintClient client, IProject project,
             boolean fatalOnly) {
-        // Don't cache fatal-only configurations: they're only used occasionally and typically
-        // not repeatedly
-        if (fatalOnly) {
-            return create(client, project, GlobalLintConfiguration.get(), true);
+        return get(client, project, fatalOnly, null);
+    }
+
+    /**
+     * Returns the configuration of a project.
+     *
+     * @param client the lint client
+     * @param project the project
+     * @param fatalOnly whether only the fatal issues are checked
+     * @param ignoredIssues issues to ignore regardless of their severity, or null
+     * @return the configuration
+     */
+    public static ProjectLintConfiguration get(LintClient client, IProject project,
+            boolean fatalOnly, @Nullable Set<Issue> ignoredIssues) {
+        // Don't cache fatal-only or filtered configurations: they're only used occasionally
+        // and typically not repeatedly
+        if (fatalOnly || ignoredIssues != null) {
+            ProjectLintConfiguration configuration =
+                    create(client, project, GlobalLintConfiguration.get(), fatalOnly);
+            configuration.mIgnoredIssues = ignoredIssues;
+            return configuration;
         }
 
         ProjectLintConfiguration configuration = null;
@@ -82,6 +102,9 @@ class ProjectLintConfiguration extends DefaultConfiguration {
     @Override
     public @NonNull Severity getSeverity(@NonNull Issue issue) {
         Severity severity = super.getSeverity(issue);
+        if (mIgnoredIssues != null && mIgnoredIssues.contains(issue)) {
+            return Severity.IGNORE;
+        }
         if (mFatalOnly && severity != Severity.FATAL) {
             return Severity.IGNORE;
         }
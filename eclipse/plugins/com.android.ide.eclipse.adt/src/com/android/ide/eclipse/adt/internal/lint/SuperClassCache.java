@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.lint;
+
+import static com.android.SdkConstants.DOT_CLASS;
+import static com.android.ide.eclipse.adt.AdtUtils.workspacePathToFile;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.ide.eclipse.adt.internal.sdk.ProjectState;
+import com.android.ide.eclipse.adt.internal.sdk.Sdk;
+import com.android.tools.lint.detector.api.ClassContext;
+import com.google.common.io.Files;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeHierarchy;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.objectweb.asm.ClassReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the super classes of the classes of the Java projects, for the super class lookups
+ * of lint.
+ * <p/>
+ * The super classes of the classes of a project are read with ASM from the headers of its
+ * class files, all at once. The other classes, such as the classes of the framework and of
+ * the libraries, are looked up with a type hierarchy of JDT once, then kept until the class
+ * path of the project, or the Java elements of a project it depends on change. The class
+ * files are scanned again after the Java elements of the project change, reading only the
+ * files modified since the previous scan.
+ */
+final class SuperClassCache implements IElementChangedListener {
+
+    /** Marks a class without super class, such as java.lang.Object */
+    private static final String NO_SUPER_CLASS = ""; //$NON-NLS-1$
+
+    /** The class files modified this long before a scan are read again by the next scan */
+    private static final long SCAN_TIME_MARGIN = 2000;
+
+    private static SuperClassCache sInstance;
+
+    /**
+     * The super classes of the projects, by project. The maps are concurrent rather than
+     * synchronized, as the JDT lookups and the Java element deltas must not wait for each other.
+     */
+    private final Map<IProject, ProjectClasses> mProjects =
+            new ConcurrentHashMap<IProject, ProjectClasses>();
+
+    /** The super classes of the classes of a project, by internal name */
+    private static final class ProjectClasses {
+        /** The classes of the output folder of the project */
+        final Map<String, String> mOutputClasses = new ConcurrentHashMap<String, String>();
+        /** The classes found by JDT, from the class path of the project */
+        final Map<String, String> mClassPathClasses = new ConcurrentHashMap<String, String>();
+        /** The time of the last scan of the output folder, or 0 if it must be scanned */
+        long mScanTime;
+        /** Whether the Java elements of the project changed since the last scan */
+        volatile boolean mStale = true;
+    }
+
+    private SuperClassCache() {
+    }
+
+    /** Returns the cache, which is shared by the lint runs */
+    @NonNull
+    static synchronized SuperClassCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new SuperClassCache();
+            JavaCore.addElementChangedListener(sInstance, ElementChangedEvent.POST_CHANGE);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the internal name of the super class of a class, or null if it is unknown.
+     *
+     * @param javaProject the project containing the class, or with the class on its class path.
+     * @param name the internal name of the class, such as "android/view/View".
+     */
+    @Nullable
+    String getSuperClass(@NonNull IJavaProject javaProject, @NonNull String name) {
+        ProjectClasses classes = getClasses(javaProject);
+
+        String superClass = classes.mOutputClasses.get(name);
+        if (superClass == null) {
+            superClass = classes.mClassPathClasses.get(name);
+            if (superClass == null) {
+                superClass = findSuperClass(javaProject, name);
+                if (superClass == null) {
+                    // the type isn't known, which is remembered too.
+                    superClass = NO_SUPER_CLASS;
+                }
+                classes.mClassPathClasses.put(name, superClass);
+            }
+        }
+
+        return superClass != NO_SUPER_CLASS ? superClass : null;
+    }
+
+    /**
+     * Returns whether a class extends another class, or null if the hierarchy of the class
+     * is not entirely known.
+     *
+     * @param javaProject the project containing the class, or with the class on its class path.
+     * @param name the internal name of the class, such as "android/widget/Button".
+     * @param superClassName the internal name of the possible super class.
+     */
+    @Nullable
+    Boolean isSubclassOf(@NonNull IJavaProject javaProject, @NonNull String name,
+            @NonNull String superClassName) {
+        String current = name;
+        while (true) {
+            String superClass = getSuperClass(javaProject, current);
+            if (superClass == null) {
+                // java.lang.Object ends the hierarchy, any other class is an unknown type.
+                return "java/lang/Object".equals(current) ? Boolean.FALSE : null; //$NON-NLS-1$
+            } else if (superClass.equals(superClassName)) {
+                return Boolean.TRUE;
+            }
+            current = superClass;
+        }
+    }
+
+    @Override
+    public void elementChanged(ElementChangedEvent event) {
+        visitDelta(event.getDelta());
+    }
+
+    private void visitDelta(IJavaElementDelta delta) {
+        IJavaElement element = delta.getElement();
+        if (element.getElementType() == IJavaElement.JAVA_MODEL) {
+            for (IJavaElementDelta child : delta.getAffectedChildren()) {
+                visitDelta(child);
+            }
+        } else if (element.getElementType() == IJavaElement.JAVA_PROJECT) {
+            IProject project = ((IJavaProject) element).getProject();
+            int flags = delta.getFlags();
+            if (delta.getKind() == IJavaElementDelta.REMOVED
+                    || (flags & (IJavaElementDelta.F_CLOSED
+                            | IJavaElementDelta.F_CLASSPATH_CHANGED
+                            | IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED)) != 0) {
+                mProjects.remove(project);
+            } else {
+                ProjectClasses classes = mProjects.get(project);
+                if (classes != null) {
+                    classes.mStale = true;
+                }
+            }
+
+            // the classes of the project are on the class path of the projects depending on
+            // it, whose lookups, including the classes they couldn't find, are outdated.
+            for (Map.Entry<IProject, ProjectClasses> entry : mProjects.entrySet()) {
+                IProject other = entry.getKey();
+                if (!other.equals(project) && dependsOn(other, project)) {
+                    entry.getValue().mClassPathClasses.clear();
+                }
+            }
+        }
+    }
+
+    /** Returns true if a project has another project on its class path */
+    private static boolean dependsOn(@NonNull IProject project, @NonNull IProject library) {
+        ProjectState state = Sdk.getProjectState(project);
+        if (state != null && state.getFullLibraryProjects().contains(library)) {
+            return true;
+        }
+
+        try {
+            IJavaProject javaProject = JavaCore.create(project);
+            if (javaProject != null && javaProject.exists()) {
+                for (String name : javaProject.getRequiredProjectNames()) {
+                    if (name.equals(library.getName())) {
+                        return true;
+                    }
+                }
+            }
+        } catch (JavaModelException e) {
+            // the project can't depend on the library.
+        }
+
+        return false;
+    }
+
+    private ProjectClasses getClasses(IJavaProject javaProject) {
+        IProject project = javaProject.getProject();
+        ProjectClasses classes;
+        synchronized (mProjects) {
+            classes = mProjects.get(project);
+            if (classes == null) {
+                classes = new ProjectClasses();
+                mProjects.put(project, classes);
+            }
+        }
+
+        synchronized (classes) {
+            if (classes.mStale) {
+                classes.mStale = false;
+                try {
+                    File output = workspacePathToFile(javaProject.getOutputLocation());
+                    // with a margin, as some file systems only keep the time in seconds.
+                    long scanTime = System.currentTimeMillis() - SCAN_TIME_MARGIN;
+                    scanClasses(output, classes.mScanTime, classes.mOutputClasses);
+                    classes.mScanTime = scanTime;
+                } catch (JavaModelException e) {
+                    AdtPlugin.log(e, null);
+                }
+            }
+        }
+
+        return classes;
+    }
+
+    /**
+     * Reads the super classes of the class files of an output folder modified after a given
+     * time, and drops the classes whose class file was removed since the previous scan.
+     *
+     * @param output the output folder of the project.
+     * @param since the time of the previous scan, or 0 to read all the class files.
+     * @param superClasses the super classes of the classes of the folder, by internal name.
+     */
+    static void scanClasses(@NonNull File output, long since,
+            @NonNull Map<String, String> superClasses) {
+        Set<String> found = new HashSet<String>();
+        scanClasses(output, "", since, superClasses, found); //$NON-NLS-1$
+        superClasses.keySet().retainAll(found);
+    }
+
+    private static void scanClasses(File folder, String prefix, long since,
+            Map<String, String> superClasses, Set<String> found) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            String fileName = file.getName();
+            if (file.isDirectory()) {
+                scanClasses(file, prefix + fileName + '/', since, superClasses, found);
+            } else if (fileName.endsWith(DOT_CLASS)) {
+                found.add(prefix + fileName.substring(0, fileName.length() - DOT_CLASS.length()));
+                if (file.lastModified() < since) {
+                    continue;
+                }
+                try {
+                    ClassReader reader = new ClassReader(Files.toByteArray(file));
+                    String superClass = reader.getSuperName();
+                    superClasses.put(reader.getClassName(),
+                            superClass != null ? superClass : NO_SUPER_CLASS);
+                } catch (IOException e) {
+                    // ignore this class: its super class is looked up with JDT.
+                } catch (RuntimeException e) {
+                    // not a valid class file.
+                }
+            }
+        }
+    }
+
+    /** Looks up the super class of a class with a type hierarchy of JDT */
+    @Nullable
+    private static String findSuperClass(IJavaProject javaProject, String name) {
+        try {
+            String typeFqcn = ClassContext.getFqcn(name);
+            IType type = javaProject.findType(typeFqcn);
+            if (type != null) {
+                ITypeHierarchy hierarchy = type.newSupertypeHierarchy(new NullProgressMonitor());
+                IType superType = hierarchy.getSuperclass(type);
+                if (superType != null) {
+                    String key = superType.getKey();
+                    if (!key.isEmpty()
+                            && key.charAt(0) == 'L'
+                            && key.charAt(key.length() - 1) == ';') {
+                        return key.substring(1, key.length() - 1);
+                    } else {
+                        String fqcn = superType.getFullyQualifiedName();
+                        return ClassContext.getInternalName(fqcn);
+                    }
+                }
+            }
+        } catch (JavaModelException e) {
+            AdtPlugin.log(e, null);
+        }
+
+        return null;
+    }
+}
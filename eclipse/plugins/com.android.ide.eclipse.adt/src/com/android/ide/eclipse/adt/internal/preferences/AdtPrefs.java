@@ -45,6 +45,8 @@ public final class AdtPrefs extends AbstractPreferenceInitializer {
 
     public final static String PREFS_BUILD_VERBOSITY = AdtPlugin.PLUGIN_ID + ".buildVerbosity"; //$NON-NLS-1$
 
+    public final static String PREFS_BUILD_TOOL_THREADS = AdtPlugin.PLUGIN_ID + ".buildToolThreads"; //$NON-NLS-1$
+
     public final static String PREFS_DEFAULT_DEBUG_KEYSTORE = AdtPlugin.PLUGIN_ID + ".defaultDebugKeyStore"; //$NON-NLS-1$
 
     public final static String PREFS_CUSTOM_DEBUG_KEYSTORE = AdtPlugin.PLUGIN_ID + ".customDebugKeyStore"; //$NON-NLS-1$
@@ -53,6 +55,8 @@ public final class AdtPrefs extends AbstractPreferenceInitializer {
 
     public final static String PREFS_EMU_OPTIONS = AdtPlugin.PLUGIN_ID + ".emuOptions"; //$NON-NLS-1$
 
+    public final static String PREFS_DEPLOY_THREADS = AdtPlugin.PLUGIN_ID + ".deployThreads"; //$NON-NLS-1$
+
     public final static String PREFS_MONITOR_DENSITY = AdtPlugin.PLUGIN_ID + ".monitorDensity"; //$NON-NLS-1$
 
     public final static String PREFS_FORMAT_GUI_XML = AdtPlugin.PLUGIN_ID + ".formatXml"; //$NON-NLS-1$
@@ -92,6 +96,8 @@ public final class AdtPrefs extends AbstractPreferenceInitializer {
     private boolean mBuildForceResResfresh = false;
     private boolean mBuildForceErrorOnNativeLibInJar = true;
     private boolean mBuildSkipPostCompileOnFileSave = true;
+    private int mBuildToolThreads = 1;
+    private int mDeployThreads = 1;
     private float mMonitorDensity = 0.f;
     private String mPalette;
 
@@ -202,6 +208,14 @@ public final class AdtPrefs extends AbstractPreferenceInitializer {
                 mStore.getBoolean(PREFS_BUILD_SKIP_POST_COMPILE_ON_FILE_SAVE);
         }
 
+        if (property == null || PREFS_BUILD_TOOL_THREADS.equals(property)) {
+            mBuildToolThreads = mStore.getInt(PREFS_BUILD_TOOL_THREADS);
+        }
+
+        if (property == null || PREFS_DEPLOY_THREADS.equals(property)) {
+            mDeployThreads = mStore.getInt(PREFS_DEPLOY_THREADS);
+        }
+
         if (property == null || PREFS_MONITOR_DENSITY.equals(property)) {
             mMonitorDensity = mStore.getFloat(PREFS_MONITOR_DENSITY);
         }
@@ -446,6 +460,22 @@ public final class AdtPrefs extends AbstractPreferenceInitializer {
         return mBuildSkipPostCompileOnFileSave;
     }
 
+    /**
+     * Returns the maximum number of build tool processes (aidl, aapt) the builders can run
+     * concurrently. Always at least 1.
+     */
+    public int getBuildToolThreads() {
+        return Math.max(1, mBuildToolThreads);
+    }
+
+    /**
+     * Returns the maximum number of devices a launch on several devices installs the
+     * application on concurrently. Always at least 1.
+     */
+    public int getDeployThreads() {
+        return Math.max(1, mDeployThreads);
+    }
+
     public String getPaletteModes() {
         return mPalette;
     }
@@ -504,8 +534,13 @@ public final class AdtPrefs extends AbstractPreferenceInitializer {
 
         store.setDefault(PREFS_BUILD_VERBOSITY, BuildVerbosity.ALWAYS.name());
 
+        store.setDefault(PREFS_BUILD_TOOL_THREADS,
+                Math.max(1, Runtime.getRuntime().availableProcessors()));
+
         store.setDefault(PREFS_HOME_PACKAGE, "android.process.acore"); //$NON-NLS-1$
 
+        store.setDefault(PREFS_DEPLOY_THREADS, 4);
+
         store.setDefault(PREFS_MONITOR_DENSITY, 0.f);
 
         store.setDefault(PREFS_FORMAT_GUI_XML, true);
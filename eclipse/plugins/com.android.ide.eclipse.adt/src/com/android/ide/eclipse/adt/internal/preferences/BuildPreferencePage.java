@@ -27,6 +27,7 @@ import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
 import org.eclipse.jface.preference.FileFieldEditor;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.jface.preference.RadioGroupFieldEditor;
 import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.swt.widgets.Composite;
@@ -49,6 +50,9 @@ import java.util.Date;
 public class BuildPreferencePage extends FieldEditorPreferencePage implements
         IWorkbenchPreferencePage {
 
+    /** Maximum number of concurrent build tool processes that can be set. */
+    private static final int MAX_TOOL_THREADS = 64;
+
     private IPreferenceStore mPrefStore = null;
 
     // default key store
@@ -92,6 +96,13 @@ public class BuildPreferencePage extends FieldEditorPreferencePage implements
                 getFieldEditorParent(), true);
         addField(rgfe);
 
+        IntegerFieldEditor toolThreads = new IntegerFieldEditor(
+                AdtPrefs.PREFS_BUILD_TOOL_THREADS,
+                Messages.BuildPreferencePage_Tool_Threads,
+                getFieldEditorParent());
+        toolThreads.setValidRange(1, MAX_TOOL_THREADS);
+        addField(toolThreads);
+
         // default debug keystore fingerprints
         Fingerprints defaultFingerprints = getFingerprints(
                 mPrefStore.getString(AdtPrefs.PREFS_DEFAULT_DEBUG_KEYSTORE));
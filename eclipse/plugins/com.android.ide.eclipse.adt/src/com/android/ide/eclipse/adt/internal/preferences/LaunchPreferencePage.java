@@ -19,6 +19,7 @@ package com.android.ide.eclipse.adt.internal.preferences;
 import com.android.ide.eclipse.adt.AdtPlugin;
 
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
@@ -29,6 +30,8 @@ import org.eclipse.ui.IWorkbenchPreferencePage;
 public class LaunchPreferencePage extends FieldEditorPreferencePage implements
         IWorkbenchPreferencePage {
 
+    private static final int MAX_DEPLOY_THREADS = 64;
+
     public LaunchPreferencePage() {
         super(GRID);
         setPreferenceStore(AdtPlugin.getDefault().getPreferenceStore());
@@ -42,6 +45,13 @@ public class LaunchPreferencePage extends FieldEditorPreferencePage implements
 
         addField(new StringFieldEditor(AdtPrefs.PREFS_HOME_PACKAGE,
                 Messages.LaunchPreferencePage_Default_HOME_Package, getFieldEditorParent()));
+
+        IntegerFieldEditor deployThreads = new IntegerFieldEditor(
+                AdtPrefs.PREFS_DEPLOY_THREADS,
+                Messages.LaunchPreferencePage_Deploy_Threads,
+                getFieldEditorParent());
+        deployThreads.setValidRange(1, MAX_DEPLOY_THREADS);
+        addField(deployThreads);
     }
 
     @Override
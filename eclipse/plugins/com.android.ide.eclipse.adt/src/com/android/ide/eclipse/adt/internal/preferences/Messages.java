@@ -34,12 +34,16 @@ public class Messages extends NLS {
 
     public static String BuildPreferencePage_Title;
 
+    public static String BuildPreferencePage_Tool_Threads;
+
     public static String BuildPreferencePage_Verbose;
 
     public static String LaunchPreferencePage_Default_Emu_Options;
 
     public static String LaunchPreferencePage_Default_HOME_Package;
 
+    public static String LaunchPreferencePage_Deploy_Threads;
+
     public static String LaunchPreferencePage_Title;
     static {
         // initialize resource bundle
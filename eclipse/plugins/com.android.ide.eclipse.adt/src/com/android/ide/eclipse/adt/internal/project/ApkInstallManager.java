@@ -21,14 +21,29 @@ import com.android.ddmlib.AndroidDebugBridge.IDebugBridgeChangeListener;
 import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.MultiLineReceiver;
+import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.internal.resources.manager.GlobalProjectMonitor;
 import com.android.ide.eclipse.adt.internal.resources.manager.GlobalProjectMonitor.IProjectListener;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.IPath;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
 
 /**
  * Registers which apk was installed on which device.
@@ -41,6 +56,10 @@ import java.util.Iterator;
  * (project generating the) APK. This ensures that disconnected and reconnected devices will
  * always receive new APKs (since the version may not match).
  * <p/>
+ * The manager also remembers the SHA-256 hash of the last APK installed for each package on
+ * each device serial number, across sessions, such that an identical APK isn't installed
+ * again after a restart or on a reconnected device. See {@link #isApkInstalled}.
+ * <p/>
  * This is a singleton. To get the instance, use {@link #getInstance()}
  */
 public final class ApkInstallManager {
@@ -103,12 +122,84 @@ public final class ApkInstallManager {
         }
     }
 
+    /**
+     * Receiver and parser for the "pm path package" command, which keeps the path of the
+     * installed APK.
+     */
+    private final static class PmPathReceiver extends MultiLineReceiver {
+        String path;
+        @Override
+        public void processNewLines(String[] lines) {
+            for (String line : lines) {
+                if (path == null && line.startsWith("package:/")) { //$NON-NLS-1$
+                    path = line.substring("package:".length()).trim(); //$NON-NLS-1$
+                }
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+
+    /**
+     * Receiver and parser for the "sha256sum file" command, which keeps the hash of the file.
+     */
+    private final static class Sha256Receiver extends MultiLineReceiver {
+        String hash;
+        @Override
+        public void processNewLines(String[] lines) {
+            for (String line : lines) {
+                // the hash is followed by the path of the file, or the output is an error
+                // message on the devices without sha256sum.
+                int end = line.indexOf(' ');
+                String word = end != -1 ? line.substring(0, end) : line.trim();
+                if (hash == null && word.length() == 64
+                        && word.matches("[0-9a-fA-F]+")) { //$NON-NLS-1$
+                    hash = word.toLowerCase();
+                }
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+
+    /** The hash of a local APK, computed again only if the file changed */
+    private final static class ApkHash {
+        final long lastModified;
+        final long length;
+        final String hash;
+
+        ApkHash(long lastModified, long length, String hash) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    /** The file persisting the hashes of the installed APKs, in the plugin state location */
+    private final static String INSTALLED_HASHES_FILE = "installed-apks.properties"; //$NON-NLS-1$
+
     /**
      * Hashset of the list of installed package. Hashset used to ensure we don't re-add new
      * objects for the same app.
      */
     private final HashSet<ApkInstall> mInstallList = new HashSet<ApkInstall>();
 
+    /**
+     * The hashes of the last APKs installed, by device serial number and package name, loaded
+     * lazily and guarded by itself.
+     */
+    private final Properties mInstalledHashes = new Properties();
+    private boolean mInstalledHashesLoaded;
+
+    /** The hashes of the local APKs, by path. Guarded by itself. */
+    private final Map<String, ApkHash> mApkHashes = new HashMap<String, ApkHash>();
+
     public static ApkInstallManager getInstance() {
         return sThis;
     }
@@ -125,6 +216,149 @@ public final class ApkInstallManager {
         }
     }
 
+    /**
+     * Registers an installation of <var>project</var> onto <var>device</var>, and persists the
+     * hash of the installed APK for {@link #isApkInstalled}.
+     * @param project The project that was installed.
+     * @param packageName the package name of the apk
+     * @param device The device that received the installation.
+     * @param apkHash the SHA-256 hash of the installed apk, as returned by
+     * {@link #computeApkHash(File)}, or null if unknown.
+     */
+    public void registerInstallation(IProject project, String packageName, IDevice device,
+            String apkHash) {
+        registerInstallation(project, packageName, device);
+
+        synchronized (mInstalledHashes) {
+            loadInstalledHashes();
+            String key = getInstalledHashKey(packageName, device);
+            if (apkHash != null) {
+                mInstalledHashes.setProperty(key, apkHash);
+            } else if (mInstalledHashes.remove(key) == null) {
+                return;
+            }
+            saveInstalledHashes();
+        }
+    }
+
+    /**
+     * Returns whether an apk is the apk installed for a package on a device, by this plugin
+     * in this session or a previous one, such that it doesn't need to be installed again.
+     * <p/>
+     * The apk must be the last one installed by this plugin, and the apk installed on the
+     * device must have the same hash. This queries the path of the package with "pm path",
+     * and then its hash with "sha256sum" on the device, unless the apk is a different one.
+     * The devices without sha256sum always receive the apks.
+     * @param packageName the package name of the apk
+     * @param device the device that may have received the installation.
+     * @param apkHash the SHA-256 hash of the apk, as returned by {@link #computeApkHash(File)}
+     * @return true if the apk doesn't need to be installed on the device.
+     */
+    public boolean isApkInstalled(String packageName, IDevice device, String apkHash) {
+        synchronized (mInstalledHashes) {
+            loadInstalledHashes();
+            if (!apkHash.equals(mInstalledHashes.getProperty(
+                    getInstalledHashKey(packageName, device)))) {
+                return false;
+            }
+        }
+
+        try {
+            PmPathReceiver pathReceiver = new PmPathReceiver();
+            device.executeShellCommand("pm path " + packageName, pathReceiver); //$NON-NLS-1$
+            if (pathReceiver.path == null) {
+                return false;
+            }
+
+            Sha256Receiver hashReceiver = new Sha256Receiver();
+            device.executeShellCommand("sha256sum " + pathReceiver.path, //$NON-NLS-1$
+                    hashReceiver);
+            return apkHash.equals(hashReceiver.hash);
+        } catch (Exception e) {
+            // failed to query the device? force reinstall.
+            return false;
+        }
+    }
+
+    /**
+     * Returns the SHA-256 hash of an apk, as a lowercase hexadecimal string. The hash is
+     * computed again only if the file was modified since the last call.
+     * @param apk the apk file
+     * @return the hash of the apk
+     * @throws IOException if the apk can't be read
+     */
+    public String computeApkHash(File apk) throws IOException {
+        String path = apk.getPath();
+        long lastModified = apk.lastModified();
+        long length = apk.length();
+        synchronized (mApkHashes) {
+            ApkHash apkHash = mApkHashes.get(path);
+            if (apkHash != null && apkHash.lastModified == lastModified
+                    && apkHash.length == length) {
+                return apkHash.hash;
+            }
+        }
+
+        String hash = Files.hash(apk, Hashing.sha256()).toString();
+        synchronized (mApkHashes) {
+            mApkHashes.put(path, new ApkHash(lastModified, length, hash));
+        }
+        return hash;
+    }
+
+    private static String getInstalledHashKey(String packageName, IDevice device) {
+        return device.getSerialNumber() + '/' + packageName;
+    }
+
+    /** Returns the file persisting the hashes, or null if the plugin is not running */
+    private static File getInstalledHashesFile() {
+        AdtPlugin plugin = AdtPlugin.getDefault();
+        if (plugin == null) {
+            return null;
+        }
+        return plugin.getStateLocation().append(INSTALLED_HASHES_FILE).toFile();
+    }
+
+    private void loadInstalledHashes() {
+        if (mInstalledHashesLoaded) {
+            return;
+        }
+        mInstalledHashesLoaded = true;
+
+        File file = getInstalledHashesFile();
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(file));
+            mInstalledHashes.load(is);
+        } catch (IOException e) {
+            // the apks will be installed again.
+            AdtPlugin.log(e, "Can't read the hashes of the installed apks"); //$NON-NLS-1$
+        } finally {
+            Closeables.closeQuietly(is);
+        }
+    }
+
+    private void saveInstalledHashes() {
+        File file = getInstalledHashesFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                // store() flushes the stream, so closing it can't lose the hashes.
+                mInstalledHashes.store(os, null);
+            } finally {
+                Closeables.close(os, true /* swallowIOException */);
+            }
+        } catch (IOException e) {
+            AdtPlugin.log(e, "Can't write the hashes of the installed apks"); //$NON-NLS-1$
+        }
+    }
+
     /**
      * Returns whether a <var>project</var> was installed on the <var>device</var>.
      * @param project the project that may have been installed.
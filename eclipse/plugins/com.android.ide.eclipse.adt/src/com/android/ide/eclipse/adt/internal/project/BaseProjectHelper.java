@@ -27,10 +27,13 @@ import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
 import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.jdt.core.Flags;
 import org.eclipse.jdt.core.IClasspathEntry;
@@ -57,7 +60,9 @@ import org.eclipse.ui.texteditor.IDocumentProvider;
 import org.eclipse.ui.texteditor.ITextEditor;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Utility methods to manipulate projects.
@@ -66,6 +71,13 @@ public final class BaseProjectHelper {
 
     public static final String TEST_CLASS_OK = null;
 
+    /**
+     * The resources which received markers in the batch of the current thread, or null
+     * outside of {@link #runMarkerBatch}
+     */
+    private static final ThreadLocal<Set<IResource>> sBatchedResources =
+            new ThreadLocal<Set<IResource>>();
+
     /**
      * Project filter to be used with {@link BaseProjectHelper#getAndroidProjects(IProjectFilter)}.
      */
@@ -137,14 +149,45 @@ public final class BaseProjectHelper {
     @Nullable
     public final static IMarker markResource(IResource resource, String markerId,
                 String message, int lineNumber, int startOffset, int endOffset, int severity) {
+        return markResource(resource, markerId, message, lineNumber, startOffset, endOffset,
+                severity, null, null);
+    }
+
+    /**
+     * Adds a marker to a file on a specific line, for a specific range of text, with
+     * additional attributes. All the attributes are set at once, in a single change of the
+     * marker. This methods catches thrown {@link CoreException}, and returns null instead.
+     *
+     * @param resource the resource to be marked
+     * @param markerId The id of the marker to add.
+     * @param message the message associated with the mark
+     * @param lineNumber the line number where to put the mark. If line is < 1, it puts
+     *            the marker on line 1,
+     * @param startOffset the beginning offset of the marker (relative to the beginning of
+     *            the document, not the line), or -1 for no range
+     * @param endOffset the ending offset of the marker
+     * @param severity the severity of the marker.
+     * @param attributeName an additional attribute of the marker, or null
+     * @param attributeValue the value of the additional attribute
+     * @return the IMarker that was added or null if it failed to add one.
+     */
+    @Nullable
+    public final static IMarker markResource(IResource resource, String markerId,
+            String message, int lineNumber, int startOffset, int endOffset, int severity,
+            @Nullable String attributeName, @Nullable Object attributeValue) {
         if (!resource.isAccessible()) {
             return null;
         }
 
         try {
             IMarker marker = resource.createMarker(markerId);
-            marker.setAttribute(IMarker.MESSAGE, message);
-            marker.setAttribute(IMarker.SEVERITY, severity);
+
+            List<String> names = new ArrayList<String>(6);
+            List<Object> values = new ArrayList<Object>(6);
+            names.add(IMarker.MESSAGE);
+            values.add(message);
+            names.add(IMarker.SEVERITY);
+            values.add(severity);
 
             // if marker is text type, enforce a line number so that it shows in the editor
             // somewhere (line 1)
@@ -153,18 +196,34 @@ public final class BaseProjectHelper {
             }
 
             if (lineNumber >= 1) {
-                marker.setAttribute(IMarker.LINE_NUMBER, lineNumber);
+                names.add(IMarker.LINE_NUMBER);
+                values.add(lineNumber);
             }
 
             if (startOffset != -1) {
-                marker.setAttribute(IMarker.CHAR_START, startOffset);
-                marker.setAttribute(IMarker.CHAR_END, endOffset);
+                names.add(IMarker.CHAR_START);
+                values.add(startOffset);
+                names.add(IMarker.CHAR_END);
+                values.add(endOffset);
+            }
+
+            if (attributeName != null) {
+                names.add(attributeName);
+                values.add(attributeValue);
             }
 
+            marker.setAttributes(names.toArray(new String[names.size()]), values.toArray());
+
             // on Windows, when adding a marker to a project, it takes a refresh for the marker
             // to show. In order to fix this we're forcing a refresh of elements receiving
             // markers (and only the element, not its children), to force the marker display.
-            resource.refreshLocal(IResource.DEPTH_ZERO, new NullProgressMonitor());
+            Set<IResource> batchedResources = sBatchedResources.get();
+            if (batchedResources != null) {
+                // refreshed once, at the end of the batch.
+                batchedResources.add(resource);
+            } else {
+                resource.refreshLocal(IResource.DEPTH_ZERO, new NullProgressMonitor());
+            }
 
             return marker;
         } catch (CoreException e) {
@@ -175,6 +234,43 @@ public final class BaseProjectHelper {
         return null;
     }
 
+    /**
+     * Runs an operation which adds markers, such that its markers are broadcast in a single
+     * resource change event, at the end of the operation, rather than one event per marker
+     * and attribute. The resources receiving markers are also refreshed once, at the end.
+     *
+     * @param operation the operation to run
+     * @param monitor the progress monitor of the operation, or null
+     * @throws CoreException if the operation fails
+     */
+    public static void runMarkerBatch(@NonNull IWorkspaceRunnable operation,
+            @Nullable IProgressMonitor monitor) throws CoreException {
+        if (sBatchedResources.get() != null) {
+            // already in a batch, which the markers are part of.
+            operation.run(monitor);
+            return;
+        }
+
+        Set<IResource> resources = new LinkedHashSet<IResource>();
+        sBatchedResources.set(resources);
+        try {
+            ResourcesPlugin.getWorkspace().run(operation, null, IWorkspace.AVOID_UPDATE,
+                    monitor);
+        } finally {
+            sBatchedResources.remove();
+        }
+
+        for (IResource resource : resources) {
+            try {
+                if (resource.isAccessible()) {
+                    resource.refreshLocal(IResource.DEPTH_ZERO, new NullProgressMonitor());
+                }
+            } catch (CoreException e) {
+                AdtPlugin.log(e, null);
+            }
+        }
+    }
+
     /**
      * Adds a marker to a resource. This methods catches thrown {@link CoreException},
      * and returns null instead.
@@ -210,9 +306,9 @@ public final class BaseProjectHelper {
         }
 
         IMarker marker = project.createMarker(markerId);
-        marker.setAttribute(IMarker.MESSAGE, message);
-        marker.setAttribute(IMarker.SEVERITY, severity);
-        marker.setAttribute(IMarker.PRIORITY, priority);
+        marker.setAttributes(
+                new String[] { IMarker.MESSAGE, IMarker.SEVERITY, IMarker.PRIORITY },
+                new Object[] { message, severity, priority });
 
         // on Windows, when adding a marker to a project, it takes a refresh for the marker
         // to show. In order to fix this we're forcing a refresh of elements receiving
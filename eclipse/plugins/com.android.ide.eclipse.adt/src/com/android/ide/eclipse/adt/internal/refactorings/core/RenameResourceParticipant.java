@@ -40,6 +40,7 @@ import com.android.ide.eclipse.adt.AdtUtils;
 import com.android.ide.eclipse.adt.internal.editors.manifest.ManifestInfo;
 import com.android.ide.eclipse.adt.internal.project.BaseProjectHelper;
 import com.android.ide.eclipse.adt.internal.resources.ResourceNameValidator;
+import com.android.ide.eclipse.adt.internal.resources.manager.ResourceReferenceIndex;
 import com.android.ide.eclipse.adt.internal.sdk.ProjectState;
 import com.android.ide.eclipse.adt.internal.sdk.Sdk;
 import com.android.resources.ResourceFolderType;
@@ -85,7 +86,9 @@ import org.w3c.dom.NodeList;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A rename participant handling renames of resources (such as R.id.foo and R.layout.bar).
@@ -431,8 +434,17 @@ public class RenameResourceParticipant extends RenameParticipant {
                 addResourceXmlChanges(manifest, change, null);
             }
 
-            // Update references in XML resource files
+            // Update references in XML resource files. Only the files which define or
+            // reference the resource according to the reference index need to be parsed,
+            // along with the files open in editors, since the index reads the files from
+            // disk. The index doesn't know about the R.styleable fields, so all the files
+            // are parsed when renaming a styleable.
             IFolder resFolder = project.getFolder(SdkConstants.FD_RESOURCES);
+            Set<IFile> xmlFiles = null;
+            if (mType != ResourceType.STYLEABLE && mType != ResourceType.DECLARE_STYLEABLE) {
+                xmlFiles = new HashSet<IFile>(ResourceReferenceIndex.getInstance().getFiles(
+                        project, mType, mOldName));
+            }
 
             IResource[] folders = resFolder.members();
             for (IResource folder : folders) {
@@ -448,7 +460,8 @@ public class RenameResourceParticipant extends RenameParticipant {
                         IFile file = (IFile) member;
                         String fileName = member.getName();
 
-                        if (SdkUtils.endsWith(fileName, DOT_XML)) {
+                        if (SdkUtils.endsWith(fileName, DOT_XML) && (xmlFiles == null
+                                || xmlFiles.contains(file) || hasExistingModel(file))) {
                             addResourceXmlChanges(file, change, folderType);
                         }
 
@@ -490,6 +503,20 @@ public class RenameResourceParticipant extends RenameParticipant {
         }
     }
 
+    /**
+     * Returns true if the given file has a structured model, typically because it is open
+     * in an editor, in which case the model may have changes not yet saved to disk
+     */
+    private static boolean hasExistingModel(@NonNull IFile file) {
+        IStructuredModel model = StructuredModelManager.getModelManager()
+                .getExistingModelForRead(file);
+        if (model != null) {
+            model.releaseFromRead();
+            return true;
+        }
+        return false;
+    }
+
     private boolean addResourceXmlChanges(
             IFile file,
             CompositeChange changes,
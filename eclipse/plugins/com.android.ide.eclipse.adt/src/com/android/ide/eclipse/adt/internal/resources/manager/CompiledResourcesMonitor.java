@@ -19,7 +19,6 @@ package com.android.ide.eclipse.adt.internal.resources.manager;
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
-import com.android.ide.common.resources.IntArrayWrapper;
 import com.android.ide.common.xml.ManifestData;
 import com.android.ide.eclipse.adt.AdtConstants;
 import com.android.ide.eclipse.adt.AdtPlugin;
@@ -28,23 +27,22 @@ import com.android.ide.eclipse.adt.internal.project.ProjectHelper;
 import com.android.ide.eclipse.adt.internal.resources.manager.GlobalProjectMonitor.IFileListener;
 import com.android.ide.eclipse.adt.internal.resources.manager.GlobalProjectMonitor.IProjectListener;
 import com.android.resources.ResourceType;
-import com.android.util.Pair;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarkerDelta;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
 
 import java.io.File;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.EnumMap;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
 import java.util.regex.Pattern;
 
 /**
@@ -203,94 +201,65 @@ public final class CompiledResourcesMonitor implements IFileListener, IProjectLi
 
 
     private void loadAndParseRClass(IProject project, String className) {
+        // first check there's a ProjectResources to store the content
+        ProjectResources projectResources = ResourceManager.getInstance().getProjectResources(
+                project);
+        if (projectResources == null) {
+            return;
+        }
+
+        File folder = getClassFolder(project, className);
+        if (folder == null) {
+            return;
+        }
+
+        // read the class files rather than loading the class, which would require a new
+        // class loader each time, and running the static initializers of all the classes.
+        RClassParser parser = new RClassParser();
         try {
-            // first check there's a ProjectResources to store the content
-            ProjectResources projectResources = ResourceManager.getInstance().getProjectResources(
-                    project);
-
-            if (projectResources != null) {
-                // create a temporary class loader to load the class
-                ProjectClassLoader loader = new ProjectClassLoader(null /* parentClassLoader */,
-                        project);
-
-                try {
-                    Class<?> clazz = loader.loadClass(className);
-
-                    if (clazz != null) {
-                        // create the maps to store the result of the parsing
-                        Map<ResourceType, Map<String, Integer>> resourceValueMap =
-                            new EnumMap<ResourceType, Map<String, Integer>>(ResourceType.class);
-                        Map<Integer, Pair<ResourceType, String>> genericValueToNameMap =
-                            new HashMap<Integer, Pair<ResourceType, String>>();
-                        Map<IntArrayWrapper, String> styleableValueToNameMap =
-                            new HashMap<IntArrayWrapper, String>();
-
-                        // parse the class
-                        if (parseClass(clazz, genericValueToNameMap, styleableValueToNameMap,
-                                resourceValueMap)) {
-                            // now we associate the maps to the project.
-                            projectResources.setCompiledResources(genericValueToNameMap,
-                                    styleableValueToNameMap, resourceValueMap);
-                        }
-                    }
-                } catch (Error e) {
-                    // Log this error with the class name we're trying to load and abort.
-                    AdtPlugin.log(e, "loadAndParseRClass failed to find class %1$s", className); //$NON-NLS-1$
-                }
+            String simpleName = className.substring(className.lastIndexOf('.') + 1);
+            if (!parser.parseFolder(folder, simpleName)) {
+                return;
             }
-        } catch (ClassNotFoundException e) {
-            // pass
+        } catch (IOException e) {
+            AdtPlugin.log(e, "loadAndParseRClass failed to read class %1$s", //$NON-NLS-1$
+                    className);
+            return;
+        } catch (RuntimeException e) {
+            // ASM throws runtime exceptions on invalid class files
+            AdtPlugin.log(e, "loadAndParseRClass failed to parse class %1$s", //$NON-NLS-1$
+                    className);
+            return;
         }
+
+        // now we associate the maps to the project.
+        projectResources.setCompiledResources(parser.getResourceValueMap(),
+                parser.getStyleables());
     }
 
     /**
-     * Parses a R class, and fills maps.
-     * @param rClass the class to parse
-     * @param genericValueToNameMap
-     * @param styleableValueToNameMap
-     * @param resourceValueMap
-     * @return True if we managed to parse the R class.
+     * Returns the folder containing the class files of the given class in the output of the
+     * project, or null if it can't be found.
      */
-    private boolean parseClass(Class<?> rClass,
-            Map<Integer, Pair<ResourceType, String>> genericValueToNameMap,
-            Map<IntArrayWrapper, String> styleableValueToNameMap, Map<ResourceType,
-            Map<String, Integer>> resourceValueMap) {
+    @Nullable
+    private static File getClassFolder(IProject project, String className) {
         try {
-            for (Class<?> inner : rClass.getDeclaredClasses()) {
-                String resTypeName = inner.getSimpleName();
-                ResourceType resType = ResourceType.getEnum(resTypeName);
-
-                if (resType != null) {
-                    Map<String, Integer> fullMap = new HashMap<String, Integer>();
-                    resourceValueMap.put(resType, fullMap);
-
-                    for (Field f : inner.getDeclaredFields()) {
-                        // only process static final fields.
-                        int modifiers = f.getModifiers();
-                        if (Modifier.isStatic(modifiers)) {
-                            Class<?> type = f.getType();
-                            if (type.isArray() && type.getComponentType() == int.class) {
-                                // if the object is an int[] we put it in the styleable map
-                                styleableValueToNameMap.put(
-                                        new IntArrayWrapper((int[]) f.get(null)),
-                                        f.getName());
-                            } else if (type == int.class) {
-                                Integer value = (Integer) f.get(null);
-                                genericValueToNameMap.put(value, Pair.of(resType, f.getName()));
-                                fullMap.put(f.getName(), value);
-                            } else {
-                                assert false;
-                            }
-                        }
-                    }
-                }
+            IJavaProject javaProject = JavaCore.create(project);
+            IResource outRes = ResourcesPlugin.getWorkspace().getRoot().findMember(
+                    javaProject.getOutputLocation());
+            if (outRes == null || outRes.getLocation() == null) {
+                return null;
             }
 
-            return true;
-        } catch (IllegalArgumentException e) {
-        } catch (IllegalAccessException e) {
+            File folder = outRes.getLocation().toFile();
+            String[] segments = className.split(AdtConstants.RE_DOT);
+            for (int i = 0; i < segments.length - 1; i++) {
+                folder = new File(folder, segments[i]);
+            }
+            return folder;
+        } catch (JavaModelException e) {
+            return null;
         }
-        return false;
     }
 
     /**
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.resources.manager;
+
+import com.android.annotations.NonNull;
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.resources.ResourceType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Caches the configured resources of a {@link ProjectResources}.
+ * <p/>
+ * Each resource type has a generation, incremented when {@link ResourceManager} reports a
+ * change to the resources of that type. The resources of the project are resolved for each
+ * configuration and type, and kept until the generation of the type changes. The resources
+ * including the libraries are {@link LayeredResourceMap} views over the resources of the
+ * project and of each library, and only the types whose generation changed in one of them
+ * are rebuilt.
+ */
+final class ConfiguredResourceCache {
+
+    private static final ResourceType[] TYPES = ResourceType.values();
+
+    /** The number of configurations kept, enough for the layout editor and its previews */
+    private static final int MAX_CONFIGURATIONS = 16;
+
+    private final ProjectResources mResources;
+    private final AtomicIntegerArray mGenerations = new AtomicIntegerArray(TYPES.length);
+
+    private final Map<FolderConfiguration, ConfigEntry> mEntries =
+            new LinkedHashMap<FolderConfiguration, ConfigEntry>(MAX_CONFIGURATIONS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<FolderConfiguration, ConfigEntry> eldest) {
+            return size() > MAX_CONFIGURATIONS;
+        }
+    };
+
+    /** The cached resources for one configuration */
+    private static final class ConfigEntry {
+        /** The resources of the project only, indexed by type ordinal */
+        @SuppressWarnings("unchecked")
+        final Map<String, ResourceValue>[] mOwn = new Map[TYPES.length];
+        final int[] mOwnGenerations = new int[TYPES.length];
+
+        /** The resources including the libraries, and the layers they were built from */
+        Map<ResourceType, Map<String, ResourceValue>> mLayered;
+        ConfiguredResourceCache[] mLayers;
+        int[] mLayerGenerations;
+    }
+
+    ConfiguredResourceCache(@NonNull ProjectResources resources) {
+        mResources = resources;
+    }
+
+    /** Returns the generation of a resource type */
+    int getGeneration(@NonNull ResourceType type) {
+        return mGenerations.get(type.ordinal());
+    }
+
+    /** Invalidates the cached resources of the given types */
+    void invalidate(@NonNull Collection<ResourceType> types) {
+        for (ResourceType type : types) {
+            mGenerations.incrementAndGet(type.ordinal());
+        }
+    }
+
+    /** Invalidates all the cached resources */
+    void invalidateAll() {
+        invalidate(Arrays.asList(TYPES));
+    }
+
+    /**
+     * Returns the resources of the project, without its libraries, matching a configuration.
+     */
+    @NonNull
+    synchronized Map<String, ResourceValue> getOwnResources(
+            @NonNull FolderConfiguration config, @NonNull ResourceType type) {
+        return getOwnResources(getEntry(config), config, type);
+    }
+
+    /**
+     * Returns the resources of the project and of its libraries matching a configuration.
+     * @param config the configuration that each value must match.
+     * @param libraries the libraries of the project, in the aapt order: a library has
+     *            priority over the following ones.
+     * @return a read-only map containing an entry for each {@link ResourceType}
+     */
+    @NonNull
+    synchronized Map<ResourceType, Map<String, ResourceValue>> getConfiguredResources(
+            @NonNull FolderConfiguration config, @NonNull List<ProjectResources> libraries) {
+        ConfigEntry entry = getEntry(config);
+
+        // the layers from the highest priority to the lowest: the project then the libraries.
+        ConfiguredResourceCache[] layers = new ConfiguredResourceCache[libraries.size() + 1];
+        layers[0] = this;
+        for (int i = 0; i < libraries.size(); i++) {
+            layers[i + 1] = libraries.get(i).getConfiguredResourceCache();
+        }
+
+        // read the generations before resolving the resources, so that a change made while
+        // they are resolved is picked up by the next call.
+        int[] generations = new int[layers.length * TYPES.length];
+        for (int layer = 0; layer < layers.length; layer++) {
+            for (int t = 0; t < TYPES.length; t++) {
+                generations[layer * TYPES.length + t] = layers[layer].mGenerations.get(t);
+            }
+        }
+
+        boolean sameLayers = entry.mLayered != null && Arrays.equals(layers, entry.mLayers);
+        if (sameLayers && Arrays.equals(generations, entry.mLayerGenerations)) {
+            return entry.mLayered;
+        }
+
+        Map<ResourceType, Map<String, ResourceValue>> layered =
+                new EnumMap<ResourceType, Map<String, ResourceValue>>(ResourceType.class);
+        for (int t = 0; t < TYPES.length; t++) {
+            ResourceType type = TYPES[t];
+            if (sameLayers && !hasChanged(t, generations, entry.mLayerGenerations)) {
+                layered.put(type, entry.mLayered.get(type));
+                continue;
+            }
+
+            List<Map<String, ResourceValue>> maps =
+                    new ArrayList<Map<String, ResourceValue>>(layers.length);
+            maps.add(getOwnResources(entry, config, type));
+            for (int layer = 1; layer < layers.length; layer++) {
+                maps.add(layers[layer].getOwnResources(config, type));
+            }
+            layered.put(type, LayeredResourceMap.create(maps));
+        }
+
+        entry.mLayered = Collections.unmodifiableMap(layered);
+        entry.mLayers = layers;
+        entry.mLayerGenerations = generations;
+        return entry.mLayered;
+    }
+
+    private Map<String, ResourceValue> getOwnResources(ConfigEntry entry,
+            FolderConfiguration config, ResourceType type) {
+        int t = type.ordinal();
+        int generation = mGenerations.get(t);
+        Map<String, ResourceValue> map = entry.mOwn[t];
+        if (map == null || entry.mOwnGenerations[t] != generation) {
+            map = mResources.resolveConfiguredResources(type, config);
+            entry.mOwn[t] = map;
+            entry.mOwnGenerations[t] = generation;
+        }
+        return map;
+    }
+
+    private ConfigEntry getEntry(FolderConfiguration config) {
+        ConfigEntry entry = mEntries.get(config);
+        if (entry == null) {
+            // the configurations are mutable, so the key must be a copy.
+            FolderConfiguration key = new FolderConfiguration();
+            key.set(config);
+            entry = new ConfigEntry();
+            mEntries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private static boolean hasChanged(int type, int[] generations, int[] previous) {
+        for (int i = type; i < generations.length; i += TYPES.length) {
+            if (generations[i] != previous[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
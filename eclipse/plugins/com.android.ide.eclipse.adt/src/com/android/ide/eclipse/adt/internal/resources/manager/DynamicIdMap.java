@@ -18,24 +18,39 @@ package com.android.ide.eclipse.adt.internal.resources.manager;
 
 import com.android.resources.ResourceType;
 import com.android.util.Pair;
-import com.android.utils.SparseArray;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Generates ids for resources which are not in the compiled R class, such as the ids of
+ * layouts which have not been saved yet.
+ * <p/>
+ * The ids are allocated sequentially from a seed. Lookups don't lock, which matters as they
+ * are done during rendering; only the allocation of new ids is synchronized.
+ */
 public class DynamicIdMap {
 
-    private final Map<Pair<ResourceType, String>, Integer> mDynamicIds = new HashMap<Pair<ResourceType, String>, Integer>();
-    private final SparseArray<Pair<ResourceType, String>> mRevDynamicIds = new SparseArray<Pair<ResourceType, String>>();
+    private final Map<Pair<ResourceType, String>, Integer> mDynamicIds =
+            new ConcurrentHashMap<Pair<ResourceType, String>, Integer>();
+
+    /**
+     * The resources by id, indexed from the seed. The array is replaced when it grows, and
+     * entries are only written before the id is published, so it can be read without locking.
+     */
+    private volatile Pair<ResourceType, String>[] mRevDynamicIds = newArray(16);
+    private volatile int mSeed;
     private int mDynamicSeed;
 
     public DynamicIdMap(int seed) {
+        mSeed = seed;
         mDynamicSeed = seed;
     }
 
-    public void reset(int seed) {
+    public synchronized void reset(int seed) {
         mDynamicIds.clear();
-        mRevDynamicIds.clear();
+        mRevDynamicIds = newArray(16);
+        mSeed = seed;
         mDynamicSeed = seed;
     }
 
@@ -61,15 +76,39 @@ public class DynamicIdMap {
     public Integer getId(Pair<ResourceType, String> resource) {
         Integer value = mDynamicIds.get(resource);
         if (value == null) {
-            value = Integer.valueOf(++mDynamicSeed);
-            mDynamicIds.put(resource, value);
-            mRevDynamicIds.put(value, resource);
+            synchronized (this) {
+                value = mDynamicIds.get(resource);
+                if (value == null) {
+                    value = Integer.valueOf(++mDynamicSeed);
+
+                    int index = mDynamicSeed - mSeed - 1;
+                    Pair<ResourceType, String>[] ids = mRevDynamicIds;
+                    if (index >= ids.length) {
+                        Pair<ResourceType, String>[] newIds = newArray(ids.length * 2);
+                        System.arraycopy(ids, 0, newIds, 0, ids.length);
+                        ids = newIds;
+                    }
+                    ids[index] = resource;
+                    mRevDynamicIds = ids;
+                    mDynamicIds.put(resource, value);
+                }
+            }
         }
 
         return value;
     }
 
     public Pair<ResourceType, String> resolveId(int id) {
-        return mRevDynamicIds.get(id);
+        Pair<ResourceType, String>[] ids = mRevDynamicIds;
+        int index = id - mSeed - 1;
+        if (index >= 0 && index < ids.length) {
+            return ids[index];
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Pair<ResourceType, String>[] newArray(int size) {
+        return new Pair[size];
     }
 }
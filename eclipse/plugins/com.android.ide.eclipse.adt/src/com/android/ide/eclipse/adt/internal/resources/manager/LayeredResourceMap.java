@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.resources.manager;
+
+import com.android.annotations.NonNull;
+import com.android.ide.common.rendering.api.ResourceValue;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only view of the resources of a type across several layers, such as a project and
+ * its libraries. A lookup returns the value of the first layer defining the resource, so the
+ * layers don't have to be merged into a new map for each configuration.
+ * <p/>
+ * Iterating the map merges the layers once, on first use.
+ */
+final class LayeredResourceMap extends AbstractMap<String, ResourceValue> {
+
+    private final Map<String, ResourceValue>[] mLayers;
+    private volatile Map<String, ResourceValue> mMerged;
+
+    private LayeredResourceMap(@NonNull Map<String, ResourceValue>[] layers) {
+        mLayers = layers;
+    }
+
+    /**
+     * Creates a read-only view of the given layers.
+     * @param layers the layers, from the highest priority to the lowest. The layers must not
+     *            be modified afterwards.
+     */
+    @NonNull
+    static Map<String, ResourceValue> create(@NonNull List<Map<String, ResourceValue>> layers) {
+        List<Map<String, ResourceValue>> nonEmpty =
+                new ArrayList<Map<String, ResourceValue>>(layers.size());
+        for (Map<String, ResourceValue> layer : layers) {
+            if (!layer.isEmpty()) {
+                nonEmpty.add(layer);
+            }
+        }
+
+        if (nonEmpty.isEmpty()) {
+            return Collections.emptyMap();
+        } else if (nonEmpty.size() == 1) {
+            return Collections.unmodifiableMap(nonEmpty.get(0));
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, ResourceValue>[] array = nonEmpty.toArray(new Map[nonEmpty.size()]);
+        return new LayeredResourceMap(array);
+    }
+
+    @Override
+    public ResourceValue get(Object key) {
+        for (Map<String, ResourceValue> layer : mLayers) {
+            ResourceValue value = layer.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        // create() only keeps the non empty layers.
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return getMerged().size();
+    }
+
+    @Override
+    public Set<Entry<String, ResourceValue>> entrySet() {
+        return getMerged().entrySet();
+    }
+
+    private Map<String, ResourceValue> getMerged() {
+        Map<String, ResourceValue> merged = mMerged;
+        if (merged == null) {
+            merged = new HashMap<String, ResourceValue>();
+            // lowest priority first, so that higher priority values override them.
+            for (int i = mLayers.length - 1; i >= 0; i--) {
+                merged.putAll(mLayers[i]);
+            }
+            merged = Collections.unmodifiableMap(merged);
+            mMerged = merged;
+        }
+        return merged;
+    }
+}
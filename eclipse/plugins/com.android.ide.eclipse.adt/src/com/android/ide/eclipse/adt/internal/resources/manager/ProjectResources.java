@@ -18,8 +18,8 @@ package com.android.ide.eclipse.adt.internal.resources.manager;
 
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.ide.common.rendering.api.ResourceValue;
-import com.android.ide.common.resources.IntArrayWrapper;
 import com.android.ide.common.resources.ResourceFolder;
 import com.android.ide.common.resources.ResourceItem;
 import com.android.ide.common.resources.ResourceRepository;
@@ -28,16 +28,20 @@ import com.android.ide.eclipse.adt.internal.sdk.ProjectState;
 import com.android.ide.eclipse.adt.internal.sdk.Sdk;
 import com.android.ide.eclipse.adt.io.IFolderWrapper;
 import com.android.io.IAbstractFolder;
+import com.android.resources.FolderTypeRelationship;
+import com.android.resources.ResourceFolderType;
 import com.android.resources.ResourceType;
 import com.android.util.Pair;
 
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
 
-import java.util.EnumMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * Represents the resources of a project.
@@ -57,15 +61,14 @@ public class ProjectResources extends ResourceRepository {
     // which should be fine.
     private final static int DYNAMIC_ID_SEED_START = 0x7fff0000;
 
-    /** Map of (name, id) for resources of type {@link ResourceType#ID} coming from R.java */
-    private Map<ResourceType, Map<String, Integer>> mResourceValueMap;
-    /** Map of (id, [name, resType]) for all resources coming from R.java */
-    private Map<Integer, Pair<ResourceType, String>> mResIdValueToNameMap;
-    /** Map of (int[], name) for styleable resources coming from R.java */
-    private Map<IntArrayWrapper, String> mStyleableValueToNameMap;
+    /**
+     * The resource ids coming from R.java. The table is immutable and replaced when R.java
+     * changes, so it can be read without locking.
+     */
+    private volatile ResourceIdTable mIdTable = ResourceIdTable.EMPTY;
 
     private final DynamicIdMap mDynamicIdMap = new DynamicIdMap(DYNAMIC_ID_SEED_START);
-    private final IntArrayWrapper mWrapper = new IntArrayWrapper(null);
+    private final ConfiguredResourceCache mConfiguredCache = new ConfiguredResourceCache(this);
     private final IProject mProject;
 
     public static ProjectResources create(IProject project) {
@@ -86,9 +89,12 @@ public class ProjectResources extends ResourceRepository {
     /**
      * Returns the resources values matching a given {@link FolderConfiguration}, this will
      * include library dependency.
+     * <p/>
+     * The result is cached, and only the resource types which changed since the previous
+     * call for the same configuration are resolved again.
      *
      * @param referenceConfig the configuration that each value must match.
-     * @return a map with guaranteed to contain an entry for each {@link ResourceType}
+     * @return a read-only map with guaranteed to contain an entry for each {@link ResourceType}
      */
     @Override
     @NonNull
@@ -96,71 +102,70 @@ public class ProjectResources extends ResourceRepository {
             @NonNull FolderConfiguration referenceConfig) {
         ensureInitialized();
 
-        Map<ResourceType, Map<String, ResourceValue>> resultMap =
-            new EnumMap<ResourceType, Map<String, ResourceValue>>(ResourceType.class);
-
         // if the project contains libraries, we need to add the libraries resources here
         // so that they are accessible to the layout rendering.
+        List<ProjectResources> libraries = Collections.emptyList();
         if (mProject != null) {
             ProjectState state = Sdk.getProjectState(mProject);
             if (state != null) {
-                List<IProject> libraries = state.getFullLibraryProjects();
+                List<IProject> libraryProjects = state.getFullLibraryProjects();
+                libraries = new ArrayList<ProjectResources>(libraryProjects.size());
 
                 ResourceManager resMgr = ResourceManager.getInstance();
-
-                // because aapt put all the library in their order in this array, the first
-                // one will have priority over the 2nd one. So it's better to loop in the inverse
-                // order and fill the map with resources that will be overwritten by higher
-                // priority resources
-                for (int i = libraries.size() - 1 ; i >= 0 ; i--) {
-                    IProject library = libraries.get(i);
-
+                for (IProject library : libraryProjects) {
                     ProjectResources libRes = resMgr.getProjectResources(library);
                     if (libRes != null) {
-                        // get the library resources, and only the library, not the dependencies
-                        // so call doGetConfiguredResources() directly.
-                        Map<ResourceType, Map<String, ResourceValue>> libMap =
-                                libRes.doGetConfiguredResources(referenceConfig);
-
-                        // we don't want to simply replace the whole map, but instead merge the
-                        // content of any sub-map
-                        for (Entry<ResourceType, Map<String, ResourceValue>> libEntry :
-                                libMap.entrySet()) {
-
-                            // get the map currently in the result map for this resource type
-                            Map<String, ResourceValue> tempMap = resultMap.get(libEntry.getKey());
-                            if (tempMap == null) {
-                                // since there's no current map for this type, just add the map
-                                // directly coming from the library resources
-                                resultMap.put(libEntry.getKey(), libEntry.getValue());
-                            } else {
-                                // already a map for this type. add the resources from the
-                                // library, this will override existing value, which is why
-                                // we loop in a specific library order.
-                                tempMap.putAll(libEntry.getValue());
-                            }
-                        }
+                        libraries.add(libRes);
                     }
                 }
             }
         }
 
-        // now the project resources themselves.
-        Map<ResourceType, Map<String, ResourceValue>> thisProjectMap =
-                doGetConfiguredResources(referenceConfig);
+        return mConfiguredCache.getConfiguredResources(referenceConfig, libraries);
+    }
+
+    /**
+     * Resolves the resources of a given type matching a {@link FolderConfiguration}, for this
+     * project only.
+     * @return a read-only map of the resource values by name.
+     */
+    @NonNull
+    Map<String, ResourceValue> resolveConfiguredResources(@NonNull ResourceType type,
+            @NonNull FolderConfiguration referenceConfig) {
+        ensureInitialized();
 
-        // now merge the maps.
-        for (Entry<ResourceType, Map<String, ResourceValue>> entry : thisProjectMap.entrySet()) {
-            ResourceType type = entry.getKey();
-            Map<String, ResourceValue> typeMap = resultMap.get(type);
-            if (typeMap == null) {
-                resultMap.put(type, entry.getValue());
-            } else {
-                typeMap.putAll(entry.getValue());
+        Collection<ResourceItem> items = getResourceItemsOfType(type);
+        if (items.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, ResourceValue> map = new HashMap<String, ResourceValue>(items.size());
+        for (ResourceItem item : items) {
+            ResourceValue value = item.getResourceValue(type, referenceConfig,
+                    false /*isFramework*/);
+            if (value != null) {
+                map.put(item.getName(), value);
             }
         }
 
-        return resultMap;
+        return Collections.unmodifiableMap(map);
+    }
+
+    @NonNull
+    ConfiguredResourceCache getConfiguredResourceCache() {
+        return mConfiguredCache;
+    }
+
+    /**
+     * Invalidates the cached configured resources after a change in a resource folder.
+     * @param folderType the type of the folder that changed, or null if it is unknown.
+     */
+    void resourcesChanged(@Nullable ResourceFolderType folderType) {
+        if (folderType != null) {
+            mConfiguredCache.invalidate(FolderTypeRelationship.getRelatedResourceTypes(folderType));
+        } else {
+            mConfiguredCache.invalidateAll();
+        }
     }
 
     /**
@@ -180,15 +185,9 @@ public class ProjectResources extends ResourceRepository {
      * @return a {@link Pair} of 2 strings { name, type } or null if the id could not be resolved
      */
     public Pair<ResourceType, String> resolveResourceId(int id) {
-        Pair<ResourceType, String> result = null;
-        if (mResIdValueToNameMap != null) {
-            result = mResIdValueToNameMap.get(id);
-        }
-
+        Pair<ResourceType, String> result = mIdTable.resolveId(id);
         if (result == null) {
-            synchronized (mDynamicIdMap) {
-                result = mDynamicIdMap.resolveId(id);
-            }
+            result = mDynamicIdMap.resolveId(id);
         }
 
         return result;
@@ -198,12 +197,7 @@ public class ProjectResources extends ResourceRepository {
      * Resolves a compiled styleable id of type int[] into the styleable name.
      */
     public String resolveStyleable(int[] id) {
-        if (mStyleableValueToNameMap != null) {
-            mWrapper.set(id);
-            return mStyleableValueToNameMap.get(mWrapper);
-        }
-
-        return null;
+        return mIdTable.resolveStyleable(id);
     }
 
     /**
@@ -213,18 +207,9 @@ public class ProjectResources extends ResourceRepository {
      * with the same names will return the same value).
      */
     public Integer getResourceId(ResourceType type, String name) {
-        Integer result = null;
-        if (mResourceValueMap != null) {
-            Map<String, Integer> map = mResourceValueMap.get(type);
-            if (map != null) {
-                result = map.get(name);
-            }
-        }
-
+        Integer result = mIdTable.getId(type, name);
         if (result == null) {
-            synchronized (mDynamicIdMap) {
-                result = mDynamicIdMap.getId(type, name);
-            }
+            result = mDynamicIdMap.getId(type, name);
         }
 
         return result;
@@ -238,9 +223,7 @@ public class ProjectResources extends ResourceRepository {
      * change.
      */
     public void resetDynamicIds() {
-        synchronized (mDynamicIdMap) {
-            mDynamicIdMap.reset(DYNAMIC_ID_SEED_START);
-        }
+        mDynamicIdMap.reset(DYNAMIC_ID_SEED_START);
     }
 
     @Override
@@ -251,21 +234,23 @@ public class ProjectResources extends ResourceRepository {
 
     /**
      * Sets compiled resource information.
+     * <p/>
+     * If the values are the same as the current ones, nothing is changed. In particular the
+     * dynamic ids are kept.
      *
-     * @param resIdValueToNameMap a map of compiled resource id to resource name.
-     *    The map is acquired by the {@link ProjectResources} object.
-     * @param styleableValueMap a map of (int[], name) for the styleable information. The map is
-     *    acquired by the {@link ProjectResources} object.
-     * @param resourceValueMap a map of (name, id) for resources of type {@link ResourceType#ID}.
-     *    The list is acquired by the {@link ProjectResources} object.
+     * @param resourceValueMap a map of (name, id) for each resource type.
+     * @param styleables a map of (name, int[]) for the styleables.
+     * @return true if the compiled resources changed.
      */
-    void setCompiledResources(Map<Integer, Pair<ResourceType, String>> resIdValueToNameMap,
-            Map<IntArrayWrapper, String> styleableValueMap,
-            Map<ResourceType, Map<String, Integer>> resourceValueMap) {
-        mResourceValueMap = resourceValueMap;
-        mResIdValueToNameMap = resIdValueToNameMap;
-        mStyleableValueToNameMap = styleableValueMap;
+    boolean setCompiledResources(Map<ResourceType, Map<String, Integer>> resourceValueMap,
+            Map<String, int[]> styleables) {
+        if (mIdTable.matches(resourceValueMap, styleables)) {
+            return false;
+        }
+
+        mIdTable = ResourceIdTable.create(resourceValueMap, styleables);
 
         resetDynamicIds();
+        return true;
     }
 }
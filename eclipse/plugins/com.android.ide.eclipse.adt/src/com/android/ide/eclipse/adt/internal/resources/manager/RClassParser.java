@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.resources.manager;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.resources.ResourceType;
+import com.google.common.io.Files;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the resource ids of a compiled R class directly from its class files.
+ * <p/>
+ * This does not load the class: the values of the int fields are read from their constant
+ * value attribute, or from the static initializer of the class for the non final fields of
+ * library projects and for the int[] fields of the styleables.
+ */
+final class RClassParser {
+
+    private static final String DESC_INT = "I";             //$NON-NLS-1$
+    private static final String DESC_INT_ARRAY = "[I";      //$NON-NLS-1$
+    private static final String CLINIT = "<clinit>";        //$NON-NLS-1$
+
+    private final Map<ResourceType, Map<String, Integer>> mResourceValueMap =
+            new EnumMap<ResourceType, Map<String, Integer>>(ResourceType.class);
+    private final Map<String, int[]> mStyleables = new HashMap<String, int[]>();
+
+    /**
+     * Parses the inner classes of an R class.
+     * @param folder the folder containing the class files of the R class.
+     * @param simpleName the simple name of the R class, usually "R".
+     * @return false if the R class was not found in the folder.
+     * @throws IOException
+     */
+    boolean parseFolder(@NonNull File folder, @NonNull String simpleName) throws IOException {
+        if (!new File(folder, simpleName + SdkConstants.DOT_CLASS).isFile()) {
+            return false;
+        }
+
+        String prefix = simpleName + '$';
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(prefix) && name.endsWith(SdkConstants.DOT_CLASS)) {
+                    ResourceType type = ResourceType.getEnum(name.substring(prefix.length(),
+                            name.length() - SdkConstants.DOT_CLASS.length()));
+                    if (type != null) {
+                        parseClass(type, Files.toByteArray(file));
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Parses an inner class of an R class, such as R$id.
+     * @param type the resource type matching the inner class.
+     * @param data the content of the class file.
+     */
+    void parseClass(@NonNull ResourceType type, @NonNull byte[] data) {
+        Map<String, Integer> values = mResourceValueMap.get(type);
+        if (values == null) {
+            values = new HashMap<String, Integer>();
+            mResourceValueMap.put(type, values);
+        }
+
+        ClassReader reader = new ClassReader(data);
+        reader.accept(new InnerClassVisitor(values),
+                ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+
+    /** Returns a map of (name, id) for each resource type */
+    @NonNull
+    Map<ResourceType, Map<String, Integer>> getResourceValueMap() {
+        return mResourceValueMap;
+    }
+
+    /** Returns a map of (name, int[]) for the styleables */
+    @NonNull
+    Map<String, int[]> getStyleables() {
+        return mStyleables;
+    }
+
+    private final class InnerClassVisitor extends ClassVisitor {
+        private final Map<String, Integer> mValues;
+
+        InnerClassVisitor(Map<String, Integer> values) {
+            super(Opcodes.ASM5);
+            mValues = values;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature,
+                Object value) {
+            if ((access & Opcodes.ACC_STATIC) != 0 && DESC_INT.equals(desc)
+                    && value instanceof Integer) {
+                mValues.put(name, (Integer) value);
+            }
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc,
+                String signature, String[] exceptions) {
+            if (CLINIT.equals(name)) {
+                return new StaticInitVisitor(mValues);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Interprets the static initializer of an R inner class, which is made of sequences of
+     * constants and int arrays assigned to the static fields. Any other instruction resets
+     * the interpreter, so unexpected code can't produce wrong values.
+     */
+    private final class StaticInitVisitor extends MethodVisitor {
+        private final Map<String, Integer> mValues;
+        private final List<Object> mStack = new ArrayList<Object>();
+
+        StaticInitVisitor(Map<String, Integer> values) {
+            super(Opcodes.ASM5);
+            mValues = values;
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            if (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.ICONST_5) {
+                mStack.add(Integer.valueOf(opcode - Opcodes.ICONST_0));
+            } else if (opcode == Opcodes.DUP && !mStack.isEmpty()) {
+                mStack.add(mStack.get(mStack.size() - 1));
+            } else if (opcode == Opcodes.IASTORE && mStack.size() >= 3) {
+                Object value = pop();
+                Object index = pop();
+                Object array = pop();
+                if (array instanceof int[] && index instanceof Integer
+                        && value instanceof Integer) {
+                    int[] ints = (int[]) array;
+                    int i = ((Integer) index).intValue();
+                    if (i >= 0 && i < ints.length) {
+                        ints[i] = ((Integer) value).intValue();
+                        return;
+                    }
+                }
+                mStack.clear();
+            } else {
+                mStack.clear();
+            }
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            if (opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH) {
+                mStack.add(Integer.valueOf(operand));
+            } else if (opcode == Opcodes.NEWARRAY && operand == Opcodes.T_INT
+                    && !mStack.isEmpty() && mStack.get(mStack.size() - 1) instanceof Integer) {
+                int size = ((Integer) pop()).intValue();
+                if (size >= 0) {
+                    mStack.add(new int[size]);
+                } else {
+                    mStack.clear();
+                }
+            } else {
+                mStack.clear();
+            }
+        }
+
+        @Override
+        public void visitLdcInsn(Object cst) {
+            if (cst instanceof Integer) {
+                mStack.add(cst);
+            } else {
+                mStack.clear();
+            }
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+            if (opcode == Opcodes.PUTSTATIC && !mStack.isEmpty()) {
+                Object value = pop();
+                if (DESC_INT.equals(desc) && value instanceof Integer) {
+                    mValues.put(name, (Integer) value);
+                    return;
+                } else if (DESC_INT_ARRAY.equals(desc) && value instanceof int[]) {
+                    mStyleables.put(name, (int[]) value);
+                    return;
+                }
+            }
+            mStack.clear();
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            mStack.clear();
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            mStack.clear();
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String desc,
+                boolean itf) {
+            mStack.clear();
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            mStack.clear();
+        }
+
+        private Object pop() {
+            return mStack.remove(mStack.size() - 1);
+        }
+    }
+}
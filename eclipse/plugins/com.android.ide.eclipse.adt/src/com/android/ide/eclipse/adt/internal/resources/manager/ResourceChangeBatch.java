@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.resources.manager;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.common.resources.ResourceFile;
+import com.android.ide.common.resources.ResourceFolder;
+import com.android.resources.FolderTypeRelationship;
+import com.android.resources.ResourceFolderType;
+import com.android.resources.ResourceType;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResourceDelta;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The resource changes of a project during a workspace operation or a build, as given to
+ * {@link ResourceManager.IResourceBatchListener}.
+ * <p/>
+ * A file or folder changed several times in the batch is only listed once, with the union
+ * of its event types.
+ */
+public final class ResourceChangeBatch {
+
+    private final IProject mProject;
+    private final ProjectResources mResources;
+    private final Map<ResourceFile, Integer> mFiles = new LinkedHashMap<ResourceFile, Integer>();
+    private final Map<ResourceFolder, Integer> mFolders =
+            new LinkedHashMap<ResourceFolder, Integer>();
+    private final Set<ResourceFolderType> mFolderTypes =
+            EnumSet.noneOf(ResourceFolderType.class);
+    private boolean mUnknownFolderType;
+
+    ResourceChangeBatch(@NonNull IProject project, @NonNull ProjectResources resources) {
+        mProject = project;
+        mResources = resources;
+    }
+
+    /** Returns the project of the changes. */
+    @NonNull
+    public IProject getProject() {
+        return mProject;
+    }
+
+    /** Returns the changed files, in the order they were first changed. */
+    @NonNull
+    public Set<ResourceFile> getFiles() {
+        return Collections.unmodifiableSet(mFiles.keySet());
+    }
+
+    /**
+     * Returns the event types of a changed file, or 0 if the file didn't change.
+     * See {@link IResourceDelta}.
+     */
+    public int getEventType(@NonNull ResourceFile file) {
+        Integer eventType = mFiles.get(file);
+        return eventType != null ? eventType.intValue() : 0;
+    }
+
+    /** Returns the changed folders, in the order they were first changed. */
+    @NonNull
+    public Set<ResourceFolder> getFolders() {
+        return Collections.unmodifiableSet(mFolders.keySet());
+    }
+
+    /**
+     * Returns the event types of a changed folder, or 0 if the folder didn't change.
+     * See {@link IResourceDelta}.
+     */
+    public int getEventType(@NonNull ResourceFolder folder) {
+        Integer eventType = mFolders.get(folder);
+        return eventType != null ? eventType.intValue() : 0;
+    }
+
+    /** Returns the resource types which may have changed. */
+    @NonNull
+    public Set<ResourceType> getResourceTypes() {
+        if (mUnknownFolderType) {
+            return EnumSet.allOf(ResourceType.class);
+        }
+
+        Set<ResourceType> types = EnumSet.noneOf(ResourceType.class);
+        for (ResourceFolderType folderType : mFolderTypes) {
+            types.addAll(FolderTypeRelationship.getRelatedResourceTypes(folderType));
+        }
+        return types;
+    }
+
+    /** Returns the number of changed files and folders. */
+    public int size() {
+        return mFiles.size() + mFolders.size();
+    }
+
+    @NonNull
+    ProjectResources getProjectResources() {
+        return mResources;
+    }
+
+    void fileChanged(@NonNull ResourceFile file, int eventType) {
+        Integer previous = mFiles.get(file);
+        if (previous != null) {
+            eventType |= previous.intValue();
+        }
+        mFiles.put(file, Integer.valueOf(eventType));
+    }
+
+    void folderChanged(@NonNull ResourceFolder folder, int eventType) {
+        Integer previous = mFolders.get(folder);
+        if (previous != null) {
+            eventType |= previous.intValue();
+        }
+        mFolders.put(folder, Integer.valueOf(eventType));
+    }
+
+    /**
+     * Invalidates the configured resources of the project for the folder types which changed.
+     */
+    void invalidateResources() {
+        if (mUnknownFolderType) {
+            mResources.resourcesChanged(null);
+        } else {
+            for (ResourceFolderType folderType : mFolderTypes) {
+                mResources.resourcesChanged(folderType);
+            }
+        }
+    }
+
+    /**
+     * Records that the resources of a folder type changed.
+     * @param folderType the type of the folder, or null if it is unknown.
+     */
+    void resourcesChanged(@Nullable ResourceFolderType folderType) {
+        if (folderType != null) {
+            mFolderTypes.add(folderType);
+        } else {
+            mUnknownFolderType = true;
+        }
+    }
+}
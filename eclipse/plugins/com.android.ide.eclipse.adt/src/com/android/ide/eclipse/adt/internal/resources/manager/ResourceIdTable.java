@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.resources.manager;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.resources.ResourceType;
+import com.android.util.Pair;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * An immutable table of the compiled resource ids of a project, as read from its R class.
+ * <p/>
+ * The lookups are done during rendering, for each attribute of each view, so the table uses
+ * open addressing over arrays rather than maps, and returns shared objects rather than
+ * allocating new ones. Being immutable, it can be read from any thread without locking: an
+ * update builds a new table which replaces the previous one.
+ */
+final class ResourceIdTable {
+
+    private static final ResourceType[] TYPES = ResourceType.values();
+
+    static final ResourceIdTable EMPTY = create(
+            Collections.<ResourceType, Map<String, Integer>>emptyMap(),
+            Collections.<String, int[]>emptyMap());
+
+    // id -> (type, name). A null value marks an empty slot, as 0 is a valid key.
+    private final int[] mIdKeys;
+    private final Pair<ResourceType, String>[] mIdValues;
+
+    // (type, name) -> id, one table per type, indexed by the type ordinal.
+    private final String[][] mNameKeys;
+    private final Integer[][] mNameValues;
+
+    // int[] -> styleable name, with the hash of the arrays precomputed.
+    private final int[][] mStyleableKeys;
+    private final int[] mStyleableHashes;
+    private final String[] mStyleableValues;
+
+    // the styleables by name, as several styleables can have the same attributes.
+    private final Map<String, int[]> mStyleables;
+
+    private final int mIdCount;
+
+    @SuppressWarnings("unchecked")
+    private ResourceIdTable(int idCount, Map<String, int[]> styleables) {
+        mIdCount = idCount;
+        mStyleables = new HashMap<String, int[]>(styleables);
+
+        int capacity = getCapacity(idCount);
+        mIdKeys = new int[capacity];
+        mIdValues = new Pair[capacity];
+        mNameKeys = new String[TYPES.length][];
+        mNameValues = new Integer[TYPES.length][];
+
+        capacity = getCapacity(styleables.size());
+        mStyleableKeys = new int[capacity][];
+        mStyleableHashes = new int[capacity];
+        mStyleableValues = new String[capacity];
+    }
+
+    /**
+     * Creates a table.
+     * @param resourceValueMap a map of (name, id) for each resource type.
+     * @param styleables a map of (name, int[]) for the styleables.
+     */
+    @NonNull
+    static ResourceIdTable create(
+            @NonNull Map<ResourceType, Map<String, Integer>> resourceValueMap,
+            @NonNull Map<String, int[]> styleables) {
+        int idCount = 0;
+        for (Map<String, Integer> values : resourceValueMap.values()) {
+            idCount += values.size();
+        }
+
+        ResourceIdTable table = new ResourceIdTable(idCount, styleables);
+        for (Entry<ResourceType, Map<String, Integer>> entry : resourceValueMap.entrySet()) {
+            ResourceType type = entry.getKey();
+            Map<String, Integer> values = entry.getValue();
+
+            int capacity = getCapacity(values.size());
+            String[] keys = new String[capacity];
+            Integer[] ids = new Integer[capacity];
+            table.mNameKeys[type.ordinal()] = keys;
+            table.mNameValues[type.ordinal()] = ids;
+
+            for (Entry<String, Integer> value : values.entrySet()) {
+                String name = value.getKey().intern();
+                Integer id = value.getValue();
+
+                int slot = mix(name.hashCode()) & (capacity - 1);
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                keys[slot] = name;
+                ids[slot] = id;
+
+                table.putId(id.intValue(), Pair.of(type, name));
+            }
+        }
+
+        for (Entry<String, int[]> entry : styleables.entrySet()) {
+            table.putStyleable(entry.getValue(), entry.getKey().intern());
+        }
+
+        return table;
+    }
+
+    /**
+     * Returns the type and name of a resource id, or null if the id is unknown. When several
+     * resources have the same value, such as the styleable indices, one of them is returned.
+     */
+    @Nullable
+    Pair<ResourceType, String> resolveId(int id) {
+        int mask = mIdKeys.length - 1;
+        int slot = mix(id) & mask;
+        Pair<ResourceType, String> value;
+        while ((value = mIdValues[slot]) != null) {
+            if (mIdKeys[slot] == id) {
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /** Returns the id of a resource, or null if it is unknown. */
+    @Nullable
+    Integer getId(@NonNull ResourceType type, @NonNull String name) {
+        String[] keys = mNameKeys[type.ordinal()];
+        if (keys == null) {
+            return null;
+        }
+        int mask = keys.length - 1;
+        int slot = mix(name.hashCode()) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (key == name || key.equals(name)) {
+                return mNameValues[type.ordinal()][slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /** Returns the name of a styleable from its attribute ids, or null if it is unknown. */
+    @Nullable
+    String resolveStyleable(@NonNull int[] ids) {
+        int hash = Arrays.hashCode(ids);
+        int mask = mStyleableKeys.length - 1;
+        int slot = mix(hash) & mask;
+        int[] key;
+        while ((key = mStyleableKeys[slot]) != null) {
+            if (mStyleableHashes[slot] == hash && Arrays.equals(key, ids)) {
+                return mStyleableValues[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the table contains exactly the given resources.
+     * @param resourceValueMap a map of (name, id) for each resource type.
+     * @param styleables a map of (name, int[]) for the styleables.
+     */
+    boolean matches(@NonNull Map<ResourceType, Map<String, Integer>> resourceValueMap,
+            @NonNull Map<String, int[]> styleables) {
+        if (styleables.size() != mStyleables.size()) {
+            return false;
+        }
+        for (Entry<String, int[]> entry : styleables.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), mStyleables.get(entry.getKey()))) {
+                return false;
+            }
+        }
+
+        int idCount = 0;
+        for (Entry<ResourceType, Map<String, Integer>> entry : resourceValueMap.entrySet()) {
+            ResourceType type = entry.getKey();
+            for (Entry<String, Integer> value : entry.getValue().entrySet()) {
+                if (!value.getValue().equals(getId(type, value.getKey()))) {
+                    return false;
+                }
+                idCount++;
+            }
+        }
+
+        return idCount == mIdCount;
+    }
+
+    private void putId(int id, Pair<ResourceType, String> value) {
+        int mask = mIdKeys.length - 1;
+        int slot = mix(id) & mask;
+        while (mIdValues[slot] != null && mIdKeys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        mIdKeys[slot] = id;
+        mIdValues[slot] = value;
+    }
+
+    private void putStyleable(int[] ids, String name) {
+        int hash = Arrays.hashCode(ids);
+        int mask = mStyleableKeys.length - 1;
+        int slot = mix(hash) & mask;
+        while (mStyleableKeys[slot] != null && !(mStyleableHashes[slot] == hash
+                && Arrays.equals(mStyleableKeys[slot], ids))) {
+            slot = (slot + 1) & mask;
+        }
+        mStyleableKeys[slot] = ids;
+        mStyleableHashes[slot] = hash;
+        mStyleableValues[slot] = name;
+    }
+
+    /** Returns a power of two capacity keeping the load factor under 0.5 */
+    private static int getCapacity(int size) {
+        int capacity = 2;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Spreads the bits of a hash, as the resource ids only differ in their low bits within a
+     * type, but in their high bits across types.
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.ide.eclipse.adt.internal.resources.manager;
 
 import com.android.SdkConstants;
+import com.android.annotations.NonNull;
 import com.android.ide.common.resources.FrameworkResources;
 import com.android.ide.common.resources.ResourceFile;
 import com.android.ide.common.resources.ResourceFolder;
@@ -24,6 +25,8 @@ import com.android.ide.common.resources.ResourceRepository;
 import com.android.ide.common.resources.ScanningContext;
 import com.android.ide.eclipse.adt.AdtConstants;
 import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.ide.eclipse.adt.internal.build.BuildTrace;
+import com.android.ide.eclipse.adt.internal.build.BuildTrace.Span;
 import com.android.ide.eclipse.adt.internal.resources.ResourceHelper;
 import com.android.ide.eclipse.adt.internal.resources.manager.GlobalProjectMonitor.IProjectListener;
 import com.android.ide.eclipse.adt.internal.resources.manager.GlobalProjectMonitor.IRawDeltaListener;
@@ -46,13 +49,25 @@ import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.QualifiedName;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The ResourceManager tracks resources for all opened projects.
@@ -76,6 +91,12 @@ public final class ResourceManager {
 
     private final static ResourceManager sThis = new ResourceManager();
 
+    /** Name of the {@link BuildTrace} span covering the processing of a batch of changes */
+    private final static String SPAN_RESOURCE_CHANGES = "Resource Changes"; //$NON-NLS-1$
+
+    /** Name of the {@link BuildTrace} span covering the loading of the resources at startup */
+    private final static String SPAN_RESOURCE_PRELOAD = "Resource Loading"; //$NON-NLS-1$
+
     /**
      * Map associating project resource with project objects.
      * <p/><b>All accesses must be inside a synchronized(mMap) block</b>, and do as a little as
@@ -107,7 +128,34 @@ public final class ResourceManager {
         void folderChanged(IProject project, ResourceFolder folder, int eventType);
     }
 
+    /**
+     * Interface to be notified once of all the resource changes of a project made during a
+     * workspace operation or a build, rather than for each file.
+     *
+     * @see ResourceManager#addBatchListener(IResourceBatchListener)
+     * @see ResourceManager#removeBatchListener(IResourceBatchListener)
+     */
+    public interface IResourceBatchListener {
+        /**
+         * Notification for the resource changes of a project.
+         * @param batch the changes, which are only valid during the call.
+         */
+        void resourcesChanged(@NonNull ResourceChangeBatch batch);
+    }
+
     private final ArrayList<IResourceListener> mListeners = new ArrayList<IResourceListener>();
+    private final ArrayList<IResourceBatchListener> mBatchListeners =
+            new ArrayList<IResourceBatchListener>();
+
+    /** The batch in progress on the current thread, if any */
+    private final ThreadLocal<PendingBatch> mBatch = new ThreadLocal<PendingBatch>();
+
+    /** The changes of a batch by project, and the span timing the batch */
+    private static final class PendingBatch {
+        final Map<IProject, ResourceChangeBatch> mChanges =
+                new LinkedHashMap<IProject, ResourceChangeBatch>();
+        final Span mSpan = BuildTrace.begin(null, SPAN_RESOURCE_CHANGES);
+    }
 
     /**
      * Sets up the resource manager with the global project monitor.
@@ -147,6 +195,27 @@ public final class ResourceManager {
         }
     }
 
+    /**
+     * Adds a new {@link IResourceBatchListener} to be notified of resource changes.
+     * @param listener the listener to be added.
+     */
+    public void addBatchListener(@NonNull IResourceBatchListener listener) {
+        synchronized (mBatchListeners) {
+            mBatchListeners.add(listener);
+        }
+    }
+
+    /**
+     * Removes an {@link IResourceBatchListener}, so that it's not notified of resource changes
+     * anymore.
+     * @param listener the listener to be removed.
+     */
+    public void removeBatchListener(@NonNull IResourceBatchListener listener) {
+        synchronized (mBatchListeners) {
+            mBatchListeners.remove(listener);
+        }
+    }
+
     /**
      * Returns the resources of a project.
      * @param project The project
@@ -167,20 +236,88 @@ public final class ResourceManager {
 
     /**
      * Update the resource repository with a delta
+     * <p/>
+     * The listeners are notified once all the delta has been processed, with one event per
+     * changed file or folder.
      *
      * @param delta the resource changed delta to process.
      * @param context a context object with state for the current update, such
      *            as a place to stash errors encountered
      */
     public void processDelta(IResourceDelta delta, IdeScanningContext context) {
-        doProcessDelta(delta, context);
+        boolean newBatch = beginBatch();
+        try {
+            doProcessDelta(delta, context);
+
+            // when a project is added to the workspace it is possible this is called before
+            // the repo is actually created so this will return null.
+            ResourceRepository repo = context.getRepository();
+            if (repo != null) {
+                repo.postUpdateCleanUp();
+            }
+        } finally {
+            if (newBatch) {
+                endBatch();
+            }
+        }
+    }
 
-        // when a project is added to the workspace it is possible this is called before the
-        // repo is actually created so this will return null.
-        ResourceRepository repo = context.getRepository();
-        if (repo != null) {
-            repo.postUpdateCleanUp();
+    /**
+     * Starts collecting the resource changes made on the current thread, unless a batch is
+     * already in progress.
+     * @return true if a batch was started, which must be ended with {@link #endBatch()}.
+     */
+    private boolean beginBatch() {
+        if (mBatch.get() != null) {
+            return false;
         }
+
+        mBatch.set(new PendingBatch());
+        return true;
+    }
+
+    /**
+     * Ends the batch of the current thread: the configured resources of the changed types
+     * are invalidated, then the listeners are notified.
+     */
+    private void endBatch() {
+        PendingBatch pending = mBatch.get();
+        mBatch.remove();
+        Collection<ResourceChangeBatch> batches = pending.mChanges.values();
+        if (batches.isEmpty()) {
+            // don't fill the trace with the workspace changes which are not resource changes.
+            return;
+        }
+
+        for (ResourceChangeBatch batch : batches) {
+            batch.invalidateResources();
+        }
+
+        for (ResourceChangeBatch batch : batches) {
+            IProject project = batch.getProject();
+            for (ResourceFolder folder : batch.getFolders()) {
+                notifyListenerOnFolderChange(project, folder, batch.getEventType(folder));
+            }
+            for (ResourceFile file : batch.getFiles()) {
+                notifyListenerOnFileChange(project, file, batch.getEventType(file));
+            }
+            notifyBatchListeners(batch);
+            pending.mSpan.addItems(batch.size());
+        }
+        pending.mSpan.end();
+    }
+
+    /**
+     * Returns the changes of a project in the batch of the current thread.
+     */
+    private ResourceChangeBatch getBatch(IProject project, ProjectResources resources) {
+        Map<IProject, ResourceChangeBatch> changes = mBatch.get().mChanges;
+        ResourceChangeBatch batch = changes.get(project);
+        if (batch == null) {
+            batch = new ResourceChangeBatch(project, resources);
+            changes.put(project, batch);
+        }
+        return batch;
     }
 
     /**
@@ -215,7 +352,7 @@ public final class ResourceManager {
         // Now, process children recursively
         IResourceDelta[] children = delta.getAffectedChildren();
         for (IResourceDelta child : children)  {
-            processDelta(child, context);
+            doProcessDelta(child, context);
         }
     }
 
@@ -260,7 +397,9 @@ public final class ResourceManager {
                         ResourceFolder newFolder = resources.processFolder(
                                 new IFolderWrapper(folder));
                         if (newFolder != null) {
-                            notifyListenerOnFolderChange(project, newFolder, kind);
+                            ResourceChangeBatch batch = getBatch(project, resources);
+                            batch.resourcesChanged(newFolder.getType());
+                            batch.folderChanged(newFolder, kind);
                         }
                     }
                 }
@@ -273,11 +412,13 @@ public final class ResourceManager {
                 if (resources != null) {
                     ResourceFolder resFolder = resources.getResourceFolder(folder);
                     if (resFolder != null) {
-                        notifyListenerOnFolderChange(project, resFolder, kind);
+                        getBatch(project, resources).folderChanged(resFolder, kind);
                     }
                 }
                 break;
             case IResourceDelta.REMOVED:
+                ResourceReferenceIndex.getInstance().folderRemoved(folder);
+
                 synchronized (mMap) {
                     resources = mMap.get(folder.getProject());
                 }
@@ -291,7 +432,9 @@ public final class ResourceManager {
                             new IFolderWrapper(folder), context);
                     context.finishScanning(folder);
                     if (removedFolder != null) {
-                        notifyListenerOnFolderChange(project, removedFolder, kind);
+                        ResourceChangeBatch batch = getBatch(project, resources);
+                        batch.resourcesChanged(type);
+                        batch.folderChanged(removedFolder, kind);
                     }
                 }
                 break;
@@ -323,6 +466,13 @@ public final class ResourceManager {
             return;
         }
 
+        // checks if the file is under res/something or bin/res/something
+        IPath path = file.getFullPath();
+
+        if (path.segmentCount() == 4 && isInResFolder(path)) {
+            ResourceReferenceIndex.getInstance().fileChanged(file);
+        }
+
         // get the project resources
         ProjectResources resources;
         synchronized (mMap) {
@@ -333,9 +483,6 @@ public final class ResourceManager {
             return;
         }
 
-        // checks if the file is under res/something or bin/res/something
-        IPath path = file.getFullPath();
-
         if (path.segmentCount() == 4 || path.segmentCount() == 5) {
             if (isInResFolder(path)) {
                 IContainer container = file.getParent();
@@ -351,7 +498,11 @@ public final class ResourceManager {
                         ResourceFile resFile = folder.processFile(
                                 new IFileWrapper(file),
                                 ResourceHelper.getResourceDeltaKind(kind), context);
-                        notifyListenerOnFileChange(project, resFile, kind);
+                        ResourceChangeBatch batch = getBatch(project, resources);
+                        batch.resourcesChanged(folder.getType());
+                        if (resFile != null) {
+                            batch.fileChanged(resFile, kind);
+                        }
                     }
                 }
             }
@@ -368,6 +519,7 @@ public final class ResourceManager {
             synchronized (mMap) {
                 mMap.remove(project);
             }
+            ResourceReferenceIndex.getInstance().projectClosed(project);
         }
 
         @Override
@@ -375,6 +527,7 @@ public final class ResourceManager {
             synchronized (mMap) {
                 mMap.remove(project);
             }
+            ResourceReferenceIndex.getInstance().projectClosed(project);
         }
 
         @Override
@@ -389,7 +542,11 @@ public final class ResourceManager {
 
         @Override
         public void allProjectsOpenedWithWorkspace() {
-            // nothing to do.
+            Map<IProject, ProjectResources> resources;
+            synchronized (mMap) {
+                resources = new HashMap<IProject, ProjectResources>(mMap);
+            }
+            preloadResources(resources);
         }
 
         @Override
@@ -417,6 +574,18 @@ public final class ResourceManager {
             // are updated in the resource repositories so rendering etc. can work for
             // those new ids.
 
+            // all the projects are updated before the listeners are notified.
+            boolean newBatch = beginBatch();
+            try {
+                visitProjectDeltas(workspaceDelta);
+            } finally {
+                if (newBatch) {
+                    endBatch();
+                }
+            }
+        }
+
+        private void visitProjectDeltas(IResourceDelta workspaceDelta) {
             IResourceDelta[] projectDeltas = workspaceDelta.getAffectedChildren();
             for (IResourceDelta delta : projectDeltas) {
                 if (delta.getResource() instanceof IProject) {
@@ -553,6 +722,99 @@ public final class ResourceManager {
         }
     }
 
+    private void notifyBatchListeners(ResourceChangeBatch batch) {
+        synchronized (mBatchListeners) {
+            for (IResourceBatchListener listener : mBatchListeners) {
+                try {
+                    listener.resourcesChanged(batch);
+                } catch (Throwable t) {
+                    AdtPlugin.log(t, "Failed to notify a resource batch listener"); //$NON-NLS-1$
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the given project resources in the background, several projects at a time, so
+     * that the first editor opened doesn't wait for the resources of all the projects to be
+     * scanned one after the other.
+     * <p/>
+     * A project whose resources are needed before the job gets to it is simply loaded by the
+     * thread needing it, as before.
+     */
+    private void preloadResources(final Map<IProject, ProjectResources> resources) {
+        if (resources.isEmpty()) {
+            return;
+        }
+
+        Job job = new Job("Loading Android resources") {
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                int threads = Math.min(resources.size(),
+                        Runtime.getRuntime().availableProcessors());
+                ExecutorService executor = Executors.newFixedThreadPool(threads,
+                        new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r,
+                                "Resource Loader #" + mCount.incrementAndGet()); //$NON-NLS-1$
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+
+                Span span = BuildTrace.begin(null, SPAN_RESOURCE_PRELOAD);
+                try {
+                    List<Future<?>> futures = new ArrayList<Future<?>>(resources.size());
+                    for (final Entry<IProject, ProjectResources> entry : resources.entrySet()) {
+                        futures.add(executor.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    // the builder does a full aapt when it is the one loading
+                                    // the resources, so keep it that way.
+                                    if (entry.getValue().ensureInitialized()) {
+                                        markAaptRequested(entry.getKey());
+                                    }
+                                } catch (Throwable t) {
+                                    AdtPlugin.log(t,
+                                            "Failed to load project resources"); //$NON-NLS-1$
+                                }
+                            }
+                        }));
+                    }
+
+                    for (Future<?> future : futures) {
+                        if (monitor.isCanceled()) {
+                            for (Future<?> f : futures) {
+                                f.cancel(false /*mayInterruptIfRunning*/);
+                            }
+                            return Status.CANCEL_STATUS;
+                        }
+                        try {
+                            future.get();
+                        } catch (ExecutionException e) {
+                            // the task logs its own errors.
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return Status.CANCEL_STATUS;
+                        }
+                    }
+                } finally {
+                    executor.shutdown();
+                    span.addItems(resources.size()).end();
+                }
+
+                return Status.OK_STATUS;
+            }
+        };
+        job.setSystem(true);
+        job.schedule();
+    }
+
     /**
      * Private constructor to enforce singleton design.
      */
@@ -600,7 +862,7 @@ public final class ResourceManager {
             project.setPersistentProperty(NEED_AAPT, needsAapt);
 
             ProjectState state = Sdk.getProjectState(project);
-            if (state.isLibrary()) {
+            if (state != null && state.isLibrary()) {
                 // For library projects also mark the dependent projects as needing full aapt
                 for (ProjectState parent : state.getFullParentProjects()) {
                     IProject parentProject = parent.getProject();
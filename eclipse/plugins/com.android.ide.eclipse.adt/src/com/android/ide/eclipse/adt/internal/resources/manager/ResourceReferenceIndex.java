@@ -0,0 +1,476 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.resources.manager;
+
+import static com.android.SdkConstants.ATTR_NAME;
+import static com.android.SdkConstants.ATTR_TYPE;
+import static com.android.SdkConstants.DOT_XML;
+import static com.android.SdkConstants.FD_RESOURCES;
+import static com.android.SdkConstants.TAG_ITEM;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.resources.ResourceFolderType;
+import com.android.resources.ResourceType;
+import com.android.utils.SdkUtils;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An index of the resource references and definitions found in the XML resource files of
+ * the projects.
+ * <p/>
+ * The index of a project is built the first time it is queried, by a lightweight text scan
+ * of the files rather than a parse through the structured model. After that, only the files
+ * which changed are scanned again on the next query.
+ * <p/>
+ * The scan is a superset of what an XML parser would find (it also finds references in
+ * comments for instance), so clients which need exact results should check the files
+ * returned by the index.
+ * <p/>
+ * This class is thread-safe.
+ */
+public final class ResourceReferenceIndex {
+
+    private final static ResourceReferenceIndex sThis = new ResourceReferenceIndex();
+
+    /**
+     * Resource urls such as {@code @string/foo}, {@code @+id/foo}, {@code ?attr/foo}
+     * or {@code ?foo}, at the beginning of an attribute value or of a text.
+     */
+    private static final Pattern URL_PATTERN = Pattern.compile(
+            "(?<=[\"'>\\s])([@?])(\\+)?(?:\\*?([\\w.]+):)?(?:([\\w-]+)/)?([\\w.]+)"); //$NON-NLS-1$
+
+    /** Start tags, in values files */
+    private static final Pattern TAG_PATTERN = Pattern.compile(
+            "<([\\w-]+)([^>]*)>"); //$NON-NLS-1$
+
+    /** Attributes of a start tag */
+    private static final Pattern ATTRIBUTE_PATTERN = Pattern.compile(
+            "([\\w:.-]+)\\s*=\\s*([\"'])(.*?)\\2"); //$NON-NLS-1$
+
+    /**
+     * A definition of, or a reference to a resource in a file.
+     */
+    public static final class Location {
+        private final IFile mFile;
+        private final ResourceType mType;
+        private final String mName;
+        private final int mOffset;
+        private final int mLength;
+        private final boolean mDefinition;
+
+        Location(IFile file, @NonNull ResourceType type, @NonNull String name,
+                int offset, int length, boolean definition) {
+            mFile = file;
+            mType = type;
+            mName = name;
+            mOffset = offset;
+            mLength = length;
+            mDefinition = definition;
+        }
+
+        @NonNull
+        public IFile getFile() {
+            return mFile;
+        }
+
+        @NonNull
+        public ResourceType getType() {
+            return mType;
+        }
+
+        @NonNull
+        public String getName() {
+            return mName;
+        }
+
+        /** Returns the offset of the definition or reference in the file */
+        public int getOffset() {
+            return mOffset;
+        }
+
+        /** Returns the length of the definition or reference in the file */
+        public int getLength() {
+            return mLength;
+        }
+
+        /**
+         * Returns true if this is a definition, such as {@code <string name="foo">} or
+         * {@code @+id/foo}, rather than a reference.
+         */
+        public boolean isDefinition() {
+            return mDefinition;
+        }
+
+        /** Returns the type of the folder containing the file */
+        @Nullable
+        public ResourceFolderType getFolderType() {
+            return ResourceFolderType.getFolderType(mFile.getParent().getName());
+        }
+
+        /** Returns the configuration of the folder containing the file */
+        @Nullable
+        public FolderConfiguration getConfiguration() {
+            return FolderConfiguration.getConfigForFolder(mFile.getParent().getName());
+        }
+
+        @Override
+        public String toString() {
+            return (mDefinition ? "definition of " : "reference to ") //$NON-NLS-1$ //$NON-NLS-2$
+                    + mType.getName() + '/' + mName + " at " + mFile + ':' + mOffset; //$NON-NLS-1$
+        }
+    }
+
+    /** The index of a single project. All accesses must be synchronized on the instance. */
+    private static final class ProjectIndex {
+        final Map<IFile, List<Location>> mFiles = new HashMap<IFile, List<Location>>();
+        final Map<String, Set<IFile>> mFilesByKey = new HashMap<String, Set<IFile>>();
+        final Map<IFile, Long> mStamps = new HashMap<IFile, Long>();
+        final Set<IFile> mStale = new HashSet<IFile>();
+        boolean mScanned;
+    }
+
+    private final Map<IProject, ProjectIndex> mProjects = new HashMap<IProject, ProjectIndex>();
+
+    /**
+     * Returns the singleton instance.
+     */
+    @NonNull
+    public static ResourceReferenceIndex getInstance() {
+        return sThis;
+    }
+
+    private ResourceReferenceIndex() {
+    }
+
+    /**
+     * Returns the definitions of and references to the given resource in the resource files
+     * of a project, sorted by file path and offset.
+     *
+     * @param project the project to search
+     * @param type the type of the resource
+     * @param name the name of the resource
+     * @return the locations of the resource, possibly empty
+     */
+    @NonNull
+    public List<Location> getLocations(@NonNull IProject project, @NonNull ResourceType type,
+            @NonNull String name) {
+        ProjectIndex index = getIndex(project);
+        List<Location> result = new ArrayList<Location>();
+        synchronized (index) {
+            update(project, index);
+
+            Set<IFile> files = index.mFilesByKey.get(getKey(type, name));
+            if (files == null) {
+                return result;
+            }
+            for (IFile file : files) {
+                for (Location location : index.mFiles.get(file)) {
+                    if (location.mType == type && location.mName.equals(name)) {
+                        result.add(location);
+                    }
+                }
+            }
+        }
+
+        Collections.sort(result, new Comparator<Location>() {
+            @Override
+            public int compare(Location location1, Location location2) {
+                int delta = location1.mFile.getFullPath().toString().compareTo(
+                        location2.mFile.getFullPath().toString());
+                if (delta != 0) {
+                    return delta;
+                }
+                return location1.mOffset - location2.mOffset;
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Returns the resource files of a project which define or reference the given resource,
+     * sorted by path.
+     *
+     * @param project the project to search
+     * @param type the type of the resource
+     * @param name the name of the resource
+     * @return the files, possibly empty
+     */
+    @NonNull
+    public List<IFile> getFiles(@NonNull IProject project, @NonNull ResourceType type,
+            @NonNull String name) {
+        List<IFile> files = new ArrayList<IFile>();
+        for (Location location : getLocations(project, type, name)) {
+            if (files.isEmpty() || !files.get(files.size() - 1).equals(location.mFile)) {
+                files.add(location.mFile);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Marks a file as changed. Called by the {@link ResourceManager} for each file in
+     * res/ found in the resource deltas.
+     */
+    void fileChanged(@NonNull IFile file) {
+        ProjectIndex index;
+        synchronized (mProjects) {
+            index = mProjects.get(file.getProject());
+        }
+        if (index != null) {
+            synchronized (index) {
+                if (index.mScanned) {
+                    index.mStale.add(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks all the files of a folder as changed. Called by the {@link ResourceManager} when
+     * a resource folder is removed.
+     */
+    void folderRemoved(@NonNull IFolder folder) {
+        ProjectIndex index;
+        synchronized (mProjects) {
+            index = mProjects.get(folder.getProject());
+        }
+        if (index != null) {
+            synchronized (index) {
+                for (IFile file : index.mStamps.keySet()) {
+                    if (folder.equals(file.getParent())) {
+                        index.mStale.add(file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the index of a project. Called by the {@link ResourceManager} when a project is
+     * closed or deleted.
+     */
+    void projectClosed(@NonNull IProject project) {
+        synchronized (mProjects) {
+            mProjects.remove(project);
+        }
+    }
+
+    @NonNull
+    private ProjectIndex getIndex(@NonNull IProject project) {
+        synchronized (mProjects) {
+            ProjectIndex index = mProjects.get(project);
+            if (index == null) {
+                index = new ProjectIndex();
+                mProjects.put(project, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Scans the files which changed since the last query. These are the files marked as stale
+     * by the {@link ResourceManager}, and the files with a different modification stamp, as
+     * the resource manager only sees the deltas at build time when auto-building. Checking
+     * the stamps is cheap as it doesn't touch the disk.
+     */
+    private static void update(@NonNull IProject project, @NonNull ProjectIndex index) {
+        for (IFile file : index.mStale) {
+            removeFile(index, file);
+        }
+        index.mStale.clear();
+        index.mScanned = true;
+
+        Set<IFile> removed = new HashSet<IFile>(index.mStamps.keySet());
+        IFolder res = project.getFolder(FD_RESOURCES);
+        if (res.exists()) {
+            try {
+                for (IResource folder : res.members()) {
+                    if (!(folder instanceof IFolder)) {
+                        continue;
+                    }
+                    for (IResource member : ((IFolder) folder).members()) {
+                        if (!(member instanceof IFile)) {
+                            continue;
+                        }
+                        IFile file = (IFile) member;
+                        removed.remove(file);
+                        Long stamp = index.mStamps.get(file);
+                        if (stamp == null || stamp.longValue() != file.getModificationStamp()) {
+                            removeFile(index, file);
+                            scanFile(index, file);
+                        }
+                    }
+                }
+            } catch (CoreException e) {
+                AdtPlugin.log(e, "Can't index resources of %1$s", project); //$NON-NLS-1$
+            }
+        }
+
+        for (IFile file : removed) {
+            removeFile(index, file);
+        }
+    }
+
+    private static void scanFile(@NonNull ProjectIndex index, @NonNull IFile file) {
+        // record the stamp of non resource files as well, so that they aren't checked again
+        index.mStamps.put(file, file.getModificationStamp());
+        if (!SdkUtils.endsWith(file.getName(), DOT_XML)) {
+            return;
+        }
+        ResourceFolderType folderType = ResourceFolderType.getFolderType(
+                file.getParent().getName());
+        if (folderType == null) {
+            return;
+        }
+        String text = AdtPlugin.readFile(file);
+        if (text == null) {
+            return;
+        }
+
+        List<Location> locations = scan(file, text, folderType);
+        index.mFiles.put(file, locations);
+        for (Location location : locations) {
+            String key = getKey(location.mType, location.mName);
+            Set<IFile> files = index.mFilesByKey.get(key);
+            if (files == null) {
+                files = new HashSet<IFile>();
+                index.mFilesByKey.put(key, files);
+            }
+            files.add(file);
+        }
+    }
+
+    private static void removeFile(@NonNull ProjectIndex index, @NonNull IFile file) {
+        index.mStamps.remove(file);
+        List<Location> locations = index.mFiles.remove(file);
+        if (locations == null) {
+            return;
+        }
+        for (Location location : locations) {
+            String key = getKey(location.mType, location.mName);
+            Set<IFile> files = index.mFilesByKey.get(key);
+            if (files != null) {
+                files.remove(file);
+                if (files.isEmpty()) {
+                    index.mFilesByKey.remove(key);
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private static String getKey(@NonNull ResourceType type, @NonNull String name) {
+        return type.getName() + '/' + name;
+    }
+
+    /**
+     * Finds the resource definitions and references in the text of a resource file.
+     * References to resources of other packages, such as {@code @android:string/ok}, are
+     * ignored.
+     *
+     * @param file the file to attach to the locations
+     * @param text the content of the file
+     * @param folderType the type of the folder containing the file
+     * @return the locations found in the text
+     */
+    @NonNull
+    static List<Location> scan(IFile file, @NonNull String text,
+            @NonNull ResourceFolderType folderType) {
+        List<Location> locations = new ArrayList<Location>();
+
+        Matcher matcher = URL_PATTERN.matcher(text);
+        while (matcher.find()) {
+            if (matcher.group(3) != null) {
+                // resource of another package
+                continue;
+            }
+            boolean theme = matcher.group(1).charAt(0) == '?';
+            boolean create = matcher.group(2) != null;
+            String typeName = matcher.group(4);
+            ResourceType type;
+            if (typeName == null) {
+                // ?foo is short for ?attr/foo
+                type = theme && !create ? ResourceType.ATTR : null;
+            } else {
+                type = ResourceType.getEnum(typeName);
+            }
+            if (type == null || (create && type != ResourceType.ID)) {
+                continue;
+            }
+            locations.add(new Location(file, type, matcher.group(5), matcher.start(),
+                    matcher.end() - matcher.start(), create));
+        }
+
+        if (folderType == ResourceFolderType.VALUES) {
+            matcher = TAG_PATTERN.matcher(text);
+            while (matcher.find()) {
+                String tag = matcher.group(1);
+                String attributes = matcher.group(2);
+                String name = null;
+                String typeName = tag;
+                int nameOffset = -1;
+                Matcher attributeMatcher = ATTRIBUTE_PATTERN.matcher(attributes);
+                while (attributeMatcher.find()) {
+                    String attribute = attributeMatcher.group(1);
+                    if (attribute.equals(ATTR_NAME)) {
+                        name = attributeMatcher.group(3);
+                        nameOffset = matcher.start(2) + attributeMatcher.start(3);
+                    } else if (attribute.equals(ATTR_TYPE) && tag.equals(TAG_ITEM)) {
+                        typeName = attributeMatcher.group(3);
+                    }
+                }
+                if (name == null || name.isEmpty()) {
+                    continue;
+                }
+
+                ResourceType type;
+                if (tag.endsWith("-array")) { //$NON-NLS-1$
+                    // string-array and integer-array
+                    type = ResourceType.ARRAY;
+                } else {
+                    type = ResourceType.getEnum(typeName);
+                }
+                if (type != null) {
+                    locations.add(new Location(file, type, name, nameOffset, name.length(),
+                            true /*definition*/));
+                }
+            }
+        }
+
+        return locations;
+    }
+}
@@ -17,18 +17,22 @@
 package com.android.ide.eclipse.adt.internal.sdk;
 
 import com.android.SdkConstants;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.SubMonitor;
+import org.objectweb.asm.ClassReader;
 
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 import javax.management.InvalidAttributeValueException;
 
@@ -66,7 +70,8 @@ public class AndroidJarLoader extends ClassLoader implements IAndroidClassLoader
 
         @Override
         public IClassDescriptor getEnclosingClass() {
-            return new ClassWrapper(mClass.getEnclosingClass());
+            Class<?> enclosingClass = mClass.getEnclosingClass();
+            return enclosingClass != null ? new ClassWrapper(enclosingClass) : null;
         }
 
         @Override
@@ -76,7 +81,8 @@ public class AndroidJarLoader extends ClassLoader implements IAndroidClassLoader
 
         @Override
         public IClassDescriptor getSuperclass() {
-            return new ClassWrapper(mClass.getSuperclass());
+            Class<?> superClass = mClass.getSuperclass();
+            return superClass != null ? new ClassWrapper(superClass) : null;
         }
 
         @Override
@@ -107,8 +113,16 @@ public class AndroidJarLoader extends ClassLoader implements IAndroidClassLoader
 
     private String mOsFrameworkLocation;
 
-    /** A cache for binary data extracted from the zip */
-    private final HashMap<String, byte[]> mEntryCache = new HashMap<String, byte[]>();
+    /** The framework jar, opened on first use. Its central directory is the entry index */
+    private ZipFile mZipFile;
+    /** The class file entries of the preloaded packages, by binary class name */
+    private final HashMap<String, ZipEntry> mClassEntries = new HashMap<String, ZipEntry>();
+    /**
+     * The internal name of the super class of the classes whose header was read, by internal
+     * name. The value is {@link #NO_SUPER_CLASS} for the classes not in the jar.
+     */
+    private final HashMap<String, String> mSuperNames = new HashMap<String, String>();
+    private static final String NO_SUPER_CLASS = ""; //$NON-NLS-1$
     /** A cache for already defined Classes */
     private final HashMap<String, Class<?> > mClassCache = new HashMap<String, Class<?> >();
 
@@ -128,11 +142,25 @@ public class AndroidJarLoader extends ClassLoader implements IAndroidClassLoader
     }
 
     /**
-     * Pre-loads all class binary data that belong to the given package by reading the archive
-     * once and caching them internally.
+     * Closes the framework jar. It is opened again if more classes are loaded later.
+     */
+    public synchronized void close() {
+        if (mZipFile != null) {
+            try {
+                mZipFile.close();
+            } catch (IOException e) {
+                // nothing to do, the jar was only read.
+            }
+            mZipFile = null;
+        }
+    }
+
+    /**
+     * Pre-loads the index of all the classes that belong to the given package, from the
+     * central directory of the archive.
      * <p/>
-     * This does not actually preload "classes", it just reads the unzipped bytes for a given
-     * class. To obtain a class, one must call {@link #findClass(String)} later.
+     * This does not read the classes: their data is read from the archive when they are
+     * needed. To obtain a class, one must call {@link #findClass(String)} later.
      * <p/>
      * All classes which package name starts with "packageFilter" will be included and can be
      * found later.
@@ -148,52 +176,32 @@ public class AndroidJarLoader extends ClassLoader implements IAndroidClassLoader
      * @throws InvalidAttributeValueException
      * @throws ClassFormatError
      */
-    public void preLoadClasses(String packageFilter, String taskLabel, IProgressMonitor monitor)
+    public synchronized void preLoadClasses(String packageFilter, String taskLabel,
+            IProgressMonitor monitor)
         throws IOException, InvalidAttributeValueException, ClassFormatError {
         // Transform the package name into a zip entry path
-        String pathFilter = packageFilter.replaceAll("\\.", "/"); //$NON-NLS-1$ //$NON-NLS-2$
+        String pathFilter = packageFilter.replace('.', '/');
 
         SubMonitor progress = SubMonitor.convert(monitor, taskLabel == null ? "" : taskLabel, 100);
 
-        // create streams to read the intermediary archive
-        FileInputStream fis = new FileInputStream(mOsFrameworkLocation);
-        ZipInputStream zis = new ZipInputStream(fis);
-        ZipEntry entry;
-        while ((entry = zis.getNextEntry()) != null) {
-            // get the name of the entry.
+        Enumeration<? extends ZipEntry> entries = getZipFile().entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
             String entryPath = entry.getName();
 
-            if (!entryPath.endsWith(SdkConstants.DOT_CLASS)) {
-                // only accept class files
-                continue;
+            // only accept class files of the package to preload
+            if (entryPath.endsWith(SdkConstants.DOT_CLASS) && entryPath.startsWith(pathFilter)) {
+                mClassEntries.put(entryPathToClassName(entryPath), entry);
             }
-
-            // check if it is part of the package to preload
-            if (pathFilter.length() > 0 && !entryPath.startsWith(pathFilter)) {
-                continue;
-            }
-            String className = entryPathToClassName(entryPath);
-
-            if (!mEntryCache.containsKey(className)) {
-                long entrySize = entry.getSize();
-                if (entrySize > Integer.MAX_VALUE) {
-                    throw new InvalidAttributeValueException();
-                }
-                byte[] data = readZipData(zis, (int)entrySize);
-                mEntryCache.put(className, data);
-            }
-
-            // advance 5% of whatever is allocated on the progress bar
-            progress.setWorkRemaining(100);
-            progress.worked(5);
-            progress.subTask(String.format("Preload %1$s", className));
         }
+        progress.worked(100);
     }
 
     /**
      * Finds and loads all classes that derive from a given set of super classes.
      * <p/>
-     * As a side-effect this will load and cache most, if not all, classes in the input JAR file.
+     * The class hierarchy is read from the headers of the class files, and only the classes
+     * found, and their super classes, are loaded.
      *
      * @param packageFilter Base name of package of classes to find.
      *                      Use an empty string to find everyting.
@@ -206,14 +214,13 @@ public class AndroidJarLoader extends ClassLoader implements IAndroidClassLoader
      * @throws InvalidAttributeValueException
      * @throws ClassFormatError
      */
-    @SuppressWarnings("resource") // Eclipse doesn't understand Closeables.closeQuietly
     @Override
     public HashMap<String, ArrayList<IClassDescriptor>> findClassesDerivingFrom(
             String packageFilter,
             String[] superClasses)
             throws IOException, InvalidAttributeValueException, ClassFormatError {
 
-        packageFilter = packageFilter.replaceAll("\\.", "/"); //$NON-NLS-1$ //$NON-NLS-2$
+        packageFilter = packageFilter.replace('.', '/');
 
         HashMap<String, ArrayList<IClassDescriptor>> mClassesFound =
                 new HashMap<String, ArrayList<IClassDescriptor>>();
@@ -222,59 +229,49 @@ public class AndroidJarLoader extends ClassLoader implements IAndroidClassLoader
             mClassesFound.put(className, new ArrayList<IClassDescriptor>());
         }
 
-        // create streams to read the intermediary archive
-        FileInputStream fis = new FileInputStream(mOsFrameworkLocation);
-        ZipInputStream zis = new ZipInputStream(fis);
-        try {
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                // get the name of the entry and convert to a class binary name
-                String entryPath = entry.getName();
-                if (!entryPath.endsWith(SdkConstants.DOT_CLASS)) {
-                    // only accept class files
-                    continue;
-                }
-                if (packageFilter.length() > 0 && !entryPath.startsWith(packageFilter)) {
-                    // only accept stuff from the requested root package.
-                    continue;
-                }
-                String className = entryPathToClassName(entryPath);
-
-                Class<?> loaded_class = mClassCache.get(className);
-                if (loaded_class == null) {
-                    byte[] data = mEntryCache.get(className);
-                    if (data == null) {
-                        // Get the class and cache it
-                        long entrySize = entry.getSize();
-                        if (entrySize > Integer.MAX_VALUE) {
-                            throw new InvalidAttributeValueException();
-                        }
-                        data = readZipData(zis, (int)entrySize);
-                    }
-                    try {
-                        loaded_class = defineAndCacheClass(className, data);
-                    } catch (NoClassDefFoundError error) {
-                        if (error.getMessage().startsWith("java/")) {
-                            // Can't define these; we just need to stop
-                            // iteration here
-                            continue;
-                        }
-                        throw error;
-                    }
+        List<String> entryPaths = new ArrayList<String>();
+        synchronized (this) {
+            Enumeration<? extends ZipEntry> entries = getZipFile().entries();
+            while (entries.hasMoreElements()) {
+                String entryPath = entries.nextElement().getName();
+                // only accept class files from the requested root package.
+                if (entryPath.endsWith(SdkConstants.DOT_CLASS)
+                        && entryPath.startsWith(packageFilter)) {
+                    entryPaths.add(entryPath);
                 }
+            }
+        }
+
+        for (String entryPath : entryPaths) {
+            String internalName = entryPath.substring(0,
+                    entryPath.length() - SdkConstants.DOT_CLASS.length());
 
-                for (Class<?> superClass = loaded_class.getSuperclass();
-                        superClass != null;
-                        superClass = superClass.getSuperclass()) {
-                    String superName = superClass.getCanonicalName();
-                    if (mClassesFound.containsKey(superName)) {
-                        mClassesFound.get(superName).add(new ClassWrapper(loaded_class));
-                        break;
-                    }
+            // walk up the hierarchy, from the class headers only, until a super class looked
+            // for is found. Only the matching classes are defined.
+            String superName = getSuperName(internalName);
+            while (superName != null
+                    && !mClassesFound.containsKey(toCanonicalName(superName))) {
+                superName = getSuperName(superName);
+            }
+            if (superName == null) {
+                continue;
+            }
+
+            Class<?> loaded_class;
+            try {
+                loaded_class = loadClass(entryPathToClassName(entryPath));
+            } catch (ClassNotFoundException e) {
+                continue;
+            } catch (NoClassDefFoundError error) {
+                String message = error.getMessage();
+                if (message != null && message.startsWith("java/")) { //$NON-NLS-1$
+                    // Can't define these; we just need to skip them.
+                    continue;
                 }
+                throw error;
             }
-        } finally {
-            Closeables.closeQuietly(zis);
+
+            mClassesFound.get(toCanonicalName(superName)).add(new ClassWrapper(loaded_class));
         }
 
         return mClassesFound;
@@ -285,8 +282,41 @@ public class AndroidJarLoader extends ClassLoader implements IAndroidClassLoader
      *  <p/>
      *  F.ex, this converts "com/my/package/Foo.class" into "com.my.package.Foo".
      */
-    private String entryPathToClassName(String entryPath) {
-        return entryPath.replaceFirst("\\.class$", "").replaceAll("[/\\\\]", "."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    private static String entryPathToClassName(String entryPath) {
+        int end = entryPath.endsWith(SdkConstants.DOT_CLASS)
+                ? entryPath.length() - SdkConstants.DOT_CLASS.length() : entryPath.length();
+        return entryPath.substring(0, end).replace('/', '.').replace('\\', '.');
+    }
+
+    /**
+     * Converts an internal class name, such as "android/view/ViewGroup$LayoutParams", into
+     * the canonical name of the class, "android.view.ViewGroup.LayoutParams".
+     */
+    private static String toCanonicalName(String internalName) {
+        return internalName.replace('/', '.').replace('$', '.');
+    }
+
+    /**
+     * Returns the internal name of the super class of a class in the jar, read from the header
+     * of its class file.
+     *
+     * @param internalName the internal name of the class, such as "android/view/View".
+     * @return the internal name of the super class, or null if the class is not in the jar or
+     *         has no super class.
+     * @throws IOException
+     */
+    private synchronized String getSuperName(String internalName) throws IOException {
+        String superName = mSuperNames.get(internalName);
+        if (superName == null) {
+            byte[] data = readEntry(internalName + SdkConstants.DOT_CLASS);
+            superName = data != null ? new ClassReader(data).getSuperName() : null;
+            if (superName == null) {
+                superName = NO_SUPER_CLASS;
+            }
+            mSuperNames.put(internalName, superName);
+        }
+
+        return superName != NO_SUPER_CLASS ? superName : null;
     }
 
     /**
@@ -336,9 +366,8 @@ public class AndroidJarLoader extends ClassLoader implements IAndroidClassLoader
         cached_class = defineClass(null, data, 0, data.length);
 
         if (cached_class != null) {
-            // Add new class to the cache class and remove it from the zip entry data cache
+            // Add new class to the cache class
             mClassCache.put(name, cached_class);
-            mEntryCache.remove(name);
         }
         return cached_class;
     }
@@ -346,8 +375,8 @@ public class AndroidJarLoader extends ClassLoader implements IAndroidClassLoader
     /**
      * Loads a class data from its binary name.
      * <p/>
-     * This uses the class binary data that has been preloaded earlier by the preLoadClasses()
-     * method if possible.
+     * This uses the index of the classes preloaded earlier by the preLoadClasses() method if
+     * possible, and otherwise looks up the class in the central directory of the archive.
      *
      * @param className the binary name
      * @return an array of bytes representing the class data or null if not found
@@ -356,90 +385,42 @@ public class AndroidJarLoader extends ClassLoader implements IAndroidClassLoader
      */
     private synchronized byte[] loadClassData(String className)
             throws InvalidAttributeValueException, IOException {
-
-        byte[] data = mEntryCache.get(className);
-        if (data != null) {
-            return data;
+        ZipEntry entry = mClassEntries.get(className);
+        if (entry != null) {
+            return readEntry(entry);
         }
 
         // The name is a binary name. Something like "android.R", or "android.R$id".
         // Make a path out of it.
-        String entryName = className.replaceAll("\\.", "/") + SdkConstants.DOT_CLASS; //$NON-NLS-1$ //$NON-NLS-2$
-
-       // create streams to read the intermediary archive
-        FileInputStream fis = new FileInputStream(mOsFrameworkLocation);
-        ZipInputStream zis = new ZipInputStream(fis);
-        try {
-            // loop on the entries of the intermediary package and put them in the final package.
-            ZipEntry entry;
-
-            while ((entry = zis.getNextEntry()) != null) {
-                // get the name of the entry.
-                String currEntryName = entry.getName();
-
-                if (currEntryName.equals(entryName)) {
-                    long entrySize = entry.getSize();
-                    if (entrySize > Integer.MAX_VALUE) {
-                        throw new InvalidAttributeValueException();
-                    }
-
-                    data = readZipData(zis, (int)entrySize);
-                    return data;
-                }
-            }
-
-            return null;
-        } finally {
-            zis.close();
-        }
+        return readEntry(className.replace('.', '/') + SdkConstants.DOT_CLASS);
     }
 
     /**
-     * Reads data for the <em>current</em> entry from the zip input stream.
+     * Reads the content of an entry of the jar.
      *
-     * @param zis The Zip input stream
-     * @param entrySize The entry size. -1 if unknown.
-     * @return The new data for the <em>current</em> entry.
-     * @throws IOException If ZipInputStream.read() fails.
+     * @param entryName the name of the entry.
+     * @return the content of the entry, or null if there is no such entry.
+     * @throws IOException
      */
-    private byte[] readZipData(ZipInputStream zis, int entrySize) throws IOException {
-        int block_size = 1024;
-        int data_size = entrySize < 1 ? block_size : entrySize;
-        int offset = 0;
-        byte[] data = new byte[data_size];
-
-        while(zis.available() != 0) {
-            int count = zis.read(data, offset, data_size - offset);
-            if (count < 0) {  // read data is done
-                break;
-            }
-            offset += count;
-
-            if (entrySize >= 1 && offset >= entrySize) {  // we know the size and we're done
-                break;
-            }
+    private synchronized byte[] readEntry(String entryName) throws IOException {
+        ZipEntry entry = getZipFile().getEntry(entryName);
+        return entry != null ? readEntry(entry) : null;
+    }
 
-            // if we don't know the entry size and we're not done reading,
-            // expand the data buffer some more.
-            if (offset >= data_size) {
-                byte[] temp = new byte[data_size + block_size];
-                System.arraycopy(data, 0, temp, 0, data_size);
-                data_size += block_size;
-                data = temp;
-                block_size *= 2;
-            }
+    private synchronized byte[] readEntry(ZipEntry entry) throws IOException {
+        InputStream stream = getZipFile().getInputStream(entry);
+        try {
+            return ByteStreams.toByteArray(stream);
+        } finally {
+            Closeables.closeQuietly(stream);
         }
+    }
 
-        if (offset < data_size) {
-            // buffer was allocated too large, trim it
-            byte[] temp = new byte[offset];
-            if (offset > 0) {
-                System.arraycopy(data, 0, temp, 0, offset);
-            }
-            data = temp;
+    private synchronized ZipFile getZipFile() throws IOException {
+        if (mZipFile == null) {
+            mZipFile = new ZipFile(mOsFrameworkLocation);
         }
-
-        return data;
+        return mZipFile;
     }
 
     /**
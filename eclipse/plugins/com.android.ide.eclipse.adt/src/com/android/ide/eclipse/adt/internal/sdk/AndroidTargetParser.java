@@ -40,6 +40,7 @@ import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubMonitor;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
@@ -93,10 +94,18 @@ public final class AndroidTargetParser {
 
             // parse the rest of the data.
 
-            AndroidJarLoader classLoader =
-                new AndroidJarLoader(mAndroidTarget.getPath(IAndroidTarget.ANDROID_JAR));
-
-            preload(classLoader, progress.newChild(40, SubMonitor.SUPPRESS_NONE));
+            // the classes of the platform are read from the cache when possible, as reading
+            // them from the jar defines thousands of classes.
+            String jarPath = mAndroidTarget.getPath(IAndroidTarget.ANDROID_JAR);
+            PlatformClassCache classLoader = PlatformClassCache.create(new File(jarPath));
+            AndroidJarLoader jarLoader = null;
+            if (!classLoader.isLoaded()) {
+                jarLoader = new AndroidJarLoader(jarPath);
+                preload(jarLoader, progress.newChild(40, SubMonitor.SUPPRESS_NONE));
+                classLoader.record(jarLoader);
+            } else {
+                progress.worked(40);
+            }
 
             if (progress.isCanceled()) {
                 return Status.CANCEL_STATUS;
@@ -104,7 +113,10 @@ public final class AndroidTargetParser {
 
             // get the permissions
             progress.subTask("Permissions");
-            String[] permissionValues = collectPermissions(classLoader);
+            if (jarLoader != null) {
+                classLoader.setPermissions(collectPermissions(jarLoader));
+            }
+            String[] permissionValues = classLoader.getPermissions();
             progress.worked(1);
 
             if (progress.isCanceled()) {
@@ -166,6 +178,13 @@ public final class AndroidTargetParser {
             collectPreferenceClasses(classLoader, attrsXmlParser, mainList, groupList,
                     progress.newChild(1));
 
+            // the framework classes are no longer needed: save what was read from the jar,
+            // either recorded or missing from the cache file, and release the jar.
+            classLoader.save();
+            if (jarLoader != null) {
+                jarLoader.close();
+            }
+
             if (progress.isCanceled()) {
                 return Status.CANCEL_STATUS;
             }
@@ -446,7 +465,7 @@ public final class AndroidTargetParser {
      * @param groupList the Collection to receive the group list of {@link ViewClassInfo}.
      * @param monitor A progress monitor. Can be null. Caller is responsible for calling done.
      */
-    private void collectLayoutClasses(AndroidJarLoader classLoader,
+    private void collectLayoutClasses(IAndroidClassLoader classLoader,
             AttrsXmlParser attrsXmlParser,
             Collection<ViewClassInfo> mainList,
             Collection<ViewClassInfo> groupList,
@@ -488,7 +507,7 @@ public final class AndroidTargetParser {
      * @param groupList the Collection to receive the group list of {@link ViewClassInfo}.
      * @param monitor A progress monitor. Can be null. Caller is responsible for calling done.
      */
-    private void collectPreferenceClasses(AndroidJarLoader classLoader,
+    private void collectPreferenceClasses(IAndroidClassLoader classLoader,
             AttrsXmlParser attrsXmlParser, Collection<ViewClassInfo> mainList,
             Collection<ViewClassInfo> groupList, IProgressMonitor monitor) {
         LayoutParamsParser ldp = new LayoutParamsParser(classLoader, attrsXmlParser);
@@ -0,0 +1,555 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.sdk;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.prefs.AndroidLocation;
+import com.android.prefs.AndroidLocation.AndroidLocationException;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.management.InvalidAttributeValueException;
+
+/**
+ * A machine-wide cache of the data {@link AndroidTargetParser} reads from the android.jar of
+ * a platform: the permissions, and the class hierarchy of the views, layouts and preferences.
+ * <p/>
+ * Reading them defines and introspects thousands of classes of the jar, yet a platform never
+ * changes once installed. When the cache file of a jar doesn't exist, this class loader
+ * forwards the lookups of {@link LayoutParamsParser} to the jar and records the classes they
+ * return. The next time, the same lookups are answered from the cache file, which is named
+ * after the content of the jar and the version of the plugin.
+ * <p/>
+ * A lookup that is not in a loaded cache file, such as a query added by a newer parser, is
+ * forwarded to the jar and recorded too, and the cache file is rewritten when saved.
+ */
+final class PlatformClassCache implements IAndroidClassLoader {
+
+    private static final String FD_CACHE = "adt-platform-cache"; //$NON-NLS-1$
+    private static final String DOT_BIN = ".bin"; //$NON-NLS-1$
+    private static final String DOT_TMP = ".tmp"; //$NON-NLS-1$
+
+    /** The first bytes of the cache files */
+    private static final int MAGIC = 0x41445450;
+    /** The version of the cache files, to increment when their format changes */
+    private static final int VERSION = 2;
+
+    /** Marks a class relation that was never looked up, in the cache files */
+    private static final int NOT_RECORDED = -2;
+    /** Marks a null class, in the cache files */
+    private static final int NO_CLASS = -1;
+
+    /**
+     * Describes a class of the platform, copied from the descriptors of the jar so that the
+     * jar can be closed.
+     */
+    private final class CachedClass implements IClassDescriptor {
+        private final String mFqcn;
+        private final String mSimpleName;
+        private final boolean mIsInstantiable;
+
+        /** The descriptor being copied while recording, or null */
+        private IClassDescriptor mSource;
+
+        private boolean mHasSuperClass;
+        private CachedClass mSuperClass;
+        private boolean mHasEnclosingClass;
+        private CachedClass mEnclosingClass;
+        private CachedClass[] mDeclaredClasses;
+
+        CachedClass(String fqcn, String simpleName, boolean isInstantiable) {
+            mFqcn = fqcn;
+            mSimpleName = simpleName;
+            mIsInstantiable = isInstantiable;
+        }
+
+        @Override
+        public String getFullClassName() {
+            return mFqcn;
+        }
+
+        @Override
+        public String getSimpleName() {
+            return mSimpleName;
+        }
+
+        @Override
+        public boolean isInstantiable() {
+            return mIsInstantiable;
+        }
+
+        @Override
+        public IClassDescriptor getSuperclass() {
+            if (!mHasSuperClass && getSource(this) != null) {
+                mSuperClass = record(mSource.getSuperclass());
+                mHasSuperClass = true;
+            }
+            return mSuperClass;
+        }
+
+        @Override
+        public IClassDescriptor getEnclosingClass() {
+            if (!mHasEnclosingClass && getSource(this) != null) {
+                mEnclosingClass = record(mSource.getEnclosingClass());
+                mHasEnclosingClass = true;
+            }
+            return mEnclosingClass;
+        }
+
+        @Override
+        public IClassDescriptor[] getDeclaredClasses() {
+            if (mDeclaredClasses == null && getSource(this) != null) {
+                IClassDescriptor[] classes = mSource.getDeclaredClasses();
+                CachedClass[] declaredClasses = new CachedClass[classes.length];
+                for (int i = 0; i < classes.length; i++) {
+                    declaredClasses[i] = record(classes[i]);
+                }
+                mDeclaredClasses = declaredClasses;
+            }
+            return mDeclaredClasses != null ? mDeclaredClasses.clone() : new CachedClass[0];
+        }
+    }
+
+    private final File mCacheFile;
+    /** The android.jar of the platform, opened when a lookup is not in the cache, or null */
+    private final File mJar;
+
+    /** The jar class loader while recording, or null */
+    private IAndroidClassLoader mSource;
+    /** Whether {@link #mSource} was opened by this cache, which then closes it */
+    private boolean mOwnsSource;
+    /** Whether the cache was read from the cache file */
+    private boolean mLoaded;
+    /** Whether a lookup failed while recording, in which case the cache is not saved */
+    private boolean mFailed;
+
+    private String[] mPermissions = new String[0];
+    /** The classes, by full class name */
+    private final Map<String, CachedClass> mClasses = new LinkedHashMap<String, CachedClass>();
+    /** The results of {@link #getClass(String)}, by name */
+    private final Map<String, CachedClass> mLookups = new HashMap<String, CachedClass>();
+    /** The names for which {@link #getClass(String)} threw a {@link ClassNotFoundException} */
+    private final Set<String> mMissing = new HashSet<String>();
+    /** The results of {@link #findClassesDerivingFrom(String, String[])}, by query */
+    private final Map<String, Map<String, List<CachedClass>>> mQueries =
+            new HashMap<String, Map<String, List<CachedClass>>>();
+
+    private PlatformClassCache(@Nullable File cacheFile, @Nullable File jar) {
+        mCacheFile = cacheFile;
+        mJar = jar;
+    }
+
+    /**
+     * Returns the cache of a platform jar. If the jar is not in the cache yet, the returned
+     * cache is empty and {@link #isLoaded()} returns false.
+     *
+     * @param jar the android.jar of the platform.
+     */
+    @NonNull
+    static PlatformClassCache create(@NonNull File jar) {
+        File cacheFile = null;
+        try {
+            File folder = new File(AndroidLocation.getFolder(), FD_CACHE);
+            // the plugin version is part of the key as the lookups change with the parser.
+            String key = Hashing.sha1().newHasher()
+                    .putBytes(Files.hash(jar, Hashing.sha1()).asBytes())
+                    .putString(AdtPlugin.getDefault().getBundle().getVersion().toString(),
+                            Charsets.UTF_8)
+                    .hash().toString();
+            cacheFile = new File(folder, key + DOT_BIN);
+        } catch (AndroidLocationException e) {
+            // no cache then.
+        } catch (IOException e) {
+            AdtPlugin.log(e, "Failed to read %1$s", jar); //$NON-NLS-1$
+        }
+
+        return open(cacheFile, jar);
+    }
+
+    /**
+     * Returns the cache stored in a given file.
+     * @param cacheFile the cache file, which may not exist, or null to not save the cache.
+     * @param jar the android.jar the lookups missing from the cache file are forwarded to, or
+     *            null if there is none.
+     */
+    @NonNull
+    static PlatformClassCache open(@Nullable File cacheFile, @Nullable File jar) {
+        PlatformClassCache cache = new PlatformClassCache(cacheFile, jar);
+        if (cacheFile != null && cacheFile.isFile()) {
+            try {
+                cache.read(cacheFile);
+                cache.mLoaded = true;
+            } catch (IOException e) {
+                // an old or broken file, which is replaced when recording.
+                cache.clear();
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns true if the data of the platform was read from the cache file.
+     */
+    boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Starts recording the lookups made to the jar class loader of the platform.
+     * @param source the class loader of the android.jar of the platform.
+     */
+    void record(@NonNull IAndroidClassLoader source) {
+        clear();
+        close();
+        mLoaded = false;
+        mSource = source;
+    }
+
+    /**
+     * Saves the recorded lookups in the cache file, unless one of them failed, and closes the
+     * jar if it was opened by a lookup missing from the cache file.
+     */
+    void save() {
+        boolean recorded = mSource != null;
+        close();
+        if (!recorded || mFailed || mCacheFile == null) {
+            return;
+        }
+
+        // write then rename so that concurrent loads never see a partial file.
+        File tmp = new File(mCacheFile.getPath() + DOT_TMP + Thread.currentThread().getId());
+        try {
+            Files.createParentDirs(tmp);
+            write(tmp);
+            if (!tmp.renameTo(mCacheFile)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            AdtPlugin.log(e, "Failed to write %1$s", mCacheFile); //$NON-NLS-1$
+            tmp.delete();
+        }
+    }
+
+    /** Returns the permissions of the platform */
+    @NonNull
+    String[] getPermissions() {
+        return mPermissions;
+    }
+
+    /** Sets the permissions of the platform, while recording */
+    void setPermissions(@NonNull String[] permissions) {
+        mPermissions = permissions;
+    }
+
+    @Override
+    public String getSource() {
+        if (mSource != null) {
+            return mSource.getSource();
+        }
+        return mJar != null ? mJar.getPath() : String.valueOf(mCacheFile);
+    }
+
+    @Override
+    public HashMap<String, ArrayList<IClassDescriptor>> findClassesDerivingFrom(
+            String rootPackage, String[] superClasses)
+            throws IOException, InvalidAttributeValueException, ClassFormatError {
+        StringBuilder sb = new StringBuilder(rootPackage);
+        for (String superClass : superClasses) {
+            sb.append(' ').append(superClass);
+        }
+        String query = sb.toString();
+
+        if (!mQueries.containsKey(query) && openSource() != null) {
+            HashMap<String, ArrayList<IClassDescriptor>> found = null;
+            try {
+                found = mSource.findClassesDerivingFrom(rootPackage, superClasses);
+            } finally {
+                mFailed |= found == null;
+            }
+
+            Map<String, List<CachedClass>> result = new HashMap<String, List<CachedClass>>();
+            for (Entry<String, ArrayList<IClassDescriptor>> entry : found.entrySet()) {
+                List<CachedClass> classes = new ArrayList<CachedClass>(entry.getValue().size());
+                for (IClassDescriptor descriptor : entry.getValue()) {
+                    classes.add(record(descriptor));
+                }
+                result.put(entry.getKey(), classes);
+            }
+            mQueries.put(query, result);
+        }
+
+        Map<String, List<CachedClass>> result = mQueries.get(query);
+        if (result == null) {
+            throw new IOException(String.format("%1$s is not in %2$s", query, mCacheFile));
+        }
+
+        HashMap<String, ArrayList<IClassDescriptor>> found =
+                new HashMap<String, ArrayList<IClassDescriptor>>();
+        for (Entry<String, List<CachedClass>> entry : result.entrySet()) {
+            found.put(entry.getKey(), new ArrayList<IClassDescriptor>(entry.getValue()));
+        }
+        return found;
+    }
+
+    @Override
+    public IClassDescriptor getClass(String className) throws ClassNotFoundException {
+        if (!mLookups.containsKey(className) && !mMissing.contains(className)
+                && openSource() != null) {
+            boolean done = false;
+            try {
+                mLookups.put(className, record(mSource.getClass(className)));
+                done = true;
+            } catch (ClassNotFoundException e) {
+                mMissing.add(className);
+                done = true;
+            } finally {
+                mFailed |= !done;
+            }
+        }
+
+        if (mMissing.contains(className)) {
+            throw new ClassNotFoundException(className);
+        }
+        return mLookups.get(className);
+    }
+
+    /**
+     * Returns the class loader of the jar, opening the jar if the cache was read from the
+     * cache file, or null if there is no jar.
+     */
+    @Nullable
+    private IAndroidClassLoader openSource() {
+        if (mSource == null && mJar != null) {
+            mSource = new AndroidJarLoader(mJar.getPath());
+            mOwnsSource = true;
+        }
+        return mSource;
+    }
+
+    /**
+     * Returns the descriptor of the jar a class is copied from, looking it up in the jar if
+     * the class was read from the cache file, or null if it can't be found.
+     */
+    @Nullable
+    private IClassDescriptor getSource(@NonNull CachedClass cached) {
+        if (cached.mSource == null && openSource() != null) {
+            try {
+                cached.mSource = mSource.getClass(cached.mFqcn);
+            } catch (ClassNotFoundException e) {
+                mFailed = true;
+            }
+        }
+        return cached.mSource;
+    }
+
+    /** Closes the jar if it was opened by this cache, and stops recording */
+    private void close() {
+        if (mOwnsSource) {
+            ((AndroidJarLoader) mSource).close();
+            mOwnsSource = false;
+        }
+        mSource = null;
+        for (CachedClass cached : mClasses.values()) {
+            cached.mSource = null;
+        }
+    }
+
+    /** Returns the copy of a class descriptor of the jar */
+    private CachedClass record(IClassDescriptor descriptor) {
+        if (descriptor == null) {
+            return null;
+        }
+
+        String fqcn = descriptor.getFullClassName();
+        CachedClass cached = mClasses.get(fqcn);
+        if (cached == null) {
+            cached = new CachedClass(fqcn, descriptor.getSimpleName(),
+                    descriptor.isInstantiable());
+            cached.mSource = descriptor;
+            mClasses.put(fqcn, cached);
+        }
+        return cached;
+    }
+
+    private void clear() {
+        mPermissions = new String[0];
+        mClasses.clear();
+        mLookups.clear();
+        mMissing.clear();
+        mQueries.clear();
+    }
+
+    private void read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown cache format"); //$NON-NLS-1$
+            }
+
+            mPermissions = new String[in.readInt()];
+            for (int i = 0; i < mPermissions.length; i++) {
+                mPermissions[i] = in.readUTF();
+            }
+
+            CachedClass[] classes = new CachedClass[in.readInt()];
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = new CachedClass(in.readUTF(), in.readUTF(), in.readBoolean());
+                mClasses.put(classes[i].mFqcn, classes[i]);
+            }
+            for (CachedClass cached : classes) {
+                int superClass = in.readInt();
+                cached.mHasSuperClass = superClass != NOT_RECORDED;
+                cached.mSuperClass = readClass(classes, superClass);
+                int enclosingClass = in.readInt();
+                cached.mHasEnclosingClass = enclosingClass != NOT_RECORDED;
+                cached.mEnclosingClass = readClass(classes, enclosingClass);
+                int count = in.readInt();
+                if (count != NOT_RECORDED) {
+                    cached.mDeclaredClasses = new CachedClass[count];
+                    for (int i = 0; i < count; i++) {
+                        cached.mDeclaredClasses[i] = readClass(classes, in.readInt());
+                    }
+                }
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                String name = in.readUTF();
+                int index = in.readInt();
+                if (index == NOT_RECORDED) {
+                    mMissing.add(name);
+                } else {
+                    mLookups.put(name, readClass(classes, index));
+                }
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                String query = in.readUTF();
+                Map<String, List<CachedClass>> result = new HashMap<String, List<CachedClass>>();
+                for (int j = in.readInt(); j > 0; j--) {
+                    String superClass = in.readUTF();
+                    int count = in.readInt();
+                    List<CachedClass> list = new ArrayList<CachedClass>(count);
+                    for (int k = 0; k < count; k++) {
+                        list.add(readClass(classes, in.readInt()));
+                    }
+                    result.put(superClass, list);
+                }
+                mQueries.put(query, result);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException(e);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    private static CachedClass readClass(CachedClass[] classes, int index) {
+        return index >= 0 ? classes[index] : null;
+    }
+
+    private void write(File file) throws IOException {
+        // the index of each class in the file.
+        Map<CachedClass, Integer> indices = new HashMap<CachedClass, Integer>();
+        for (CachedClass cached : mClasses.values()) {
+            indices.put(cached, indices.size());
+        }
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(mPermissions.length);
+            for (String permission : mPermissions) {
+                out.writeUTF(permission);
+            }
+
+            out.writeInt(mClasses.size());
+            for (CachedClass cached : mClasses.values()) {
+                out.writeUTF(cached.mFqcn);
+                out.writeUTF(cached.mSimpleName);
+                out.writeBoolean(cached.mIsInstantiable);
+            }
+            for (CachedClass cached : mClasses.values()) {
+                out.writeInt(cached.mHasSuperClass
+                        ? getIndex(indices, cached.mSuperClass) : NOT_RECORDED);
+                out.writeInt(cached.mHasEnclosingClass
+                        ? getIndex(indices, cached.mEnclosingClass) : NOT_RECORDED);
+                if (cached.mDeclaredClasses != null) {
+                    out.writeInt(cached.mDeclaredClasses.length);
+                    for (CachedClass declaredClass : cached.mDeclaredClasses) {
+                        out.writeInt(getIndex(indices, declaredClass));
+                    }
+                } else {
+                    out.writeInt(NOT_RECORDED);
+                }
+            }
+
+            out.writeInt(mLookups.size() + mMissing.size());
+            for (Entry<String, CachedClass> entry : mLookups.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(getIndex(indices, entry.getValue()));
+            }
+            for (String name : mMissing) {
+                out.writeUTF(name);
+                out.writeInt(NOT_RECORDED);
+            }
+
+            out.writeInt(mQueries.size());
+            for (Entry<String, Map<String, List<CachedClass>>> query : mQueries.entrySet()) {
+                out.writeUTF(query.getKey());
+                out.writeInt(query.getValue().size());
+                for (Entry<String, List<CachedClass>> entry : query.getValue().entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (CachedClass cached : entry.getValue()) {
+                        out.writeInt(getIndex(indices, cached));
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int getIndex(Map<CachedClass, Integer> indices, CachedClass cached) {
+        return cached != null ? indices.get(cached).intValue() : NO_CLASS;
+    }
+}
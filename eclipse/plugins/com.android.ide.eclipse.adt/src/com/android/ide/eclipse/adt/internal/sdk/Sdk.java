@@ -753,7 +753,9 @@ public final class Sdk  {
                 }
             };
             job.setPriority(Job.BUILD); // build jobs are run after other interactive jobs
-            job.setRule(ResourcesPlugin.getWorkspace().getRoot());
+            // no scheduling rule: the parsing doesn't touch the workspace, so several targets
+            // load in parallel. Builds of projects waiting for the target abort and are
+            // restarted by updateProjects above.
             job.schedule();
         }
 
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.ui;
+
+import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.ide.eclipse.adt.internal.build.BuildTrace;
+import com.android.ide.eclipse.adt.internal.build.BuildTrace.ITraceListener;
+import com.android.ide.eclipse.adt.internal.build.BuildTrace.Span;
+import com.google.common.base.Charsets;
+
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IToolBarManager;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.ui.ISharedImages;
+import org.eclipse.ui.PlatformUI;
+import org.eclipse.ui.part.ViewPart;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Build Timings View.
+ * <p/>
+ * Shows the phases of the most recent builds recorded by {@link BuildTrace}, most recent
+ * first, and lets the user export them in the Chrome trace event format.
+ */
+public class BuildTimingsView extends ViewPart implements ITraceListener {
+
+    private static final String[] COLUMNS = new String[] {
+        "Project", "Phase", "Wall (ms)", "CPU (ms)", "In (KB)", "Out (KB)", "Cache Hits/Misses"
+    };
+    private static final int[] WIDTHS = new int[] { 150, 200, 80, 80, 80, 80, 120 };
+
+    private TableViewer mViewer;
+
+    /** Whether a refresh of the table is already scheduled on the UI thread. */
+    private boolean mRefreshScheduled;
+
+    @Override
+    public void createPartControl(Composite parent) {
+        Table table = new Table(parent, SWT.MULTI | SWT.FULL_SELECTION);
+        table.setHeaderVisible(true);
+        table.setLinesVisible(true);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            TableColumn column = new TableColumn(table, i < 2 ? SWT.LEFT : SWT.RIGHT);
+            column.setText(COLUMNS[i]);
+            column.setWidth(WIDTHS[i]);
+        }
+
+        mViewer = new TableViewer(table);
+        mViewer.setContentProvider(new ArrayContentProvider());
+        mViewer.setLabelProvider(new SpanLabelProvider());
+
+        createActions();
+
+        BuildTrace.addListener(this);
+        refresh();
+    }
+
+    @Override
+    public void dispose() {
+        BuildTrace.removeListener(this);
+        super.dispose();
+    }
+
+    @Override
+    public void setFocus() {
+        mViewer.getControl().setFocus();
+    }
+
+    @Override
+    public void traceChanged() {
+        // spans are ended on the build threads, and there are many in a build: only schedule
+        // one refresh at a time.
+        synchronized (this) {
+            if (mRefreshScheduled) {
+                return;
+            }
+            mRefreshScheduled = true;
+        }
+
+        Display display = AdtPlugin.getDisplay();
+        if (display == null || display.isDisposed()) {
+            synchronized (this) {
+                mRefreshScheduled = false;
+            }
+            return;
+        }
+        display.asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (BuildTimingsView.this) {
+                    mRefreshScheduled = false;
+                }
+                refresh();
+            }
+        });
+    }
+
+    private void refresh() {
+        if (mViewer == null || mViewer.getControl().isDisposed()) {
+            return;
+        }
+        List<Span> spans = BuildTrace.getSpans();
+        Collections.reverse(spans);
+        mViewer.setInput(spans);
+    }
+
+    private void createActions() {
+        ISharedImages sharedImages = PlatformUI.getWorkbench().getSharedImages();
+
+        Action exportAction = new Action("Export Chrome Trace...") {
+            @Override
+            public void run() {
+                exportTrace();
+            }
+        };
+        exportAction.setImageDescriptor(
+                sharedImages.getImageDescriptor(ISharedImages.IMG_ETOOL_SAVE_EDIT));
+
+        Action clearAction = new Action("Clear") {
+            @Override
+            public void run() {
+                BuildTrace.clear();
+            }
+        };
+        clearAction.setImageDescriptor(
+                sharedImages.getImageDescriptor(ISharedImages.IMG_ELCL_REMOVEALL));
+
+        IToolBarManager toolBar = getViewSite().getActionBars().getToolBarManager();
+        toolBar.add(exportAction);
+        toolBar.add(clearAction);
+    }
+
+    private void exportTrace() {
+        FileDialog dialog = new FileDialog(getSite().getShell(), SWT.SAVE);
+        dialog.setFilterExtensions(new String[] { "*.json" }); //$NON-NLS-1$
+        dialog.setFileName("build-trace.json"); //$NON-NLS-1$
+        dialog.setOverwrite(true);
+        String path = dialog.open();
+        if (path == null) {
+            return;
+        }
+
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(path)), Charsets.UTF_8));
+            BuildTrace.writeChromeTrace(BuildTrace.getSpans(), writer);
+        } catch (IOException e) {
+            AdtPlugin.log(e, "Failed to write %1$s", path);
+            MessageDialog.openError(getSite().getShell(), "Export Chrome Trace",
+                    String.format("Failed to write %1$s: %2$s", path, e.getMessage()));
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // pass
+                }
+            }
+        }
+    }
+
+    private static class SpanLabelProvider extends LabelProvider implements ITableLabelProvider {
+        @Override
+        public Image getColumnImage(Object element, int columnIndex) {
+            return null;
+        }
+
+        @Override
+        public String getColumnText(Object element, int columnIndex) {
+            Span span = (Span) element;
+            switch (columnIndex) {
+                case 0:
+                    return span.getProject() != null ? span.getProject() : ""; //$NON-NLS-1$
+                case 1:
+                    return span.getName();
+                case 2:
+                    return Long.toString(span.getDurationNanos() / 1000000);
+                case 3:
+                    long cpu = span.getCpuNanos();
+                    return cpu != -1 ? Long.toString(cpu / 1000000) : ""; //$NON-NLS-1$
+                case 4:
+                    return Long.toString(span.getBytesIn() / 1024);
+                case 5:
+                    return Long.toString(span.getBytesOut() / 1024);
+                case 6:
+                    if (span.getCacheHits() == 0 && span.getCacheMisses() == 0) {
+                        return ""; //$NON-NLS-1$
+                    }
+                    return String.format(Locale.US, "%1$d/%2$d", //$NON-NLS-1$
+                            span.getCacheHits(), span.getCacheMisses());
+                default:
+                    return ""; //$NON-NLS-1$
+            }
+        }
+    }
+}
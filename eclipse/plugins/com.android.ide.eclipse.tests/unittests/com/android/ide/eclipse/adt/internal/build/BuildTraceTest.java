@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.build;
+
+import com.android.ide.eclipse.adt.internal.build.BuildTrace.Span;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class BuildTraceTest extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        BuildTrace.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        BuildTrace.clear();
+        super.tearDown();
+    }
+
+    public void testSpans() throws Exception {
+        Span span = BuildTrace.begin("app", "aapt package");
+        assertEquals(-1, span.getDurationNanos());
+        span.addBytesIn(10).addBytesOut(20).addCacheResult(true).addCacheResult(false);
+        span.end();
+        span.end();
+
+        List<Span> spans = BuildTrace.getSpans();
+        assertEquals(1, spans.size());
+        assertSame(span, spans.get(0));
+        assertTrue(span.getDurationNanos() >= 0);
+        assertEquals(10, span.getBytesIn());
+        assertEquals(20, span.getBytesOut());
+        assertEquals(1, span.getCacheHits());
+        assertEquals(1, span.getCacheMisses());
+    }
+
+    public void testRingBuffer() throws Exception {
+        for (int i = 0; i < BuildTrace.CAPACITY + 10; i++) {
+            BuildTrace.begin("app", Integer.toString(i)).end();
+        }
+
+        List<Span> spans = BuildTrace.getSpans();
+        assertEquals(BuildTrace.CAPACITY, spans.size());
+        assertEquals("10", spans.get(0).getName());
+        assertEquals(Integer.toString(BuildTrace.CAPACITY + 9),
+                spans.get(spans.size() - 1).getName());
+    }
+
+    public void testPending() throws Exception {
+        BuildTrace.endPending("app", BuildTrace.SPAN_JAVAC);
+        assertEquals(0, BuildTrace.getSpans().size());
+
+        BuildTrace.beginPending("app", BuildTrace.SPAN_JAVAC);
+        BuildTrace.endPending("lib", BuildTrace.SPAN_JAVAC);
+        assertEquals(0, BuildTrace.getSpans().size());
+
+        BuildTrace.endPending("app", BuildTrace.SPAN_JAVAC);
+        assertEquals(1, BuildTrace.getSpans().size());
+        assertEquals(BuildTrace.SPAN_JAVAC, BuildTrace.getSpans().get(0).getName());
+    }
+
+    public void testChromeTrace() throws Exception {
+        BuildTrace.begin("my \"app\"", "Pre-Dex lib.jar").addCacheResult(true).end();
+
+        StringBuilder sb = new StringBuilder();
+        BuildTrace.writeChromeTrace(BuildTrace.getSpans(), sb);
+        String trace = sb.toString();
+
+        assertTrue(trace, trace.startsWith("{\"traceEvents\":["));
+        assertTrue(trace, trace.contains("\"name\":\"Pre-Dex lib.jar\""));
+        assertTrue(trace, trace.contains("\"ph\":\"X\""));
+        assertTrue(trace, trace.contains("\"ts\":0,"));
+        assertTrue(trace, trace.contains("\"project\":\"my \\\"app\\\"\""));
+        assertTrue(trace, trace.contains("\"cacheHits\":1"));
+        assertTrue(trace, trace.trim().endsWith("]}"));
+    }
+}
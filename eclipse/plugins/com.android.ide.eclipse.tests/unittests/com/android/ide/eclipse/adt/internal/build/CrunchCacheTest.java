@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.build;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CrunchCacheTest extends TestCase {
+
+    private File mRoot;
+    private File mRes;
+    private File mOut;
+    private File mCacheFolder;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRoot = Files.createTempDir();
+        mRes = new File(mRoot, "res");
+        mOut = new File(mRoot, "out");
+        mCacheFolder = new File(mRoot, "cache");
+
+        write(new File(mRes, "drawable/icon.png"), "icon");
+        write(new File(mRes, "drawable-hdpi/button.9.png"), "button");
+        write(new File(mRes, "layout/main.xml"), "<LinearLayout/>");
+        write(new File(mRes, "raw/logo.png"), "logo");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll(mRoot);
+        super.tearDown();
+    }
+
+    public void testRestore() throws Exception {
+        CrunchCache cache = new CrunchCache(mCacheFolder, "aapt-1");
+
+        List<File> misses = cache.restore(mRes, mOut, null);
+        assertEquals(2, misses.size());
+
+        // "crunch" the files and store them in the cache.
+        for (File miss : misses) {
+            File crunched = new File(mRoot, "crunched-" + miss.getName());
+            write(crunched, "crunched " + Files.toString(miss, Charsets.UTF_8));
+            cache.store(miss, crunched);
+        }
+
+        // simulate a clean: the output is restored from the cache without crunching.
+        misses = cache.restore(mRes, mOut, null);
+        assertTrue(misses.isEmpty());
+        assertEquals("crunched icon",
+                Files.toString(new File(mOut, "drawable/icon.png"), Charsets.UTF_8));
+        assertEquals("crunched button",
+                Files.toString(new File(mOut, "drawable-hdpi/button.9.png"), Charsets.UTF_8));
+        assertFalse(new File(mOut, "layout/main.xml").exists());
+        // aapt doesn't crunch the png files of the raw folders.
+        assertFalse(new File(mOut, "raw/logo.png").exists());
+
+        // a modified file is a miss.
+        File icon = new File(mRes, "drawable/icon.png");
+        write(icon, "new icon");
+        icon.setLastModified(System.currentTimeMillis() + 10000);
+        assertEquals(Arrays.asList(icon), cache.restore(mRes, mOut, null));
+
+        // another version of aapt doesn't use the same entries.
+        deleteAll(mOut);
+        assertEquals(2, new CrunchCache(mCacheFolder, "aapt-2").restore(mRes, mOut, null).size());
+    }
+
+    public void testCleanup() throws Exception {
+        File icon = new File(mRes, "drawable/icon.png");
+        File button = new File(mRes, "drawable-hdpi/button.9.png");
+        File crunchedIcon = new File(mRoot, "crunched-icon");
+        File crunchedButton = new File(mRoot, "crunched-button");
+        write(crunchedIcon, "crunched icon");
+        write(crunchedButton, "crunched button");
+
+        // room for one of the files only.
+        CrunchCache cache = new CrunchCache(mCacheFolder, "aapt-1", crunchedButton.length());
+        cache.store(icon, crunchedIcon);
+        cache.store(button, crunchedButton);
+        assertEquals(2, count(mCacheFolder));
+
+        // restoring the icon makes it the most recently used file.
+        assertTrue(cache.restore(mRes, mOut, null).isEmpty());
+        setLastModified(mCacheFolder, System.currentTimeMillis() - 20000);
+        new File(mOut, "drawable/icon.png").delete();
+        assertTrue(cache.restore(mRes, mOut, null).isEmpty());
+
+        cache.cleanup();
+        assertEquals(1, count(mCacheFolder));
+        deleteAll(mOut);
+        assertEquals(Arrays.asList(button), cache.restore(mRes, mOut, null));
+        assertEquals("crunched icon",
+                Files.toString(new File(mOut, "drawable/icon.png"), Charsets.UTF_8));
+    }
+
+    public void testSplit() throws Exception {
+        List<File> files = Arrays.asList(new File("a"), new File("b"), new File("c"));
+        List<List<File>> batches = CrunchCache.split(files, 2);
+        assertEquals(2, batches.size());
+        assertEquals(Arrays.asList(new File("a"), new File("c")), batches.get(0));
+        assertEquals(Arrays.asList(new File("b")), batches.get(1));
+
+        assertEquals(3, CrunchCache.split(files, 10).size());
+        assertEquals(1, CrunchCache.split(files, 0).size());
+    }
+
+    public void testIsCrunchableFolder() throws Exception {
+        assertTrue(CrunchCache.isCrunchableFolder("drawable"));
+        assertTrue(CrunchCache.isCrunchableFolder("drawable-xhdpi"));
+        assertTrue(CrunchCache.isCrunchableFolder("mipmap-hdpi"));
+        assertFalse(CrunchCache.isCrunchableFolder("raw"));
+        assertFalse(CrunchCache.isCrunchableFolder("values"));
+    }
+
+    public void testToSourcePaths() throws Exception {
+        File copy = new File(mRoot, "batch/res/drawable/icon.png");
+        File source = new File(mRes, "drawable/icon.png");
+        String[] output = CrunchCache.toSourcePaths(new String[] {
+                "ERROR: Failure processing PNG image " + copy.getPath(),
+                null
+        }, Collections.singletonMap(copy, source));
+        assertEquals("ERROR: Failure processing PNG image " + source.getPath(), output[0]);
+        assertNull(output[1]);
+        assertNull(CrunchCache.toSourcePaths(null, Collections.singletonMap(copy, source)));
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Files.createParentDirs(file);
+        Files.write(content, file, Charsets.UTF_8);
+    }
+
+    private static int count(File cacheFolder) {
+        int count = 0;
+        for (File folder : cacheFolder.listFiles()) {
+            count += folder.listFiles().length;
+        }
+        return count;
+    }
+
+    private static void setLastModified(File cacheFolder, long time) {
+        for (File folder : cacheFolder.listFiles()) {
+            for (File file : folder.listFiles()) {
+                file.setLastModified(time);
+            }
+        }
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
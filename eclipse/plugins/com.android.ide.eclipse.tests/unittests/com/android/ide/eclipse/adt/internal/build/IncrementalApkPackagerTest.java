@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.build;
+
+import com.android.sdklib.build.ApkBuilder;
+import com.android.sdklib.internal.build.DebugKeyProvider;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.security.CodeSigner;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+public class IncrementalApkPackagerTest extends TestCase {
+
+    private File mSource;
+    private File mDest;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSource = File.createTempFile("source", ".apk");
+        mDest = File.createTempFile("dest", ".apk");
+
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(mSource));
+        try {
+            zos.putNextEntry(new ZipEntry("res/layout/main.xml"));
+            zos.write("<LinearLayout/><LinearLayout/><LinearLayout/>".getBytes("UTF-8"));
+            zos.closeEntry();
+
+            byte[] stored = "resources".getBytes("UTF-8");
+            ZipEntry storedEntry = new ZipEntry("resources.arsc");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(stored.length);
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            storedEntry.setCrc(crc.getValue());
+            zos.putNextEntry(storedEntry);
+            zos.write(stored);
+            zos.closeEntry();
+
+            zos.putNextEntry(new ZipEntry("classes.dex"));
+            zos.write("old dex".getBytes("UTF-8"));
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSource.delete();
+        mDest.delete();
+        super.tearDown();
+    }
+
+    public void testRewrite() throws Exception {
+        Map<String, byte[]> replacements = new HashMap<String, byte[]>();
+        replacements.put("classes.dex", "new dex, longer than the old one".getBytes("UTF-8"));
+        assertTrue(IncrementalApkPackager.rewrite(mSource, mDest, replacements));
+
+        Map<String, String> content = readWithZipFile(mDest);
+        assertEquals(3, content.size());
+        assertEquals("<LinearLayout/><LinearLayout/><LinearLayout/>",
+                content.get("res/layout/main.xml"));
+        assertEquals("resources", content.get("resources.arsc"));
+        assertEquals("new dex, longer than the old one", content.get("classes.dex"));
+
+        // the local headers must be valid as well, not just the central directory.
+        assertEquals(content, readWithZipInputStream(mDest));
+    }
+
+    public void testRewriteKeepsOrder() throws Exception {
+        Map<String, byte[]> replacements = Collections.emptyMap();
+        assertTrue(IncrementalApkPackager.rewrite(mSource, mDest, replacements));
+
+        ZipFile zip = new ZipFile(mDest);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            assertEquals("res/layout/main.xml", entries.nextElement().getName());
+            assertEquals("resources.arsc", entries.nextElement().getName());
+            assertEquals("classes.dex", entries.nextElement().getName());
+            assertFalse(entries.hasMoreElements());
+        } finally {
+            zip.close();
+        }
+    }
+
+    public void testMissingEntry() throws Exception {
+        Map<String, byte[]> replacements = new HashMap<String, byte[]>();
+        replacements.put("META-INF/MANIFEST.MF", new byte[0]);
+        assertFalse(IncrementalApkPackager.rewrite(mSource, mDest, replacements));
+    }
+
+    public void testUpdateDex() throws Exception {
+        File dir = Files.createTempDir();
+        try {
+            DebugKeyProvider provider = new DebugKeyProvider(
+                    new File(dir, "debug.keystore").getPath(), null, null);
+            PrivateKey key = provider.getDebugKey();
+            X509Certificate certificate = (X509Certificate) provider.getCertificate();
+
+            File previous = new File(dir, "previous.apk");
+            ApkBuilder builder = new ApkBuilder(previous, mSource, null, key, certificate, null);
+            builder.sealApk();
+            assertSigned(previous, certificate);
+
+            File dex = new File(dir, "classes.dex");
+            Files.write("new dex, longer than the old one".getBytes("UTF-8"), dex);
+            assertTrue(IncrementalApkPackager.updateDex(previous, dex, mDest, key, certificate,
+                    null));
+            assertSigned(mDest, certificate);
+
+            Map<String, String> content = readWithZipFile(mDest);
+            assertEquals("new dex, longer than the old one", content.get("classes.dex"));
+            assertEquals("resources", content.get("resources.arsc"));
+            assertEquals(content, readWithZipInputStream(mDest));
+
+            // an apk which isn't signed can't be updated with a signature.
+            assertFalse(IncrementalApkPackager.updateDex(mSource, dex,
+                    new File(dir, "unsigned.apk"), key, certificate, null));
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    public void testInputs() throws Exception {
+        assertFalse(IncrementalApkPackager.matchesInputs(mDest, "1234"));
+        IncrementalApkPackager.saveInputs(mDest, "1234");
+        assertTrue(IncrementalApkPackager.matchesInputs(mDest, "1234"));
+        assertFalse(IncrementalApkPackager.matchesInputs(mDest, "5678"));
+        IncrementalApkPackager.saveInputs(mDest, null);
+        assertFalse(IncrementalApkPackager.getInputsFile(mDest).exists());
+    }
+
+    /**
+     * Checks that every entry of the archive is signed by the given certificate, the way the
+     * package manager verifies it.
+     */
+    private static void assertSigned(File file, X509Certificate certificate) throws Exception {
+        JarFile jar = new JarFile(file, true);
+        try {
+            int signed = 0;
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                // the digests are only checked once an entry is read entirely.
+                InputStream is = jar.getInputStream(entry);
+                try {
+                    ByteStreams.toByteArray(is);
+                } finally {
+                    is.close();
+                }
+                if (entry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+                CodeSigner[] signers = entry.getCodeSigners();
+                assertNotNull(entry.getName(), signers);
+                assertEquals(1, signers.length);
+                assertEquals(certificate,
+                        signers[0].getSignerCertPath().getCertificates().get(0));
+                signed++;
+            }
+            assertEquals(3, signed);
+        } finally {
+            jar.close();
+        }
+    }
+
+    private static Map<String, String> readWithZipFile(File file) throws Exception {
+        Map<String, String> content = new HashMap<String, String>();
+        ZipFile zip = new ZipFile(file);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                InputStream is = zip.getInputStream(entry);
+                try {
+                    content.put(entry.getName(), new String(ByteStreams.toByteArray(is), "UTF-8"));
+                } finally {
+                    is.close();
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return content;
+    }
+
+    private static Map<String, String> readWithZipInputStream(File file) throws Exception {
+        Map<String, String> content = new HashMap<String, String>();
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(file));
+        try {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                content.put(entry.getName(), new String(ByteStreams.toByteArray(zis), "UTF-8"));
+            }
+        } finally {
+            zis.close();
+        }
+        return content;
+    }
+}
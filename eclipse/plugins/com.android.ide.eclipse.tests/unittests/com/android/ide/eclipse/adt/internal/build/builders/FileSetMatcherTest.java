@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.build.builders;
+
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+public class FileSetMatcherTest extends TestCase {
+
+    public void testMatchSegment() {
+        assertTrue(FileSetMatcher.matchSegment("*", ""));
+        assertTrue(FileSetMatcher.matchSegment("*", "foo"));
+        assertTrue(FileSetMatcher.matchSegment("*.class", "Foo.class"));
+        assertTrue(FileSetMatcher.matchSegment("*.class", "Foo$1.class"));
+        assertFalse(FileSetMatcher.matchSegment("*.class", "Foo.java"));
+        assertTrue(FileSetMatcher.matchSegment("?oo", "foo"));
+        assertFalse(FileSetMatcher.matchSegment("?oo", "oo"));
+        assertTrue(FileSetMatcher.matchSegment("a*b*c", "aXbYbZc"));
+        assertFalse(FileSetMatcher.matchSegment("a*b*c", "aXbYbZ"));
+        assertTrue(FileSetMatcher.matchSegment("lib", "lib"));
+        assertFalse(FileSetMatcher.matchSegment("lib", "Lib"));
+    }
+
+    public void testMatch() {
+        FileSetMatcher matcher = new FileSetMatcher();
+        matcher.add(0, "AndroidManifest.xml", false);
+        matcher.add(1, "res/**", false);
+        matcher.add(1, "assets/**", false);
+        matcher.add(1, "bin/resources.ap_", true);
+        matcher.add(2, "bin/classes/**/*.class", false);
+        matcher.add(2, "libs/*.jar", false);
+        matcher.add(3, "libs/*/*.so", false);
+
+        assertMatch(matcher, "AndroidManifest.xml", "{0}", "{}");
+        assertMatch(matcher, "res/layout/main.xml", "{1}", "{}");
+        assertMatch(matcher, "assets/a/b/c/d.txt", "{1}", "{}");
+        assertMatch(matcher, "bin/resources.ap_", "{}", "{1}");
+        assertMatch(matcher, "bin/classes/Foo.class", "{2}", "{}");
+        assertMatch(matcher, "bin/classes/com/example/Foo.class", "{2}", "{}");
+        assertMatch(matcher, "bin/classes/com/example/Foo.java", "{}", "{}");
+        assertMatch(matcher, "libs/foo.jar", "{2}", "{}");
+        assertMatch(matcher, "libs/armeabi/libfoo.so", "{3}", "{}");
+        assertMatch(matcher, "libs/armeabi/foo.jar", "{}", "{}");
+        assertMatch(matcher, "src/AndroidManifest.xml", "{}", "{}");
+    }
+
+    public void testCanMatchBelow() {
+        FileSetMatcher matcher = new FileSetMatcher();
+        matcher.add(0, "res/**", false);
+        matcher.add(1, "bin/classes/**/*.class", false);
+        matcher.add(1, "bin/classes.dex", true);
+
+        BitSet all = new BitSet();
+        all.set(0, 2);
+        BitSet second = new BitSet();
+        second.set(1);
+
+        assertTrue(matcher.canMatchBelow(new String[] { "res" }, all));
+        assertTrue(matcher.canMatchBelow(new String[] { "res", "drawable" }, all));
+        assertFalse(matcher.canMatchBelow(new String[] { "res" }, second));
+        assertTrue(matcher.canMatchBelow(new String[] { "bin" }, second));
+        assertTrue(matcher.canMatchBelow(new String[] { "bin", "classes", "a", "b" }, second));
+        assertFalse(matcher.canMatchBelow(new String[] { "bin", "res" }, second));
+        assertFalse(matcher.canMatchBelow(new String[] { "src" }, all));
+        assertFalse(matcher.canMatchBelow(new String[] { ".git", "objects" }, all));
+    }
+
+    private static void assertMatch(FileSetMatcher matcher, String path, String inputs,
+            String outputs) {
+        BitSet in = new BitSet();
+        BitSet out = new BitSet();
+        matcher.match(path.split("/"), in, out);
+        assertEquals(path + " inputs", inputs, in.toString());
+        assertEquals(path + " outputs", outputs, out.toString());
+    }
+}
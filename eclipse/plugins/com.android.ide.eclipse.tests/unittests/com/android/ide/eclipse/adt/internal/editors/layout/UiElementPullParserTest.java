@@ -22,15 +22,19 @@ import com.android.ide.common.resources.platform.AttributeInfo;
 import com.android.ide.eclipse.adt.internal.editors.descriptors.AttributeDescriptor;
 import com.android.ide.eclipse.adt.internal.editors.descriptors.ElementDescriptor;
 import com.android.ide.eclipse.adt.internal.editors.descriptors.TextAttributeDescriptor;
+import com.android.ide.eclipse.adt.internal.editors.layout.SnapshotPullParser.AttributeChange;
 import com.android.ide.eclipse.adt.internal.editors.mock.MockXmlNode;
 import com.android.ide.eclipse.adt.internal.editors.uimodel.UiElementNode;
 import com.android.resources.Density;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import org.w3c.dom.Node;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.util.HashMap;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -40,6 +44,7 @@ public class UiElementPullParserTest extends TestCase {
     private HashMap<String, String> button1Map;
     private HashMap<String, String> button2Map;
     private HashMap<String, String> textMap;
+    private MockXmlNode button1;
 
     private TextAttributeDescriptor createTextAttrDesc(String xmlName) {
         return new TextAttributeDescriptor(
@@ -106,7 +111,7 @@ public class UiElementPullParserTest extends TestCase {
          *      </RelativeLayout>
          * </LinearLayout>
          */
-        MockXmlNode button1 = new MockXmlNode(null /* namespace */, "Button", Node.ELEMENT_NODE,
+        button1 = new MockXmlNode(null /* namespace */, "Button", Node.ELEMENT_NODE,
                 null);
         button1.addAttributes(SdkConstants.NS_RESOURCES, "name", "button1");
         button1.addAttributes(SdkConstants.NS_RESOURCES, "text", "button1text");
@@ -234,6 +239,74 @@ public class UiElementPullParserTest extends TestCase {
         }
     }
 
+    public void testSnapshot() throws Exception {
+        UiElementPullParser parser = new UiElementPullParser(ui, false, null, Density.MEDIUM,
+                null);
+        SnapshotPullParser snapshot = new SnapshotPullParser(new UiElementPullParser(ui,
+                false, null, Density.MEDIUM, null));
+
+        // the snapshot replays the events of the parser
+        assertEquals(XmlPullParser.START_DOCUMENT, snapshot.getEventType());
+        int event;
+        do {
+            event = parser.next();
+            assertEquals(event, snapshot.next());
+            assertSame(parser.getViewCookie(), snapshot.getViewCookie());
+            assertEquals(parser.getName(), snapshot.getName());
+            assertEquals(parser.getDepth(), snapshot.getDepth());
+            if (event == XmlPullParser.START_TAG) {
+                assertEquals(parser.isEmptyElementTag(), snapshot.isEmptyElementTag());
+                assertEquals(parser.getAttributeCount(), snapshot.getAttributeCount());
+                for (int i = 0; i < parser.getAttributeCount(); i++) {
+                    assertEquals(parser.getAttributeName(i), snapshot.getAttributeName(i));
+                    assertEquals(parser.getAttributeValue(i), snapshot.getAttributeValue(i));
+                }
+                assertEquals(parser.getAttributeValue(SdkConstants.NS_RESOURCES, "text"),
+                        snapshot.getAttributeValue(SdkConstants.NS_RESOURCES, "text"));
+                assertEquals(parser.getAttributeValue(SdkConstants.NS_RESOURCES, "name"),
+                        snapshot.getAttributeValue(SdkConstants.NS_RESOURCES, "name"));
+            }
+        } while (event != XmlPullParser.END_DOCUMENT);
+    }
+
+    public void testSnapshotAttributeChanges() throws Exception {
+        SnapshotPullParser before = new SnapshotPullParser(new UiElementPullParser(ui,
+                false, null, Density.MEDIUM, null));
+        SnapshotPullParser same = new SnapshotPullParser(new UiElementPullParser(ui,
+                false, null, Density.MEDIUM, null));
+        assertEquals(0, same.getAttributeChanges(before).size());
+
+        button1.addAttributes(SdkConstants.NS_RESOURCES, "text", "changed");
+        SnapshotPullParser after = new SnapshotPullParser(new UiElementPullParser(ui,
+                false, null, Density.MEDIUM, null));
+        List<AttributeChange> changes = after.getAttributeChanges(before);
+        assertEquals(1, changes.size());
+        AttributeChange change = changes.get(0);
+        assertSame(ui.getUiChildren().get(0).getUiChildren().get(0), change.getNode());
+        assertEquals(SdkConstants.NS_RESOURCES, change.getNamespace());
+        assertEquals("text", change.getName());
+        assertEquals("changed", change.getValue());
+    }
+
+    public void testSnapshotContent() throws Exception {
+        SnapshotPullParser before = new SnapshotPullParser(new UiElementPullParser(ui,
+                false, null, Density.MEDIUM, null));
+        SnapshotPullParser same = new SnapshotPullParser(new UiElementPullParser(ui,
+                false, null, Density.MEDIUM, null));
+        assertEquals(hash(before), hash(same));
+
+        button1.addAttributes(SdkConstants.NS_RESOURCES, "text", "changed");
+        SnapshotPullParser after = new SnapshotPullParser(new UiElementPullParser(ui,
+                false, null, Density.MEDIUM, null));
+        assertFalse(hash(before).equals(hash(after)));
+    }
+
+    private static String hash(SnapshotPullParser snapshot) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        snapshot.putContent(hasher);
+        return hasher.hash().toString();
+    }
+
     /**
      * Receives a {@link XmlPullParser} at the START_TAG level, and checks the i-th attribute
      * to be present in the {@link HashMap} with the proper (name, value)
@@ -23,6 +23,7 @@ import org.eclipse.swt.graphics.Rectangle;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.util.Arrays;
 import java.util.Collections;
@@ -357,6 +358,55 @@ public class ImageUtilsTest extends TestCase {
 
     }
 
+    public void testScaleImageAveraging() throws Exception {
+        BufferedImage image = new BufferedImage(600, 1000, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setColor(Color.BLACK);
+        for (int y = 20; y < image.getHeight(); y += 20) {
+            g.drawString("The quick brown fox jumps over the lazy dog", 10, y);
+        }
+        g.setColor(new Color(0xFF0000FF, true));
+        g.fillRect(100, 100, 300, 300);
+        g.dispose();
+
+        // compare with the area averaging of AWT, which is exact but slow
+        BufferedImage scaled = ImageUtils.scale(image, 0.15, 0.15);
+        assertEquals(90, scaled.getWidth());
+        assertEquals(150, scaled.getHeight());
+        BufferedImage expected = new BufferedImage(90, 150, BufferedImage.TYPE_INT_ARGB);
+        g = expected.createGraphics();
+        g.drawImage(image.getScaledInstance(90, 150, Image.SCALE_AREA_AVERAGING), 0, 0, null);
+        g.dispose();
+        for (int y = 0; y < 150; y++) {
+            for (int x = 0; x < 90; x++) {
+                int actual = scaled.getRGB(x, y);
+                int reference = expected.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int delta = ((actual >>> shift) & 0xFF) - ((reference >>> shift) & 0xFF);
+                    assertTrue(x + "," + y, Math.abs(delta) <= 2);
+                }
+            }
+        }
+    }
+
+    public void testScaleImageTransparency() throws Exception {
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
+        Graphics g = image.getGraphics();
+        g.setColor(new Color(0xFFFF0000, true));
+        g.fillRect(0, 0, 50, 100);
+        g.dispose();
+
+        // the transparent pixels don't darken the opaque pixels they are averaged with
+        BufferedImage scaled = ImageUtils.scale(image, 0.02, 0.02, 1, 0);
+        assertEquals(3, scaled.getWidth());
+        assertEquals(2, scaled.getHeight());
+        assertEquals(0xFFFF0000, scaled.getRGB(0, 0));
+        assertEquals(0x00000000, scaled.getRGB(1, 1));
+        assertEquals(0x00000000, scaled.getRGB(2, 1));
+    }
+
     public void testCreateColoredImage() throws Exception {
         BufferedImage image = ImageUtils.createColoredImage(120, 110, new RGB(0xFE, 0xFD, 0xFC));
         assertEquals(120, image.getWidth());
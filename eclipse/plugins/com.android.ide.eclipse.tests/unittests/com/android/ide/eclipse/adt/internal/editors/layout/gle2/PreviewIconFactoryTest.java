@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class PreviewIconFactoryTest extends TestCase {
+    private static final List<String> BATCH = Arrays.asList(
+            "Button.png", "CheckBox.png", "ProgressBar.png", "Spinner.png");
+
+    private File mImageDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mImageDir = Files.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mImageDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mImageDir.delete();
+        super.tearDown();
+    }
+
+    public void testMissingIcons() throws Exception {
+        assertEquals(BATCH, PreviewIconFactory.getMissingIcons(mImageDir, BATCH));
+
+        // a rendered icon and an icon which can't be rendered are both skipped
+        Files.write(new byte[] { 1, 2, 3 }, new File(mImageDir, "CheckBox.png"));
+        Files.write("", new File(mImageDir, "Spinner.png"), Charsets.UTF_8);
+        assertEquals(Arrays.asList("Button.png", "ProgressBar.png"),
+                PreviewIconFactory.getMissingIcons(mImageDir, BATCH));
+
+        Files.write("", new File(mImageDir, "Button.png"), Charsets.UTF_8);
+        Files.write("", new File(mImageDir, "ProgressBar.png"), Charsets.UTF_8);
+        assertTrue(PreviewIconFactory.getMissingIcons(mImageDir, BATCH).isEmpty());
+    }
+
+    public void testUnrenderableIcons() throws Exception {
+        Map<String, Rectangle> bounds = new HashMap<String, Rectangle>();
+        bounds.put("Button.png", new Rectangle(0, 0, 80, 40));
+        bounds.put("CheckBox.png", new Rectangle(0, 40, 80, 0));
+        bounds.put("ProgressBar.png", new Rectangle(0, 40, 0, 20));
+        // Spinner is missing from the rendering, which may succeed next time
+
+        assertEquals(Arrays.asList("CheckBox.png", "ProgressBar.png"),
+                PreviewIconFactory.getUnrenderableIcons(BATCH, bounds));
+    }
+
+    public void testFailedRendering() throws Exception {
+        // an exception, a null session or a failed result such as a timeout: retry later
+        assertTrue(PreviewIconFactory.getUnrenderableIcons(BATCH, null).isEmpty());
+
+        // a successful rendering without an image or views
+        Map<String, Rectangle> bounds = Collections.emptyMap();
+        assertTrue(PreviewIconFactory.getUnrenderableIcons(BATCH, bounds).isEmpty());
+    }
+}
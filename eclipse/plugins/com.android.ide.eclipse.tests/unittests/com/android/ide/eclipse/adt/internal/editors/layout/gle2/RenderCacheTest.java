@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import static com.android.SdkConstants.DOT_CLASS;
+
+import com.android.SdkConstants;
+import com.android.ide.common.rendering.StaticRenderSession;
+import com.android.ide.common.rendering.api.RenderSession;
+import com.android.ide.common.rendering.api.Result;
+import com.android.ide.common.rendering.api.ViewInfo;
+import com.android.ide.eclipse.adt.internal.editors.descriptors.AttributeDescriptor;
+import com.android.ide.eclipse.adt.internal.editors.descriptors.DocumentDescriptor;
+import com.android.ide.eclipse.adt.internal.editors.descriptors.ElementDescriptor;
+import com.android.ide.eclipse.adt.internal.editors.layout.SnapshotPullParser;
+import com.android.ide.eclipse.adt.internal.editors.layout.UiElementPullParser;
+import com.android.ide.eclipse.adt.internal.editors.mock.MockXmlNode;
+import com.android.ide.eclipse.adt.internal.editors.uimodel.UiDocumentNode;
+import com.android.ide.eclipse.adt.internal.editors.uimodel.UiElementNode;
+import com.android.resources.Density;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import org.w3c.dom.Node;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class RenderCacheTest extends TestCase {
+    private static final long LIMIT = 1024 * 1024 * 1024;
+    private static final List<String> PARAMETERS = Arrays.asList(
+            "23.0.0", "android-21", "port-Nexus 4", "layout-port-xhdpi", "NORMAL", "stamp1");
+
+    private File mDir;
+    private UiDocumentNode mModel;
+    private UiElementNode mLayout;
+    private UiElementNode mButton;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = Files.createTempDir();
+
+        ElementDescriptor button = new ElementDescriptor("Button");
+        ElementDescriptor layout = new ElementDescriptor("LinearLayout");
+        layout.setChildren(new ElementDescriptor[] { button });
+        mModel = new UiDocumentNode(new DocumentDescriptor("layout_doc",
+                new ElementDescriptor[] { layout }));
+        mLayout = mModel.appendNewUiChild(layout);
+        mButton = mLayout.appendNewUiChild(button);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll(mDir);
+        super.tearDown();
+    }
+
+    public void testKey() throws Exception {
+        ElementDescriptor buttonDescriptor = new ElementDescriptor("Button");
+        UiElementNode ui = new UiElementNode(new ElementDescriptor("root", "", "", "",
+                new AttributeDescriptor[0], new ElementDescriptor[] { buttonDescriptor },
+                false));
+        MockXmlNode button = new MockXmlNode(null, "Button", Node.ELEMENT_NODE, null);
+        button.addAttributes(SdkConstants.NS_RESOURCES, "text", "OK");
+        MockXmlNode root = new MockXmlNode(null, "root", Node.ELEMENT_NODE,
+                new MockXmlNode[] { button });
+        root.setPrefix(SdkConstants.NS_RESOURCES, "android");
+        ui.loadFromXmlNode(root);
+
+        String key = RenderCache.computeKey(PARAMETERS, snapshot(ui));
+        assertEquals(key, RenderCache.computeKey(PARAMETERS, snapshot(ui)));
+
+        // a change of the project stamp
+        List<String> parameters = Arrays.asList(
+                "23.0.0", "android-21", "port-Nexus 4", "layout-port-xhdpi", "NORMAL", "stamp2");
+        assertFalse(key.equals(RenderCache.computeKey(parameters, snapshot(ui))));
+
+        // the parameters are kept apart
+        assertFalse(RenderCache.computeKey(Arrays.asList("ab", "c"), snapshot(ui)).equals(
+                RenderCache.computeKey(Arrays.asList("a", "bc"), snapshot(ui))));
+
+        // a change of the layout
+        button.addAttributes(SdkConstants.NS_RESOURCES, "text", "Cancel");
+        assertFalse(key.equals(RenderCache.computeKey(PARAMETERS, snapshot(ui))));
+    }
+
+    public void testStamp() throws Exception {
+        File classes = new File(mDir, "classes");
+        File foo = new File(classes, "com/example/Foo.class");
+        Files.createParentDirs(foo);
+        Files.write(new byte[] { 1, 2, 3 }, foo);
+        foo.setLastModified(1000000000L);
+
+        String stamp = stamp(classes);
+        assertEquals(stamp, stamp(classes));
+
+        // the other files are ignored
+        Files.write(new byte[] { 4 }, new File(classes, "com/example/notes.txt"));
+        assertEquals(stamp, stamp(classes));
+
+        foo.setLastModified(1000002000L);
+        assertFalse(stamp.equals(stamp(classes)));
+        foo.setLastModified(1000000000L);
+        assertEquals(stamp, stamp(classes));
+
+        File bar = new File(classes, "com/example/Bar.class");
+        Files.write(new byte[] { 5 }, bar);
+        assertFalse(stamp.equals(stamp(classes)));
+        bar.delete();
+        assertEquals(stamp, stamp(classes));
+    }
+
+    public void testDiskRoundTrip() throws Exception {
+        RenderCache cache = new RenderCache(mDir, LIMIT, LIMIT);
+        cache.put("key1", "slot1", createSession(0xFF00FF00), mModel);
+        cache.writePending();
+
+        RenderSession session = new RenderCache(mDir, LIMIT, LIMIT).get("key1", mModel);
+        assertNotNull(session);
+        assertTrue(session.getResult().isSuccess());
+        BufferedImage image = session.getImage();
+        assertEquals(100, image.getWidth());
+        assertEquals(200, image.getHeight());
+        assertEquals(0xFF00FF00, image.getRGB(50, 50));
+
+        ViewInfo root = session.getRootViews().get(0);
+        assertSame(mLayout, root.getCookie());
+        assertEquals("LinearLayout", root.getClassName());
+        assertEquals(200, root.getBottom());
+        ViewInfo child = root.getChildren().get(0);
+        assertSame(mButton, child.getCookie());
+        assertEquals(10, child.getLeft());
+        assertEquals(20, child.getTop());
+        assertEquals(90, child.getRight());
+        assertEquals(60, child.getBottom());
+
+        assertNull(new RenderCache(mDir, LIMIT, LIMIT).get("key2", mModel));
+    }
+
+    public void testDiskFormat() throws Exception {
+        RenderCache cache = new RenderCache(mDir, LIMIT, LIMIT);
+        cache.put("key1", "slot1", createSession(0xFF00FF00), mModel);
+        cache.writePending();
+        File file = new File(mDir, "key1.render");
+        assertTrue(file.isFile());
+
+        // another version
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(4);
+            int version = raf.readInt();
+            raf.seek(4);
+            raf.writeInt(version + 1);
+        } finally {
+            raf.close();
+        }
+        assertNull(new RenderCache(mDir, LIMIT, LIMIT).get("key1", mModel));
+
+        // another file
+        cache.put("key1", "slot1", createSession(0xFF00FF00), mModel);
+        cache.writePending();
+        assertNotNull(new RenderCache(mDir, LIMIT, LIMIT).get("key1", mModel));
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeInt(0);
+        } finally {
+            raf.close();
+        }
+        assertNull(new RenderCache(mDir, LIMIT, LIMIT).get("key1", mModel));
+
+        // a truncated file
+        Files.write(new byte[] { 0x52, 0x45 }, file);
+        assertNull(new RenderCache(mDir, LIMIT, LIMIT).get("key1", mModel));
+    }
+
+    public void testMemoryEviction() throws Exception {
+        // the cache files can't be written in a file, so the renderings are only in memory
+        File notDir = new File(mDir, "file");
+        Files.write(new byte[0], notDir);
+        long size = 100 * 200 * 4;
+        RenderCache cache = new RenderCache(notDir, 3 * size, LIMIT);
+        cache.put("key1", "slot1", createSession(0xFF000001), mModel);
+        cache.put("key2", "slot2", createSession(0xFF000002), mModel);
+        cache.put("key3", "slot3", createSession(0xFF000003), mModel);
+        assertNotNull(cache.get("key1", mModel));
+
+        // the least recently used rendering is dropped
+        cache.put("key4", "slot4", createSession(0xFF000004), mModel);
+        assertNull(cache.get("key2", mModel));
+        assertEquals(0xFF000001, cache.get("key1", mModel).getImage().getRGB(0, 0));
+        assertEquals(0xFF000003, cache.get("key3", mModel).getImage().getRGB(0, 0));
+        assertEquals(0xFF000004, cache.get("key4", mModel).getImage().getRGB(0, 0));
+        cache.writePending();
+    }
+
+    public void testDiskEviction() throws Exception {
+        RenderCache cache = new RenderCache(mDir, LIMIT, LIMIT);
+        cache.put("key1", "slot1", createSession(0xFF00FF00), mModel);
+        cache.writePending();
+        File file1 = new File(mDir, "key1.render");
+        long size = file1.length();
+        assertTrue(size > 0);
+
+        long now = System.currentTimeMillis();
+        cache = new RenderCache(mDir, LIMIT, 2 * size + size / 2);
+        file1.setLastModified(now - 30000);
+        cache.put("key2", "slot2", createSession(0xFF00FF00), mModel);
+        cache.writePending();
+        File file2 = new File(mDir, "key2.render");
+        file2.setLastModified(now - 20000);
+
+        // reading a rendering marks it as recently used
+        assertNotNull(new RenderCache(mDir, LIMIT, LIMIT).get("key1", mModel));
+        assertTrue(file1.lastModified() > file2.lastModified());
+
+        cache.put("key3", "slot3", createSession(0xFF00FF00), mModel);
+        cache.writePending();
+        assertTrue(file1.isFile());
+        assertFalse(file2.exists());
+        assertTrue(new File(mDir, "key3.render").isFile());
+    }
+
+    public void testSlot() throws Exception {
+        // only the last rendering of a slot is written
+        RenderCache cache = new RenderCache(mDir, LIMIT, LIMIT);
+        cache.put("key1", "slot1", createSession(0xFF00FF00), mModel);
+        cache.put("key2", "slot1", createSession(0xFF0000FF), mModel);
+        cache.writePending();
+        assertFalse(new File(mDir, "key1.render").exists());
+        assertTrue(new File(mDir, "key2.render").isFile());
+    }
+
+    private RenderSession createSession(int color) {
+        BufferedImage image = new BufferedImage(100, 200, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, color);
+            }
+        }
+        ViewInfo root = new ViewInfo("LinearLayout", mLayout, 0, 0, 100, 200);
+        root.setChildren(Collections.singletonList(
+                new ViewInfo("Button", mButton, 10, 20, 90, 60)));
+        return new StaticRenderSession(Result.Status.SUCCESS.createResult(), root, image);
+    }
+
+    private static SnapshotPullParser snapshot(UiElementNode ui) {
+        return new SnapshotPullParser(new UiElementPullParser(ui, false, null, Density.MEDIUM,
+                null));
+    }
+
+    private static String stamp(File folder) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        RenderCache.addFiles(hasher, folder, DOT_CLASS);
+        return hasher.hash().toString();
+    }
+
+    private static void deleteAll(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
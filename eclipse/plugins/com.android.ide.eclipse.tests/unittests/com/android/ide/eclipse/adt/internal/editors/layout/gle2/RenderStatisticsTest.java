@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import com.android.ide.common.rendering.api.ViewInfo;
+import com.android.ide.eclipse.adt.internal.editors.layout.gle2.RenderStatistics.Phase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class RenderStatisticsTest extends TestCase {
+    private static final long MS = 1000000;
+
+    @Override
+    protected void tearDown() throws Exception {
+        RenderStatistics.clearHistory();
+        super.tearDown();
+    }
+
+    public void testPhases() {
+        RenderStatistics statistics = new RenderStatistics("main (Nexus 4)");
+        statistics.add(Phase.RESOURCES, 3 * MS);
+        statistics.add(Phase.INFLATE, 40 * MS);
+        statistics.add(Phase.INFLATE, 10 * MS);
+        statistics.customViewLoaded("com.example.Chart", 20 * MS, false);
+        statistics.customViewLoaded("com.example.Legend", 5 * MS, true);
+        statistics.customViewLoaded("com.example.Chart", 2 * MS, false);
+
+        assertEquals(3 * MS, statistics.getTime(Phase.RESOURCES));
+        assertEquals(0, statistics.getTime(Phase.PARSE));
+        assertEquals(50 * MS, statistics.getTime(Phase.INFLATE));
+        // the nested view is already counted by the view constructing it
+        assertEquals(22 * MS, statistics.getTime(Phase.CUSTOM_VIEWS));
+        assertEquals(75 * MS, statistics.getTotalTime());
+
+        List<String> lines = statistics.describe(-1);
+        assertEquals(Arrays.asList(
+                "main (Nexus 4): 75 ms",
+                "  Resource resolution: 3 ms",
+                "  Model traversal: 0 ms",
+                "  Custom view loading: 22 ms",
+                "  Inflate, measure, layout and draw: 50 ms",
+                "  Image transfer: 0 ms",
+                "Custom views:",
+                "  com.example.Chart: 22 ms",
+                "  com.example.Legend: 5 ms"), lines);
+    }
+
+    public void testCounts() {
+        ViewInfo root = new ViewInfo("LinearLayout", null, 0, 0, 100, 100);
+        ViewInfo list = new ViewInfo("LinearLayout", null, 0, 0, 100, 50);
+        list.setChildren(Arrays.asList(
+                new ViewInfo("TextView", null, 0, 0, 100, 10),
+                new ViewInfo("TextView", null, 0, 10, 100, 20),
+                new ViewInfo("Button", null, 0, 20, 100, 30)));
+        root.setChildren(Arrays.asList(list, new ViewInfo("TextView", null, 0, 50, 100, 60)));
+
+        RenderStatistics statistics = new RenderStatistics("main");
+        statistics.countViews(Arrays.asList(root));
+        statistics.countViews(null);
+        statistics.layoutIncluded("header");
+        statistics.layoutIncluded("row");
+        statistics.layoutIncluded("row");
+
+        Map<String, Integer> views = statistics.getViewCounts();
+        assertEquals(3, views.size());
+        assertEquals(Integer.valueOf(3), views.get("TextView"));
+        assertEquals(Integer.valueOf(2), views.get("LinearLayout"));
+        assertEquals(Integer.valueOf(1), views.get("Button"));
+        assertEquals(Integer.valueOf(2), statistics.getIncludeCounts().get("row"));
+
+        List<String> lines = statistics.describe(2);
+        List<String> entries = lines.subList(Phase.values().length + 1, lines.size());
+        assertEquals(Arrays.asList(
+                "Views inflated:",
+                "  TextView: 3",
+                "  LinearLayout: 2",
+                "Layouts included:",
+                "  row: 2",
+                "  header: 1"), entries);
+    }
+
+    public void testHistory() {
+        for (int i = 0; i < RenderStatistics.HISTORY_SIZE + 10; i++) {
+            RenderStatistics.record(new RenderStatistics("layout" + i));
+        }
+
+        List<RenderStatistics> history = RenderStatistics.getHistory();
+        assertEquals(RenderStatistics.HISTORY_SIZE, history.size());
+        assertEquals("layout10", history.get(0).getName());
+        assertEquals("layout" + (RenderStatistics.HISTORY_SIZE + 9),
+                history.get(history.size() - 1).getName());
+
+        String description = RenderStatistics.describeHistory();
+        assertFalse(description.contains("layout9:"));
+        assertTrue(description.contains("layout10: 0 ms\n"));
+
+        RenderStatistics.clearHistory();
+        assertTrue(RenderStatistics.getHistory().isEmpty());
+        assertEquals("", RenderStatistics.describeHistory());
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.lint;
+
+import com.android.tools.lint.detector.api.Severity;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class LintCacheTest extends TestCase {
+    private static final String VERSION = "23.0.6.v201503121818";
+
+    private File mProjectDir;
+    private File mCacheFile;
+    private File mLayout;
+    private File mActivity;
+    private List<File> mFiles;
+    private Map<String, Severity> mSeverities;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProjectDir = Files.createTempDir();
+        mCacheFile = new File(mProjectDir, "lint-cache.bin");
+
+        mLayout = new File(mProjectDir, "res/layout/main.xml");
+        Files.createParentDirs(mLayout);
+        Files.write("<LinearLayout/>", mLayout, Charsets.UTF_8);
+        mLayout.setLastModified(1000000000L);
+        mActivity = new File(mProjectDir, "src/test/pkg/MainActivity.java");
+        Files.createParentDirs(mActivity);
+        Files.write("class MainActivity {}", mActivity, Charsets.UTF_8);
+        mActivity.setLastModified(1000000000L);
+        mFiles = Arrays.asList(mLayout, mActivity);
+
+        mSeverities = new LinkedHashMap<String, Severity>();
+        mSeverities.put("HardcodedText", Severity.WARNING);
+        mSeverities.put("UnusedResources", Severity.WARNING);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll(mProjectDir);
+        super.tearDown();
+    }
+
+    public void testChangedFiles() throws Exception {
+        // the first run checks the whole project
+        String key = configurationKey();
+        LintCache cache = LintCache.load(mCacheFile);
+        assertNull(cache.update(key, mFiles));
+        cache.save();
+        assertTrue(mCacheFile.isFile());
+
+        assertEquals(Collections.emptyList(), LintCache.load(mCacheFile).update(key, mFiles));
+
+        // a file whose modification time changed but not its content
+        mLayout.setLastModified(1000002000L);
+        cache = LintCache.load(mCacheFile);
+        assertEquals(Collections.emptyList(), cache.update(key, mFiles));
+        cache.save();
+
+        // the content of a file is only read again when its length or its modification
+        // time changed
+        Files.write("<LinearLayoux/>", mLayout, Charsets.UTF_8);
+        mLayout.setLastModified(1000002000L);
+        assertEquals(Collections.emptyList(), LintCache.load(mCacheFile).update(key, mFiles));
+
+        mLayout.setLastModified(1000004000L);
+        assertEquals(Collections.singletonList(mLayout),
+                LintCache.load(mCacheFile).update(key, mFiles));
+
+        Files.write("class MainActivity {;}", mActivity, Charsets.UTF_8);
+        mActivity.setLastModified(1000000000L);
+        assertEquals(Arrays.asList(mLayout, mActivity),
+                LintCache.load(mCacheFile).update(key, mFiles));
+    }
+
+    public void testAddedFiles() throws Exception {
+        String key = configurationKey();
+        save(key);
+
+        File strings = new File(mProjectDir, "res/values/strings.xml");
+        Files.createParentDirs(strings);
+        Files.write("<resources/>", strings, Charsets.UTF_8);
+        List<File> files = Arrays.asList(mLayout, strings);
+        LintCache cache = LintCache.load(mCacheFile);
+        assertEquals(Collections.singletonList(strings), cache.update(key, files));
+        cache.save();
+
+        // the files removed since the previous run are forgotten
+        assertEquals(Collections.singletonList(mActivity),
+                LintCache.load(mCacheFile).update(key, mFiles));
+    }
+
+    public void testUnsavedRun() throws Exception {
+        String key = configurationKey();
+        save(key);
+
+        // a run which isn't saved, because it was canceled, checks the same files next time
+        Files.write("<FrameLayout/>", mLayout, Charsets.UTF_8);
+        LintCache cache = LintCache.load(mCacheFile);
+        assertEquals(Collections.singletonList(mLayout), cache.update(key, mFiles));
+        assertEquals(Collections.singletonList(mLayout),
+                LintCache.load(mCacheFile).update(key, mFiles));
+
+        cache.save();
+        assertEquals(Collections.emptyList(), LintCache.load(mCacheFile).update(key, mFiles));
+    }
+
+    public void testConfigurationChange() throws Exception {
+        String key = configurationKey();
+        save(key);
+
+        // a different configuration checks the whole project, even if no file changed
+        mSeverities.put("HardcodedText", Severity.IGNORE);
+        String newKey = configurationKey();
+        assertFalse(key.equals(newKey));
+        LintCache cache = LintCache.load(mCacheFile);
+        assertNull(cache.update(newKey, mFiles));
+        cache.save();
+        assertEquals(Collections.emptyList(),
+                LintCache.load(mCacheFile).update(newKey, mFiles));
+        assertNull(LintCache.load(mCacheFile).update(key, mFiles));
+    }
+
+    public void testConfigurationKey() throws Exception {
+        String key = configurationKey();
+        assertEquals(key, configurationKey());
+
+        // the plugin version
+        assertFalse(key.equals(LintCache.computeConfigurationKey("23.0.7.v201506181650",
+                mSeverities, mProjectDir)));
+
+        // the severities
+        mSeverities.put("UnusedResources", Severity.ERROR);
+        assertFalse(key.equals(configurationKey()));
+        mSeverities.put("UnusedResources", Severity.WARNING);
+        assertEquals(key, configurationKey());
+        mSeverities.put("ContentDescription", Severity.WARNING);
+        assertFalse(key.equals(configurationKey()));
+        mSeverities.remove("ContentDescription");
+        assertEquals(key, configurationKey());
+
+        // the configuration files of the project
+        String previous = key;
+        for (String name : new String[] {
+                "lint.xml", "AndroidManifest.xml", "project.properties" }) {
+            File file = new File(mProjectDir, name);
+            Files.write("<lint/>", file, Charsets.UTF_8);
+            String newKey = configurationKey();
+            assertFalse(name, previous.equals(newKey));
+            previous = newKey;
+            Files.write("<lint></lint>", file, Charsets.UTF_8);
+            newKey = configurationKey();
+            assertFalse(name, previous.equals(newKey));
+            previous = newKey;
+        }
+        for (String name : new String[] {
+                "lint.xml", "AndroidManifest.xml", "project.properties" }) {
+            new File(mProjectDir, name).delete();
+        }
+        assertEquals(key, configurationKey());
+
+        // the same content in another configuration file
+        Files.write("<lint/>", new File(mProjectDir, "lint.xml"), Charsets.UTF_8);
+        String lintKey = configurationKey();
+        new File(mProjectDir, "lint.xml").delete();
+        Files.write("<lint/>", new File(mProjectDir, "AndroidManifest.xml"), Charsets.UTF_8);
+        assertFalse(lintKey.equals(configurationKey()));
+
+        // the other files of the project are ignored
+        Files.write("<resources/>", new File(mProjectDir, "res/layout/main.xml"),
+                Charsets.UTF_8);
+        Files.write("# comment", new File(mProjectDir, "proguard-project.txt"),
+                Charsets.UTF_8);
+        new File(mProjectDir, "AndroidManifest.xml").delete();
+        assertEquals(key, configurationKey());
+    }
+
+    public void testFormat() throws Exception {
+        String key = configurationKey();
+        save(key);
+        assertNotNull(LintCache.load(mCacheFile).update(key, mFiles));
+
+        // another version
+        RandomAccessFile raf = new RandomAccessFile(mCacheFile, "rw");
+        try {
+            raf.seek(4);
+            int version = raf.readInt();
+            raf.seek(4);
+            raf.writeInt(version + 1);
+        } finally {
+            raf.close();
+        }
+        assertNull(LintCache.load(mCacheFile).update(key, mFiles));
+
+        // another file
+        save(key);
+        assertNotNull(LintCache.load(mCacheFile).update(key, mFiles));
+        raf = new RandomAccessFile(mCacheFile, "rw");
+        try {
+            raf.writeInt(0);
+        } finally {
+            raf.close();
+        }
+        assertNull(LintCache.load(mCacheFile).update(key, mFiles));
+
+        // a truncated file
+        save(key);
+        long length = mCacheFile.length();
+        raf = new RandomAccessFile(mCacheFile, "rw");
+        try {
+            raf.setLength(length - 10);
+        } finally {
+            raf.close();
+        }
+        assertNull(LintCache.load(mCacheFile).update(key, mFiles));
+
+        // a file which can't be read at all
+        Files.write(new byte[] { 0x4C, 0x49 }, mCacheFile);
+        assertNull(LintCache.load(mCacheFile).update(key, mFiles));
+    }
+
+    private void save(String key) throws Exception {
+        LintCache cache = LintCache.load(mCacheFile);
+        cache.update(key, mFiles);
+        cache.save();
+    }
+
+    private String configurationKey() throws Exception {
+        return LintCache.computeConfigurationKey(VERSION, mSeverities, mProjectDir);
+    }
+
+    private static void deleteAll(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.lint;
+
+import com.google.common.io.Files;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class SuperClassCacheTest extends TestCase {
+    private File mOutput;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mOutput = Files.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll(mOutput);
+        super.tearDown();
+    }
+
+    public void testScanClasses() throws Exception {
+        File view = writeClass("test/pkg/MyView", "android/view/View");
+        writeClass("test/pkg/MyView$Inner", "java/lang/Object");
+
+        Map<String, String> superClasses = new HashMap<String, String>();
+        SuperClassCache.scanClasses(mOutput, 0, superClasses);
+        assertEquals(2, superClasses.size());
+        assertEquals("android/view/View", superClasses.get("test/pkg/MyView"));
+        assertEquals("java/lang/Object", superClasses.get("test/pkg/MyView$Inner"));
+
+        // only the class files modified since the previous scan are read again.
+        long scanTime = System.currentTimeMillis() + 10000;
+        writeClass("test/pkg/MyView", "android/widget/TextView");
+        view.setLastModified(scanTime - 20000);
+        SuperClassCache.scanClasses(mOutput, scanTime, superClasses);
+        assertEquals("android/view/View", superClasses.get("test/pkg/MyView"));
+
+        view.setLastModified(scanTime);
+        SuperClassCache.scanClasses(mOutput, scanTime, superClasses);
+        assertEquals("android/widget/TextView", superClasses.get("test/pkg/MyView"));
+    }
+
+    public void testScanRemovedClasses() throws Exception {
+        File view = writeClass("test/pkg/MyView", "android/view/View");
+        writeClass("test/pkg/MyButton", "android/widget/Button");
+
+        Map<String, String> superClasses = new HashMap<String, String>();
+        SuperClassCache.scanClasses(mOutput, 0, superClasses);
+        assertEquals(2, superClasses.size());
+
+        // the classes whose class file is removed are dropped, even if nothing else changed.
+        assertTrue(view.delete());
+        SuperClassCache.scanClasses(mOutput, System.currentTimeMillis() + 10000,
+                superClasses);
+        assertEquals(1, superClasses.size());
+        assertNull(superClasses.get("test/pkg/MyView"));
+        assertEquals("android/widget/Button", superClasses.get("test/pkg/MyButton"));
+
+        // a clean removes everything.
+        deleteAll(new File(mOutput, "test"));
+        SuperClassCache.scanClasses(mOutput, 0, superClasses);
+        assertTrue(superClasses.isEmpty());
+    }
+
+    private File writeClass(String name, String superName) throws Exception {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, superName, null);
+        writer.visitEnd();
+
+        File file = new File(mOutput, name + ".class");
+        Files.createParentDirs(file);
+        Files.write(writer.toByteArray(), file);
+        return file;
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.resources.manager;
+
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.resources.ResourceType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class LayeredResourceMapTest extends TestCase {
+
+    public void testLayers() {
+        Map<String, ResourceValue> project = createLayer("app_name", "Project");
+        Map<String, ResourceValue> library1 = createLayer("app_name", "Library1", "ok", "Ok");
+        Map<String, ResourceValue> library2 = createLayer("ok", "Okay", "cancel", "Cancel");
+
+        Map<String, ResourceValue> map = LayeredResourceMap.create(
+                Arrays.asList(project, library1, library2));
+        assertEquals("Project", map.get("app_name").getValue());
+        assertEquals("Ok", map.get("ok").getValue());
+        assertEquals("Cancel", map.get("cancel").getValue());
+        assertNull(map.get("hello"));
+        assertTrue(map.containsKey("cancel"));
+        assertFalse(map.containsKey("hello"));
+
+        assertFalse(map.isEmpty());
+        assertEquals(3, map.size());
+        List<String> names = new ArrayList<String>(map.keySet());
+        Collections.sort(names);
+        assertEquals(Arrays.asList("app_name", "cancel", "ok"), names);
+        for (Map.Entry<String, ResourceValue> entry : map.entrySet()) {
+            assertSame(map.get(entry.getKey()), entry.getValue());
+        }
+
+        try {
+            map.put("hello", project.get("app_name"));
+            fail("Expected the map to be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    public void testEmptyLayers() {
+        Map<String, ResourceValue> empty = Collections.emptyMap();
+        Map<String, ResourceValue> project = createLayer("app_name", "Project");
+
+        assertTrue(LayeredResourceMap.create(Arrays.asList(empty, empty)).isEmpty());
+
+        Map<String, ResourceValue> map = LayeredResourceMap.create(
+                Arrays.asList(empty, project, empty));
+        assertFalse(map instanceof LayeredResourceMap);
+        assertEquals(project, map);
+    }
+
+    private static Map<String, ResourceValue> createLayer(String... namesAndValues) {
+        Map<String, ResourceValue> layer = new HashMap<String, ResourceValue>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            layer.put(namesAndValues[i], new ResourceValue(ResourceType.STRING,
+                    namesAndValues[i], namesAndValues[i + 1], false));
+        }
+        return layer;
+    }
+}
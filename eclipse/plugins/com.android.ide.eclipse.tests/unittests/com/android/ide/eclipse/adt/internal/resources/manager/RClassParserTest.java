@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.resources.manager;
+
+import com.android.resources.ResourceType;
+import com.google.common.io.ByteStreams;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class RClassParserTest extends TestCase {
+
+    /** An R class as generated for an application */
+    static final class R {
+        static final class id {
+            public static final int title = 0x7f050000;
+            public static final int footer = 0x7f050001;
+        }
+        static final class styleable {
+            public static final int[] MyView = { 0x7f010000, 0x7f010001, 0x1010034 };
+            public static final int MyView_color = 0;
+            public static final int[] Empty = {};
+        }
+    }
+
+    /** An R class as generated for a library project, where fields are not final */
+    static final class LibR {
+        static final class string {
+            public static int app_name = 0x7f060000;
+            public static int hello = 0x7f060001;
+        }
+    }
+
+    public void testFinalFields() throws Exception {
+        RClassParser parser = new RClassParser();
+        parser.parseClass(ResourceType.ID, getClassData("RClassParserTest$R$id.class"));
+
+        Map<String, Integer> ids = parser.getResourceValueMap().get(ResourceType.ID);
+        assertEquals(2, ids.size());
+        assertEquals(Integer.valueOf(0x7f050000), ids.get("title"));
+        assertEquals(Integer.valueOf(0x7f050001), ids.get("footer"));
+    }
+
+    public void testStyleables() throws Exception {
+        RClassParser parser = new RClassParser();
+        parser.parseClass(ResourceType.STYLEABLE,
+                getClassData("RClassParserTest$R$styleable.class"));
+
+        Map<String, int[]> styleables = parser.getStyleables();
+        assertEquals(2, styleables.size());
+        assertTrue(Arrays.equals(new int[] { 0x7f010000, 0x7f010001, 0x1010034 },
+                styleables.get("MyView")));
+        assertEquals(0, styleables.get("Empty").length);
+
+        Map<String, Integer> values = parser.getResourceValueMap().get(ResourceType.STYLEABLE);
+        assertEquals(1, values.size());
+        assertEquals(Integer.valueOf(0), values.get("MyView_color"));
+    }
+
+    public void testNonFinalFields() throws Exception {
+        RClassParser parser = new RClassParser();
+        parser.parseClass(ResourceType.STRING,
+                getClassData("RClassParserTest$LibR$string.class"));
+
+        Map<String, Integer> strings = parser.getResourceValueMap().get(ResourceType.STRING);
+        assertEquals(2, strings.size());
+        assertEquals(Integer.valueOf(0x7f060000), strings.get("app_name"));
+        assertEquals(Integer.valueOf(0x7f060001), strings.get("hello"));
+    }
+
+    private byte[] getClassData(String name) throws Exception {
+        InputStream stream = getClass().getResourceAsStream(name);
+        assertNotNull(name, stream);
+        try {
+            return ByteStreams.toByteArray(stream);
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.resources.manager;
+
+import com.android.resources.ResourceType;
+import com.android.util.Pair;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class ResourceIdTableTest extends TestCase {
+
+    private Map<ResourceType, Map<String, Integer>> mValues;
+    private Map<String, int[]> mStyleables;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mValues = new EnumMap<ResourceType, Map<String, Integer>>(ResourceType.class);
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            ids.put("id" + i, 0x7f050000 + i);
+        }
+        mValues.put(ResourceType.ID, ids);
+        Map<String, Integer> strings = new HashMap<String, Integer>();
+        strings.put("app_name", 0x7f060000);
+        mValues.put(ResourceType.STRING, strings);
+        Map<String, Integer> indices = new HashMap<String, Integer>();
+        indices.put("MyView_color", 0);
+        mValues.put(ResourceType.STYLEABLE, indices);
+
+        mStyleables = new HashMap<String, int[]>();
+        mStyleables.put("MyView", new int[] { 0x7f010000, 0x7f010001 });
+        mStyleables.put("Other", new int[] { 0x7f010002 });
+    }
+
+    public void testLookups() {
+        ResourceIdTable table = ResourceIdTable.create(mValues, mStyleables);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(0x7f050000 + i), table.getId(ResourceType.ID, "id" + i));
+            assertEquals(Pair.of(ResourceType.ID, "id" + i), table.resolveId(0x7f050000 + i));
+        }
+        assertEquals(Integer.valueOf(0x7f060000), table.getId(ResourceType.STRING, "app_name"));
+        assertEquals(Pair.of(ResourceType.STRING, "app_name"), table.resolveId(0x7f060000));
+        assertEquals(Integer.valueOf(0), table.getId(ResourceType.STYLEABLE, "MyView_color"));
+        assertEquals(Pair.of(ResourceType.STYLEABLE, "MyView_color"), table.resolveId(0));
+
+        assertNull(table.getId(ResourceType.ID, "missing"));
+        assertNull(table.getId(ResourceType.LAYOUT, "main"));
+        assertNull(table.resolveId(0x7f070000));
+
+        assertEquals("MyView", table.resolveStyleable(new int[] { 0x7f010000, 0x7f010001 }));
+        assertEquals("Other", table.resolveStyleable(new int[] { 0x7f010002 }));
+        assertNull(table.resolveStyleable(new int[] { 0x7f010001, 0x7f010000 }));
+    }
+
+    public void testEmpty() {
+        assertNull(ResourceIdTable.EMPTY.getId(ResourceType.ID, "id0"));
+        assertNull(ResourceIdTable.EMPTY.resolveId(0));
+        assertNull(ResourceIdTable.EMPTY.resolveStyleable(new int[0]));
+    }
+
+    public void testMatches() {
+        ResourceIdTable table = ResourceIdTable.create(mValues, mStyleables);
+        assertTrue(table.matches(mValues, mStyleables));
+        assertFalse(ResourceIdTable.EMPTY.matches(mValues, mStyleables));
+
+        mValues.get(ResourceType.STRING).put("app_name", 0x7f060001);
+        assertFalse(table.matches(mValues, mStyleables));
+        mValues.get(ResourceType.STRING).put("app_name", 0x7f060000);
+
+        mValues.get(ResourceType.STRING).put("hello", 0x7f060001);
+        assertFalse(table.matches(mValues, mStyleables));
+        mValues.get(ResourceType.STRING).remove("hello");
+
+        mStyleables.put("Other", new int[] { 0x7f010003 });
+        assertFalse(table.matches(mValues, mStyleables));
+    }
+
+    public void testDynamicIds() {
+        DynamicIdMap map = new DynamicIdMap(0x7fff0000);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(0x7fff0001 + i), map.getId(ResourceType.ID, "id" + i));
+        }
+        assertEquals(Integer.valueOf(0x7fff0001), map.getId(ResourceType.ID, "id0"));
+        assertEquals(Pair.of(ResourceType.ID, "id99"), map.resolveId(0x7fff0001 + 99));
+        assertNull(map.resolveId(0x7fff0001 + 100));
+        assertNull(map.resolveId(0x7fff0000));
+
+        map.reset(0x7fff0000);
+        assertNull(map.resolveId(0x7fff0001));
+        assertEquals(Integer.valueOf(0x7fff0001), map.getId(ResourceType.ID, "id5"));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.resources.manager;
+
+import com.android.ide.eclipse.adt.internal.resources.manager.ResourceReferenceIndex.Location;
+import com.android.resources.ResourceFolderType;
+import com.android.resources.ResourceType;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ResourceReferenceIndexTest extends TestCase {
+
+    public void testScanLayout() {
+        String text = ""
+                + "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                + "    android:background=\"?android:attr/selectableItemBackground\">\n"
+                + "    <TextView\n"
+                + "        android:id=\"@+id/title\"\n"
+                + "        android:layout_below=\"@id/header\"\n"
+                + "        android:text=\"@string/app_name\"\n"
+                + "        android:textColor=\"?textColorPrimary\"\n"
+                + "        android:hint=\"@android:string/ok\"\n"
+                + "        android:contentDescription=\"foo@string/bar\" />\n"
+                + "    <include layout=\"@layout/footer\" />\n"
+                + "</LinearLayout>\n";
+
+        List<Location> locations = ResourceReferenceIndex.scan(null, text,
+                ResourceFolderType.LAYOUT);
+        assertEquals(5, locations.size());
+
+        assertLocation(locations.get(0), ResourceType.ID, "title", true);
+        assertEquals(text.indexOf("@+id/title"), locations.get(0).getOffset());
+        assertEquals("@+id/title".length(), locations.get(0).getLength());
+        assertLocation(locations.get(1), ResourceType.ID, "header", false);
+        assertLocation(locations.get(2), ResourceType.STRING, "app_name", false);
+        assertLocation(locations.get(3), ResourceType.ATTR, "textColorPrimary", false);
+        assertLocation(locations.get(4), ResourceType.LAYOUT, "footer", false);
+    }
+
+    public void testScanValues() {
+        String text = ""
+                + "<resources>\n"
+                + "    <string name=\"app_name\">My App</string>\n"
+                + "    <item type=\"id\" name=\"header\"/>\n"
+                + "    <string-array name=\"planets\">\n"
+                + "        <item>@string/app_name</item>\n"
+                + "    </string-array>\n"
+                + "    <style name=\"Theme.Mine\" parent=\"@style/Theme.Base\">\n"
+                + "        <item name=\"android:windowBackground\">@color/background</item>\n"
+                + "    </style>\n"
+                + "</resources>\n";
+
+        List<Location> locations = ResourceReferenceIndex.scan(null, text,
+                ResourceFolderType.VALUES);
+        assertEquals(7, locations.size());
+
+        // references first
+        assertLocation(locations.get(0), ResourceType.STRING, "app_name", false);
+        assertLocation(locations.get(1), ResourceType.STYLE, "Theme.Base", false);
+        assertLocation(locations.get(2), ResourceType.COLOR, "background", false);
+
+        // then definitions
+        assertLocation(locations.get(3), ResourceType.STRING, "app_name", true);
+        assertEquals(text.indexOf("app_name"), locations.get(3).getOffset());
+        assertEquals("app_name".length(), locations.get(3).getLength());
+        assertLocation(locations.get(4), ResourceType.ID, "header", true);
+        assertLocation(locations.get(5), ResourceType.ARRAY, "planets", true);
+        assertLocation(locations.get(6), ResourceType.STYLE, "Theme.Mine", true);
+    }
+
+    private static void assertLocation(Location location, ResourceType type, String name,
+            boolean definition) {
+        assertEquals(type, location.getType());
+        assertEquals(name, location.getName());
+        assertEquals(definition, location.isDefinition());
+    }
+}
@@ -25,6 +25,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.zip.ZipEntry;
 
 import junit.framework.TestCase;
 
@@ -47,6 +48,7 @@ public class AndroidJarLoaderTest extends TestCase {
 
     @Override
     public void tearDown() throws Exception {
+        mFrameworkClassLoader.close();
         mFrameworkClassLoader = null;
         System.gc();
     }
@@ -56,7 +58,7 @@ public class AndroidJarLoaderTest extends TestCase {
         mFrameworkClassLoader.preLoadClasses("jar.example.", null, null); //$NON-NLS-1$
         HashMap<String, Class<?>> map = getPrivateClassCache();
         assertEquals(0, map.size());
-        HashMap<String,byte[]> data = getPrivateEntryCache();
+        HashMap<String, ZipEntry> data = getPrivateClassEntries();
         assertTrue(data.containsKey("jar.example.Class1"));                    //$NON-NLS-1$
         assertTrue(data.containsKey("jar.example.Class2"));                    //$NON-NLS-1$
         assertTrue(data.containsKey("jar.example.Class1$InnerStaticClass1"));  //$NON-NLS-1$
@@ -69,7 +71,7 @@ public class AndroidJarLoaderTest extends TestCase {
         mFrameworkClassLoader.preLoadClasses("not.a.package.", null, null);  //$NON-NLS-1$
         HashMap<String, Class<?>> map = getPrivateClassCache();
         assertEquals(0, map.size());
-        HashMap<String,byte[]> data = getPrivateEntryCache();
+        HashMap<String, ZipEntry> data = getPrivateClassEntries();
         assertEquals(0, data.size());
     }
 
@@ -126,6 +128,21 @@ public class AndroidJarLoaderTest extends TestCase {
                 found.get("jar.example.Class1").get(0).getFullClassName());  //$NON-NLS-1$
         assertEquals(1, found.get("jar.example.Class1").size());      //$NON-NLS-1$
         assertEquals(0, found.get("jar.example.Class2").size());      //$NON-NLS-1$
+
+        // Only the classes found and their super classes are defined.
+        HashMap<String, Class<?>> map = getPrivateClassCache();
+        assertTrue(map.containsKey("jar.example.Class1"));            //$NON-NLS-1$
+        assertTrue(map.containsKey("jar.example.Class2"));            //$NON-NLS-1$
+        assertEquals(2, map.size());
+    }
+
+    /** Closing the jar doesn't prevent loading more classes later. */
+    public final void testClose() throws Exception {
+        mFrameworkClassLoader.preLoadClasses("jar.example.", null, null); //$NON-NLS-1$
+        mFrameworkClassLoader.close();
+        Class<?> c = _findClass(mFrameworkClassLoader, "jar.example.Class2");  //$NON-NLS-1$
+        assertEquals("jar.example.Class2", c.getName());              //$NON-NLS-1$
+        mFrameworkClassLoader.close();
     }
 
     // --- Utilities ---
@@ -148,7 +165,7 @@ public class AndroidJarLoaderTest extends TestCase {
     }
 
     /**
-     * Retrieves the private mFrameworkClassLoader.mEntryCache field using reflection.
+     * Retrieves the private mFrameworkClassLoader.mClassEntries field using reflection.
      * 
      * @throws NoSuchFieldException 
      * @throws SecurityException 
@@ -156,11 +173,11 @@ public class AndroidJarLoaderTest extends TestCase {
      * @throws IllegalArgumentException 
      */
     @SuppressWarnings("unchecked")
-    private HashMap<String,byte[]> getPrivateEntryCache()
+    private HashMap<String, ZipEntry> getPrivateClassEntries()
             throws SecurityException, NoSuchFieldException,
                 IllegalArgumentException, IllegalAccessException {
-        Field field = AndroidJarLoader.class.getDeclaredField("mEntryCache");  //$NON-NLS-1$
+        Field field = AndroidJarLoader.class.getDeclaredField("mClassEntries");  //$NON-NLS-1$
         field.setAccessible(true);
-        return (HashMap<String, byte[]>) field.get(mFrameworkClassLoader);
+        return (HashMap<String, ZipEntry>) field.get(mFrameworkClassLoader);
     }
 }
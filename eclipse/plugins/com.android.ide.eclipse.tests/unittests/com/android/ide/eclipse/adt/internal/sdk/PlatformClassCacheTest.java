@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.sdk;
+
+import com.android.ide.eclipse.adt.internal.sdk.IAndroidClassLoader.IClassDescriptor;
+import com.android.ide.eclipse.tests.AdtTestData;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit Test for {@link PlatformClassCache}.
+ *
+ * Uses the classes jar.example.Class1/Class2 stored in tests/data/jar_example.jar.
+ */
+public class PlatformClassCacheTest extends TestCase {
+
+    private static final String[] SUPER_CLASSES = new String[] {
+            "jar.example.Class1",       //$NON-NLS-1$
+            "jar.example.Class2" };     //$NON-NLS-1$
+
+    private AndroidJarLoader mJarLoader;
+    private File mJar;
+    private File mCacheFile;
+
+    @Override
+    public void setUp() throws Exception {
+        String jarfilePath = AdtTestData.getInstance().getTestFilePath(
+                "com/android/ide/eclipse/testdata/jar_example.jar");  //$NON-NLS-1$
+        mJarLoader = new AndroidJarLoader(jarfilePath);
+        mJar = new File(jarfilePath);
+        mCacheFile = File.createTempFile("platform", ".bin");  //$NON-NLS-1$ //$NON-NLS-2$
+        mCacheFile.delete();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mJarLoader.close();
+        mCacheFile.delete();
+    }
+
+    public void testRecordAndLoad() throws Exception {
+        PlatformClassCache cache = PlatformClassCache.open(mCacheFile, null);
+        assertFalse(cache.isLoaded());
+        cache.record(mJarLoader);
+        cache.setPermissions(new String[] { "android.permission.INTERNET" }); //$NON-NLS-1$
+        checkClasses(cache);
+        cache.save();
+        assertTrue(mCacheFile.isFile());
+
+        // without a jar, every lookup is answered from the cache file.
+        cache = PlatformClassCache.open(mCacheFile, null);
+        assertTrue(cache.isLoaded());
+        assertEquals(1, cache.getPermissions().length);
+        assertEquals("android.permission.INTERNET", cache.getPermissions()[0]); //$NON-NLS-1$
+        checkClasses(cache);
+    }
+
+    public void testMissingQuery() throws Exception {
+        PlatformClassCache cache = PlatformClassCache.open(mCacheFile, null);
+        cache.record(mJarLoader);
+        checkClasses(cache);
+        cache.save();
+
+        cache = PlatformClassCache.open(mCacheFile, null);
+        try {
+            cache.findClassesDerivingFrom("jar.", SUPER_CLASSES); //$NON-NLS-1$
+            fail("Expected an IOException for a query not in the cache");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testUnrecordedQuery() throws Exception {
+        // only record a class lookup, not the query nor the super class of Class2.
+        PlatformClassCache cache = PlatformClassCache.open(mCacheFile, mJar);
+        cache.record(mJarLoader);
+        IClassDescriptor class2 = cache.getClass("jar.example.Class2"); //$NON-NLS-1$
+        assertEquals("Class2", class2.getSimpleName()); //$NON-NLS-1$
+        cache.save();
+        long size = mCacheFile.length();
+
+        // the loaded cache answers the lookups it never recorded from the jar.
+        cache = PlatformClassCache.open(mCacheFile, mJar);
+        assertTrue(cache.isLoaded());
+        class2 = cache.getClass("jar.example.Class2"); //$NON-NLS-1$
+        assertEquals("jar.example.Class1", //$NON-NLS-1$
+                class2.getSuperclass().getFullClassName());
+        checkClasses(cache);
+        cache.save();
+        assertTrue(mCacheFile.length() > size);
+
+        // and the rewritten cache file has them without the jar.
+        cache = PlatformClassCache.open(mCacheFile, null);
+        assertTrue(cache.isLoaded());
+        checkClasses(cache);
+    }
+
+    public void testLoadedWithoutMiss() throws Exception {
+        PlatformClassCache cache = PlatformClassCache.open(mCacheFile, mJar);
+        cache.record(mJarLoader);
+        checkClasses(cache);
+        cache.save();
+        long modified = mCacheFile.lastModified();
+        assertTrue(mCacheFile.setLastModified(modified - 10000));
+
+        // a cache answering every lookup is not rewritten.
+        cache = PlatformClassCache.open(mCacheFile, mJar);
+        checkClasses(cache);
+        cache.save();
+        assertEquals(modified - 10000, mCacheFile.lastModified());
+    }
+
+    private void checkClasses(PlatformClassCache cache) throws Exception {
+        HashMap<String, ArrayList<IClassDescriptor>> found =
+                cache.findClassesDerivingFrom("jar.example.", SUPER_CLASSES); //$NON-NLS-1$
+        assertEquals(1, found.get("jar.example.Class1").size());      //$NON-NLS-1$
+        assertEquals(0, found.get("jar.example.Class2").size());      //$NON-NLS-1$
+
+        IClassDescriptor class2 = found.get("jar.example.Class1").get(0); //$NON-NLS-1$
+        assertEquals("jar.example.Class2", class2.getFullClassName()); //$NON-NLS-1$
+        assertEquals("Class2", class2.getSimpleName()); //$NON-NLS-1$
+
+        IClassDescriptor class1 = cache.getClass("jar.example.Class1"); //$NON-NLS-1$
+        assertSame(class1, class2.getSuperclass());
+        assertNull(class2.getEnclosingClass());
+
+        try {
+            cache.getClass("not.a.valid.ClassName"); //$NON-NLS-1$
+            fail("Expected ClassNotFoundException not thrown");
+        } catch (ClassNotFoundException e) {
+            assertEquals("not.a.valid.ClassName", e.getMessage());  //$NON-NLS-1$
+        }
+    }
+}